@@ -0,0 +1,268 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.util.ProgressListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * vault whose operations run on an executor and return futures, for callers that must not block, such as the
+ * event dispatch thread. Cancelling the future of an operation that takes a listener stops it at the next file or
+ * segment, and it undoes what it did like a failed one; other operations run to the end once started, but not at
+ * all if cancelled before. A future completes with the IOException or CryptoException the operation threw.
+ * Locking waits for every operation started before it to end, including cancelled ones still undoing their work.
+ * Callers that must not wait for the monitor of the vault read the tree through the snapshots this returns.
+ * By default operations run on virtual threads where the runtime has them, and on daemon threads otherwise
+ */
+public class AsyncVault {
+    private static final Executor DEFAULT_EXECUTOR = newDefaultExecutor();
+
+    private final Vault vault;
+    private final Executor executor;
+    private final Set<CompletableFuture<Void>> running = ConcurrentHashMap.newKeySet(); // ends of started operations
+
+    // EFFECTS: creates facade of vault running its operations on the default executor
+    public AsyncVault(Vault vault) {
+        this(vault, DEFAULT_EXECUTOR);
+    }
+
+    // EFFECTS: creates facade of vault running its operations on executor
+    public AsyncVault(Vault vault, Executor executor) {
+        this.vault = vault;
+        this.executor = executor;
+    }
+
+    // EFFECTS: returns the vault behind this
+    public Vault getVault() {
+        return vault;
+    }
+
+    /**
+     * entries of a directory and its path of names from the root, read together
+     */
+    public static class Listing {
+        private final String path;
+        private final List<VaultEntry> entries;
+
+        private Listing(String path, List<VaultEntry> entries) {
+            this.path = path;
+            this.entries = entries;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public List<VaultEntry> getEntries() {
+            return entries;
+        }
+    }
+
+    /**
+     * operation of a vault, told about the progress and cancellation of its future through listener
+     */
+    @FunctionalInterface
+    private interface Operation<T> {
+        T run(ProgressListener listener) throws IOException, CryptoException;
+    }
+
+    // EFFECTS: loads the vault at vaultFolder, or creates it if there is none, on the default executor; the key is
+    //          derived from password there too
+    public static CompletableFuture<AsyncVault> loadAsync(File vaultFolder, char[] password) {
+        return loadAsync(vaultFolder, password, DEFAULT_EXECUTOR);
+    }
+
+    // EFFECTS: loads the vault at vaultFolder, or creates it if there is none, on executor, and returns a facade
+    //          running its operations there
+    public static CompletableFuture<AsyncVault> loadAsync(File vaultFolder, char[] password, Executor executor) {
+        return submit(executor, ProgressListener.NONE,
+                listener -> new AsyncVault(new Vault(vaultFolder, password), executor), () -> { });
+    }
+
+    // EFFECTS: adds input file to dir like Vault.addFile
+    public CompletableFuture<VaultFile> addFileAsync(File inputFile, VaultDirectory dir, ProgressListener listener) {
+        return submit(listener, tracked -> vault.addFile(inputFile, dir, tracked));
+    }
+
+    // EFFECTS: copies the tree at source under target like Vault.importTree
+    public CompletableFuture<VaultEntry> importTreeAsync(Path source, VaultDirectory target,
+                                                         ProgressListener listener) {
+        return submit(listener, tracked -> vault.importTree(source, target, tracked));
+    }
+
+    // EFFECTS: decrypts entry into outputDirectory like Vault.export
+    public CompletableFuture<Void> exportAsync(VaultEntry entry, File outputDirectory, ProgressListener listener) {
+        return submit(listener, tracked -> {
+            vault.export(entry, outputDirectory, tracked);
+            return null;
+        });
+    }
+
+    // EFFECTS: returns the decrypted contents of entry like Vault.open
+    public CompletableFuture<byte[]> openAsync(VaultEntry entry) {
+        return submit(ProgressListener.NONE, tracked -> vault.open(entry));
+    }
+
+    // EFFECTS: deletes entry from directory like Vault.delete
+    public CompletableFuture<Void> deleteAsync(VaultEntry entry, VaultDirectory directory) {
+        return submit(ProgressListener.NONE, tracked -> {
+            vault.delete(entry, directory);
+            return null;
+        });
+    }
+
+    // EFFECTS: deletes entry from the directory it is in like Vault.delete and returns that directory
+    public CompletableFuture<VaultDirectory> deleteAsync(VaultEntry entry) {
+        return submit(ProgressListener.NONE, tracked -> {
+            VaultDirectory directory;
+            synchronized (vault) {
+                directory = entry.getParent();
+            }
+            vault.delete(entry, directory);
+            return directory;
+        });
+    }
+
+    // EFFECTS: returns a copy of the entries of dir with the path of names of dir from the root
+    public CompletableFuture<Listing> listAsync(VaultDirectory dir) {
+        return submit(ProgressListener.NONE, tracked -> {
+            synchronized (vault) {
+                return new Listing(vault.getRoot().getPathOfEntry(dir.getId(), true),
+                        new ArrayList<>(dir.getEntries()));
+            }
+        });
+    }
+
+    // EFFECTS: returns the path of names of entry from the root
+    public CompletableFuture<String> pathAsync(VaultEntry entry) {
+        return submit(ProgressListener.NONE, tracked -> {
+            synchronized (vault) {
+                return vault.getRoot().getPathOfEntry(entry.getId(), true);
+            }
+        });
+    }
+
+    // EFFECTS: returns the ids of entry and of every entry below it
+    public CompletableFuture<Set<UUID>> idsAsync(VaultEntry entry) {
+        return submit(ProgressListener.NONE, tracked -> {
+            Set<UUID> ids = new HashSet<>();
+            synchronized (vault) {
+                collectIds(entry, ids);
+            }
+            return ids;
+        });
+    }
+
+    // EFFECTS: adds the ids of entry and of every entry below it to ids
+    private static void collectIds(VaultEntry entry, Set<UUID> ids) {
+        ids.add(entry.getUuid());
+        if (entry.getClass().equals(VaultDirectory.class)) {
+            for (VaultEntry e : ((VaultDirectory) entry).getEntries()) {
+                collectIds(e, ids);
+            }
+        }
+    }
+
+    // EFFECTS: creates a directory named name under parent like Vault.createFolder
+    public CompletableFuture<VaultDirectory> createFolderAsync(String name, VaultDirectory parent) {
+        return submit(ProgressListener.NONE, tracked -> vault.createFolder(name, parent));
+    }
+
+    // EFFECTS: returns up to limit entries whose names contain text, or start with it if prefix, like Vault.search
+    public CompletableFuture<List<VaultEntry>> searchAsync(String text, boolean prefix, int limit) {
+        return submit(ProgressListener.NONE, tracked -> vault.search(text, prefix, limit));
+    }
+
+    // EFFECTS: turns thumbnails of images added on or off like Vault.setStoringThumbnails
+    public CompletableFuture<Void> setStoringThumbnailsAsync(boolean thumbnails) {
+        return submit(ProgressListener.NONE, tracked -> {
+            vault.setStoringThumbnails(thumbnails);
+            return null;
+        });
+    }
+
+    // EFFECTS: writes the catalog and closes the stores like Vault.lock, once every operation started before has
+    //          ended
+    public CompletableFuture<Void> lockAsync() {
+        CompletableFuture<?>[] started = running.toArray(new CompletableFuture<?>[0]);
+        return CompletableFuture.allOf(started).thenCompose(ended -> submit(ProgressListener.NONE, tracked -> {
+            vault.lock();
+            return null;
+        }));
+    }
+
+    // EFFECTS: runs operation on the executor of this like submit, counting it as running until it ends
+    private <T> CompletableFuture<T> submit(ProgressListener listener, Operation<T> operation) {
+        CompletableFuture<Void> ended = new CompletableFuture<>();
+        running.add(ended);
+        return submit(executor, listener, operation, () -> {
+            running.remove(ended);
+            ended.complete(null);
+        });
+    }
+
+    // EFFECTS: runs operation on executor and returns its future, then runs onEnd, even if the operation never ran;
+    //          operation is told about cancellation of the future, and its progress is passed on to listener until
+    //          the future is done
+    private static <T> CompletableFuture<T> submit(Executor executor, ProgressListener listener,
+                                                   Operation<T> operation, Runnable onEnd) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ProgressListener tracked = new ProgressListener() {
+            @Override
+            public void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal,
+                                 double bytesPerSecond) {
+                if (!future.isDone()) {
+                    listener.progress(filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond);
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return future.isCancelled() || listener.isCancelled();
+            }
+        };
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!future.isDone()) { // else cancelled before it started
+                        future.complete(operation.run(tracked));
+                    }
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    onEnd.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            onEnd.run();
+        }
+        return future;
+    }
+
+    // EFFECTS: returns an executor starting a virtual thread per operation if the runtime has them, or else
+    //          reusing daemon threads, so pending operations never keep the application alive
+    private static Executor newDefaultExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "vault-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.io.Codec;
+import main.io.AtomicFile;
+import main.io.DecryptingChannel;
+import main.io.EncryptingOutputStream;
+import main.util.CryptoUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * filesystem tree of a vault stored in a compact binary file, read one directory at a time.
+ * The file is a header (magic, version, sequence number of the last journal record it contains), one
+ * length-prefixed block per directory listing its children, a length-prefixed block of counts, and the offsets of
+ * the block of counts and of the root block. A child record
+ * holds the type, the id as 16 raw bytes, the size, the offset of the block of a subdirectory and the name. A file
+ * record goes on with the number of its chunks, -1 if it has none, and the id and size of each; the codec its
+ * contents were compressed with; a flag byte, and when it is 1 the number, offset and length of its contents in the
+ * pack store; and a byte that is 1 if the file has a thumbnail. The block of counts holds the number of distinct
+ * chunks of the tree and the id of each with the number of files having it, then the number of packs holding files
+ * of the tree and for each its number, the number of those files and the bytes they take up, so chunks and packs
+ * can be deleted without reading every directory.
+ * Blocks are written children first, so the file is produced in a single pass. The file is encrypted in
+ * segments with the vault key; offsets refer to the plaintext, and reading a block decrypts only the segments
+ * it spans.
+ */
+public class BinaryCatalog implements Catalog {
+    private static final byte[] MAGIC = {'F', 'V', 'C', 'T'};
+    private static final byte VERSION = 1;
+    private static final int CHUNK_ID_LENGTH = 32;
+    private static final Codec[] CODECS = Codec.values(); // by the number stored, which is the ordinal
+    private static final byte FILE = 0;
+    private static final byte DIRECTORY = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 8;
+
+    private final AtomicFile file;
+    private final CryptoUtils cryptoUtils;
+    private final ChunkStore chunks; // counts the chunks of the tree
+    private final PackStore packs; // counts the packed files of the tree
+    private SeekableByteChannel channel;
+    private long seq;
+    private int unloaded; // directories of the tree whose block has not been read
+
+    /**
+     * block of a directory that has not been read yet
+     */
+    private class Block implements DirectoryLoader {
+        private long offset;
+
+        private Block(long offset) {
+            this.offset = offset;
+            unloaded++;
+        }
+
+        @Override
+        public void load(VaultDirectory dir) throws IOException {
+            for (Record r : readBlock(offset)) {
+                if (r.type == DIRECTORY) {
+                    dir.addLoadedEntry(new VaultDirectory(r.id.toString(), r.name, r.size, new Block(r.offset)));
+                } else {
+                    dir.addLoadedEntry(new VaultFile(r.id.toString(), r.name, r.size, r.chunks, r.codec,
+                            r.pack, r.thumbnail));
+                }
+            }
+            unloaded--;
+        }
+    }
+
+    /**
+     * child record of a block
+     */
+    private static class Record {
+        private byte type;
+        private UUID id;
+        private long size;
+        private long offset; // offset of the block of a directory
+        private List<Chunk> chunks; // chunks of a file, null if it has none
+        private Codec codec = Codec.NONE; // compression of a file
+        private PackLocation pack; // where the contents of a file are in the pack store, null if not packed
+        private boolean thumbnail; // whether a file has a thumbnail
+        private String name;
+    }
+
+    private BinaryCatalog(AtomicFile file, CryptoUtils cryptoUtils, ChunkStore chunks, PackStore packs) {
+        this.file = file;
+        this.cryptoUtils = cryptoUtils;
+        this.chunks = chunks;
+        this.packs = packs;
+    }
+
+    // EFFECTS: opens the catalog in file, makes root read its entries from it on first visit and adds the counts of
+    //          the chunks and packed files of the whole tree to chunks and packs; throws CryptoException if the
+    //          catalog was not encrypted with the key of cryptoUtils
+    public static BinaryCatalog open(AtomicFile file, VaultDirectory root, CryptoUtils cryptoUtils, ChunkStore chunks,
+                                     PackStore packs) throws IOException, CryptoException {
+        BinaryCatalog catalog = new BinaryCatalog(file, cryptoUtils, chunks, packs);
+        try {
+            catalog.openChannel();
+            catalog.readRoot(root);
+        } catch (IOException e) {
+            catalog.close();
+            throw CryptoUtils.unwrap(e);
+        }
+        return catalog;
+    }
+
+    // EFFECTS: reads the header, the counts and the root block of the catalog
+    private void readRoot(VaultDirectory root) throws IOException {
+        ByteBuffer header = read(0, HEADER_LENGTH);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || header.get() != VERSION) {
+            throw new IOException(file.getName() + " is not a vault catalog");
+        }
+        seq = header.getLong();
+        ByteBuffer offsets = read(channel.size() - 16, 16);
+        long countsOffset = offsets.getLong();
+        long rootOffset = offsets.getLong();
+        readCounts(countsOffset);
+        new Block(rootOffset).load(root);
+        root.size = root.getLoadedEntries().stream().mapToLong(VaultEntry::getSize).sum();
+    }
+
+    // EFFECTS: opens the catalog file for decrypted reads
+    private void openChannel() throws IOException {
+        SeekableByteChannel in = file.openChannel();
+        try {
+            channel = new DecryptingChannel(in, cryptoUtils);
+        } catch (CryptoException e) {
+            in.close();
+            throw new IOException(e);
+        }
+    }
+
+    // EFFECTS: writes tree under root, whose chunks and packed files are counted in chunks and packs, to a new
+    //          catalog in file
+    public static BinaryCatalog create(AtomicFile file, VaultDirectory root, CryptoUtils cryptoUtils,
+                                       ChunkStore chunks, PackStore packs) throws IOException {
+        BinaryCatalog catalog = new BinaryCatalog(file, cryptoUtils, chunks, packs);
+        catalog.write(root, 0);
+        return catalog;
+    }
+
+    @Override
+    public CatalogFormat getFormat() {
+        return CatalogFormat.BINARY;
+    }
+
+    @Override
+    public long getSeq() {
+        return seq;
+    }
+
+    @Override
+    public boolean hasUnloaded() {
+        return unloaded > 0;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: atomically replaces the catalog with the tree under root, which contains all journal records up to
+    //          seq, with the counts of its chunks and packs; blocks of directories that were never visited are
+    //          copied over without building their entries
+    @Override
+    public void write(VaultDirectory root, long seq) throws IOException {
+        List<Block> moved = new ArrayList<>();
+        List<Long> movedTo = new ArrayList<>();
+        file.write(stream -> {
+            try (CatalogOutput out = new CatalogOutput(new EncryptingOutputStream(stream,
+                    cryptoUtils.newSegmentCipher()))) {
+                out.data.write(MAGIC);
+                out.data.writeByte(VERSION);
+                out.data.writeLong(seq);
+                out.position = HEADER_LENGTH;
+                long rootOffset = writeDirectory(root, out, moved, movedTo);
+                long countsOffset = out.writeCounts(chunks.getCounts(), packs.getUsage());
+                out.data.writeLong(countsOffset);
+                out.data.writeLong(rootOffset);
+            } catch (CryptoException e) {
+                throw new IOException(e);
+            }
+        });
+        if (channel != null) {
+            channel.close();
+        }
+        openChannel();
+        for (int i = 0; i < moved.size(); i++) {
+            moved.get(i).offset = movedTo.get(i);
+        }
+        this.seq = seq;
+    }
+
+    // EFFECTS: writes blocks of all directories below dir, then the block of dir; returns offset of dir's block
+    private long writeDirectory(VaultDirectory dir, CatalogOutput out, List<Block> moved, List<Long> movedTo)
+            throws IOException {
+        if (!dir.isLoaded() && dir.getLoader() instanceof Block) {
+            Block block = (Block) dir.getLoader();
+            long offset = copyBlock(block.offset, out);
+            moved.add(block);
+            movedTo.add(offset);
+            return offset;
+        }
+        List<Record> records = new ArrayList<>();
+        for (VaultEntry e : dir.getEntries()) {
+            Record r = new Record();
+            r.id = e.getUuid();
+            r.name = e.getName();
+            r.size = e.getSize();
+            if (e.getClass().equals(VaultDirectory.class)) {
+                r.type = DIRECTORY;
+                r.offset = writeDirectory((VaultDirectory) e, out, moved, movedTo);
+            } else {
+                r.type = FILE;
+                r.chunks = ((VaultFile) e).isChunked() ? new ArrayList<>(((VaultFile) e).getChunks()) : null;
+                r.codec = ((VaultFile) e).getCodec();
+                r.pack = ((VaultFile) e).getPack();
+                r.thumbnail = ((VaultFile) e).hasThumbnail();
+            }
+            records.add(r);
+        }
+        return out.writeBlock(records);
+    }
+
+    // EFFECTS: copies the block at offset of the current catalog and all blocks below it; returns its new offset
+    private long copyBlock(long offset, CatalogOutput out) throws IOException {
+        List<Record> records = readBlock(offset);
+        for (Record r : records) {
+            if (r.type == DIRECTORY) {
+                r.offset = copyBlock(r.offset, out);
+            }
+        }
+        return out.writeBlock(records);
+    }
+
+    // EFFECTS: reads the records of the block at offset
+    private List<Record> readBlock(long offset) throws IOException {
+        int length = read(offset, 4).getInt();
+        ByteBuffer block = read(offset + 4, length);
+        int count = block.getInt();
+        List<Record> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Record r = new Record();
+            r.type = block.get();
+            r.id = new UUID(block.getLong(), block.getLong());
+            r.size = block.getLong();
+            if (r.type == DIRECTORY) {
+                r.offset = block.getLong();
+            }
+            byte[] name = new byte[block.getShort() & 0xFFFF];
+            block.get(name);
+            r.name = new String(name, UTF_8);
+            if (r.type == FILE) {
+                int chunks = block.getInt();
+                if (chunks >= 0) {
+                    r.chunks = new ArrayList<>(chunks);
+                    for (int c = 0; c < chunks; c++) {
+                        byte[] id = new byte[CHUNK_ID_LENGTH];
+                        block.get(id);
+                        r.chunks.add(new Chunk(HexFormat.of().formatHex(id), block.getLong()));
+                    }
+                }
+                int codec = block.get();
+                if (codec < 0 || codec >= CODECS.length) {
+                    throw new IOException(file.getName() + " has a file with unknown codec " + codec);
+                }
+                r.codec = CODECS[codec];
+                if (block.get() == 1) {
+                    r.pack = new PackLocation(block.getInt(), block.getLong(), block.getLong());
+                }
+                r.thumbnail = block.get() == 1;
+            }
+            records.add(r);
+        }
+        return records;
+    }
+
+    // EFFECTS: reads the block of counts at offset and adds them to the counts of chunks and packs
+    private void readCounts(long offset) throws IOException {
+        int length = read(offset, 4).getInt();
+        ByteBuffer block = read(offset + 4, length);
+        int count = block.getInt();
+        Map<String, Integer> counts = new HashMap<>(count * 2);
+        byte[] id = new byte[CHUNK_ID_LENGTH];
+        for (int i = 0; i < count; i++) {
+            block.get(id);
+            counts.put(HexFormat.of().formatHex(id), block.getInt());
+        }
+        count = block.getInt();
+        Map<Integer, PackStore.Usage> usage = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            usage.put(block.getInt(), new PackStore.Usage(block.getInt(), block.getLong()));
+        }
+        chunks.addCounts(counts);
+        packs.addUsage(usage);
+    }
+
+    // EFFECTS: reads length bytes at offset of the catalog
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        channel.position(offset);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+        }
+        return buf.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * stream of a catalog being written that keeps track of the offset of the next block
+     */
+    private static class CatalogOutput implements Closeable {
+        private final DataOutputStream data;
+        private long position;
+
+        private CatalogOutput(OutputStream out) {
+            data = new DataOutputStream(new BufferedOutputStream(out));
+        }
+
+        // EFFECTS: writes a block holding records, returns its offset
+        private long writeBlock(List<Record> records) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream block = new DataOutputStream(bytes);
+            block.writeInt(records.size());
+            for (Record r : records) {
+                block.writeByte(r.type);
+                block.writeLong(r.id.getMostSignificantBits());
+                block.writeLong(r.id.getLeastSignificantBits());
+                block.writeLong(r.size);
+                if (r.type == DIRECTORY) {
+                    block.writeLong(r.offset);
+                }
+                byte[] name = r.name.getBytes(UTF_8);
+                if (name.length > 0xFFFF) {
+                    throw new IOException("name is too long: " + r.name.substring(0, 32) + "...");
+                }
+                block.writeShort(name.length);
+                block.write(name);
+                if (r.type == FILE) {
+                    block.writeInt(r.chunks == null ? -1 : r.chunks.size());
+                    if (r.chunks != null) {
+                        for (Chunk c : r.chunks) {
+                            block.write(HexFormat.of().parseHex(c.getId()));
+                            block.writeLong(c.getSize());
+                        }
+                    }
+                    block.writeByte(r.codec.ordinal());
+                    block.writeByte(r.pack == null ? 0 : 1);
+                    if (r.pack != null) {
+                        block.writeInt(r.pack.getPack());
+                        block.writeLong(r.pack.getOffset());
+                        block.writeLong(r.pack.getLength());
+                    }
+                    block.writeByte(r.thumbnail ? 1 : 0);
+                }
+            }
+            return write(bytes);
+        }
+
+        // EFFECTS: writes a block holding the number of files having each chunk, by id, and the files in each pack
+        //          with their bytes, by pack; returns its offset
+        private long writeCounts(Map<String, Integer> counts, Map<Integer, PackStore.Usage> usage) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream block = new DataOutputStream(bytes);
+            block.writeInt(counts.size());
+            for (Map.Entry<String, Integer> c : counts.entrySet()) {
+                block.write(HexFormat.of().parseHex(c.getKey()));
+                block.writeInt(c.getValue());
+            }
+            block.writeInt(usage.size());
+            for (Map.Entry<Integer, PackStore.Usage> u : usage.entrySet()) {
+                block.writeInt(u.getKey());
+                block.writeInt(u.getValue().getFiles());
+                block.writeLong(u.getValue().getBytes());
+            }
+            return write(bytes);
+        }
+
+        // EFFECTS: writes bytes prefixed with their length, returns their offset
+        private long write(ByteArrayOutputStream bytes) throws IOException {
+            long offset = position;
+            data.writeInt(bytes.size());
+            bytes.writeTo(data);
+            position += 4 + bytes.size();
+            return offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.io.AtomicFile;
+import main.io.Journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * storage of the encrypted files of a vault that are kept as blobs of their own, by path: the ids of the
+ * directories from the root down to the entry, separated by '/', the root itself being "". A store may keep a
+ * folder for every directory, so the folder of a directory is created before blobs are written into it and
+ * deleting a directory deletes everything below it.
+ */
+public interface BlobStore extends Closeable {
+
+    /**
+     * writes the contents of a blob from its start
+     */
+    interface BlobContent {
+        void write(WritableByteChannel out) throws IOException, CryptoException;
+    }
+
+    // EFFECTS: makes room for the blobs of a new directory at path; throws IOException if it cannot
+    void createFolder(String path) throws IOException;
+
+    // EFFECTS: writes the blob at path with content, of about size bytes, replacing any blob there; the blob is on
+    //          disk and can be found after a crash once the journal is synced after syncBefore with its folder
+    void write(String path, long size, BlobContent content) throws IOException, CryptoException;
+
+    // EFFECTS: opens the blob at path for reading; throws IOException if there is none
+    SeekableByteChannel open(String path) throws IOException;
+
+    // EFFECTS: deletes the blob at path, or the folder at path with everything below it; does nothing if there is
+    //          neither
+    void delete(String path) throws IOException;
+
+    // EFFECTS: makes the next sync of journal force what records the blobs and folders created in folder
+    void syncBefore(String folder, Journal journal);
+
+    // EFFECTS: returns where the catalog of the vault is kept: in file, unless the store keeps it itself
+    default AtomicFile catalogFile(File file) {
+        return AtomicFile.of(file);
+    }
+
+    // EFFECTS: returns where the search index of the vault is kept: in file, unless the store keeps it itself
+    default AtomicFile searchIndexFile(File file) {
+        return AtomicFile.of(file);
+    }
+
+    // EFFECTS: returns true if every blob is a file of its own on disk, so small files are better packed
+    default boolean hasFilePerBlob() {
+        return false;
+    }
+
+    // EFFECTS: returns the path of the entry with given id in the folder at path
+    static String child(String path, String id) {
+        return path.isEmpty() ? id : path + "/" + id;
+    }
+}
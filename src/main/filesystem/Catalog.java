@@ -0,0 +1,24 @@
+package main.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * encrypted file holding the filesystem tree of a vault, together with the sequence number of the last journal
+ * record it contains
+ */
+public interface Catalog extends Closeable {
+
+    // EFFECTS: returns the format the tree is stored in
+    CatalogFormat getFormat();
+
+    // EFFECTS: returns the sequence number of the last journal record contained in the catalog
+    long getSeq();
+
+    // EFFECTS: returns true if some directory of the tree has not been read yet
+    boolean hasUnloaded();
+
+    // MODIFIES: this
+    // EFFECTS: atomically replaces the catalog with the tree under root, which contains all journal records up to seq
+    void write(VaultDirectory root, long seq) throws IOException;
+}
@@ -0,0 +1,9 @@
+package main.filesystem;
+
+/**
+ * how the filesystem tree of a vault is stored in its .catalog file
+ */
+public enum CatalogFormat {
+    JSON,   // as encrypted JSON, read entirely when the vault is opened
+    BINARY  // as encrypted records, read one directory at a time as directories are visited
+}
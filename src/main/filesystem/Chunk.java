@@ -0,0 +1,41 @@
+package main.filesystem;
+
+import com.google.gson.JsonObject;
+import main.io.Jsonable;
+
+/**
+ * piece of the contents of a file kept once in the chunk store of a vault, however many files contain it.
+ * The id is a keyed hash of the plaintext, so equal pieces get equal ids without the id revealing the contents
+ */
+public class Chunk implements Jsonable {
+    private final String id; // hex of the keyed hash of the plaintext
+    private final long size; // plaintext bytes
+
+    public Chunk(String id, long size) {
+        this.id = id;
+        this.size = size;
+    }
+
+    // GETTERS
+    public String getId() {
+        return id;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    // EFFECTS: returns chunk stored in json
+    public static Chunk fromJson(JsonObject json) {
+        return new Chunk(json.get("id").getAsString(), json.get("size").getAsLong());
+    }
+
+    // EFFECTS: returns JsonObject containing id and size of this chunk
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("size", size);
+        return json;
+    }
+}
@@ -0,0 +1,268 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.io.ChunkedChannel;
+import main.io.DecryptingChannel;
+import main.io.Reader;
+import main.io.Writer;
+import main.util.CryptoUtils;
+import main.util.ObjectPool;
+
+import javax.crypto.SecretKey;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * reference-counted store of the chunks of deduplicated files, one encrypted file per distinct chunk.
+ * Files are cut where a rolling hash of the last 64 bytes matches a pattern, so an edit only changes the chunks
+ * around it. The rolling hash table and the chunk ids are keyed with a key derived from the vault key, so neither
+ * chunk boundaries nor ids reveal the contents. A chunk is counted once for every file of the tree that has it,
+ * whether its directory was read or not, and pinned once for every file being added that has it; its file may only
+ * be deleted while it is neither counted nor pinned. The counts of the tree are stored with the catalog.
+ */
+public class ChunkStore {
+    public static final int MIN_CHUNK = 256 * 1024;
+    public static final int MAX_CHUNK = 4 * 1024 * 1024;
+    private static final int WINDOW = 64; // bytes the rolling hash depends on
+    private static final long CUT_MASK = 0xFFFFFL << 44; // 20 bits: cuts about 1 MiB after MIN_CHUNK
+    private static final String CHUNK_KEY_INFO = "chunk";
+    private static final int LOCK_STRIPES = 64;
+
+    private static final ObjectPool<byte[]> BUFFERS = new ObjectPool<>(() -> new byte[MAX_CHUNK]);
+
+    private final File folder;
+    private final Object[] locks = new Object[LOCK_STRIPES]; // serialize writing and deleting the file of an id
+    private final HashMap<String, Integer> refs = new HashMap<>(); // files of the tree having each chunk
+    private final HashMap<String, Integer> pins = new HashMap<>(); // files being added having each chunk
+    private final Set<String> unused = new LinkedHashSet<>(); // ids neither counted nor pinned any more
+    private CryptoUtils cryptoUtils;
+    private SecretKey idKey;
+    private long[] gear; // rolling hash value of each byte
+
+    // EFFECTS: creates store keeping its chunks in folder, which is created with the first chunk
+    public ChunkStore(File folder) {
+        this.folder = folder;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: sets the keys chunks are identified and encrypted with
+    public synchronized void setCryptoUtils(CryptoUtils cryptoUtils) throws CryptoException {
+        this.cryptoUtils = cryptoUtils;
+        idKey = cryptoUtils.deriveKey(new byte[16], CHUNK_KEY_INFO);
+        gear = new long[256];
+        for (int i = 0; i < gear.length; i++) {
+            byte[] label = ("gear" + i).getBytes(UTF_8);
+            gear[i] = ByteBuffer.wrap(CryptoUtils.hmac(idKey, label, 0, label.length)).getLong();
+        }
+    }
+
+    // EFFECTS: returns true if a chunk was ever stored
+    public boolean exists() {
+        return folder.exists();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: counts one more file of the tree having each of chunks
+    public synchronized void retain(List<Chunk> chunks) {
+        for (Chunk c : chunks) {
+            refs.merge(c.getId(), 1, Integer::sum);
+            unused.remove(c.getId());
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: counts one file of the tree less having each of chunks; chunks no longer referenced are kept for
+    //          takeUnused
+    public synchronized void release(List<Chunk> chunks) {
+        for (Chunk c : chunks) {
+            decrement(refs, c.getId());
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: releases the pins write took on chunks; chunks no longer referenced are kept for takeUnused
+    public synchronized void unpin(List<Chunk> chunks) {
+        for (Chunk c : chunks) {
+            decrement(pins, c.getId());
+        }
+    }
+
+    // EFFECTS: takes one off the count of id in counts, and keeps id for takeUnused once it is not referenced
+    private void decrement(HashMap<String, Integer> counts, String id) {
+        Integer count = counts.get(id);
+        if (count == null) return;
+        if (count > 1) {
+            counts.put(id, count - 1);
+        } else {
+            counts.remove(id);
+            if (count(id) == 0) {
+                unused.add(id);
+            }
+        }
+    }
+
+    // EFFECTS: returns the number of files of the tree having each chunk, by id
+    public synchronized Map<String, Integer> getCounts() {
+        return new HashMap<>(refs);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: adds counts, the number of files of a tree having each chunk by id, to the counts of the tree
+    public synchronized void addCounts(Map<String, Integer> counts) {
+        counts.forEach((id, count) -> refs.merge(id, count, Integer::sum));
+    }
+
+    // MODIFIES: this
+    // EFFECTS: returns and forgets the ids of the chunks whose count dropped to zero since the last call
+    public synchronized List<String> takeUnused() {
+        List<String> ids = new ArrayList<>(unused);
+        unused.clear();
+        return ids;
+    }
+
+    private synchronized int count(String id) {
+        return refs.getOrDefault(id, 0) + pins.getOrDefault(id, 0);
+    }
+
+    // EFFECTS: cuts everything from in into chunks, stores the ones not in the store yet, and returns them all in
+    //          order; each returned chunk is pinned once until unpinned, so it cannot be deleted meanwhile
+    public List<Chunk> write(InputStream in) throws IOException, CryptoException {
+        byte[] buf = BUFFERS.take();
+        List<Chunk> chunks = new ArrayList<>();
+        int used = 0; // bytes of buf that ever held plaintext
+        try {
+            int filled = 0;
+            boolean eof = false;
+            while (true) {
+                while (!eof && filled < buf.length) {
+                    int n = in.read(buf, filled, buf.length - filled);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        filled += n;
+                    }
+                }
+                used = Math.max(used, filled);
+                if (filled == 0) break;
+                int len = cut(buf, filled);
+                chunks.add(put(buf, len));
+                System.arraycopy(buf, len, buf, 0, filled - len);
+                filled -= len;
+            }
+        } catch (IOException | CryptoException e) {
+            unpin(chunks);
+            throw e;
+        } finally {
+            Arrays.fill(buf, 0, used, (byte) 0);
+            BUFFERS.give(buf);
+        }
+        return chunks;
+    }
+
+    // EFFECTS: returns length of the chunk at the start of the len bytes of buf; len is less than MAX_CHUNK only
+    //          at the end of the file
+    private int cut(byte[] buf, int len) {
+        if (len <= MIN_CHUNK) return len;
+        long hash = 0;
+        for (int i = MIN_CHUNK - WINDOW; i < len; i++) {
+            hash = (hash << 1) + gear[buf[i] & 0xFF];
+            if (i >= MIN_CHUNK && (hash & CUT_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return len;
+    }
+
+    // EFFECTS: pins the chunk of the first len bytes of buf and stores it unless it already is
+    private Chunk put(byte[] buf, int len) throws IOException, CryptoException {
+        String id = HexFormat.of().formatHex(CryptoUtils.hmac(idKey, buf, 0, len));
+        Chunk chunk = new Chunk(id, len);
+        File file = fileOf(id);
+        synchronized (lockOf(id)) {
+            pin(chunk);
+            try {
+                if (!file.exists()) {
+                    File dir = file.getParentFile();
+                    if (!dir.isDirectory() && dir.mkdirs()) {
+                        Writer.syncDirectory(folder);
+                        Writer.syncDirectory(folder.getParentFile());
+                    }
+                    new Writer(file).writeAtomicChannel(out -> {
+                        try {
+                            cryptoUtils.encrypt(ByteBuffer.wrap(buf, 0, len), out);
+                        } catch (CryptoException e) {
+                            throw new IOException(e);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                unpin(List.of(chunk));
+                throw CryptoUtils.unwrap(e);
+            }
+        }
+        return chunk;
+    }
+
+    // EFFECTS: pins chunk once more, so it is not deleted while its file is being added
+    private synchronized void pin(Chunk chunk) {
+        pins.merge(chunk.getId(), 1, Integer::sum);
+        unused.remove(chunk.getId());
+    }
+
+    // EFFECTS: deletes the files of the chunks with given ids that are still not referenced
+    public void delete(List<String> ids) {
+        for (String id : ids) {
+            synchronized (lockOf(id)) {
+                if (count(id) == 0) {
+                    fileOf(id).delete();
+                }
+            }
+        }
+    }
+
+    // EFFECTS: opens a seekable channel over the decrypted contents of the file made of chunks
+    public SeekableByteChannel openChannel(List<Chunk> chunks) {
+        long[] sizes = new long[chunks.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = chunks.get(i).getSize();
+        }
+        return new ChunkedChannel(sizes, i -> open(chunks.get(i)));
+    }
+
+    // EFFECTS: opens a seekable channel over the decrypted contents of chunk
+    private SeekableByteChannel open(Chunk chunk) throws IOException {
+        FileChannel in = new Reader(fileOf(chunk.getId())).openChannel();
+        try {
+            return new DecryptingChannel(in, cryptoUtils);
+        } catch (IOException | CryptoException e) {
+            in.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    // EFFECTS: returns file holding chunk with given id; chunks are spread over folders by the first byte of the id
+    public File fileOf(String id) {
+        return new File(new File(folder, id.substring(0, 2)), id);
+    }
+
+    private Object lockOf(String id) {
+        return locks[Math.floorMod(id.hashCode(), locks.length)];
+    }
+}
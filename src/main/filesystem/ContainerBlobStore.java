@@ -0,0 +1,76 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.io.AtomicFile;
+import main.io.Container;
+import main.io.Journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * blob store keeping every blob, and the catalog and search index of the vault, in one container file. Folders
+ * are only prefixes of the paths of their blobs; blobs written and deleted are committed to the container
+ * together, once per batch of the group commit of the journal
+ */
+public class ContainerBlobStore implements BlobStore {
+    private static final String CATALOG = "catalog"; // name of the catalog, which is no path of a blob
+    private static final String SEARCH_INDEX = "search-index"; // name of the search index, which is none either
+
+    private final Container container;
+
+    // EFFECTS: opens the container in file, creating it if it does not exist
+    public ContainerBlobStore(File file) throws IOException {
+        container = new Container(file);
+    }
+
+    // EFFECTS: returns the container of this store
+    public Container getContainer() {
+        return container;
+    }
+
+    @Override
+    public void createFolder(String path) {
+        // folders are only prefixes of the paths of their blobs
+    }
+
+    @Override
+    public void write(String path, long size, BlobContent content) throws IOException, CryptoException {
+        try (Container.Output out = container.newOutput(size)) {
+            content.write(out);
+            container.put(path, out);
+        }
+    }
+
+    @Override
+    public SeekableByteChannel open(String path) throws IOException {
+        return container.open(path);
+    }
+
+    @Override
+    public void delete(String path) {
+        container.delete(path);
+        container.deleteAll(path + "/");
+    }
+
+    @Override
+    public void syncBefore(String folder, Journal journal) {
+        journal.syncBefore(container);
+    }
+
+    @Override
+    public AtomicFile catalogFile(File file) {
+        return container.file(CATALOG);
+    }
+
+    @Override
+    public AtomicFile searchIndexFile(File file) {
+        return container.file(SEARCH_INDEX);
+    }
+
+    @Override
+    public void close() throws IOException {
+        container.close();
+    }
+}
@@ -0,0 +1,13 @@
+package main.filesystem;
+
+import java.io.IOException;
+
+/**
+ * reads the entries of a directory whose contents are not in memory yet
+ */
+public interface DirectoryLoader {
+
+    // MODIFIES: dir
+    // EFFECTS: adds the stored entries of dir to it
+    void load(VaultDirectory dir) throws IOException;
+}
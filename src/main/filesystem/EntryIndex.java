@@ -0,0 +1,87 @@
+package main.filesystem;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * index from id to entry over every entry of a directory tree that is in memory; each entry knows its parent,
+ * so paths are found by walking up from the entry instead of searching down from the root. The chunks of the
+ * files added to the tree are counted in the chunk store, and packed files in the pack store, if there are ones;
+ * files read from a catalog are counted already by the counts stored with it
+ */
+public class EntryIndex {
+    private final HashMap<UUID, VaultEntry> entries = new HashMap<>();
+    private ChunkStore chunks; // counts references to the chunks of indexed files, null if not counted
+    private PackStore packs; // counts indexed files in their packs, null if not counted
+
+    // EFFECTS: returns entry with given id, or null if there is none
+    public VaultEntry get(UUID id) {
+        return entries.get(id);
+    }
+
+    // EFFECTS: returns number of indexed entries
+    public int size() {
+        return entries.size();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: counts the chunks of files indexed from now on in chunks
+    protected void setChunkStore(ChunkStore chunks) {
+        this.chunks = chunks;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: counts packed files indexed from now on in packs
+    protected void setPackStore(PackStore packs) {
+        this.packs = packs;
+    }
+
+    // MODIFIES: this, entry
+    // EFFECTS: indexes entry and, if it is a directory, all entries below it, counting the files
+    protected void add(VaultEntry entry) {
+        add(entry, true);
+    }
+
+    // MODIFIES: this, entry
+    // EFFECTS: indexes entry read from a catalog like add, without counting the files, which the catalog counted
+    protected void addStored(VaultEntry entry) {
+        add(entry, false);
+    }
+
+    private void add(VaultEntry entry, boolean count) {
+        if (entries.put(entry.getUuid(), entry) == entry) return;
+        if (count && chunks != null && entry.getClass().equals(VaultFile.class)) {
+            chunks.retain(((VaultFile) entry).getChunks());
+        }
+        if (count && packs != null && entry.getClass().equals(VaultFile.class)) {
+            packs.retain((VaultFile) entry);
+        }
+        if (entry.getClass().equals(VaultDirectory.class)) {
+            VaultDirectory dir = (VaultDirectory) entry;
+            dir.setIndex(this);
+            for (VaultEntry e : dir.getLoadedEntries()) {
+                add(e, count);
+            }
+        }
+    }
+
+    // MODIFIES: this, entry
+    // EFFECTS: removes entry and, if it is a directory, all entries below it from the index; directories below it
+    //          must be read first, or the files in them stay counted
+    protected void remove(VaultEntry entry) {
+        if (entries.remove(entry.getUuid()) == null) return;
+        if (chunks != null && entry.getClass().equals(VaultFile.class)) {
+            chunks.release(((VaultFile) entry).getChunks());
+        }
+        if (packs != null && entry.getClass().equals(VaultFile.class)) {
+            packs.release((VaultFile) entry);
+        }
+        if (entry.getClass().equals(VaultDirectory.class)) {
+            VaultDirectory dir = (VaultDirectory) entry;
+            dir.setIndex(null);
+            for (VaultEntry e : dir.getLoadedEntries()) {
+                remove(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package main.filesystem;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import main.exceptions.CryptoException;
+import main.io.Codec;
+import main.io.DecryptingInputStream;
+import main.io.AtomicFile;
+import main.io.EncryptingOutputStream;
+import main.util.CryptoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * filesystem tree of a vault stored as encrypted JSON. The tree is streamed between the directories in memory and
+ * the cipher, so neither the plaintext JSON nor a JsonObject of the whole tree is ever built.
+ */
+public class JsonCatalog implements Catalog {
+    private final AtomicFile file;
+    private final CryptoUtils cryptoUtils;
+    private long seq;
+
+    // EFFECTS: creates catalog in file whose tree, containing no journal records, is not written yet
+    public JsonCatalog(AtomicFile file, CryptoUtils cryptoUtils) {
+        this.file = file;
+        this.cryptoUtils = cryptoUtils;
+        this.seq = -1;
+    }
+
+    // EFFECTS: reads the tree stored in file into root
+    public static JsonCatalog open(AtomicFile file, VaultDirectory root, CryptoUtils cryptoUtils)
+            throws IOException, CryptoException {
+        JsonCatalog catalog = new JsonCatalog(file, cryptoUtils);
+        try (InputStream in = new DecryptingInputStream(
+                new BufferedInputStream(Channels.newInputStream(file.openChannel())), cryptoUtils)) {
+            catalog.seq = readTree(in, root);
+        } catch (IOException e) {
+            throw CryptoUtils.unwrap(e);
+        }
+        return catalog;
+    }
+
+    // EFFECTS: writes tree under root to a new catalog in file
+    public static JsonCatalog create(AtomicFile file, VaultDirectory root, CryptoUtils cryptoUtils)
+            throws IOException {
+        JsonCatalog catalog = new JsonCatalog(file, cryptoUtils);
+        catalog.write(root, 0);
+        return catalog;
+    }
+
+    @Override
+    public CatalogFormat getFormat() {
+        return CatalogFormat.JSON;
+    }
+
+    @Override
+    public long getSeq() {
+        return seq;
+    }
+
+    @Override
+    public boolean hasUnloaded() {
+        return false;
+    }
+
+    @Override
+    public void write(VaultDirectory root, long seq) throws IOException {
+        file.write(out -> {
+            try {
+                writeTree(root, seq, new EncryptingOutputStream(out, cryptoUtils.newSegmentCipher()));
+            } catch (CryptoException e) {
+                throw new IOException(e);
+            }
+        });
+        this.seq = seq;
+    }
+
+    @Override
+    public void close() {
+        // the catalog file is only open while it is read or written
+    }
+
+    // EFFECTS: writes {"seq": seq, "filesystem": tree under root} to out; closes out
+    public static void writeTree(VaultDirectory root, long seq, OutputStream out) throws IOException {
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, UTF_8)))) {
+            json.beginObject();
+            json.name("seq").value(seq);
+            json.name("filesystem");
+            writeEntry(root, json);
+            json.endObject();
+        }
+    }
+
+    // EFFECTS: writes entry and, for a directory, all entries below it; id and name come before the entries
+    private static void writeEntry(VaultEntry entry, JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("id").value(entry.getId());
+        json.name("name").value(entry.getName());
+        json.name("size").value(entry.getSize());
+        if (entry.getClass().equals(VaultFile.class) && ((VaultFile) entry).isChunked()) {
+            json.name("chunks").beginArray();
+            for (Chunk c : ((VaultFile) entry).getChunks()) {
+                json.beginObject();
+                json.name("id").value(c.getId());
+                json.name("size").value(c.getSize());
+                json.endObject();
+            }
+            json.endArray();
+        }
+        if (entry.getClass().equals(VaultFile.class) && ((VaultFile) entry).getCodec() != Codec.NONE) {
+            json.name("codec").value(((VaultFile) entry).getCodec().name());
+        }
+        if (entry.getClass().equals(VaultFile.class) && ((VaultFile) entry).isPacked()) {
+            PackLocation pack = ((VaultFile) entry).getPack();
+            json.name("pack").beginObject();
+            json.name("pack").value(pack.getPack());
+            json.name("offset").value(pack.getOffset());
+            json.name("length").value(pack.getLength());
+            json.endObject();
+        }
+        if (entry.getClass().equals(VaultFile.class) && ((VaultFile) entry).hasThumbnail()) {
+            json.name("thumbnail").value(true);
+        }
+        if (entry.getClass().equals(VaultDirectory.class)) {
+            json.name("entries").beginArray();
+            for (VaultEntry e : ((VaultDirectory) entry).getEntries()) {
+                writeEntry(e, json);
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    // EFFECTS: adds the tree written by writeTree to root, returns its sequence number; closes in
+    public static long readTree(InputStream in, VaultDirectory root) throws IOException {
+        long seq = 0;
+        try (JsonReader json = new JsonReader(new BufferedReader(new InputStreamReader(in, UTF_8)))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (name.equals("seq")) {
+                    seq = json.nextLong();
+                } else if (name.equals("filesystem")) {
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        if (json.nextName().equals("entries")) {
+                            readEntries(json, root);
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        } catch (IllegalStateException e) {
+            throw new JsonParseException(e);
+        }
+        return seq;
+    }
+
+    // EFFECTS: adds the entries of the array to dir; entries whose name is taken get a unique name
+    private static void readEntries(JsonReader json, VaultDirectory dir) throws IOException {
+        json.beginArray();
+        while (json.hasNext()) {
+            String id = null;
+            String name = null;
+            long size = 0;
+            List<Chunk> chunks = null;
+            Codec codec = Codec.NONE;
+            PackLocation pack = null;
+            boolean thumbnail = false;
+            VaultDirectory subdir = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "id":
+                        id = json.nextString();
+                        break;
+                    case "name":
+                        name = json.nextString();
+                        break;
+                    case "size":
+                        size = json.nextLong();
+                        break;
+                    case "chunks":
+                        chunks = readChunks(json);
+                        break;
+                    case "codec":
+                        codec = VaultFile.codecOf(json.nextString());
+                        break;
+                    case "pack":
+                        pack = readPack(json);
+                        break;
+                    case "thumbnail":
+                        thumbnail = json.nextBoolean();
+                        break;
+                    case "entries":
+                        if (id == null || name == null) {
+                            throw new JsonParseException("directory entries before its id and name");
+                        }
+                        subdir = new VaultDirectory(id, dir.uniqueName(name));
+                        dir.addEntry(subdir);
+                        readEntries(json, subdir);
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            if (subdir == null) {
+                if (id == null || name == null) {
+                    throw new JsonParseException("entry without id or name");
+                }
+                dir.addEntry(new VaultFile(id, dir.uniqueName(name), size, chunks, codec, pack, thumbnail));
+            }
+        }
+        json.endArray();
+    }
+
+    // EFFECTS: reads the chunks of a file
+    private static List<Chunk> readChunks(JsonReader json) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            String id = null;
+            long size = 0;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "id":
+                        id = json.nextString();
+                        break;
+                    case "size":
+                        size = json.nextLong();
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            if (id == null) {
+                throw new JsonParseException("chunk without id");
+            }
+            chunks.add(new Chunk(id, size));
+        }
+        json.endArray();
+        return chunks;
+    }
+
+    // EFFECTS: reads the pack location of a file
+    private static PackLocation readPack(JsonReader json) throws IOException {
+        int pack = -1;
+        long offset = -1;
+        long length = -1;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "pack":
+                    pack = json.nextInt();
+                    break;
+                case "offset":
+                    offset = json.nextLong();
+                    break;
+                case "length":
+                    length = json.nextLong();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (pack < 0 || offset < 0 || length < 0) {
+            throw new JsonParseException("pack location without pack, offset or length");
+        }
+        return new PackLocation(pack, offset, length);
+    }
+}
@@ -0,0 +1,75 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.io.Journal;
+import main.io.Reader;
+import main.io.Writer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * blob store mirroring the directory tree on disk: a folder named by id for every directory and an encrypted file
+ * named by id for every file, under the data folder
+ */
+public class LooseBlobStore implements BlobStore {
+    private final File folder;
+
+    // EFFECTS: creates store keeping its blobs under folder
+    public LooseBlobStore(File folder) {
+        this.folder = folder;
+    }
+
+    @Override
+    public void createFolder(String path) throws IOException {
+        File dir = fileOf(path);
+        if (!dir.mkdir()) {
+            throw new IOException("could not create " + dir);
+        }
+    }
+
+    @Override
+    public void write(String path, long size, BlobContent content) throws IOException, CryptoException {
+        try (FileChannel out = new Writer(fileOf(path)).openChannel()) {
+            content.write(out);
+            out.force(true);
+        }
+    }
+
+    @Override
+    public SeekableByteChannel open(String path) throws IOException {
+        return new Reader(fileOf(path)).openChannel();
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        File file = fileOf(path);
+        if (file.isDirectory()) {
+            FileUtils.deleteDirectory(file);
+        } else {
+            file.delete();
+        }
+    }
+
+    @Override
+    public void syncBefore(String folder, Journal journal) {
+        journal.syncBefore(fileOf(folder));
+    }
+
+    @Override
+    public boolean hasFilePerBlob() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // every blob is closed once written
+    }
+
+    private File fileOf(String path) {
+        return new File(folder, path);
+    }
+}
@@ -0,0 +1,141 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.io.Journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * blob store keeping every blob in memory, for tests and for benchmarks that leave the cost of the filesystem out;
+ * nothing survives the store. Blobs are sorted by path, so the blobs below a folder are next to each other
+ */
+public class MemoryBlobStore implements BlobStore {
+    private final ConcurrentSkipListMap<String, byte[]> blobs = new ConcurrentSkipListMap<>();
+
+    // EFFECTS: returns number of blobs in the store
+    public int size() {
+        return blobs.size();
+    }
+
+    // EFFECTS: returns number of bytes of all blobs in the store
+    public long bytes() {
+        long bytes = 0;
+        for (byte[] blob : blobs.values()) {
+            bytes += blob.length;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void createFolder(String path) {
+        // folders are only prefixes of the paths of their blobs
+    }
+
+    @Override
+    public void write(String path, long size, BlobContent content) throws IOException, CryptoException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(size, Integer.MAX_VALUE - 8));
+        content.write(Channels.newChannel(out));
+        blobs.put(path, out.toByteArray());
+    }
+
+    @Override
+    public SeekableByteChannel open(String path) throws IOException {
+        byte[] blob = blobs.get(path);
+        if (blob == null) {
+            throw new IOException("no blob at " + path);
+        }
+        return new BlobChannel(blob);
+    }
+
+    @Override
+    public void delete(String path) {
+        blobs.remove(path);
+        Map<String, byte[]> below = blobs.subMap(path + "/", path + "0"); // '0' follows '/'
+        below.clear();
+    }
+
+    @Override
+    public void syncBefore(String folder, Journal journal) {
+        // nothing is on disk
+    }
+
+    @Override
+    public void close() {
+        blobs.clear();
+    }
+
+    /**
+     * read-only channel over the bytes of a blob
+     */
+    private static class BlobChannel implements SeekableByteChannel {
+        private final byte[] blob;
+        private long position;
+        private boolean open = true;
+
+        private BlobChannel(byte[] blob) {
+            this.blob = blob;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= blob.length) return -1;
+            int n = (int) Math.min(dst.remaining(), blob.length - position);
+            dst.put(blob, (int) position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) throw new IllegalArgumentException("negative position");
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return blob.length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package main.filesystem;
+
+import com.google.gson.JsonObject;
+import main.io.Jsonable;
+
+/**
+ * place of the encrypted contents of a small file inside a pack file of the pack store
+ */
+public class PackLocation implements Jsonable {
+    private final int pack; // number of the pack file
+    private final long offset; // first byte of the encrypted contents in the pack
+    private final long length; // bytes of the encrypted contents
+
+    public PackLocation(int pack, long offset, long length) {
+        this.pack = pack;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    // GETTERS
+    public int getPack() {
+        return pack;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    // EFFECTS: returns location stored in json
+    public static PackLocation fromJson(JsonObject json) {
+        return new PackLocation(json.get("pack").getAsInt(), json.get("offset").getAsLong(),
+                json.get("length").getAsLong());
+    }
+
+    // EFFECTS: returns JsonObject containing pack, offset and length of this location
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("pack", pack);
+        json.addProperty("offset", offset);
+        json.addProperty("length", length);
+        return json;
+    }
+}
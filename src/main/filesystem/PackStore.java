@@ -0,0 +1,335 @@
+package main.filesystem;
+
+import main.io.Reader;
+import main.io.SliceChannel;
+import main.io.Writer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * store of the encrypted contents of small files, appended one after another to large pack files, so a vault of
+ * many small files needs few files on disk. Contents are encrypted on their own before they are appended, so they
+ * can be moved between packs as they are. Every file of the tree is counted in its pack with the bytes it takes up,
+ * whether its directory was read or not, and a pack being appended to is pinned until the files added to it are in
+ * the tree; a pack that is mostly dead space can then be repacked by moving its live files to the end of the
+ * current pack and deleting it. The counts of the tree are stored with the catalog.
+ */
+public class PackStore {
+    public static final int MAX_PACKED = 128 * 1024; // files up to this many bytes are packed
+    public static final long PACK_SIZE = 64L * 1024 * 1024; // a new pack is started once one reaches this size
+
+    private final File folder;
+    private final TreeMap<Integer, Long> lengths = new TreeMap<>(); // bytes of each pack file
+    private final HashMap<Integer, Usage> live = new HashMap<>(); // files of the tree in each pack
+    private final HashMap<Integer, Integer> pins = new HashMap<>(); // files being added to each pack
+    private final Set<Integer> retiring = new HashSet<>(); // packs being repacked, never appended to again
+    private int current = -1; // pack appended to, -1 if none is open
+    private FileChannel channel; // channel of the current pack
+    private final HashMap<Integer, Long> dirty = new HashMap<>(); // packs appended to since they were last forced,
+                                                                  // with the number of the last append to them
+    private long appends; // appends so far
+
+    /**
+     * number of files of the tree in a pack and the bytes they take up in it
+     */
+    public static class Usage {
+        private int files;
+        private long bytes;
+
+        public Usage(int files, long bytes) {
+            this.files = files;
+            this.bytes = bytes;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    // EFFECTS: creates store keeping its packs in folder, which is created with the first pack
+    public PackStore(File folder) {
+        this.folder = folder;
+        File[] files = folder.listFiles();
+        for (File f : files == null ? new File[0] : files) {
+            if (f.getName().endsWith(".pack")) {
+                try {
+                    lengths.put(Integer.parseInt(f.getName().substring(0, f.getName().length() - 5)), f.length());
+                } catch (NumberFormatException e) {
+                    // not a pack
+                }
+            }
+        }
+    }
+
+    // EFFECTS: returns true if there are pack files
+    public synchronized boolean exists() {
+        return !lengths.isEmpty();
+    }
+
+    // EFFECTS: returns number of pack files
+    public synchronized int getPackCount() {
+        return lengths.size();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: counts file of the tree in its pack, if it is packed
+    public synchronized void retain(VaultFile file) {
+        if (file.isPacked()) {
+            Usage usage = live.computeIfAbsent(file.getPack().getPack(), p -> new Usage(0, 0));
+            usage.files++;
+            usage.bytes += file.getPack().getLength();
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: stops counting file of the tree in its pack
+    public synchronized void release(VaultFile file) {
+        if (file.isPacked()) {
+            Usage usage = live.get(file.getPack().getPack());
+            if (usage != null) {
+                usage.files--;
+                usage.bytes -= file.getPack().getLength();
+                if (usage.files <= 0) {
+                    live.remove(file.getPack().getPack());
+                }
+            }
+        }
+    }
+
+    // EFFECTS: returns the number of files of the tree in each pack and the bytes they take up, by pack
+    public synchronized Map<Integer, Usage> getUsage() {
+        Map<Integer, Usage> usage = new HashMap<>();
+        live.forEach((p, u) -> usage.put(p, new Usage(u.files, u.bytes)));
+        return usage;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: adds usage, the files of a tree in each pack and their bytes by pack, to the counts of the tree
+    public synchronized void addUsage(Map<Integer, Usage> usage) {
+        usage.forEach((p, u) -> {
+            Usage counted = live.computeIfAbsent(p, n -> new Usage(0, 0));
+            counted.files += u.files;
+            counted.bytes += u.bytes;
+        });
+    }
+
+    // MODIFIES: this
+    // EFFECTS: appends len bytes of data to the current pack, starting a new one if it is full, and returns where
+    //          they are; the pack is pinned until unpin is called with the location. The bytes are on disk once
+    //          force returns
+    public synchronized PackLocation append(byte[] data, int len) throws IOException {
+        if (channel == null || (lengths.get(current) > 0 && lengths.get(current) + len > PACK_SIZE)) {
+            startPack();
+        }
+        long offset = lengths.get(current);
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+        for (long position = offset; buf.hasRemaining(); ) {
+            position += channel.write(buf, position);
+        }
+        lengths.put(current, offset + len);
+        dirty.put(current, ++appends);
+        pins.merge(current, 1, Integer::sum);
+        return new PackLocation(current, offset, len);
+    }
+
+    // EFFECTS: forces the current pack to disk and opens the next one for appending; the last pack is appended to
+    //          again when it is not full, so a vault does not get a new pack every time it is opened
+    private void startPack() throws IOException {
+        closePack(true);
+        int next = lengths.isEmpty() ? 0 : lengths.lastKey();
+        if (lengths.containsKey(next) && (lengths.get(next) >= PACK_SIZE || retiring.contains(next))) {
+            next++;
+        }
+        File file = fileOf(next);
+        boolean created = !file.exists();
+        if (created && !folder.isDirectory() && folder.mkdirs()) {
+            Writer.syncDirectory(folder.getParentFile());
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (created) {
+            Writer.syncDirectory(folder);
+        }
+        current = next;
+        lengths.put(current, channel.size());
+    }
+
+    // EFFECTS: closes the current pack, forcing it to disk first if force and it was appended to since it was last
+    //          forced; a pack that fails to be forced stays dirty, so force tries again
+    private void closePack(boolean force) throws IOException {
+        if (channel == null) return;
+        try {
+            if (force && dirty.containsKey(current)) {
+                channel.force(true);
+                dirty.remove(current);
+            }
+        } finally {
+            channel.close();
+            channel = null;
+            current = -1;
+        }
+    }
+
+    // EFFECTS: forces everything appended so far to disk. The current pack is forced without holding the lock, so
+    //          appends go on meanwhile; a pack stays dirty if it is appended to again while it is forced
+    public void force() throws IOException {
+        Map<Integer, Long> packs;
+        FileChannel open;
+        int openPack;
+        synchronized (this) {
+            if (dirty.isEmpty()) return;
+            packs = new HashMap<>(dirty);
+            open = channel;
+            openPack = current;
+        }
+        for (Map.Entry<Integer, Long> pack : packs.entrySet()) {
+            forcePack(pack.getKey(), pack.getKey() == openPack ? open : null);
+            synchronized (this) {
+                dirty.remove(pack.getKey(), pack.getValue());
+            }
+        }
+    }
+
+    // EFFECTS: forces pack to disk through open, the channel it was appended through, if it is still open, and
+    //          else through a channel of its own unless it was forced when it was closed or it was deleted
+    private void forcePack(int pack, FileChannel open) throws IOException {
+        if (open != null) {
+            try {
+                open.force(true);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by startPack or deleteEmpty meanwhile
+            }
+        }
+        synchronized (this) {
+            if (!dirty.containsKey(pack) || !lengths.containsKey(pack)) return;
+            try (FileChannel c = FileChannel.open(fileOf(pack).toPath(), StandardOpenOption.WRITE)) {
+                c.force(true);
+            }
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: releases the pin taken on the pack of location by append
+    public synchronized void unpin(PackLocation location) {
+        Integer count = pins.get(location.getPack());
+        if (count == null) return;
+        if (count > 1) {
+            pins.put(location.getPack(), count - 1);
+        } else {
+            pins.remove(location.getPack());
+        }
+    }
+
+    // EFFECTS: returns true if a pack holds no counted file and is not pinned
+    public synchronized boolean hasEmpty() {
+        for (int p : lengths.keySet()) {
+            if (!live.containsKey(p) && !pins.containsKey(p)) return true;
+        }
+        return false;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: deletes the packs that hold no counted file and are not pinned
+    public synchronized void deleteEmpty() throws IOException {
+        for (int p : new ArrayList<>(lengths.keySet())) {
+            if (!live.containsKey(p) && !pins.containsKey(p)) {
+                if (p == current) {
+                    closePack(false);
+                }
+                fileOf(p).delete();
+                lengths.remove(p);
+                dirty.remove(p);
+                retiring.remove(p);
+            }
+        }
+        if (lengths.isEmpty()) {
+            folder.delete();
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: returns the number of files of the tree in every pack other than the current one whose files take up
+    //          less than half of it, by pack. Nothing is appended to these packs until endRepack is called
+    public synchronized Map<Integer, Integer> sparsePacks() {
+        Map<Integer, Integer> sparse = new TreeMap<>();
+        for (int p : lengths.keySet()) {
+            if (isSparse(p)) {
+                Usage usage = live.get(p);
+                sparse.put(p, usage == null ? 0 : usage.files);
+                retiring.add(p);
+            }
+        }
+        return sparse;
+    }
+
+    // EFFECTS: returns true if sparsePacks would return any pack
+    public synchronized boolean hasSparse() {
+        for (int p : lengths.keySet()) {
+            if (isSparse(p)) return true;
+        }
+        return false;
+    }
+
+    // EFFECTS: returns true if pack is neither current nor pinned and its live files take up less than half of it
+    private boolean isSparse(int pack) {
+        if (pack == current || pins.containsKey(pack)) return false;
+        Usage usage = live.get(pack);
+        return (usage == null ? 0 : usage.bytes) * 2 < lengths.get(pack);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: lets packs returned by sparsePacks that were not deleted be appended to again
+    public synchronized void endRepack() {
+        retiring.clear();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: appends a copy of the bytes at from to the current pack and returns where they are now, pinned like
+    //          append
+    public PackLocation copy(PackLocation from) throws IOException {
+        byte[] data = new byte[(int) from.getLength()];
+        try (SeekableByteChannel in = open(from)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                if (in.read(buf) < 0) {
+                    throw new IOException("pack " + from.getPack() + " is truncated");
+                }
+            }
+        }
+        return append(data, data.length);
+    }
+
+    // EFFECTS: opens a channel over the bytes at location
+    public SeekableByteChannel open(PackLocation location) throws IOException {
+        FileChannel in = new Reader(fileOf(location.getPack())).openChannel();
+        return new SliceChannel(in, location.getOffset(), location.getLength());
+    }
+
+    // EFFECTS: closes the current pack
+    public synchronized void close() throws IOException {
+        closePack(true);
+    }
+
+    private File fileOf(int pack) {
+        return new File(folder, pack + ".pack");
+    }
+}
@@ -0,0 +1,422 @@
+package main.filesystem;
+
+import main.exceptions.CryptoException;
+import main.io.AtomicFile;
+import main.io.DecryptingInputStream;
+import main.io.EncryptingOutputStream;
+import main.util.CryptoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * index of the names of every entry under the root of a vault, telling which entries have a name starting with
+ * or containing a text, ignoring case, without walking the tree. Every name is cut into trigrams, its runs of
+ * three characters, after two marks that stand for its start, so prefixes of one and two characters have
+ * trigrams too; for every trigram the index lists the entries whose names contain it. A query takes the entries
+ * of its rarest trigram and checks their names, so it reads a small part of the index however many entries there
+ * are; a text shorter than a trigram is looked for in the names one by one, until enough are found.
+ * Entries are numbered in the order they are indexed, after their parent. A deleted entry is only marked dead,
+ * and a renamed one keeps its number, so a trigram may list entries whose names no longer contain it, which the
+ * check of the names drops; the index is written without them.
+ * The index is stored in a file of its own, encrypted in segments with the vault key, with the sequence number of
+ * the catalog it matches. The file is a header (magic, version, sequence number), the number of entries, each
+ * entry as its id, the number of its parent, -1 for the root, its name and whether it is a directory, then the
+ * number of trigrams and each trigram with the number of its entries and their numbers as variable-length gaps.
+ * Not safe to use from several threads
+ */
+public class SearchIndex {
+    private static final byte[] MAGIC = {'F', 'V', 'S', 'I'};
+    private static final byte VERSION = 1;
+    private static final char START = '\0'; // stands for the start of a name
+
+    private int size; // entries numbered so far, dead ones included
+    private long[] high = new long[16]; // id of each entry, most significant bits
+    private long[] low = new long[16]; // id of each entry, least significant bits
+    private int[] parents = new int[16]; // number of the parent of each entry, -1 for the root
+    private String[] names = new String[16];
+    private final BitSet directories = new BitSet();
+    private final BitSet dead = new BitSet();
+    private int renamed; // entries renamed since the index was last compacted
+    private int[] slots = new int[32]; // number + 1 of the entry with each id, by hash of the id, 0 if empty
+    private final HashMap<Long, Postings> trigrams = new HashMap<>();
+
+    /**
+     * numbers of the entries whose names contain a trigram, or did when they were indexed
+     */
+    private static final class Postings {
+        private int[] entries = new int[2];
+        private int size;
+
+        private void add(int entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+    }
+
+    // EFFECTS: returns number of entries that are not dead
+    public int size() {
+        return size - dead.cardinality();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: indexes entry and, if it is a directory, the entries below it that are read; an entry indexed
+    //          already gets its current name. The parent of entry must be the root or indexed
+    public void add(VaultEntry entry) {
+        addEntry(entry);
+        if (entry.getClass().equals(VaultDirectory.class)) {
+            for (VaultEntry e : ((VaultDirectory) entry).getLoadedEntries()) {
+                add(e);
+            }
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: indexes the entries of dir that are read like add, but not the entries below them; dir must be the
+    //          root or indexed
+    public void addEntries(VaultDirectory dir) {
+        for (VaultEntry e : dir.getLoadedEntries()) {
+            addEntry(e);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: indexes entry, or gives it its current name if it is indexed already
+    private void addEntry(VaultEntry entry) {
+        VaultDirectory parent = entry.getParent();
+        int parentNumber = parent == null ? -1 : numberOf(parent.getUuid());
+        int number = numberOf(entry.getUuid());
+        if (number < 0) {
+            number = append(entry.getUuid(), parentNumber, entry.getName());
+            directories.set(number, entry.getClass().equals(VaultDirectory.class));
+        } else if (!names[number].equals(entry.getName())) {
+            rename(entry.getUuid(), entry.getName());
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: drops entry with given id and, if it is a directory, every entry below it; does nothing if there is
+    //          no such entry
+    public void remove(UUID id) {
+        int number = numberOf(id);
+        if (number < 0) return;
+        dead.set(number);
+        if (!directories.get(number)) return;
+        for (int i = number + 1; i < size; i++) { // children are numbered after their parents
+            if (parents[i] >= 0 && dead.get(parents[i])) {
+                dead.set(i);
+            }
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: gives the entry with given id a new name; does nothing if there is no such entry
+    public void rename(UUID id, String name) {
+        int number = numberOf(id);
+        if (number < 0) return;
+        Set<Long> before = trigramsOfName(names[number]);
+        names[number] = name;
+        renamed++;
+        for (long trigram : trigramsOfName(name)) {
+            if (!before.contains(trigram)) {
+                trigrams.computeIfAbsent(trigram, t -> new Postings()).add(number);
+            }
+        }
+    }
+
+    // EFFECTS: returns the numbers of up to limit entries whose names contain text, ignoring case, or start with
+    //          it if prefix, in the order they were indexed, though entries renamed may come later; every entry
+    //          matches an empty text
+    public int[] search(String text, boolean prefix, int limit) {
+        String marked = prefix ? "" + START + START + text : text;
+        Postings rarest = null;
+        if (marked.length() >= 3) {
+            for (long trigram : trigramsOf(marked)) {
+                Postings postings = trigrams.get(trigram);
+                if (postings == null) return new int[0];
+                if (rarest == null || postings.size < rarest.size) {
+                    rarest = postings;
+                }
+            }
+        }
+        int[] found = new int[Math.min(limit, size())];
+        int count = 0;
+        BitSet seen = new BitSet(); // a renamed entry may be listed twice under a trigram
+        int candidates = rarest == null ? size : rarest.size;
+        for (int i = 0; i < candidates && count < found.length; i++) {
+            int number = rarest == null ? i : rarest.entries[i];
+            if (!dead.get(number) && !seen.get(number) && matches(names[number], text, prefix)) {
+                seen.set(number);
+                found[count++] = number;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // EFFECTS: returns the names of the entry numbered number and of the directories above it, from the root down
+    public List<String> pathOf(int number) {
+        List<String> path = new ArrayList<>();
+        for (int n = number; n >= 0; n = parents[n]) {
+            path.add(0, names[n]);
+        }
+        return path;
+    }
+
+    // EFFECTS: returns the id of the entry numbered number
+    public UUID idOf(int number) {
+        return new UUID(high[number], low[number]);
+    }
+
+    // EFFECTS: returns the index stored in file if it matches the catalog with sequence number seq, null if it
+    //          does not; throws IOException if it cannot be read, CryptoException if it is not encrypted with the
+    //          key of cryptoUtils
+    public static SearchIndex read(AtomicFile file, long seq, CryptoUtils cryptoUtils)
+            throws IOException, CryptoException {
+        if (file.length() == 0) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new DecryptingInputStream(Channels.newInputStream(file.openChannel()), cryptoUtils), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readByte() != VERSION) {
+                throw new IOException(file.getName() + " is not a search index");
+            }
+            if (in.readLong() != seq) return null;
+            SearchIndex index = new SearchIndex();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                int parent = in.readInt();
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                int number = index.append(id, parent, new String(name, UTF_8), false);
+                index.directories.set(number, in.readBoolean());
+            }
+            int trigramCount = in.readInt();
+            for (int t = 0; t < trigramCount; t++) {
+                long trigram = in.readLong();
+                Postings postings = new Postings();
+                postings.entries = new int[in.readInt()];
+                for (int number = -1; postings.size < postings.entries.length; ) {
+                    number += readGap(in);
+                    postings.entries[postings.size++] = number;
+                }
+                index.trigrams.put(trigram, postings);
+            }
+            return index;
+        } catch (IOException e) {
+            throw CryptoUtils.unwrap(e);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: replaces the contents of file with this index, matching the catalog with sequence number seq; the
+    //          dead entries and the trigrams names no longer contain are dropped from this index first
+    public void write(AtomicFile file, long seq, CryptoUtils cryptoUtils) throws IOException {
+        if (dead.cardinality() > 0 || renamed > 0) {
+            compact();
+        }
+        file.write(stream -> {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new EncryptingOutputStream(stream, cryptoUtils.newSegmentCipher()), 1 << 16))) {
+                out.write(MAGIC);
+                out.writeByte(VERSION);
+                out.writeLong(seq);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(high[i]);
+                    out.writeLong(low[i]);
+                    out.writeInt(parents[i]);
+                    byte[] name = names[i].getBytes(UTF_8);
+                    out.writeShort(name.length);
+                    out.write(name);
+                    out.writeBoolean(directories.get(i));
+                }
+                out.writeInt(trigrams.size());
+                for (var trigram : trigrams.entrySet()) {
+                    Postings postings = trigram.getValue();
+                    out.writeLong(trigram.getKey());
+                    out.writeInt(postings.size);
+                    for (int i = 0, last = -1; i < postings.size; last = postings.entries[i++]) {
+                        writeGap(out, postings.entries[i] - last);
+                    }
+                }
+            } catch (CryptoException e) {
+                throw new IOException(e);
+            }
+        });
+    }
+
+    // MODIFIES: this
+    // EFFECTS: renumbers the entries that are not dead and lists them again under the trigrams of their names
+    private void compact() {
+        SearchIndex compacted = new SearchIndex();
+        int[] renumbered = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (!dead.get(i)) {
+                int parent = parents[i] < 0 ? -1 : renumbered[parents[i]];
+                renumbered[i] = compacted.append(new UUID(high[i], low[i]), parent, names[i]);
+                compacted.directories.set(renumbered[i], directories.get(i));
+            }
+        }
+        size = compacted.size;
+        high = compacted.high;
+        low = compacted.low;
+        parents = compacted.parents;
+        names = compacted.names;
+        slots = compacted.slots;
+        directories.clear();
+        directories.or(compacted.directories);
+        dead.clear();
+        renamed = 0;
+        trigrams.clear();
+        trigrams.putAll(compacted.trigrams);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: numbers a new entry and lists it under the trigrams of its name; returns its number
+    private int append(UUID id, int parent, String name) {
+        return append(id, parent, name, true);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: numbers a new entry, and lists it under the trigrams of its name if list; returns its number
+    private int append(UUID id, int parent, String name, boolean list) {
+        if (size == names.length) {
+            int capacity = size * 2;
+            high = Arrays.copyOf(high, capacity);
+            low = Arrays.copyOf(low, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        int number = size++;
+        high[number] = id.getMostSignificantBits();
+        low[number] = id.getLeastSignificantBits();
+        parents[number] = parent;
+        names[number] = name;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            place(number);
+        }
+        if (list) {
+            String marked = START + "" + START + name;
+            for (int i = 0; i + 3 <= marked.length(); i++) {
+                Postings postings = trigrams.computeIfAbsent(trigramAt(marked, i), t -> new Postings());
+                if (postings.size == 0 || postings.entries[postings.size - 1] != number) { // once per name
+                    postings.add(number);
+                }
+            }
+        }
+        return number;
+    }
+
+    // EFFECTS: returns number of the entry with given id that is not dead, or -1 if there is none; dead entries
+    //          keep their slots, so an id may be found in several
+    private int numberOf(UUID id) {
+        long h = id.getMostSignificantBits();
+        long l = id.getLeastSignificantBits();
+        for (int slot = slotOf(h, l); slots[slot] != 0; slot = (slot + 1) & (slots.length - 1)) {
+            int number = slots[slot] - 1;
+            if (high[number] == h && low[number] == l && !dead.get(number)) {
+                return number;
+            }
+        }
+        return -1;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: places every entry that is not dead in new slots of given capacity
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            if (!dead.get(i)) {
+                place(i);
+            }
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: puts the entry numbered number in the first empty slot from the slot of its id
+    private void place(int number) {
+        int slot = slotOf(high[number], low[number]);
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        slots[slot] = number + 1;
+    }
+
+    private int slotOf(long high, long low) {
+        long h = (high ^ low) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (slots.length - 1);
+    }
+
+    // EFFECTS: returns true if name starts with text, or contains it if not prefix, ignoring case
+    private static boolean matches(String name, String text, boolean prefix) {
+        if (prefix) {
+            return name.regionMatches(true, 0, text, 0, text.length());
+        }
+        for (int i = 0; i + text.length() <= name.length(); i++) {
+            if (name.regionMatches(true, i, text, 0, text.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // EFFECTS: returns the trigrams of name, after the marks of its start
+    private static Set<Long> trigramsOfName(String name) {
+        return trigramsOf(START + "" + START + name);
+    }
+
+    // EFFECTS: returns the trigrams of text, with case folded the way String.regionMatches ignores it
+    private static Set<Long> trigramsOf(String text) {
+        Set<Long> found = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            found.add(trigramAt(text, i));
+        }
+        return found;
+    }
+
+    // EFFECTS: returns the trigram of text starting at i, with case folded
+    private static long trigramAt(String text, int i) {
+        return (long) fold(text.charAt(i)) << 32 | (long) fold(text.charAt(i + 1)) << 16 | fold(text.charAt(i + 2));
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    // EFFECTS: writes gap, which is positive, in 7-bit groups, lowest first
+    private static void writeGap(DataOutputStream out, int gap) throws IOException {
+        while ((gap & ~0x7F) != 0) {
+            out.writeByte(gap & 0x7F | 0x80);
+            gap >>>= 7;
+        }
+        out.writeByte(gap);
+    }
+
+    private static int readGap(DataInputStream in) throws IOException {
+        int gap = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            gap |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return gap;
+        }
+    }
+}
@@ -1,41 +1,177 @@
 package main.filesystem;
 
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import main.exceptions.CryptoException;
+import main.io.AtomicFile;
+import main.io.Codec;
+import main.io.DecompressingChannel;
+import main.io.DecryptingChannel;
+import main.io.Journal;
 import main.io.Reader;
 import main.io.Writer;
 import main.util.CryptoUtils;
+import main.util.Progress;
+import main.util.ProgressListener;
+import main.util.SegmentCipher;
+import main.util.Thumbnails;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
- * handles filesystem entries and functionality of a vault
+ * handles filesystem entries and functionality of a vault.
+ * Methods may be called from several threads at once: the filesystem tree is guarded by the monitor of the vault,
+ * which is held while the tree is read or changed but not while file contents are encrypted or decrypted. Code
+ * that walks the tree itself while other threads change it must synchronize on the vault. Locking waits for every
+ * operation under way, and for every channel opened on the contents of a file to be closed, before it wipes the key;
+ * operations started after that throw IOException.
+ * A mutation is on disk when its method returns, its record committed to the Journal. Files are kept in the
+ * BlobStore of the vault, or in its ChunkStore and PackStore when deduplication and packing are on, and entries are
+ * found by name through its SearchIndex.
  */
 public class Vault {
     protected static final String ROOT_ID = "00000000-0000-0000-0000-000000000000";
     protected static final String ROOT_NAME = "root";
+    private static final int MAX_SEARCH_UPDATES = 100000; // changes kept for an index not read; past them it is built
     private File vaultFolder;
-    private char[] pwd;
     private File dataFolder; // data folder
     private JsonObject contents; // contents of .vault JSON file
+    private Journal journal; // mutations made since the catalog was written
+    private ExecutorService compactor; // writes the .vault file and empties the journal in the background
+    private AtomicFile catalogFile; // encrypted filesystem tree
+    private Catalog catalog;
     public CryptoUtils cryptoUtils;
     protected VaultDirectory root; // VaultDirectory corresponding to data folder
+    private final EntryIndex index = new EntryIndex(); // every entry of the tree under root, by id
+    private final BlobStore blobs; // encrypted files kept on their own
+    private final ChunkStore chunks; // chunks of deduplicated files
+    private volatile boolean deduplicate; // whether files added are cut into chunks
+    private final PackStore packs; // encrypted contents of small files
+    private volatile boolean packing = true; // whether small files added are packed
+    private volatile boolean thumbnails; // whether images added get a thumbnail
+    private final ExecutorService repacker; // moves the live files out of sparse packs in the background
+    private final AtomicBoolean repackQueued = new AtomicBoolean(); // a repack is waiting to run
+    private final Object repacking = new Object(); // held for a whole repack, so only one runs at a time
+    private final List<Runnable> lockListeners = new CopyOnWriteArrayList<>(); // run when the vault is locked
+    private final Object operations = new Object(); // guards running and locking
+    private int running; // operations under way and channels open, which lock waits for
+    private boolean locking; // lock was called, so no operation starts
+    private final AtomicFile searchFile; // encrypted search index
+    private final Object searchLoading = new Object(); // held while the search index is read or built
+    private SearchIndex search; // index of the names of the entries, null until it is read on the first search
+    private final List<Consumer<SearchIndex>> searchUpdates = new ArrayList<>(); // changes made before it is read
+    private long searchSeq; // sequence number of the catalog the stored index matches, -1 if it matches none
+    private int searchDrops; // times searchUpdates were dropped, so an index read or built meanwhile is not used
 
     // EFFECTS: if already exists, loads existing vault filesystem; otherwise, creates new vault
     public Vault(File vaultFolder, char[] password) throws IOException, CryptoException {
+        this(vaultFolder, password, CatalogFormat.JSON);
+    }
+
+    // EFFECTS: if already exists, loads existing vault filesystem in the format it was created with;
+    //          otherwise, creates new vault storing its filesystem tree in given format
+    public Vault(File vaultFolder, char[] password, CatalogFormat format) throws IOException, CryptoException {
+        this(vaultFolder, password, format, VaultLayout.FOLDERS);
+    }
+
+    // EFFECTS: if already exists, loads existing vault filesystem in the format and layout it was created with;
+    //          otherwise, creates new vault storing its filesystem tree in given format and its files in given layout
+    public Vault(File vaultFolder, char[] password, CatalogFormat format, VaultLayout layout)
+            throws IOException, CryptoException {
+        this(vaultFolder, password, format, openStore(vaultFolder, layout));
+    }
+
+    // EFFECTS: opens the blob store of the vault in vaultFolder: its container if it has one, or if it is new and
+    //          laid out as a container; otherwise its data folder
+    private static BlobStore openStore(File vaultFolder, VaultLayout layout) throws IOException {
+        File container = new File(vaultFolder, vaultFolder.getName() + ".container");
+        boolean created = !new File(vaultFolder, vaultFolder.getName() + ".vault").exists();
+        if (container.exists() || (created && layout == VaultLayout.CONTAINER)) {
+            vaultFolder.mkdirs();
+            return new ContainerBlobStore(container);
+        }
+        return new LooseBlobStore(new File(vaultFolder, "data"));
+    }
+
+    // EFFECTS: like the constructor above, keeping the files of the vault in blobs, which must hold the blobs the
+    //          vault was written with, and the catalog where blobs says; deduplicated and packed files stay in the
+    //          data folder, so small files are packed by default only if blobs gives every blob a file of its own
+    public Vault(File vaultFolder, char[] password, CatalogFormat format, BlobStore blobs)
+            throws IOException, CryptoException {
         this.vaultFolder = vaultFolder;
-        this.pwd = password;
+        this.blobs = blobs;
         dataFolder = new File(vaultFolder, "data");
+        catalogFile = blobs.catalogFile(new File(vaultFolder, vaultFolder.getName() + ".catalog"));
+        searchFile = blobs.searchIndexFile(new File(vaultFolder, vaultFolder.getName() + ".search"));
         File vault = new File(vaultFolder, vaultFolder.getName() + ".vault"); // json file
         root = new VaultDirectory(ROOT_ID, ROOT_NAME);
+        chunks = new ChunkStore(new File(dataFolder, "chunks"));
+        index.setChunkStore(chunks);
+        packs = new PackStore(new File(dataFolder, "packs"));
+        index.setPackStore(packs);
+        root.attachIndex(index);
+        journal = new Journal(vault, new File(vaultFolder, vaultFolder.getName() + ".journal"));
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "vault-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        repacker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "vault-repacker");
+            t.setDaemon(true);
+            return t;
+        });
         if (vault.exists()) {
             loadVault(vault, password);
         } else {
             dataFolder.mkdirs();
+            packing = blobs.hasFilePerBlob();
             unlock(password);
+            journal.setCryptoUtils(cryptoUtils);
+            if (format == CatalogFormat.BINARY) {
+                catalog = BinaryCatalog.create(catalogFile, root, cryptoUtils, chunks, packs);
+            } else {
+                catalog = JsonCatalog.create(catalogFile, root, cryptoUtils);
+            }
             sync();
         }
     }
@@ -49,99 +185,1283 @@ public class Vault {
         return vaultFolder;
     }
 
-    public JsonObject getContents() {
+    // EFFECTS: returns the catalog of this vault, including the whole filesystem tree
+    public synchronized JsonObject getContents() {
+        JsonObject contents = getHeader();
+        contents.add("filesystem", root.toJson());
         return contents;
     }
 
+    // EFFECTS: returns the contents of the .vault file, which holds everything but the filesystem tree
+    private JsonObject getHeader() {
+        JsonObject header = new JsonObject();
+        header.add("crypto", cryptoUtils.toJson());
+        header.addProperty("catalog", catalog.getFormat().name());
+        if (deduplicate) {
+            header.addProperty("deduplicate", true);
+        }
+        if (!packing) {
+            header.addProperty("packing", false);
+        }
+        if (thumbnails) {
+            header.addProperty("thumbnails", true);
+        }
+        return header;
+    }
+
     public File getDataFolder() {
         return dataFolder;
     }
 
-    // EFFECTS: initializes CryptoUtils with password
+    // EFFECTS: unwraps the master key stored in the vault header with password;
+    //          creates a new master key if the vault has no header yet
     public void unlock(char[] password) throws CryptoException {
-        cryptoUtils = new CryptoUtils(password);
+        if (contents != null && contents.has("crypto")) {
+            cryptoUtils = new CryptoUtils(password, contents.getAsJsonObject("crypto"));
+        } else {
+            cryptoUtils = new CryptoUtils(password);
+        }
+        chunks.setCryptoUtils(cryptoUtils);
     }
 
-    // EFFECTS: destroys CryptoUtils and saves filesystem
-    public void lock() throws IOException {
+    // EFFECTS: returns true if files added are cut into chunks stored once however many files contain them
+    public boolean isDeduplicating() {
+        return deduplicate;
+    }
+
+    // EFFECTS: turns deduplication of files added from now on on or off and saves the vault header;
+    //          files already in the vault stay as they are
+    public void setDeduplicating(boolean deduplicate) throws IOException {
+        this.deduplicate = deduplicate;
         sync();
-        cryptoUtils.destroy();
     }
 
-    // EFFECTS: saves filesystem data of this vault to filesystem.json in root folder
+    // EFFECTS: returns true if small files added are appended to shared pack files
+    public boolean isPacking() {
+        return packing;
+    }
+
+    // EFFECTS: turns packing of small files added from now on on or off and saves the vault header;
+    //          files already in the vault stay as they are
+    public void setPacking(boolean packing) throws IOException {
+        this.packing = packing;
+        sync();
+    }
+
+    // EFFECTS: returns true if images added get an encrypted thumbnail
+    public boolean isStoringThumbnails() {
+        return thumbnails;
+    }
+
+    // EFFECTS: turns thumbnails of images added from now on on or off and saves the vault header; files already
+    //          in the vault keep the thumbnails they have
+    public void setStoringThumbnails(boolean thumbnails) throws IOException {
+        this.thumbnails = thumbnails;
+        sync();
+    }
+
+    // EFFECTS: re-wraps the master key under newPassword and saves the vault header
+    public void changePassword(char[] newPassword) throws IOException, CryptoException {
+        begin();
+        try {
+            cryptoUtils.changePassword(newPassword);
+            save();
+        } finally {
+            end();
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: has listener run when the vault is locked, to wipe plaintext kept outside the vault
+    public void addLockListener(Runnable listener) {
+        lockListeners.add(listener);
+    }
+
+    // EFFECTS: destroys CryptoUtils and saves filesystem, after waiting for the operations under way, channels open
+    //          and a repack under way to finish; operations started from now on throw IOException. The lock
+    //          listeners are run even if saving fails
+    public void lock() throws IOException {
+        try {
+            awaitOperations();
+            lockStores();
+        } finally {
+            lockListeners.forEach(Runnable::run);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: stops operations from starting and waits for those running to end
+    private void awaitOperations() throws IOException {
+        synchronized (operations) {
+            locking = true;
+            try {
+                while (running > 0) {
+                    operations.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: counts an operation as running until end is called; throws IOException if the vault is being locked
+    private void begin() throws IOException {
+        synchronized (operations) {
+            if (locking) {
+                throw new IOException("vault is locked");
+            }
+            running++;
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: ends an operation counted by begin and wakes lock when it was the last one
+    private void end() {
+        synchronized (operations) {
+            if (--running == 0) {
+                operations.notifyAll();
+            }
+        }
+    }
+
+    private void lockStores() throws IOException {
+        repacker.shutdown();
+        try {
+            repacker.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS); // a repack journals its moves with the key
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        synchronized (this) {
+            save();
+            compactor.shutdown();
+            journal.close();
+            catalog.close();
+            packs.close();
+            blobs.close();
+            cryptoUtils.destroy();
+        }
+    }
+
+    // EFFECTS: saves filesystem data of this vault to the catalog and empties the journal
     public void sync() throws IOException {
-        contents = new JsonObject();
-        //contents.add("crypto", cryptoUtils.toJson());
-        contents.add("filesystem", root.toJson());
-        new Writer(new File(vaultFolder, vaultFolder.getName() + ".vault")).writeJson(contents);
+        begin();
+        try {
+            save();
+        } finally {
+            end();
+        }
     }
 
-    // EFFECTS: adds encrypted contents of input file to vault directory
-    public void addFile(File inputFile, VaultDirectory dir) throws IOException, CryptoException {
-        // read as bytes and encrypt contents of input file
-        byte[] inputFileInBytes = new Reader(inputFile).readBytes();
-        byte[] encrypted = cryptoUtils.encrypt(inputFileInBytes);
+    // EFFECTS: saves filesystem data like sync
+    private void save() throws IOException {
+        Future<Void> snapshot;
+        synchronized (this) {
+            snapshot = compact();
+        }
+        try {
+            snapshot.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
 
-        // write to file
-        String id = UUID.randomUUID().toString();
-        String pathFromRoot = dataFolder.getPath() + "/" + root.getPathOfEntry(dir.getId(), false);
-        File outputFile = new File(pathFromRoot, id);
-        new Writer(outputFile).writeBytes(encrypted);
+    // EFFECTS: writes the filesystem tree to the catalog, then writes the .vault file and drops the records contained
+    //          in the catalog from the journal in the background; the catalog is written on the calling thread
+    //          because it streams the tree as it is now, and directories of a binary catalog that were never
+    //          visited are copied from the current catalog file
+    // REQUIRES: the calling thread holds the monitor of this vault
+    private Future<Void> compact() throws IOException {
+        long seq = journal.getSeq();
+        if (seq > catalog.getSeq()) {
+            journal.sync(seq); // folders of the blobs in the tree are on disk before the catalog is
+            catalog.write(root, seq);
+        }
+        writeSearchIndex(catalog.getSeq());
+        JsonObject snapshot = getHeader();
+        contents = snapshot;
+        return compactor.submit(() -> {
+            journal.writeSnapshot(snapshot, seq);
+            return null;
+        });
+    }
+
+    // EFFECTS: writes the search index, matching the catalog with sequence number seq, if it was read and the one
+    //          stored does not match that catalog yet; an index never read is left as it is stored, and the changes
+    //          made since are kept for it, unless there are so many that it is left to be built on the next search
+    // REQUIRES: the calling thread holds the monitor of this vault
+    private void writeSearchIndex(long seq) throws IOException {
+        if (search != null) {
+            if (searchSeq != seq) {
+                search.write(searchFile, seq, cryptoUtils);
+                searchSeq = seq;
+            }
+        } else if (searchUpdates.size() > MAX_SEARCH_UPDATES) {
+            searchUpdates.clear();
+            searchSeq = -1;
+            searchDrops++;
+        }
+    }
+
+    // EFFECTS: reads the stored search index, or builds one from the tree and stores it if none matches the catalog,
+    //          unless it is loaded already; the monitor is only held to apply the changes made meanwhile, so the
+    //          vault can be used while the index is read or built
+    private void loadSearchIndex() {
+        synchronized (searchLoading) {
+            while (true) {
+                long seq;
+                int drops;
+                synchronized (this) {
+                    if (search != null) return;
+                    seq = searchSeq;
+                    drops = searchDrops;
+                }
+                SearchIndex stored = null;
+                try {
+                    stored = seq < 0 ? null : SearchIndex.read(searchFile, seq, cryptoUtils);
+                } catch (IOException | CryptoException e) {
+                    // built from the tree instead
+                }
+                if (stored == null) {
+                    synchronized (this) {
+                        if (drops != searchDrops) continue;
+                        searchUpdates.clear(); // the tree has them; those made while it is walked are kept again
+                        seq = catalog.getSeq();
+                        drops = ++searchDrops;
+                    }
+                    stored = buildSearchIndex();
+                    try {
+                        stored.write(searchFile, seq, cryptoUtils); // journal records since seq are replayed onto it
+                    } catch (IOException e) {
+                        seq = -1; // written with the next catalog instead
+                    }
+                }
+                synchronized (this) {
+                    if (drops != searchDrops) continue;
+                    for (Consumer<SearchIndex> update : searchUpdates) {
+                        update.accept(stored);
+                    }
+                    searchUpdates.clear();
+                    search = stored;
+                    searchSeq = seq;
+                    return;
+                }
+            }
+        }
+    }
+
+    // EFFECTS: returns index of the entries under root, reading every directory of the tree; the changes the walk
+    //          misses are among those made while it runs
+    private SearchIndex buildSearchIndex() {
+        SearchIndex built = new SearchIndex();
+        walkTree(dir -> {
+            built.addEntries(dir);
+            return true;
+        });
+        return built;
+    }
+
+    // EFFECTS: has visit look at every directory of the tree, parents before their children, reading those not read
+    //          yet, until visit returns false; the monitor is held for one directory at a time, so the vault can be
+    //          used meanwhile, and directories deleted before they are visited are skipped
+    private void walkTree(Predicate<VaultDirectory> visit) {
+        Deque<VaultDirectory> dirs = new ArrayDeque<>();
+        dirs.add(root);
+        while (!dirs.isEmpty()) {
+            VaultDirectory dir = dirs.poll();
+            synchronized (this) {
+                if (dir != root && dir.getParent() == null) continue; // deleted since it was found
+                for (VaultEntry e : dir.getEntries()) {
+                    if (e.getClass().equals(VaultDirectory.class)) {
+                        dirs.add((VaultDirectory) e);
+                    }
+                }
+                if (!visit.test(dir)) return;
+            }
+        }
+    }
+
+    // EFFECTS: applies update to the search index, or keeps it to be applied once the index is read
+    // REQUIRES: the calling thread holds the monitor of this vault
+    private void updateSearch(Consumer<SearchIndex> update) {
+        if (search != null) {
+            update.accept(search);
+        } else {
+            searchUpdates.add(update);
+        }
+    }
 
-        // add file to vault directory
+    // EFFECTS: returns up to limit entries whose names contain text, ignoring case, or start with it if prefix; the
+    //          search index is read on the first search, or built from the tree and stored if there is none, and
+    //          only the directories on the paths of the entries found are read
+    public List<VaultEntry> search(String text, boolean prefix, int limit) throws IOException {
+        begin();
+        try {
+            loadSearchIndex();
+            synchronized (this) {
+                List<VaultEntry> found = new ArrayList<>();
+                for (int number : search.search(text, prefix, limit)) {
+                    VaultEntry entry = entryAt(search.pathOf(number), search.idOf(number));
+                    if (entry != null) {
+                        found.add(entry);
+                    }
+                }
+                return found;
+            }
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: returns the entry with given id at the path of names from the root, null if it is not there
+    // REQUIRES: the calling thread holds the monitor of this vault
+    private VaultEntry entryAt(List<String> path, UUID id) {
+        VaultEntry entry = index.get(id);
+        if (entry != null) return entry;
+        entry = root;
+        for (String name : path) {
+            if (!entry.getClass().equals(VaultDirectory.class)) return null;
+            entry = ((VaultDirectory) entry).getEntry(name);
+            if (entry == null) return null;
+        }
+        return entry.getUuid().equals(id) ? entry : null;
+    }
+
+    // REQUIRES: the calling thread holds the monitor of this vault
+    // EFFECTS: appends record of a mutation to the journal and returns its sequence number; compacts the journal
+    //          once replaying it would cost more than reading a new snapshot, so each mutation costs O(1) amortized
+    private long log(JsonObject record) throws IOException {
+        long seq = journal.append(record);
+        if (journal.needsCompaction(catalogFile.length())) {
+            compact(); // a failed compaction leaves the journal in place and is retried on the next one
+        }
+        return seq;
+    }
+
+    // EFFECTS: adds encrypted contents of input file to vault directory and returns its entry;
+    //          the entry gets a unique name if the directory already has an entry with the same name
+    public VaultFile addFile(File inputFile, VaultDirectory dir) throws IOException, CryptoException {
+        return addFile(inputFile, dir, ProgressListener.NONE);
+    }
+
+    // EFFECTS: adds input file like addFile, telling listener about the bytes written as they are; throws
+    //          InterruptedIOException, with nothing added, if listener cancels before the file is in the tree
+    public VaultFile addFile(File inputFile, VaultDirectory dir, ProgressListener listener)
+            throws IOException, CryptoException {
+        begin();
+        try {
+            return add(inputFile, dir, listener);
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: adds input file like addFile; the blob and thumbnail written are deleted if it fails before the file
+    //          is in the tree
+    private VaultFile add(File inputFile, VaultDirectory dir, ProgressListener listener)
+            throws IOException, CryptoException {
+        String id = UUID.randomUUID().toString();
+        String folder = pathOf(dir);
         VaultFile file = new VaultFile(id, inputFile.getName(), inputFile.length());
-        dir.addEntry(file);
+        Progress progress = new Progress(listener, 1, file.getSize());
+        Progress.FileProgress fileProgress = progress.startFile(file.getSize());
+        String blob = BlobStore.child(folder, id);
+        boolean chunked = deduplicate;
+        boolean packed = !chunked && packing && inputFile.length() <= PackStore.MAX_PACKED;
+        List<Chunk> pinned = null;
+        boolean added = false;
+        long seq;
+        try {
+            // stream contents of input file through the cipher into the blob store
+            if (chunked) {
+                try (InputStream in = fileProgress.track(new Reader(inputFile).openStream())) {
+                    pinned = chunks.write(in);
+                    file.setChunks(pinned);
+                }
+            } else if (packed) {
+                pack(inputFile, file);
+            } else {
+                writeBlob(inputFile, blob, file, fileProgress);
+            }
+            if (thumbnails && Thumbnails.isImage(file.getName())) {
+                writeThumbnail(inputFile, blob, file);
+            }
 
-        sync();
+            // add file to vault directory
+            packs.force();
+            progress.checkCancelled();
+            synchronized (this) {
+                file.setName(dir.uniqueName(inputFile.getName()));
+                dir.addEntry(file);
+                added = true;
+                updateSearch(search -> search.add(file));
+                blobs.syncBefore(folder, journal);
+                seq = log(addRecord(file, dir));
+            }
+            journal.sync(seq);
+        } catch (IOException | CryptoException | RuntimeException e) {
+            if (!added) {
+                if (!chunked && !packed) {
+                    deleteQuietly(blob);
+                }
+                if (file.hasThumbnail()) {
+                    deleteQuietly(thumbnailPath(blob));
+                }
+            }
+            throw e;
+        } finally {
+            if (pinned != null) {
+                unpin(List.of(pinned));
+            }
+            if (file.isPacked()) {
+                packs.unpin(file.getPack());
+            }
+        }
+        fileProgress.done();
+        return file;
+    }
+
+    // EFFECTS: deletes the blob at path, if any, ignoring failure
+    private void deleteQuietly(String path) {
+        try {
+            blobs.delete(path);
+        } catch (IOException ignored) {
+            // only the first failure is reported
+        }
+    }
+
+    // MODIFIES: file
+    // EFFECTS: compresses the contents of input with the codec picked for them and writes them, encrypted, to the
+    //          blob at path, counting the bytes written as progress of the file; records the codec in file
+    private void writeBlob(File input, String path, VaultFile file, Progress.FileProgress progress)
+            throws IOException, CryptoException {
+        try (FileChannel in = new Reader(input).openChannel()) {
+            Codec codec = Codec.choose(in);
+            blobs.write(path, SegmentCipher.ciphertextSize(in.size()),
+                    out -> cryptoUtils.encrypt(in, progress.track(out), codec));
+            file.setCodec(codec);
+        }
+    }
+
+    // MODIFIES: file
+    // EFFECTS: writes an encrypted thumbnail of the image in input to the blob next to the contents at path and
+    //          records it in file; a file whose thumbnail cannot be made or written is kept without one
+    private void writeThumbnail(File input, String path, VaultFile file) {
+        byte[] png;
+        try (InputStream in = new Reader(input).openStream()) {
+            BufferedImage thumbnail = Thumbnails.readThumbnail(in, Thumbnails.SIZE);
+            png = Thumbnails.encode(thumbnail);
+            Thumbnails.wipe(thumbnail);
+        } catch (IOException | RuntimeException e) {
+            return; // no image ImageIO can read
+        }
+        try {
+            blobs.write(thumbnailPath(path), SegmentCipher.ciphertextSize(png.length),
+                    out -> cryptoUtils.encrypt(ByteBuffer.wrap(png), out));
+            file.setThumbnail(true);
+        } catch (IOException | CryptoException e) {
+            deleteQuietly(thumbnailPath(path));
+        } finally {
+            Arrays.fill(png, (byte) 0);
+        }
+    }
+
+    // EFFECTS: returns the path of the thumbnail of the file whose contents are at path, kept even if they are not
+    private static String thumbnailPath(String path) {
+        return path + ".thumbnail";
+    }
+
+    // EFFECTS: returns the thumbnail stored for file, decrypted, or null if it has none
+    public BufferedImage readThumbnail(VaultFile file) throws IOException, CryptoException {
+        if (!file.hasThumbnail()) return null;
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        begin();
+        try (SeekableByteChannel in = blobs.open(thumbnailPath(pathOf(file)))) {
+            cryptoUtils.decrypt(in, Channels.newChannel(png));
+        } finally {
+            end();
+        }
+        byte[] bytes = png.toByteArray();
+        try {
+            return Thumbnails.read(new ByteArrayInputStream(bytes));
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    // MODIFIES: file
+    // EFFECTS: compresses the contents of input with the codec picked for them and appends them, encrypted, to the
+    //          pack store; records codec and location in file. The pack stays pinned until the location is unpinned
+    private void pack(File input, VaultFile file) throws IOException, CryptoException {
+        byte[] plain;
+        try (InputStream in = new Reader(input).openStream()) {
+            plain = in.readAllBytes();
+        }
+        Codec codec = Codec.choose(plain, plain.length);
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream(plain.length + 64);
+        try {
+            cryptoUtils.encrypt(new ByteArrayInputStream(plain), sealed, codec);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+        file.setCodec(codec);
+        file.setPack(packs.append(sealed.toByteArray(), sealed.size()));
+    }
+
+    // EFFECTS: releases the pins on the chunks of files while they were added, now that the files are in the tree
+    //          or failed to be added; deletes chunks that no file refers to
+    private void unpin(Collection<List<Chunk>> pinned) {
+        List<String> unused;
+        synchronized (this) {
+            pinned.forEach(chunks::unpin);
+            unused = chunks.takeUnused();
+        }
+        chunks.delete(unused);
+    }
+
+    // EFFECTS: copies the directory tree at source, with the encrypted contents of its files, into a new directory
+    //          under target and returns it; a regular file is added like addFile. Files are encrypted by one worker
+    //          per core, fed through a bounded queue so the walk never runs far ahead of them, and each forces its
+    //          file to disk, or appends it to the pack store if it is small; the whole tree is committed in one
+    //          journal record, forced once, after every file is written. Nothing is added if a file fails
+    public VaultEntry importTree(Path source, VaultDirectory target) throws IOException, CryptoException {
+        return importTree(source, target, ProgressListener.NONE);
+    }
+
+    // EFFECTS: copies the tree at source like importTree, telling listener about the files and bytes written as
+    //          they are, against totals counted by walking the tree first; throws InterruptedIOException, with
+    //          nothing added, if listener cancels before the tree is committed
+    public VaultEntry importTree(Path source, VaultDirectory target, ProgressListener listener)
+            throws IOException, CryptoException {
+        begin();
+        try {
+            return copyTree(source, target, listener);
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: copies the tree at source like importTree
+    private VaultEntry copyTree(Path source, VaultDirectory target, ProgressListener listener)
+            throws IOException, CryptoException {
+        if (!Files.isDirectory(source)) {
+            return add(source.toFile(), target, listener);
+        }
+        Progress progress = listener == ProgressListener.NONE
+                ? new Progress(listener, 0, 0) : countTree(source, listener);
+        String name = source.getFileName() != null ? source.getFileName().toString() : source.toString();
+        VaultDirectory top = new VaultDirectory(UUID.randomUUID().toString(), name);
+        String targetFolder = pathOf(target);
+        String topFolder = BlobStore.child(targetFolder, top.getId());
+
+        ThreadPoolExecutor pool = newWorkerPool();
+        List<Future<Void>> written = new ArrayList<>();
+        List<String> created = new ArrayList<>();
+        boolean chunked = deduplicate;
+        Queue<List<Chunk>> pinned = new ConcurrentLinkedQueue<>();
+        boolean packed = packing;
+        boolean thumbnailed = thumbnails;
+        Queue<PackLocation> appended = new ConcurrentLinkedQueue<>();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                private final Deque<VaultDirectory> dirs = new ArrayDeque<>();
+                private final Deque<String> folders = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                    VaultDirectory dir = top;
+                    String folder = topFolder;
+                    if (!dirs.isEmpty()) {
+                        dir = new VaultDirectory(UUID.randomUUID().toString(),
+                                dirs.peek().uniqueName(path.getFileName().toString()));
+                        dirs.peek().addEntry(dir);
+                        folder = BlobStore.child(folders.peek(), dir.getId());
+                    }
+                    blobs.createFolder(folder);
+                    created.add(folder);
+                    dirs.push(dir);
+                    folders.push(folder);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        Progress.FileProgress fileProgress = progress.startFile(attrs.size());
+                        VaultFile file = new VaultFile(UUID.randomUUID().toString(),
+                                dirs.peek().uniqueName(path.getFileName().toString()), attrs.size());
+                        dirs.peek().addEntry(file);
+                        String blob = BlobStore.child(folders.peek(), file.getId());
+                        written.add(pool.submit(() -> {
+                            if (chunked) {
+                                try (InputStream in = fileProgress.track(new Reader(path.toFile()).openStream())) {
+                                    List<Chunk> fileChunks = chunks.write(in);
+                                    pinned.add(fileChunks);
+                                    file.setChunks(fileChunks);
+                                }
+                            } else if (packed && attrs.size() <= PackStore.MAX_PACKED) {
+                                pack(path.toFile(), file);
+                                appended.add(file.getPack());
+                            } else {
+                                writeBlob(path.toFile(), blob, file, fileProgress);
+                            }
+                            if (thumbnailed && Thumbnails.isImage(file.getName())) {
+                                writeThumbnail(path.toFile(), blob, file);
+                            }
+                            fileProgress.done();
+                            return null;
+                        }));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path path, IOException e) throws IOException {
+                    if (e != null) throw e;
+                    dirs.pop();
+                    folders.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            awaitAll(written);
+            progress.checkCancelled();
+        } catch (IOException | CryptoException e) {
+            cancelQueued(pool);
+            awaitQuietly(written);
+            deleteQuietly(topFolder);
+            unpin(pinned);
+            appended.forEach(packs::unpin);
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+
+        long seq;
+        try {
+            packs.force();
+            synchronized (this) {
+                top.setName(target.uniqueName(name));
+                target.addEntry(top);
+                updateSearch(search -> search.add(top));
+                blobs.syncBefore(targetFolder, journal);
+                for (String folder : created) {
+                    blobs.syncBefore(folder, journal);
+                }
+                seq = log(addRecord(top, target));
+            }
+            journal.sync(seq);
+        } finally {
+            unpin(pinned);
+            appended.forEach(packs::unpin);
+        }
+        return top;
+    }
+
+    // EFFECTS: returns progress of importing the tree at source, counting its regular files and their bytes
+    private static Progress countTree(Path source, ProgressListener listener) throws IOException {
+        int[] files = new int[1];
+        long[] bytes = new long[1];
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    files[0]++;
+                    bytes[0] += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new Progress(listener, files[0], bytes[0]);
+    }
+
+    // EFFECTS: returns a pool of one worker per core whose bounded queue makes the submitting thread run a task
+    //          itself when the workers are behind, so it never gets far ahead of them
+    private static ThreadPoolExecutor newWorkerPool() {
+        int workers = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(2 * workers), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // EFFECTS: waits for all tasks to finish, rethrows the exception of the first one that failed
+    private static void awaitAll(List<Future<Void>> tasks) throws IOException, CryptoException {
+        try {
+            for (Future<Void> f : tasks) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CryptoException) throw (CryptoException) e.getCause();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
     }
 
+    // EFFECTS: stops pool and cancels the tasks it has not started, so waiting for them does not block; running
+    //          tasks are not interrupted, as an interrupt would close channels they share with other threads
+    private static void cancelQueued(ThreadPoolExecutor pool) {
+        pool.shutdown();
+        List<Runnable> queued = new ArrayList<>();
+        pool.getQueue().drainTo(queued);
+        for (Runnable task : queued) {
+            ((Future<?>) task).cancel(false);
+        }
+    }
+
+    // EFFECTS: waits for all tasks to finish, ignoring their failures
+    private static void awaitQuietly(List<Future<Void>> tasks) {
+        for (Future<Void> f : tasks) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | CancellationException e) {
+                // only the first failure is reported
+            }
+        }
+    }
+
+    // EFFECTS: loads the catalog and replays the journal on top of it;
+    //          a tree stored in the .vault file by an older version is moved to the catalog on the next sync
     public void loadVault(File vault, char[] password) throws IOException, CryptoException {
-        this.contents = new Reader(vault).readJson();
+        this.contents = journal.readSnapshot();
+        deduplicate = contents.has("deduplicate") && contents.get("deduplicate").getAsBoolean();
+        packing = !contents.has("packing") || contents.get("packing").getAsBoolean();
+        thumbnails = contents.has("thumbnails") && contents.get("thumbnails").getAsBoolean();
         unlock(password);
-        root.addEntries(contents.getAsJsonObject("filesystem").getAsJsonArray("entries"));
+        journal.setCryptoUtils(cryptoUtils);
+        if (contents.has("filesystem")) {
+            root.addEntries(contents.getAsJsonObject("filesystem").getAsJsonArray("entries"));
+            catalog = new JsonCatalog(catalogFile, cryptoUtils);
+        } else {
+            if (contents.has("catalog") && contents.get("catalog").getAsString().equals(CatalogFormat.BINARY.name())) {
+                catalog = BinaryCatalog.open(catalogFile, root, cryptoUtils, chunks, packs);
+            } else {
+                catalog = JsonCatalog.open(catalogFile, root, cryptoUtils);
+            }
+            journal.setSnapshotSeq(catalog.getSeq());
+        }
+        searchSeq = catalog.getSeq();
+        for (JsonObject record : journal.readRecords()) {
+            replay(record);
+        }
     }
 
-    // EFFECTS: creates new directory under given VaultDirectory
-    public void createFolder(String name, VaultDirectory parent) throws IOException {
-        String id = UUID.randomUUID().toString();
-        String pathFromRoot = dataFolder.getPath() + "/" + root.getPathOfEntry(parent.getId(), false);
-        boolean result = new File(pathFromRoot, id).mkdir();
-        parent.addEntry(new VaultDirectory(id, name));
-        sync();
+    // EFFECTS: applies a mutation recorded in the journal to the filesystem tree
+    private void replay(JsonObject record) {
+        String op = record.get("op").getAsString();
+        if (op.equals("move")) {
+            replayMoves(record.getAsJsonArray("moves"));
+            return;
+        }
+        VaultDirectory parent = (VaultDirectory) getEntryById(record.get("parent").getAsString());
+        switch (op) {
+            case "add":
+                JsonArray entries = new JsonArray();
+                entries.add(record.get("entry"));
+                parent.addEntries(entries);
+                VaultEntry added = index.get(UUID.fromString(
+                        record.getAsJsonObject("entry").get("id").getAsString()));
+                updateSearch(search -> search.add(added));
+                break;
+            case "delete":
+                VaultEntry deleted = getEntryById(record.get("id").getAsString());
+                if (deleted.getClass().equals(VaultDirectory.class) && (chunks.exists() || packs.exists())) {
+                    ((VaultDirectory) deleted).loadAll(); // so the chunks and packs of its files are released
+                }
+                parent.deleteEntry(deleted);
+                updateSearch(search -> search.remove(deleted.getUuid()));
+                break;
+            case "rename":
+                VaultEntry renamed = getEntryById(record.get("id").getAsString());
+                try {
+                    parent.renameEntry(renamed, record.get("name").getAsString());
+                } catch (FileAlreadyExistsException e) {
+                    throw new JsonParseException("journal renames onto existing entry: " + e.getFile());
+                }
+                updateSearch(search -> search.rename(renamed.getUuid(), renamed.getName()));
+                break;
+            default:
+                throw new JsonParseException("unknown journal record: " + op);
+        }
+    }
+
+    // EFFECTS: moves the packed files of a repack recorded in the journal to their new locations
+    private void replayMoves(JsonArray moves) {
+        for (int i = 0; i < moves.size(); i++) {
+            JsonObject move = moves.get(i).getAsJsonObject();
+            VaultEntry entry = getEntryById(move.get("id").getAsString());
+            if (entry == null || !entry.getClass().equals(VaultFile.class)) {
+                throw new JsonParseException("journal moves unknown file: " + move.get("id").getAsString());
+            }
+            moveTo((VaultFile) entry, PackLocation.fromJson(move.getAsJsonObject("pack")));
+        }
+    }
+
+    // MODIFIES: this, file
+    // EFFECTS: records that the contents of file, which is in the tree, are now at location
+    // REQUIRES: the calling thread holds the monitor of this vault
+    private void moveTo(VaultFile file, PackLocation location) {
+        packs.release(file);
+        file.setPack(location);
+        packs.retain(file);
+    }
+
+    // EFFECTS: returns entry with given id, including root, or null if there is none;
+    //          reads all directories of a binary catalog if the entry is in one not visited yet
+    public synchronized VaultEntry getEntryById(String id) {
+        VaultEntry entry = index.get(UUID.fromString(id));
+        if (entry == null && catalog.hasUnloaded()) {
+            root.loadAll();
+            entry = index.get(UUID.fromString(id));
+        }
+        return entry;
+    }
+
+    // EFFECTS: returns journal record of entry being added to parent
+    private static JsonObject addRecord(VaultEntry entry, VaultDirectory parent) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "add");
+        record.addProperty("parent", parent.getId());
+        record.add("entry", entry.toJson());
+        return record;
+    }
+
+    // EFFECTS: returns journal record of entry with given id being deleted from or renamed in parent
+    private static JsonObject entryRecord(String op, VaultEntry entry, VaultDirectory parent) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", op);
+        record.addProperty("parent", parent.getId());
+        record.addProperty("id", entry.getId());
+        return record;
+    }
+
+    // EFFECTS: creates new directory under given VaultDirectory, with a unique name if name is taken, and returns it
+    public VaultDirectory createFolder(String name, VaultDirectory parent) throws IOException {
+        long seq;
+        VaultDirectory dir;
+        begin();
+        try {
+            synchronized (this) {
+                String id = UUID.randomUUID().toString();
+                String folder = pathOf(parent);
+                blobs.createFolder(BlobStore.child(folder, id));
+                dir = new VaultDirectory(id, parent.uniqueName(name));
+                parent.addEntry(dir);
+                VaultDirectory created = dir;
+                updateSearch(search -> search.add(created));
+                blobs.syncBefore(folder, journal);
+                seq = log(addRecord(dir, parent));
+            }
+            journal.sync(seq);
+        } finally {
+            end();
+        }
+        return dir;
+    }
+
+    // EFFECTS: renames entry in directory; throws FileAlreadyExistsException if the name is taken
+    public void rename(VaultEntry entry, VaultDirectory directory, String name) throws IOException {
+        long seq;
+        begin();
+        try {
+            synchronized (this) {
+                directory.renameEntry(entry, name);
+                updateSearch(search -> search.rename(entry.getUuid(), name));
+                JsonObject record = entryRecord("rename", entry, directory);
+                record.addProperty("name", name);
+                seq = log(record);
+            }
+            journal.sync(seq);
+        } finally {
+            end();
+        }
     }
 
-    // EFFECTS: decrypts and saves contents of fileName to outputDirectory
+    // EFFECTS: decrypts and saves contents of fileName, at the top level of the vault, to outputDirectory
     public void saveFile(String fileName, File outputDirectory) throws IOException, CryptoException {
-        for (VaultEntry entry : root.getEntries()) {
-            if (entry.getName().equals(fileName)) {
-                File encrypted = new File(dataFolder, root.getPathOfEntry(entry.getId(), false));
-                byte[] decrypted = cryptoUtils.decrypt(new Reader(encrypted).readBytes(), pwd);
-                new Writer(new File(outputDirectory, fileName)).writeBytes(decrypted);
-                break;
+        VaultEntry entry;
+        synchronized (this) {
+            entry = root.getEntry(fileName);
+        }
+        if (entry != null) {
+            export(entry, outputDirectory, ProgressListener.NONE);
+        }
+    }
+
+    // EFFECTS: decrypts entry, and everything under it if it is a directory, into outputDirectory, replacing files
+    //          with the same names. Files are decrypted by one worker per core, each streamed straight to disk;
+    //          listener is told about the files and bytes done, from the worker that did them. Throws
+    //          InterruptedIOException if listener cancels; the files already written are left in place
+    public void export(VaultEntry entry, File outputDirectory, ProgressListener listener)
+            throws IOException, CryptoException {
+        begin();
+        try {
+            exportTree(entry, outputDirectory, listener);
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: decrypts entry into outputDirectory like export
+    private void exportTree(VaultEntry entry, File outputDirectory, ProgressListener listener)
+            throws IOException, CryptoException {
+        List<VaultFile> files = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        synchronized (this) {
+            collectExports(entry, outputDirectory, files, paths, outputs);
+        }
+
+        Progress progress = new Progress(listener, files.size(), entry.getSize());
+        ThreadPoolExecutor pool = newWorkerPool();
+        List<Future<Void>> written = new ArrayList<>();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                VaultFile file = files.get(i);
+                String path = paths.get(i);
+                File output = outputs.get(i);
+                Progress.FileProgress fileProgress = progress.startFile(file.getSize());
+                written.add(pool.submit(() -> {
+                    if (file.isPacked()) {
+                        try (InputStream in = Channels.newInputStream(openEncrypted(file));
+                             FileChannel out = new Writer(output).openChannel()) {
+                            cryptoUtils.decrypt(in, Channels.newOutputStream(fileProgress.track(out)),
+                                    file.getCodec());
+                        }
+                    } else if (file.isChunked()) {
+                        try (SeekableByteChannel in = openPlain(file);
+                             FileChannel out = new Writer(output).openChannel()) {
+                            for (long n = 0; n < in.size(); ) {
+                                long transferred = out.transferFrom(in, n, in.size() - n);
+                                fileProgress.add(transferred);
+                                n += transferred;
+                            }
+                        } catch (IOException e) {
+                            throw CryptoUtils.unwrap(e);
+                        }
+                    } else {
+                        try (SeekableByteChannel in = blobs.open(path);
+                             FileChannel out = new Writer(output).openChannel()) {
+                            cryptoUtils.decrypt(in, fileProgress.track(out), file.getCodec());
+                        }
+                    }
+                    fileProgress.done();
+                    return null;
+                }));
             }
+            awaitAll(written);
+        } catch (IOException | CryptoException e) {
+            cancelQueued(pool);
+            throw e;
+        } finally {
+            pool.shutdown();
         }
     }
 
-    // EFFECTS: decrypts and returns contents of file
-    public byte[] open(VaultEntry entry) throws IOException, CryptoException {
+    // EFFECTS: creates the local directories of the tree under entry and lists its files with the paths of their
+    //          blobs and their destinations
+    private void collectExports(VaultEntry entry, File outputDirectory, List<VaultFile> files, List<String> paths,
+                                List<File> outputs) throws IOException {
+        File output = new File(outputDirectory, entry.getName());
         if (entry.getClass().equals(VaultFile.class)) {
-            File encrypted = new File(dataFolder, root.getPathOfEntry(entry.getId(), false));
-            return cryptoUtils.decrypt(new Reader(encrypted).readBytes(), pwd);
+            files.add((VaultFile) entry);
+            paths.add(pathOf(entry));
+            outputs.add(output);
         } else {
+            if (!output.isDirectory() && !output.mkdirs()) {
+                throw new IOException("could not create " + output);
+            }
+            for (VaultEntry e : ((VaultDirectory) entry).getEntries()) {
+                collectExports(e, output, files, paths, outputs);
+            }
+        }
+    }
+
+    // EFFECTS: returns the path in the blob store of the contents of entry, or of the folder of a directory
+    private synchronized String pathOf(VaultEntry entry) {
+        return root.getPathOfEntry(entry.getId(), false);
+    }
+
+    // EFFECTS: decrypts and returns contents of file
+    public byte[] open(VaultEntry entry) throws IOException, CryptoException {
+        if (!entry.getClass().equals(VaultFile.class)) {
             return new byte[0];
         }
+        begin();
+        try {
+            if (((VaultFile) entry).isChunked() || ((VaultFile) entry).isPacked()
+                    || ((VaultFile) entry).getCodec() != Codec.NONE) {
+                return read((VaultFile) entry, 0, (int) entry.getSize());
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) entry.getSize());
+            cryptoUtils.decrypt(Channels.newInputStream(blobs.open(pathOf(entry))), out);
+            return out.toByteArray();
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: opens a seekable channel over the decrypted contents of file; reads decrypt only the segments they
+    //          cover, and in a compressed file decompress only the blocks they cover. Locking the vault waits for
+    //          the channel to be closed
+    public SeekableByteChannel openChannel(VaultFile file) throws IOException, CryptoException {
+        begin();
+        try {
+            return new OperationChannel(openPlain(file));
+        } catch (IOException | CryptoException | RuntimeException e) {
+            end();
+            throw e;
+        }
     }
 
-    // EFFECTS: deletes entry from directory and disk
+    // EFFECTS: opens a channel over the decrypted contents of file like openChannel
+    private SeekableByteChannel openPlain(VaultFile file) throws IOException, CryptoException {
+        if (file.isChunked()) {
+            return chunks.openChannel(file.getChunks());
+        }
+        SeekableByteChannel in = openEncrypted(file);
+        SeekableByteChannel plain;
+        try {
+            plain = new DecryptingChannel(in, cryptoUtils);
+        } catch (IOException | CryptoException e) {
+            in.close();
+            throw e;
+        }
+        return file.getCodec() == Codec.NONE ? plain : new DecompressingChannel(plain, file.getSize(), file.getCodec());
+    }
+
+    // EFFECTS: opens the encrypted contents of file, in its pack or in its own blob
+    private SeekableByteChannel openEncrypted(VaultFile file) throws IOException {
+        synchronized (this) { // a pack is only deleted once no file of the tree is in it
+            if (file.isPacked()) {
+                return packs.open(file.getPack());
+            }
+        }
+        return blobs.open(pathOf(file));
+    }
+
+    // EFFECTS: decrypts and returns up to length bytes of file starting at offset
+    public byte[] readAt(VaultEntry entry, long offset, int length) throws IOException, CryptoException {
+        if (!entry.getClass().equals(VaultFile.class)) {
+            return new byte[0];
+        }
+        begin();
+        try {
+            return read((VaultFile) entry, offset, length);
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: decrypts and returns up to length bytes of file like readAt
+    private byte[] read(VaultFile file, long offset, int length) throws IOException, CryptoException {
+        try (SeekableByteChannel channel = openPlain(file)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - offset)));
+            channel.position(offset);
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                // keep reading until the requested range is filled
+            }
+            return buf.array();
+        } catch (IOException e) {
+            throw CryptoUtils.unwrap(e);
+        }
+    }
+
+    // EFFECTS: deletes entry from directory and disk; the contents are removed only once the deletion is on disk,
+    //          so the catalog never refers to a missing file. Packs left without files are deleted, and packs
+    //          mostly taken up by deleted files are repacked in the background
     public void delete(VaultEntry entry, VaultDirectory directory) throws IOException {
-        File file = new File(dataFolder, root.getPathOfEntry(entry.getId(), false)); // file corresponding to the given entry within data folder
-        if (entry.getClass().equals(VaultFile.class)) {
-            file.delete();
-        } else {
-            FileUtils.deleteDirectory(new File(dataFolder, root.getPathOfEntry(entry.getId(), false)));
+        begin();
+        try {
+            remove(entry, directory);
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: deletes entry from directory like delete
+    private void remove(VaultEntry entry, VaultDirectory directory) throws IOException {
+        String path; // path of the blob or folder of entry in the blob store
+        List<String> unused;
+        long seq;
+        synchronized (this) {
+            path = pathOf(entry);
+            if (entry.getClass().equals(VaultDirectory.class) && (chunks.exists() || packs.exists())) {
+                ((VaultDirectory) entry).loadAll(); // so the chunks and packs of its files are released
+            }
+            directory.deleteEntry(entry);
+            updateSearch(search -> search.remove(entry.getUuid()));
+            seq = log(entryRecord("delete", entry, directory));
+            unused = chunks.takeUnused();
+        }
+        journal.sync(seq);
+        blobs.delete(path);
+        if (entry.getClass().equals(VaultFile.class) && ((VaultFile) entry).hasThumbnail()) {
+            blobs.delete(thumbnailPath(path));
+        }
+        chunks.delete(unused);
+        if (packs.exists() && (entry.getClass().equals(VaultDirectory.class) || ((VaultFile) entry).isPacked())) {
+            reclaimPacks();
         }
-        directory.deleteEntry(entry);
-        sync();
     }
 
+    // EFFECTS: deletes the packs no file is in and queues a repack if some are mostly taken up by deleted files
+    private void reclaimPacks() throws IOException {
+        packs.deleteEmpty();
+        if (packs.hasSparse() && repackQueued.compareAndSet(false, true)) {
+            try {
+                repacker.execute(() -> {
+                    repackQueued.set(false);
+                    try {
+                        repack();
+                    } catch (IOException e) {
+                        // the packs stay as they are until the next repack
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                repackQueued.set(false); // the vault is being locked
+            }
+        }
+    }
+
+    // EFFECTS: moves the files of the packs mostly taken up by deleted files to the end of the current pack and
+    //          deletes those packs. The copies are forced to disk and the moves committed in one journal record
+    //          before any pack is deleted. The files are found by walking the tree, which is only locked for one
+    //          directory at a time and to record the moves, until all files of those packs are found; a file deleted
+    //          or moved in the meantime keeps its place and its copy is left as dead space
+    public void repack() throws IOException {
+        begin();
+        try {
+            synchronized (repacking) {
+                movePacked();
+            }
+        } finally {
+            end();
+        }
+    }
+
+    // EFFECTS: moves the files of sparse packs like repack
+    // REQUIRES: the calling thread holds repacking
+    private void movePacked() throws IOException {
+        List<VaultFile> files = new ArrayList<>();
+        List<PackLocation> from = new ArrayList<>();
+        List<PackLocation> copies = new ArrayList<>();
+        try {
+            Map<Integer, Integer> sparse = packs.sparsePacks();
+            int[] left = {sparse.values().stream().mapToInt(Integer::intValue).sum()};
+            if (left[0] > 0) {
+                walkTree(dir -> {
+                    for (VaultEntry e : dir.getEntries()) {
+                        if (e.getClass().equals(VaultFile.class) && ((VaultFile) e).isPacked()
+                                && sparse.containsKey(((VaultFile) e).getPack().getPack())) {
+                            files.add((VaultFile) e);
+                            from.add(((VaultFile) e).getPack());
+                            left[0]--;
+                        }
+                    }
+                    return left[0] > 0;
+                });
+            }
+            for (PackLocation location : from) {
+                copies.add(packs.copy(location));
+            }
+            packs.force();
+            long seq = -1;
+            synchronized (this) {
+                JsonArray moves = new JsonArray();
+                for (int i = 0; i < files.size(); i++) {
+                    VaultFile f = files.get(i);
+                    if (index.get(f.getUuid()) == f && f.getPack() == from.get(i)) {
+                        moveTo(f, copies.get(i));
+                        JsonObject move = new JsonObject();
+                        move.addProperty("id", f.getId());
+                        move.add("pack", copies.get(i).toJson());
+                        moves.add(move);
+                    }
+                }
+                if (!moves.isEmpty()) {
+                    JsonObject record = new JsonObject();
+                    record.addProperty("op", "move");
+                    record.add("moves", moves);
+                    seq = log(record);
+                }
+            }
+            if (seq >= 0) {
+                journal.sync(seq);
+            }
+        } finally {
+            copies.forEach(packs::unpin);
+            packs.endRepack();
+        }
+        packs.deleteEmpty();
+    }
+
+    /**
+     * channel over the decrypted contents of a file, counted as an operation of the vault until it is closed
+     */
+    private class OperationChannel implements SeekableByteChannel {
+        private final SeekableByteChannel channel;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        // REQUIRES: begin was called for the channel
+        private OperationChannel(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        // EFFECTS: closes the channel and ends its operation, once
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    channel.close();
+                } finally {
+                    end();
+                }
+            }
+        }
+    }
 }
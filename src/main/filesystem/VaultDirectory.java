@@ -3,31 +3,137 @@ package main.filesystem;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.util.*;
 
 /**
  * represents a directory entry
  */
 public class VaultDirectory extends VaultEntry {
-    private ArrayList<VaultEntry> entries;
+    private LinkedHashMap<String, VaultEntry> entries; // by name, in the order added or last renamed
+    private Collection<VaultEntry> view; // read-only view of the entries
+    private EntryIndex index; // index of the tree this directory belongs to, null if it is not attached to one
+    private DirectoryLoader loader; // reads entries on first visit, null once they are in memory
 
     // EFFECTS: constructs new directory with given id, name, zero size, empty entries
     public VaultDirectory(String id, String name) {
         super(id, name);
         this.size = 0;
-        entries = new ArrayList<>();
+        entries = new LinkedHashMap<>();
+        view = Collections.unmodifiableCollection(entries.values());
+    }
+
+    // EFFECTS: constructs directory of given size whose entries are read by loader when it is first visited
+    public VaultDirectory(String id, String name, long size, DirectoryLoader loader) {
+        this(id, name);
+        this.size = size;
+        this.loader = loader;
     }
 
     // GETTERS
-    public ArrayList<VaultEntry> getEntries() {
-        return entries;
+    // EFFECTS: returns read-only view of the entries of this directory, in the order they were added or last
+    //          renamed; names are unique within a directory
+    public Collection<VaultEntry> getEntries() {
+        load();
+        return view;
+    }
+
+    public DirectoryLoader getLoader() {
+        return loader;
+    }
+
+    // EFFECTS: returns true if the entries of this directory are in memory
+    public boolean isLoaded() {
+        return loader == null;
+    }
+
+    // EFFECTS: reads entries of this directory if they are not in memory yet
+    private void load() {
+        if (loader == null) return;
+        DirectoryLoader l = loader;
+        loader = null;
+        try {
+            l.load(this);
+        } catch (IOException e) {
+            entries.clear();
+            loader = l;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // EFFECTS: reads entries of this directory and of all directories below it
+    public void loadAll() {
+        for (VaultEntry e : getEntries()) {
+            if (e.getClass().equals(VaultDirectory.class)) {
+                ((VaultDirectory) e).loadAll();
+            }
+        }
+    }
+
+    // EFFECTS: returns entries of this directory that are in memory, without reading any
+    protected Collection<VaultEntry> getLoadedEntries() {
+        return view;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: adds a stored entry while this directory is being loaded; its size is already counted in this one,
+    //          and its chunks and pack in the counts stored with the catalog
+    protected void addLoadedEntry(VaultEntry entry) {
+        entries.put(entry.getName(), entry);
+        entry.setParent(this);
+        if (index != null) {
+            index.addStored(entry);
+        }
+    }
+
+    // EFFECTS: returns entry with given name in this directory, or null if there is none
+    public VaultEntry getEntry(String name) {
+        load();
+        return entries.get(name);
+    }
+
+    // EFFECTS: returns name if no entry in this directory has it; otherwise, returns the first free name of the
+    //          form "name (n).ext", the way file managers name copies
+    public String uniqueName(String name) {
+        load();
+        if (!entries.containsKey(name)) return name;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int n = 1; ; n++) {
+            String candidate = base + " (" + n + ")" + ext;
+            if (!entries.containsKey(candidate)) return candidate;
+        }
+    }
+
+    // MODIFIES: this, index
+    // EFFECTS: makes this directory the root of the tree indexed by index and indexes all entries below it
+    public void attachIndex(EntryIndex index) {
+        index.add(this);
     }
 
-    // EFFECTS: recursively finds path of entry relative to current directory
+    protected void setIndex(EntryIndex index) {
+        this.index = index;
+    }
+
+    // EFFECTS: finds path of entry relative to current directory by walking up from the entry;
+    //          returns null if the entry is not below this directory
     public String getPathOfEntry(String id, boolean useName){
         if(this.getId().equals(id)) return "";
+        if(index != null) {
+            VaultEntry entry = index.get(UUID.fromString(id));
+            StringBuilder path = new StringBuilder();
+            for(VaultEntry e = entry; e != null; e = e.getParent()) {
+                if(e == this) return path.toString();
+                if(path.length() > 0) path.insert(0, '/');
+                path.insert(0, useName ? e.getName() : e.getId());
+            }
+            return null;
+        }
 
-        for(VaultEntry entry: entries){
+        for(VaultEntry entry: getEntries()){
             String path = useName ? entry.getName() : entry.getId();
             if(entry.getId().equals(id)){
                 return path;
@@ -40,23 +146,41 @@ public class VaultDirectory extends VaultEntry {
         return null;
     }
 
-    // EFFECTS: adds an entry to the directory
+    // EFFECTS: adds an entry to the directory;
+    //          throws IllegalArgumentException if an entry with the same name is already in the directory
     public void addEntry(VaultEntry entry) {
-        entries.add(entry);
-        size += entry.getSize();
+        load();
+        if (entries.putIfAbsent(entry.getName(), entry) != null) {
+            throw new IllegalArgumentException("\"" + entry.getName() + "\" already exists in \"" + getName() + "\"");
+        }
+        entry.setParent(this);
+        if (index != null) {
+            index.add(entry);
+        }
+        addSize(entry.getSize());
+    }
+
+    // EFFECTS: adds delta to size of this directory and all directories above it
+    private void addSize(long delta) {
+        for (VaultDirectory dir = this; dir != null; dir = dir.getParent()) {
+            dir.size += delta;
+        }
     }
 
-    // EFFECTS: recursively adds all entries from JSON Array
+    // EFFECTS: recursively adds all entries from JSON Array;
+    //          entries whose name is already taken, which older vaults allowed, get a unique name
     public void addEntries(JsonArray entries) {
         for (JsonElement e : entries) {
             JsonObject obj = (JsonObject) e;
+            String name = uniqueName(obj.get("name").getAsString());
             if (obj.has("entries")) {
-                VaultDirectory dir = new VaultDirectory(obj.get("id").getAsString(), obj.get("name").getAsString());
-                dir.addEntries(obj.get("entries").getAsJsonArray());
+                VaultDirectory dir = new VaultDirectory(obj.get("id").getAsString(), name);
                 addEntry(dir);
+                dir.addEntries(obj.get("entries").getAsJsonArray());
             } else {
-                VaultFile file = new VaultFile(obj.get("id").getAsString(), obj.get("name").getAsString(),
-                        obj.get("size").getAsLong());
+                VaultFile file = new VaultFile(obj.get("id").getAsString(), name, obj.get("size").getAsLong(),
+                        VaultFile.chunksFromJson(obj), VaultFile.codecFromJson(obj), VaultFile.packFromJson(obj),
+                        VaultFile.thumbnailFromJson(obj));
                 addEntry(file);
             }
         }
@@ -64,8 +188,26 @@ public class VaultDirectory extends VaultEntry {
 
     // EFFECTS: deletes an entry from the directory
     public void deleteEntry(VaultEntry entry) {
-        entries.remove(entry);
-        size -= entry.getSize();
+        load();
+        if (!entries.remove(entry.getName(), entry)) return;
+        if (index != null) {
+            index.remove(entry);
+        }
+        entry.setParent(null);
+        addSize(-entry.getSize());
+    }
+
+    // EFFECTS: renames entry of this directory; throws FileAlreadyExistsException if another entry has the name
+    public void renameEntry(VaultEntry entry, String name) throws FileAlreadyExistsException {
+        load();
+        VaultEntry existing = entries.get(name);
+        if (existing == entry) return;
+        if (existing != null) {
+            throw new FileAlreadyExistsException(name);
+        }
+        entries.remove(entry.getName());
+        entry.setName(name);
+        entries.put(name, entry);
     }
 
     // EFFECTS: returns JsonObject containing data of this directory and its sub-entries
@@ -78,21 +220,33 @@ public class VaultDirectory extends VaultEntry {
 
         JsonArray entriesJson = new JsonArray();
         dirJson.add("entries", entriesJson);
-        for (VaultEntry entry : entries) {
+        for (VaultEntry entry : getEntries()) {
             entriesJson.add(entry.toJson());
         }
 
         return dirJson;
     }
 
+    // EFFECTS: finds entry with given id below this directory
+    public VaultEntry getEntryById(String id) {
+        if (index != null) {
+            VaultEntry entry = index.get(UUID.fromString(id));
+            return entry != null && entry != this && getPathOfEntry(id, false) != null ? entry : null;
+        }
+        return getEntryById(id, getEntries());
+    }
+
     // EFFECTS: recursively finds entry with given id
-    public VaultEntry getEntryById(String id, ArrayList<VaultEntry> entries){
+    public VaultEntry getEntryById(String id, Collection<VaultEntry> entries){
+        if (index != null && entries == getEntries()) {
+            return getEntryById(id);
+        }
         for(VaultEntry e:entries){
             if(e.getClass().equals(VaultDirectory.class)){
                 if(e.getId().equals(id)) {
                     return e;
                 }
-                VaultEntry res = getEntryById(id, ((VaultDirectory) e).entries);
+                VaultEntry res = getEntryById(id, ((VaultDirectory) e).getEntries());
                 if(res!=null)
                     return res;
             }
@@ -14,6 +14,7 @@ public abstract class VaultEntry implements Jsonable {
     protected long size;
     private UUID id;
     private String name;
+    private VaultDirectory parent; // null for root and detached entries
     public VaultEntry(String id, String name){
         this.id = UUID.fromString(id);
         this.name = name;
@@ -22,8 +23,14 @@ public abstract class VaultEntry implements Jsonable {
     // GETTERS
     public String getId(){return id.toString();}
     public String getName(){return name;}
+    public UUID getUuid(){return id;}
+    public VaultDirectory getParent(){return parent;}
 
     public long getSize(){return size;}
 
+    // SETTERS
+    protected void setName(String name){this.name = name;}
+    protected void setParent(VaultDirectory parent){this.parent = parent;}
+
     public abstract JsonObject toJson();
 }
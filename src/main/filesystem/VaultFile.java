@@ -1,20 +1,142 @@
 package main.filesystem;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import main.io.Codec;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class VaultFile extends VaultEntry{
+    private List<Chunk> chunks; // pieces of the contents in the chunk store, null if stored as a single file
+    private Codec codec = Codec.NONE; // compression of the contents before they were encrypted
+    private PackLocation pack; // where the contents are in the pack store, null if not packed
+    private boolean thumbnail; // whether an encrypted thumbnail of the image is kept next to the contents
 
     public VaultFile(String id, String name, long size) {
         super(id, name);
         this.size = size;
     }
 
+    // EFFECTS: constructs file whose contents are the given chunks of the chunk store, in order
+    public VaultFile(String id, String name, long size, List<Chunk> chunks) {
+        this(id, name, size);
+        this.chunks = chunks;
+    }
+
+    // EFFECTS: constructs file whose contents were compressed with codec before they were encrypted
+    public VaultFile(String id, String name, long size, List<Chunk> chunks, Codec codec) {
+        this(id, name, size, chunks);
+        this.codec = codec;
+    }
+
+    // EFFECTS: constructs file whose encrypted contents are at pack in the pack store, if it is not null
+    public VaultFile(String id, String name, long size, List<Chunk> chunks, Codec codec, PackLocation pack) {
+        this(id, name, size, chunks, codec);
+        this.pack = pack;
+    }
+
+    // EFFECTS: constructs file that has an encrypted thumbnail of its image in the blob store if thumbnail
+    public VaultFile(String id, String name, long size, List<Chunk> chunks, Codec codec, PackLocation pack,
+                     boolean thumbnail) {
+        this(id, name, size, chunks, codec, pack);
+        this.thumbnail = thumbnail;
+    }
+
+    // GETTERS
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public PackLocation getPack() {
+        return pack;
+    }
+
+    // EFFECTS: returns true if the contents are kept in the pack store
+    public boolean isPacked() {
+        return pack != null;
+    }
+
+    // EFFECTS: returns true if an encrypted thumbnail of the image is kept next to the contents
+    public boolean hasThumbnail() {
+        return thumbnail;
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks == null ? Collections.emptyList() : Collections.unmodifiableList(chunks);
+    }
+
+    // EFFECTS: returns true if the contents are kept in the chunk store
+    public boolean isChunked() {
+        return chunks != null;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: stores the contents of this file as the given chunks; only for files not in a tree yet
+    protected void setChunks(List<Chunk> chunks) {
+        this.chunks = chunks;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: records that the contents of this file were compressed with codec; only for files not in a tree yet
+    protected void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: records that the contents of this file are at pack in the pack store; for files not in a tree yet,
+    //          or moved by a repack while the file is out of the index
+    protected void setPack(PackLocation pack) {
+        this.pack = pack;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: records whether a thumbnail of the image is kept; only for files not in a tree yet
+    protected void setThumbnail(boolean thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
 //    @Override
 //    public String getPathOfEntry(String id, Stack<VaultEntry> stack) {
 //        return null;
 //    }
 
+    // EFFECTS: returns chunks stored in json, or null if there are none
+    public static List<Chunk> chunksFromJson(JsonObject json) {
+        if (!json.has("chunks")) return null;
+        List<Chunk> chunks = new ArrayList<>();
+        for (JsonElement e : json.getAsJsonArray("chunks")) {
+            chunks.add(Chunk.fromJson(e.getAsJsonObject()));
+        }
+        return chunks;
+    }
+
+    // EFFECTS: returns pack location stored in json, or null if there is none
+    public static PackLocation packFromJson(JsonObject json) {
+        return json.has("pack") ? PackLocation.fromJson(json.getAsJsonObject("pack")) : null;
+    }
+
+    // EFFECTS: returns true if json says the file has a thumbnail
+    public static boolean thumbnailFromJson(JsonObject json) {
+        return json.has("thumbnail") && json.get("thumbnail").getAsBoolean();
+    }
+
+    // EFFECTS: returns codec stored in json, NONE if there is none
+    public static Codec codecFromJson(JsonObject json) {
+        return json.has("codec") ? codecOf(json.get("codec").getAsString()) : Codec.NONE;
+    }
+
+    // EFFECTS: returns codec with given name; throws JsonParseException if there is none
+    public static Codec codecOf(String name) {
+        try {
+            return Codec.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException("unknown codec: " + name);
+        }
+    }
+
     // EFFECTS: returns JsonObject containing data of this entry
     @Override
     public JsonObject toJson() {
@@ -22,6 +144,22 @@ public class VaultFile extends VaultEntry{
         fileJson.addProperty("id",getId());
         fileJson.addProperty("name",getName());
         fileJson.addProperty("size",getSize());
+        if (chunks != null) {
+            JsonArray chunksJson = new JsonArray();
+            for (Chunk c : chunks) {
+                chunksJson.add(c.toJson());
+            }
+            fileJson.add("chunks", chunksJson);
+        }
+        if (codec != Codec.NONE) {
+            fileJson.addProperty("codec", codec.name());
+        }
+        if (pack != null) {
+            fileJson.add("pack", pack.toJson());
+        }
+        if (thumbnail) {
+            fileJson.addProperty("thumbnail", true);
+        }
         return fileJson;
     }
 }
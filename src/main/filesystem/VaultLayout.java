@@ -0,0 +1,9 @@
+package main.filesystem;
+
+/**
+ * how the encrypted files and the catalog of a vault are kept on disk
+ */
+public enum VaultLayout {
+    FOLDERS,   // a folder per directory under the data folder, a file per file, the catalog in a file of its own
+    CONTAINER  // every file and the catalog in one .container file, copied with a single sequential read
+}
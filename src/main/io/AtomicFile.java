@@ -0,0 +1,48 @@
+package main.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * contents that are only ever replaced as a whole: after a crash they are either the old or the new contents
+ */
+public interface AtomicFile {
+
+    // EFFECTS: returns the name of the contents, for messages
+    String getName();
+
+    // EFFECTS: returns number of bytes of the contents, 0 if they were never written
+    long length();
+
+    // EFFECTS: opens the contents for reading; throws IOException if they were never written
+    SeekableByteChannel openChannel() throws IOException;
+
+    // EFFECTS: replaces the contents with content and forces them to disk
+    void write(Writer.Content content) throws IOException;
+
+    // EFFECTS: returns the contents of file, replaced by writing a temporary file and renaming it over file
+    static AtomicFile of(File file) {
+        return new AtomicFile() {
+            @Override
+            public String getName() {
+                return file.getName();
+            }
+
+            @Override
+            public long length() {
+                return file.length();
+            }
+
+            @Override
+            public SeekableByteChannel openChannel() throws IOException {
+                return new Reader(file).openChannel();
+            }
+
+            @Override
+            public void write(Writer.Content content) throws IOException {
+                new Writer(file).writeAtomic(content);
+            }
+        };
+    }
+}
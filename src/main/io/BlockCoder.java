@@ -0,0 +1,83 @@
+package main.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * compresses and decompresses single blocks of up to BLOCK_SIZE bytes with a codec, each on its own, so any block
+ * can be decompressed without the ones before it; holds the native state of DEFLATE until it is closed
+ */
+class BlockCoder implements Closeable {
+    static final int BLOCK_SIZE = Lz.MAX_BLOCK;
+    static final int MAX_COMPRESSED = Lz.maxCompressedLength(BLOCK_SIZE); // room compress needs in dst
+
+    private final Codec codec;
+    private Deflater deflater;
+    private Inflater inflater;
+
+    // REQUIRES: codec is not NONE
+    BlockCoder(Codec codec) {
+        this.codec = codec;
+    }
+
+    // REQUIRES: len <= BLOCK_SIZE, dst has room for MAX_COMPRESSED bytes from 0
+    // EFFECTS: compresses the first len bytes of src into dst, returns number of bytes written; len or more means
+    //          the block does not shrink and is better stored as it is
+    int compress(byte[] src, int len, byte[] dst) {
+        if (codec == Codec.FAST) {
+            return Lz.compress(src, len, dst);
+        }
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setStrategy(Deflater.HUFFMAN_ONLY); // FAST found no repeats worth coding, so none are searched for
+        }
+        deflater.reset();
+        deflater.setInput(src, 0, len);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished() && n < len) {
+            n += deflater.deflate(dst, n, len - n);
+        }
+        return deflater.finished() ? n : len;
+    }
+
+    // EFFECTS: decompresses the srcLen bytes of src into the first dstLen bytes of dst; throws IOException if they
+    //          do not decompress to exactly dstLen bytes
+    void decompress(byte[] src, int srcLen, byte[] dst, int dstLen) throws IOException {
+        if (codec == Codec.FAST) {
+            Lz.decompress(src, srcLen, dst, dstLen);
+            return;
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(src, 0, srcLen);
+        int n = 0;
+        try {
+            while (n < dstLen && !inflater.finished()) {
+                int k = inflater.inflate(dst, n, dstLen - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("compressed block is corrupt", e);
+        }
+        if (n != dstLen || !inflater.finished()) {
+            throw new IOException("compressed block is corrupt");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+}
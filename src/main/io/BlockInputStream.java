@@ -0,0 +1,90 @@
+package main.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * decompresses the blocks written by BlockOutputStream one block at a time; the table of blocks after them is read
+ * and checked at the end of the stream
+ */
+public class BlockInputStream extends InputStream {
+    private final InputStream in;
+    private final BlockCoder coder;
+    private final byte[] block = new byte[BlockCoder.BLOCK_SIZE];
+    private final byte[] compressed = new byte[BlockCoder.MAX_COMPRESSED];
+    private int blocks; // blocks read
+    private int length; // bytes in block
+    private int pos; // next byte of block to return
+    private boolean eof;
+
+    // REQUIRES: codec is the one the stream was written with, not NONE
+    public BlockInputStream(InputStream in, Codec codec) {
+        this.in = in;
+        this.coder = new BlockCoder(codec);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (pos == length) {
+            if (eof || !nextBlock()) return -1;
+        }
+        int n = Math.min(len, length - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    // EFFECTS: reads and decompresses the next block, returns false after the last one
+    private boolean nextBlock() throws IOException {
+        byte[] header = in.readNBytes(8);
+        if (header.length != 8) {
+            throw new IOException("compressed stream is truncated");
+        }
+        int blockLength = ByteBuffer.wrap(header).getInt();
+        int storedLength = ByteBuffer.wrap(header).getInt(4);
+        if (blockLength == 0 && storedLength == 0) {
+            readTable();
+            eof = true;
+            return false;
+        }
+        if (blockLength <= 0 || blockLength > block.length || storedLength <= 0 || storedLength > blockLength) {
+            throw new IOException("compressed block is corrupt");
+        }
+        byte[] stored = storedLength == blockLength ? block : compressed;
+        if (in.readNBytes(stored, 0, storedLength) != storedLength) {
+            throw new IOException("compressed stream is truncated");
+        }
+        if (stored == compressed) {
+            coder.decompress(compressed, storedLength, block, blockLength);
+        }
+        blocks++;
+        length = blockLength;
+        pos = 0;
+        return true;
+    }
+
+    // EFFECTS: reads the table of blocks, which ends the stream, and checks that it counts the blocks read
+    private void readTable() throws IOException {
+        byte[] table = in.readAllBytes();
+        if (table.length != 8L * blocks + 4 || ByteBuffer.wrap(table).getInt(table.length - 4) != blocks) {
+            throw new IOException("compressed stream is corrupt");
+        }
+    }
+
+    // EFFECTS: closes the underlying stream and wipes the plaintext held
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(block, (byte) 0);
+        coder.close();
+        in.close();
+    }
+}
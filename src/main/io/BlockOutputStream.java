@@ -0,0 +1,93 @@
+package main.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * compresses everything written to it with a codec in blocks of 64 KiB, each compressed on its own.
+ * Each block is written as its length, the length of what is stored, and the stored bytes, which are the
+ * compressed block or, when that is no smaller, the block itself. When the stream is closed, the last block is
+ * written, then an empty block header, the offset of every block header and the number of blocks, so a reader can
+ * find the block holding any byte and decompress only that one.
+ */
+public class BlockOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final BlockCoder coder;
+    private final byte[] block = new byte[BlockCoder.BLOCK_SIZE];
+    private final byte[] compressed = new byte[BlockCoder.MAX_COMPRESSED];
+    private long[] offsets = new long[16]; // offset of each block written
+    private int blocks;
+    private long written; // bytes written to out
+    private int length; // bytes buffered in block
+    private boolean closed;
+
+    // REQUIRES: codec is not NONE
+    public BlockOutputStream(OutputStream out, Codec codec) {
+        this.out = out;
+        this.coder = new BlockCoder(codec);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    // EFFECTS: buffers bytes and writes every full block
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, block.length - length);
+            System.arraycopy(b, off, block, length, n);
+            length += n;
+            off += n;
+            len -= n;
+            if (length == block.length) {
+                flushBlock();
+            }
+        }
+    }
+
+    // EFFECTS: writes the buffered bytes as the last block, then the table of blocks, and closes the underlying
+    //          stream; the plaintext buffered is wiped
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (length > 0) {
+                flushBlock();
+            }
+            writeInt(0);
+            writeInt(0);
+            for (int i = 0; i < blocks; i++) {
+                writeInt((int) (offsets[i] >>> 32));
+                writeInt((int) offsets[i]);
+            }
+            writeInt(blocks);
+        } finally {
+            Arrays.fill(block, (byte) 0);
+            coder.close();
+            out.close();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blocks == offsets.length) {
+            offsets = Arrays.copyOf(offsets, blocks * 2);
+        }
+        offsets[blocks++] = written;
+        int n = coder.compress(block, length, compressed);
+        boolean stored = n >= length;
+        writeInt(length);
+        writeInt(stored ? length : n);
+        out.write(stored ? block : compressed, 0, stored ? length : n);
+        written += stored ? length : n;
+        length = 0;
+    }
+
+    private void writeInt(int v) throws IOException {
+        out.write(new byte[]{(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v});
+        written += 4;
+    }
+}
@@ -0,0 +1,129 @@
+package main.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * read-only view of a file made of chunks that are stored apart, as one seekable channel.
+ * Only the chunk under the position is open at a time.
+ */
+public class ChunkedChannel implements SeekableByteChannel {
+    private final long[] starts; // offset of each chunk in the file, followed by the size of the file
+    private final ChunkOpener opener;
+    private SeekableByteChannel chunk; // open chunk, null if none
+    private int chunkIndex = -1;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * opens the channel of a chunk
+     */
+    public interface ChunkOpener {
+        SeekableByteChannel open(int index) throws IOException;
+    }
+
+    // EFFECTS: creates channel over chunks of the given sizes, opened with opener as they are read
+    public ChunkedChannel(long[] sizes, ChunkOpener opener) {
+        this.opener = opener;
+        starts = new long[sizes.length + 1];
+        for (int i = 0; i < sizes.length; i++) {
+            starts[i + 1] = starts[i] + sizes[i];
+        }
+    }
+
+    // EFFECTS: reads bytes from the current position into dst, returns number of bytes read or -1 at the end
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        long size = starts[starts.length - 1];
+        if (position >= size) return -1;
+        int read = 0;
+        while (dst.hasRemaining() && position < size) {
+            int i = chunkAt(position);
+            if (i != chunkIndex) {
+                closeChunk();
+                chunk = opener.open(i);
+                chunkIndex = i;
+            }
+            chunk.position(position - starts[i]);
+            ByteBuffer part = dst.duplicate();
+            part.limit(part.position() + (int) Math.min(dst.remaining(), starts[i + 1] - position));
+            int n = chunk.read(part);
+            if (n < 0) {
+                throw new IOException("chunk " + i + " is shorter than recorded");
+            }
+            dst.position(part.position());
+            position += n;
+            read += n;
+        }
+        return read;
+    }
+
+    // EFFECTS: returns index of the chunk holding the byte at offset
+    private int chunkAt(long offset) {
+        int i = Arrays.binarySearch(starts, offset);
+        if (i < 0) return -i - 2;
+        while (i + 1 < starts.length - 1 && starts[i + 1] == offset) {
+            i++; // skip empty chunks
+        }
+        return i;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return starts[starts.length - 1];
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        closeChunk();
+    }
+
+    private void closeChunk() throws IOException {
+        if (chunk != null) {
+            SeekableByteChannel c = chunk;
+            chunk = null;
+            chunkIndex = -1;
+            c.close();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+}
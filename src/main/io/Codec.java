@@ -0,0 +1,89 @@
+package main.io;
+
+import main.util.ObjectPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * compression applied to the contents of a file before they are encrypted.
+ * FAST is the LZ codec of Lz, which runs at several hundred MiB/s and catches repeated strings; DEFLATE is kept
+ * for data with few repeats but a skewed distribution of bytes, such as hex or base64, that only its Huffman coding
+ * shrinks. The codec of a file is picked from how well a sample of its first bytes compresses, so media that is
+ * already compressed is stored as it is. Both compress 64 KiB blocks on their own, so reading part of a file only
+ * decompresses the blocks that hold it.
+ */
+public enum Codec {
+    NONE,
+    FAST,
+    DEFLATE;
+
+    public static final int SAMPLE_SIZE = 64 * 1024; // bytes compressed to pick a codec
+    private static final int HUFFMAN_SAMPLE_SIZE = 16 * 1024; // bytes of the sample Huffman coding is tried on
+    private static final double MAX_RATIO = 0.9; // a codec must shrink the sample below this to be used
+
+    private static final ObjectPool<byte[]> SAMPLES = new ObjectPool<>(() -> new byte[SAMPLE_SIZE]);
+    private static final ObjectPool<byte[]> SCRATCH =
+            new ObjectPool<>(() -> new byte[Lz.maxCompressedLength(SAMPLE_SIZE)]);
+
+    // EFFECTS: returns codec for the file of in, chosen from how well its first SAMPLE_SIZE bytes compress;
+    //          leaves the position of in unchanged
+    public static Codec choose(FileChannel in) throws IOException {
+        byte[] sample = SAMPLES.take();
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(sample);
+            long offset = 0;
+            int n;
+            while (buf.hasRemaining() && (n = in.read(buf, offset)) >= 0) {
+                offset += n;
+            }
+            return choose(sample, buf.position());
+        } finally {
+            SAMPLES.give(sample);
+        }
+    }
+
+    // EFFECTS: returns codec for a file starting with the first len bytes of sample: FAST if its first SAMPLE_SIZE
+    //          bytes shrink enough, else DEFLATE if Huffman coding alone shrinks them enough, else NONE
+    public static Codec choose(byte[] sample, int len) {
+        if (len == 0) return NONE;
+        len = Math.min(len, SAMPLE_SIZE); // a block compresses at most Lz.MAX_BLOCK bytes
+        byte[] scratch = SCRATCH.take();
+        Deflater deflater = null;
+        try {
+            if (Lz.compress(sample, len, scratch) < len * MAX_RATIO) return FAST;
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+            int probe = Math.min(len, HUFFMAN_SAMPLE_SIZE); // the distribution of bytes shows in a smaller sample
+            deflater.setInput(sample, 0, probe);
+            deflater.finish();
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(scratch);
+            }
+            return compressed < probe * MAX_RATIO ? DEFLATE : NONE;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            SCRATCH.give(scratch);
+        }
+    }
+
+    // EFFECTS: returns stream compressing everything written to it into out in blocks that are each compressed on
+    //          their own, so a DecompressingChannel reads any part of them without the rest; closing it closes out
+    public OutputStream compress(OutputStream out) {
+        if (this == NONE) return out;
+        return new BlockOutputStream(out, this);
+    }
+
+    // EFFECTS: returns stream decompressing everything read from in; closing it closes in
+    public InputStream decompress(InputStream in) {
+        if (this == NONE) return in;
+        return new BlockInputStream(in, this);
+    }
+}
@@ -0,0 +1,685 @@
+package main.io;
+
+import main.io.ExtentAllocator.Extent;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * single file holding many named blobs, so it is copied with one sequential read and a blob is read with one
+ * positional read. The file starts with two header pages, mapped into memory, followed by extents handed out by an
+ * ExtentAllocator; the file grows in large steps as extents are needed.
+ * The table of blobs by name is a base, written in one extent, plus a log of the changes made since, appended to
+ * another. Changes are copy-on-write: a blob written or deleted keeps the extents of the blob it replaces until
+ * the change is committed by appending a record to the log and forcing it. Once the log is full, the whole table
+ * is written to a new base with a new empty log, and the header page not in use is overwritten to name them; each
+ * header page holds a generation number and a checksum, and the valid page with the higher generation is the one
+ * in use, so a crash while writing one leaves the other. Log records carry the generation and a number of their
+ * own, so whatever the log extent held before is never taken for a record.
+ * Blobs are written with positional writes into extents of their own, so threads write blobs at once; the extents
+ * of a blob deleted or replaced are reused once that is committed and no channel reading it is open.
+ */
+public class Container implements Journal.Dependency, Closeable {
+    private static final byte[] MAGIC = {'F', 'V', 'C', 'N'};
+    private static final byte VERSION = 1;
+    private static final int PAGE = ExtentAllocator.ALIGNMENT;
+    private static final int HEADER_PAGES = 2;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 5 * 8 + 4;
+    private static final long MIN_LOG = 256 * 1024; // bytes of the log, unless the base is larger
+    private static final long GROWTH = 16L * 1024 * 1024; // the file grows by at least this many bytes
+    private static final byte DELETE = 0;
+    private static final byte PUT = 1;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private final MappedByteBuffer header; // the header pages
+    private final ExtentAllocator allocator;
+    private long capacity; // length of the file
+    private final TreeMap<String, Blob> blobs = new TreeMap<>();
+    private final List<Change> changes = new ArrayList<>(); // made since the last commit
+    private final List<Blob> released = new ArrayList<>(); // deleted or replaced since the last commit
+    private final Object committing = new Object(); // held for a whole commit
+    private long generation; // of the header in use
+    private Extent base; // extent of the base of the table
+    private long baseLength; // bytes of the base
+    private Extent log; // extent of the log of the table
+    private long logLength; // bytes of records in the log
+    private long records; // number of the last record in the log
+    private boolean closed;
+
+    /**
+     * contents of a blob: every extent is full but the last
+     */
+    private static class Blob {
+        private final List<Extent> extents;
+        private final long length;
+        private int readers; // channels open on the blob
+        private boolean released; // out of the table on disk
+
+        private Blob(List<Extent> extents, long length) {
+            this.extents = extents;
+            this.length = length;
+        }
+    }
+
+    /**
+     * blob put under a name, or the name deleted when blob is null
+     */
+    private static class Change {
+        private final String name;
+        private final Blob blob;
+
+        private Change(String name, Blob blob) {
+            this.name = name;
+            this.blob = blob;
+        }
+    }
+
+    // EFFECTS: opens the container in file, creating it if it does not exist;
+    //          throws IOException if file is not a container or its table is damaged
+    public Container(File file) throws IOException {
+        this.file = file;
+        boolean created = file.length() == 0;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            if (created) {
+                raf.setLength(HEADER_PAGES * PAGE);
+            }
+            capacity = raf.length();
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_PAGES * PAGE);
+            List<Extent> used = new ArrayList<>();
+            if (!created) {
+                readHeader();
+                readTable();
+                used.add(base);
+                used.add(log);
+                for (Blob b : blobs.values()) {
+                    used.addAll(b.extents);
+                }
+            }
+            allocator = new ExtentAllocator(HEADER_PAGES * PAGE, used);
+            if (created) {
+                writeTable(record(1, 0, new ArrayList<>()));
+            }
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    // EFFECTS: returns true if there is a blob called name
+    public synchronized boolean exists(String name) {
+        return blobs.containsKey(name);
+    }
+
+    // EFFECTS: returns number of bytes of the blob called name, -1 if there is none
+    public synchronized long length(String name) {
+        Blob blob = blobs.get(name);
+        return blob == null ? -1 : blob.length;
+    }
+
+    // EFFECTS: returns number of blobs
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    // EFFECTS: returns number of bytes in the file that are free for new extents, before its last extent in use
+    public synchronized long getFree() {
+        return allocator.getFree();
+    }
+
+    // EFFECTS: returns offset past the last extent in use; the file may be longer
+    public synchronized long getEnd() {
+        return allocator.getEnd();
+    }
+
+    // EFFECTS: opens a channel writing a new blob, whose first extent holds expectedSize bytes
+    public Output newOutput(long expectedSize) {
+        return new Output(expectedSize);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: makes the bytes written to out the blob called name, replacing any blob called name, and closes out;
+    //          the change is on disk once force returns
+    public synchronized void put(String name, Output out) throws IOException {
+        ensureOpen();
+        if (!out.open) {
+            throw new ClosedChannelException();
+        }
+        out.open = false;
+        List<Extent> extents = out.extents;
+        if (!extents.isEmpty()) {
+            Extent last = extents.remove(extents.size() - 1);
+            long keep = ExtentAllocator.align(last.getLength() - out.room);
+            allocator.free(last.getOffset() + keep, last.getLength() - keep);
+            if (keep > 0) {
+                extents.add(new Extent(last.getOffset(), keep));
+            }
+        }
+        Blob blob = new Blob(extents, out.length);
+        changes.add(new Change(name, blob));
+        Blob old = blobs.put(name, blob);
+        if (old != null) {
+            released.add(old);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: deletes the blob called name, if there is one; the change is on disk once force returns
+    public synchronized void delete(String name) {
+        Blob blob = blobs.remove(name);
+        if (blob != null) {
+            changes.add(new Change(name, null));
+            released.add(blob);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: deletes every blob whose name starts with prefix
+    public synchronized void deleteAll(String prefix) {
+        for (String name : new ArrayList<>(blobs.subMap(prefix, prefix + Character.MAX_VALUE).keySet())) {
+            delete(name);
+        }
+    }
+
+    // EFFECTS: opens a channel reading the blob called name; throws NoSuchFileException if there is none
+    public synchronized SeekableByteChannel open(String name) throws IOException {
+        ensureOpen();
+        Blob blob = blobs.get(name);
+        if (blob == null) {
+            throw new NoSuchFileException(file.getName() + ":" + name);
+        }
+        blob.readers++;
+        return new BlobChannel(blob);
+    }
+
+    // EFFECTS: returns the blob called name as contents replaced as a whole, each write committing the container
+    public AtomicFile file(String name) {
+        return new AtomicFile() {
+            @Override
+            public String getName() {
+                return file.getName() + ":" + name;
+            }
+
+            @Override
+            public long length() {
+                return Math.max(0, Container.this.length(name));
+            }
+
+            @Override
+            public SeekableByteChannel openChannel() throws IOException {
+                return open(name);
+            }
+
+            @Override
+            public void write(Writer.Content content) throws IOException {
+                try (Output out = newOutput(length())) {
+                    // content may close the stream it is given; the blob is only closed once it is put
+                    OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(out)) {
+                        @Override
+                        public void close() throws IOException {
+                            flush();
+                        }
+                    };
+                    content.writeTo(stream);
+                    stream.flush();
+                    put(name, out);
+                }
+                force();
+            }
+        };
+    }
+
+    // EFFECTS: commits the changes made so far: forces the blobs they put to disk, then appends a record of them to
+    //          the log and forces it, or writes the whole table anew when the log is full. Extents of the blobs
+    //          they delete or replace are reused from then on
+    @Override
+    public void force() throws IOException {
+        synchronized (committing) {
+            List<Change> batch;
+            List<Blob> dropped;
+            byte[] record;
+            byte[] table = null;
+            synchronized (this) {
+                ensureOpen();
+                if (changes.isEmpty()) return;
+                batch = new ArrayList<>(changes);
+                dropped = new ArrayList<>(released);
+                record = record(generation, records + 1, batch);
+                if (logLength + record.length > log.getLength()) {
+                    List<Change> all = new ArrayList<>();
+                    for (Map.Entry<String, Blob> e : blobs.entrySet()) {
+                        all.add(new Change(e.getKey(), e.getValue()));
+                    }
+                    table = record(generation + 1, 0, all);
+                }
+            }
+            channel().force(false); // the blobs are on disk before the record naming them
+            if (table == null) {
+                write(ByteBuffer.wrap(record), log.getOffset() + logLength);
+                channel().force(false);
+                synchronized (this) {
+                    logLength += record.length;
+                    records++;
+                }
+            } else {
+                writeTable(table);
+            }
+            synchronized (this) {
+                changes.subList(0, batch.size()).clear();
+                released.subList(0, dropped.size()).clear();
+                for (Blob b : dropped) {
+                    b.released = true;
+                    if (b.readers == 0) {
+                        free(b.extents);
+                    }
+                }
+            }
+        }
+    }
+
+    // EFFECTS: commits the changes made so far and closes the file
+    @Override
+    public void close() throws IOException {
+        synchronized (committing) {
+            try {
+                if (!closed) {
+                    force();
+                }
+            } finally {
+                synchronized (this) {
+                    closed = true;
+                    raf.close();
+                }
+            }
+        }
+    }
+
+    // EFFECTS: writes table, a record of every blob for the generation after the one in use, to a new base with a
+    //          new empty log, then makes the next header page name them, and frees the old base and log
+    private void writeTable(byte[] table) throws IOException {
+        Extent newBase;
+        Extent newLog;
+        synchronized (this) {
+            newBase = allocate(table.length);
+            newLog = allocate(Math.max(MIN_LOG, table.length));
+        }
+        write(ByteBuffer.wrap(table), newBase.getOffset());
+        channel().force(false);
+        writeHeader(generation + 1, newBase, table.length, newLog);
+        synchronized (this) {
+            if (base != null) {
+                allocator.free(base.getOffset(), base.getLength());
+                allocator.free(log.getOffset(), log.getLength());
+            }
+            generation++;
+            base = newBase;
+            baseLength = table.length;
+            log = newLog;
+            logLength = 0;
+            records = 0;
+        }
+    }
+
+    // EFFECTS: writes the header page of generation and forces it to disk
+    private void writeHeader(long generation, Extent base, long baseLength, Extent log) {
+        ByteBuffer page = ByteBuffer.allocate(HEADER_LENGTH);
+        page.put(MAGIC).put(VERSION).putLong(generation);
+        page.putLong(base.getOffset()).putLong(baseLength);
+        page.putLong(log.getOffset()).putLong(log.getLength());
+        CRC32 crc = new CRC32();
+        crc.update(page.array(), 0, page.position());
+        page.putInt((int) crc.getValue());
+        int index = (int) (generation % HEADER_PAGES) * PAGE;
+        header.put(index, page.array());
+        header.force(index, PAGE);
+    }
+
+    // EFFECTS: reads the valid header page with the highest generation; throws IOException if neither is valid
+    private void readHeader() throws IOException {
+        generation = -1;
+        for (int p = 0; p < HEADER_PAGES; p++) {
+            byte[] bytes = new byte[HEADER_LENGTH];
+            header.get(p * PAGE, bytes);
+            ByteBuffer page = ByteBuffer.wrap(bytes);
+            byte[] magic = new byte[MAGIC.length];
+            page.get(magic);
+            byte version = page.get();
+            long pageGeneration = page.getLong();
+            Extent pageBase = new Extent(page.getLong(), 0);
+            long pageBaseLength = page.getLong();
+            Extent pageLog = new Extent(page.getLong(), page.getLong());
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, page.position());
+            if (Arrays.equals(magic, MAGIC) && version == VERSION && page.getInt() == (int) crc.getValue()
+                    && pageGeneration > generation) {
+                generation = pageGeneration;
+                base = new Extent(pageBase.getOffset(), ExtentAllocator.align(pageBaseLength));
+                baseLength = pageBaseLength;
+                log = pageLog;
+            }
+        }
+        if (generation < 0) {
+            throw new IOException(file.getName() + " is not a vault container");
+        }
+    }
+
+    // EFFECTS: reads the base of the table and the records of the log after it
+    private void readTable() throws IOException {
+        if (base.getEnd() > capacity || log.getEnd() > capacity) {
+            throw new IOException(file.getName() + " is truncated");
+        }
+        if (!applyRecord(read(base.getOffset(), (int) baseLength), 0)) {
+            throw new IOException(file.getName() + " has a damaged table");
+        }
+        ByteBuffer records = read(log.getOffset(), (int) log.getLength());
+        while (applyRecord(records, this.records + 1)) {
+            this.records++;
+        }
+        logLength = records.position();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: applies the record at the position of buf if it is whole, of the generation in use and numbered
+    //          number, and moves past it; otherwise returns false and leaves buf as it is
+    private boolean applyRecord(ByteBuffer buf, long number) {
+        int start = buf.position();
+        if (buf.remaining() < 4) return false;
+        int length = buf.getInt();
+        if (length < 8 + 8 + 4 + 4 || length > buf.remaining()) {
+            buf.position(start);
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(buf.position(), length - 4));
+        if (buf.getInt(buf.position() + length - 4) != (int) crc.getValue()
+                || buf.getLong() != generation || buf.getLong() != number) {
+            buf.position(start);
+            return false;
+        }
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            byte op = buf.get();
+            byte[] name = new byte[buf.getShort() & 0xFFFF];
+            buf.get(name);
+            if (op == PUT) {
+                long blobLength = buf.getLong();
+                int extents = buf.getInt();
+                List<Extent> list = new ArrayList<>(extents);
+                for (int e = 0; e < extents; e++) {
+                    list.add(new Extent(buf.getLong(), buf.getLong()));
+                }
+                blobs.put(new String(name, UTF_8), new Blob(list, blobLength));
+            } else {
+                blobs.remove(new String(name, UTF_8));
+            }
+        }
+        buf.position(start + 4 + length);
+        return true;
+    }
+
+    // EFFECTS: returns the record numbered number of generation holding changes: its length, the generation, the
+    //          number, the changes and a checksum of everything after the length
+    private static byte[] record(long generation, long number, List<Change> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, filled in below
+        out.writeLong(generation);
+        out.writeLong(number);
+        out.writeInt(changes.size());
+        for (Change c : changes) {
+            out.writeByte(c.blob == null ? DELETE : PUT);
+            byte[] name = c.name.getBytes(UTF_8);
+            if (name.length > 0xFFFF) {
+                throw new IOException("blob name is too long: " + c.name.substring(0, 32) + "...");
+            }
+            out.writeShort(name.length);
+            out.write(name);
+            if (c.blob != null) {
+                out.writeLong(c.blob.length);
+                out.writeInt(c.blob.extents.size());
+                for (Extent e : c.blob.extents) {
+                    out.writeLong(e.getOffset());
+                    out.writeLong(e.getLength());
+                }
+            }
+        }
+        out.writeInt(0); // checksum, filled in below
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.capacity() - 4);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 8);
+        record.putInt(record.capacity() - 4, (int) crc.getValue());
+        return record.array();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: returns a new extent of at least length bytes, growing the file if it does not reach its end
+    // REQUIRES: the calling thread holds the monitor of this container
+    private Extent allocate(long length) throws IOException {
+        Extent extent = allocator.allocate(Math.max(1, length));
+        if (extent.getEnd() > capacity) {
+            long grown = ExtentAllocator.align(Math.max(extent.getEnd(), capacity + Math.max(GROWTH, capacity / 4)));
+            channel();
+            raf.setLength(grown);
+            capacity = grown;
+        }
+        return extent;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: makes extents free for new blobs
+    private synchronized void free(List<Extent> extents) {
+        for (Extent e : extents) {
+            allocator.free(e.getOffset(), e.getLength());
+        }
+    }
+
+    // EFFECTS: closes a channel reading blob, freeing its extents if it was the last one and blob is released
+    private synchronized void closeReader(Blob blob) {
+        if (--blob.readers == 0 && blob.released) {
+            free(blob.extents);
+        }
+    }
+
+    // EFFECTS: returns the channel of the file, opened again if a thread interrupted during a read or write closed it
+    private synchronized FileChannel channel() throws IOException {
+        ensureOpen();
+        if (!channel.isOpen()) {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (closed) throw new ClosedChannelException();
+    }
+
+    // EFFECTS: reads length bytes at offset of the file
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel().read(buf, offset + buf.position()) < 0) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+        }
+        return buf.flip();
+    }
+
+    // EFFECTS: writes the remaining bytes of buf at offset of the file
+    private void write(ByteBuffer buf, long offset) throws IOException {
+        for (long position = offset; buf.hasRemaining(); ) {
+            position += channel().write(buf, position);
+        }
+    }
+
+    /**
+     * channel writing a new blob into extents allocated as it grows, each at least as large as everything written
+     * before it, so a blob written with the right expected size takes one extent. The blob is in the container
+     * once put; closing the channel before frees its extents
+     */
+    public class Output implements WritableByteChannel {
+        private final List<Extent> extents = new ArrayList<>();
+        private long length; // bytes written
+        private long room; // bytes left in the last extent
+        private long next; // bytes of the next extent
+        private boolean open = true;
+
+        private Output(long expectedSize) {
+            next = Math.max(1, expectedSize);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            int written = 0;
+            while (src.hasRemaining()) {
+                if (room == 0) {
+                    Extent extent;
+                    synchronized (Container.this) {
+                        extent = allocate(Math.max(next, src.remaining()));
+                    }
+                    extents.add(extent);
+                    room = extent.getLength();
+                    next = Math.max(next, length + room);
+                }
+                Extent last = extents.get(extents.size() - 1);
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + (int) Math.min(src.remaining(), room));
+                int n = channel().write(part, last.getEnd() - room);
+                src.position(part.position());
+                room -= n;
+                length += n;
+                written += n;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (open) {
+                open = false;
+                free(extents);
+            }
+        }
+    }
+
+    /**
+     * read-only channel over the bytes of a blob
+     */
+    private class BlobChannel implements SeekableByteChannel {
+        private final Blob blob;
+        private long position;
+        private boolean open = true;
+
+        private BlobChannel(Blob blob) {
+            this.blob = blob;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= blob.length) return -1;
+            long start = 0; // offset in the blob of extent
+            Extent extent = null;
+            for (Extent e : blob.extents) {
+                if (position < start + e.getLength()) {
+                    extent = e;
+                    break;
+                }
+                start += e.getLength();
+            }
+            if (extent == null) {
+                throw new IOException("blob is shorter than its extents");
+            }
+            ByteBuffer part = dst.duplicate();
+            long end = Math.min(blob.length, start + extent.getLength());
+            part.limit(part.position() + (int) Math.min(dst.remaining(), end - position));
+            int n = channel().read(part, extent.getOffset() + position - start);
+            if (n < 0) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            dst.position(part.position());
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) throw new IllegalArgumentException("negative position");
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return blob.length;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (open) {
+                open = false;
+                closeReader(blob);
+            }
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) throw new ClosedChannelException();
+        }
+    }
+}
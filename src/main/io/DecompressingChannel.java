@@ -0,0 +1,151 @@
+package main.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * read-only view of a file compressed by BlockOutputStream as a seekable channel.
+ * The table of blocks at the end of the file is read on the first read; after that, reading at any position
+ * decompresses only the block holding it, and the last block decompressed is kept.
+ */
+public class DecompressingChannel implements SeekableByteChannel {
+    private final SeekableByteChannel in; // compressed file
+    private final long size; // decompressed size
+    private final BlockCoder coder;
+    private final byte[] block = new byte[BlockCoder.BLOCK_SIZE];
+    private final byte[] compressed = new byte[BlockCoder.MAX_COMPRESSED];
+    private long[] offsets; // offset of each block in the compressed file, null until the table is read
+    private int blockIndex = -1; // index of the block held in block
+    private int blockLength;
+    private long position;
+    private boolean open = true;
+
+    // REQUIRES: codec is the one in was compressed with, not NONE
+    // EFFECTS: creates channel over the size bytes compressed in in with codec; closing it closes in
+    public DecompressingChannel(SeekableByteChannel in, long size, Codec codec) {
+        this.in = in;
+        this.size = size;
+        this.coder = new BlockCoder(codec);
+    }
+
+    // EFFECTS: reads bytes from the current position into dst, returns number of bytes read or -1 at the end
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) return -1;
+        int read = 0;
+        while (dst.hasRemaining() && position < size) {
+            loadBlock((int) (position / BlockCoder.BLOCK_SIZE));
+            int offset = (int) (position % BlockCoder.BLOCK_SIZE);
+            int n = Math.min(dst.remaining(), blockLength - offset);
+            dst.put(block, offset, n);
+            position += n;
+            read += n;
+        }
+        return read;
+    }
+
+    // EFFECTS: decompresses block number index unless it is already held
+    private void loadBlock(int index) throws IOException {
+        if (index == blockIndex) return;
+        if (offsets == null) {
+            readTable();
+        }
+        blockIndex = -1;
+        ByteBuffer header = readFully(offsets[index], ByteBuffer.allocate(8));
+        int length = header.getInt();
+        int storedLength = header.getInt();
+        long expected = Math.min(BlockCoder.BLOCK_SIZE, size - (long) index * BlockCoder.BLOCK_SIZE);
+        if (length != expected || storedLength <= 0 || storedLength > length) {
+            throw new IOException("compressed block is corrupt");
+        }
+        byte[] stored = storedLength == length ? block : compressed;
+        readFully(offsets[index] + 8, ByteBuffer.wrap(stored, 0, storedLength));
+        if (stored == compressed) {
+            coder.decompress(compressed, storedLength, block, length);
+        }
+        blockIndex = index;
+        blockLength = length;
+    }
+
+    // EFFECTS: reads the offsets of the blocks from the end of the compressed file; throws IOException if there are
+    //          not as many as the size needs
+    private void readTable() throws IOException {
+        long end = in.size();
+        int blocks = end < 4 ? -1 : readFully(end - 4, ByteBuffer.allocate(4)).getInt();
+        if (blocks != (size + BlockCoder.BLOCK_SIZE - 1) / BlockCoder.BLOCK_SIZE || end < 4 + 8L * blocks) {
+            throw new IOException("compressed file does not match its recorded size");
+        }
+        ByteBuffer table = readFully(end - 4 - 8L * blocks, ByteBuffer.allocate(8 * blocks));
+        long[] read = new long[blocks];
+        for (int i = 0; i < blocks; i++) {
+            read[i] = table.getLong();
+        }
+        offsets = read;
+    }
+
+    // EFFECTS: fills buf from offset of the compressed file and returns it flipped; throws IOException at the end
+    private ByteBuffer readFully(long offset, ByteBuffer buf) throws IOException {
+        in.position(offset);
+        while (buf.hasRemaining()) {
+            if (in.read(buf) < 0) {
+                throw new IOException("compressed file is truncated");
+            }
+        }
+        return buf.flip();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    // EFFECTS: closes the compressed file and wipes the plaintext held
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        Arrays.fill(block, (byte) 0);
+        blockIndex = -1;
+        coder.close();
+        in.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,145 @@
+package main.io;
+
+import main.exceptions.CryptoException;
+import main.util.CryptoUtils;
+import main.util.SegmentCipher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * read-only view of the plaintext of an encrypted file that supports seeking.
+ * Only the segments covering the bytes read are fetched and verified, in pooled direct buffers; the
+ * last decrypted segment is kept. The last segment of the file is verified before the size or the end of the file
+ * is reported, so a file cut short is not taken for a shorter one.
+ */
+public class DecryptingChannel implements SeekableByteChannel {
+    private final SeekableByteChannel in;
+    private final SegmentCipher cipher;
+    private final long size; // plaintext size
+    private final long lastSegment;
+    private final byte[] segment = new byte[SegmentCipher.SEGMENT_SIZE];
+    private long segmentIndex = -1; // index of the segment held in segment
+    private int segmentLength;
+    private boolean lastVerified; // the last segment was verified, so size is that of the file encrypted
+    private long position;
+
+    // EFFECTS: reads header of the encrypted file from in; throws IOException if the file is too short to hold a
+    //          segment
+    public DecryptingChannel(SeekableByteChannel in, CryptoUtils cryptoUtils) throws IOException, CryptoException {
+        this.in = in;
+        ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_LENGTH);
+        readFully(0, header);
+        if (header.hasRemaining() || in.size() < SegmentCipher.HEADER_LENGTH + SegmentCipher.TAG_LENGTH) {
+            throw new IOException("encrypted file is truncated");
+        }
+        cipher = cryptoUtils.segmentCipher(header.array());
+        size = SegmentCipher.plaintextSize(in.size());
+        lastSegment = size == 0 ? 0 : (size - 1) / SegmentCipher.SEGMENT_SIZE;
+    }
+
+    // EFFECTS: decrypts bytes from the current position into dst, returns number of bytes read or -1 at the end
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            verifyLastSegment();
+            return -1;
+        }
+        int read = 0;
+        while (dst.hasRemaining() && position < size) {
+            loadSegment(position / SegmentCipher.SEGMENT_SIZE);
+            int offset = (int) (position % SegmentCipher.SEGMENT_SIZE);
+            int n = Math.min(dst.remaining(), segmentLength - offset);
+            dst.put(segment, offset, n);
+            position += n;
+            read += n;
+        }
+        return read;
+    }
+
+    // EFFECTS: decrypts and verifies segment number index unless it is already held
+    private void loadSegment(long index) throws IOException {
+        if (index == segmentIndex) return;
+        long offset = SegmentCipher.HEADER_LENGTH + index * SegmentCipher.CIPHER_SEGMENT_SIZE;
+        ByteBuffer sealedBuffer = FileCipher.SEALED.take();
+        ByteBuffer plainBuffer = FileCipher.PLAIN.take();
+        try {
+            sealedBuffer.clear().limit((int) Math.min(SegmentCipher.CIPHER_SEGMENT_SIZE, in.size() - offset));
+            readFully(offset, sealedBuffer);
+            segmentIndex = -1;
+            plainBuffer.clear();
+            segmentLength = cipher.open(index, index == lastSegment, sealedBuffer.flip(), plainBuffer);
+            plainBuffer.flip().get(segment, 0, segmentLength);
+            segmentIndex = index;
+            lastVerified |= index == lastSegment;
+        } catch (CryptoException e) {
+            throw new IOException(e);
+        } finally {
+            FileCipher.SEALED.give(sealedBuffer);
+            FileCipher.PLAIN.give(plainBuffer);
+        }
+    }
+
+    // EFFECTS: decrypts and verifies the last segment, empty or not, unless it was already
+    private void verifyLastSegment() throws IOException {
+        if (!lastVerified) {
+            loadSegment(lastSegment);
+        }
+    }
+
+    private void readFully(long offset, ByteBuffer buf) throws IOException {
+        in.position(offset);
+        while (buf.hasRemaining() && in.read(buf) >= 0) {
+            // keep reading until buf is full or the end of the file
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        verifyLastSegment();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return in.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) throw new ClosedChannelException();
+    }
+}
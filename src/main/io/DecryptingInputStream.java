@@ -0,0 +1,90 @@
+package main.io;
+
+import main.exceptions.CryptoException;
+import main.util.CryptoUtils;
+import main.util.SegmentCipher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * decrypts a file in the segmented file format one segment at a time, verifying each segment before returning it.
+ * Segments are opened in direct buffers, on which the cipher is much faster than on arrays.
+ */
+public class DecryptingInputStream extends InputStream {
+    private final InputStream in;
+    private final CryptoUtils cryptoUtils;
+    private SegmentCipher cipher;
+    private final byte[] sealed = new byte[SegmentCipher.CIPHER_SEGMENT_SIZE];
+    private final byte[] segment = new byte[SegmentCipher.SEGMENT_SIZE];
+    private int length; // plaintext bytes in segment
+    private int pos; // next byte of segment to return
+    private long index; // index of the next segment to decrypt
+    private int lookahead = -1; // first byte of the next segment, -1 if none
+    private boolean last;
+
+    public DecryptingInputStream(InputStream in, CryptoUtils cryptoUtils) {
+        this.in = in;
+        this.cryptoUtils = cryptoUtils;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (pos == length) {
+            if (last) return -1;
+            nextSegment();
+        }
+        int n = Math.min(len, length - pos);
+        System.arraycopy(segment, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    // EFFECTS: reads and decrypts the next segment; a segment is the last one when nothing follows it
+    private void nextSegment() throws IOException {
+        try {
+            if (cipher == null) {
+                byte[] header = in.readNBytes(SegmentCipher.HEADER_LENGTH);
+                if (header.length != SegmentCipher.HEADER_LENGTH) {
+                    throw new IOException("encrypted file is truncated");
+                }
+                cipher = cryptoUtils.segmentCipher(header);
+            }
+            int n = 0;
+            if (lookahead >= 0) {
+                sealed[n++] = (byte) lookahead;
+            }
+            n += in.readNBytes(sealed, n, sealed.length - n);
+            lookahead = n == sealed.length ? in.read() : -1;
+            last = lookahead < 0;
+            ByteBuffer sealedBuffer = FileCipher.SEALED.take();
+            ByteBuffer plainBuffer = FileCipher.PLAIN.take();
+            try {
+                sealedBuffer.clear();
+                sealedBuffer.put(sealed, 0, n).flip();
+                plainBuffer.clear();
+                length = cipher.open(index++, last, sealedBuffer, plainBuffer);
+                plainBuffer.flip().get(segment, 0, length);
+            } finally {
+                FileCipher.SEALED.give(sealedBuffer);
+                FileCipher.PLAIN.give(plainBuffer);
+            }
+            pos = 0;
+        } catch (CryptoException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
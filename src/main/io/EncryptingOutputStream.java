@@ -0,0 +1,81 @@
+package main.io;
+
+import main.exceptions.CryptoException;
+import main.util.SegmentCipher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * encrypts everything written to it into the segmented file format, one segment at a time.
+ * The last segment is sealed when the stream is closed. Segments are sealed in direct buffers, on which the cipher
+ * is much faster than on arrays.
+ */
+public class EncryptingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final SegmentCipher cipher;
+    private final byte[] segment = new byte[SegmentCipher.SEGMENT_SIZE];
+    private final byte[] sealed = new byte[SegmentCipher.CIPHER_SEGMENT_SIZE];
+    private int length; // bytes buffered in segment
+    private long index; // index of the segment being buffered
+    private boolean closed;
+
+    // EFFECTS: writes header of cipher to out
+    public EncryptingOutputStream(OutputStream out, SegmentCipher cipher) throws IOException {
+        this.out = out;
+        this.cipher = cipher;
+        out.write(cipher.getHeader());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    // EFFECTS: buffers bytes and seals every full segment that is followed by more data
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == segment.length) {
+                flushSegment(false);
+            }
+            int n = Math.min(len, segment.length - length);
+            System.arraycopy(b, off, segment, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // EFFECTS: seals the buffered bytes as the last segment and closes the underlying stream
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            flushSegment(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushSegment(boolean last) throws IOException {
+        ByteBuffer plainBuffer = FileCipher.PLAIN.take();
+        ByteBuffer sealedBuffer = FileCipher.SEALED.take();
+        try {
+            plainBuffer.clear();
+            plainBuffer.put(segment, 0, length).flip();
+            sealedBuffer.clear();
+            int n = cipher.seal(index++, last, plainBuffer, sealedBuffer);
+            sealedBuffer.flip().get(sealed, 0, n);
+            out.write(sealed, 0, n);
+            length = 0;
+        } catch (CryptoException e) {
+            throw new IOException(e);
+        } finally {
+            FileCipher.PLAIN.give(plainBuffer);
+            FileCipher.SEALED.give(sealedBuffer);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package main.io;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * free space of a file handed out in extents, runs of bytes starting and ending at multiples of ALIGNMENT.
+ * A request is served by the smallest free extent it fits in, so large runs are kept for large requests, or else
+ * from the end of the space in use; freed extents are merged with their free neighbours, and free space at the end
+ * is given back.
+ */
+public class ExtentAllocator {
+    public static final int ALIGNMENT = 4096;
+
+    private final TreeMap<Long, Long> free = new TreeMap<>(); // length of every free extent, by offset
+    private final TreeSet<Extent> bySize = new TreeSet<>(Comparator.comparingLong(Extent::getLength)
+            .thenComparingLong(Extent::getOffset)); // the same free extents, smallest first
+    private long end; // offset past the last byte in use
+
+    /**
+     * run of bytes of a file
+     */
+    public static class Extent {
+        private final long offset;
+        private final long length;
+
+        public Extent(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getEnd() {
+            return offset + length;
+        }
+    }
+
+    // EFFECTS: creates allocator of the space from start on, where the extents of used are in use
+    // REQUIRES: start and the extents of used are aligned, and no two of them overlap
+    public ExtentAllocator(long start, List<Extent> used) {
+        List<Extent> sorted = new ArrayList<>(used);
+        sorted.sort(Comparator.comparingLong(Extent::getOffset));
+        end = start;
+        for (Extent e : sorted) {
+            if (e.getOffset() > end) {
+                addFree(end, e.getOffset() - end);
+            }
+            end = Math.max(end, e.getEnd());
+        }
+    }
+
+    // EFFECTS: returns length rounded up to a multiple of ALIGNMENT
+    public static long align(long length) {
+        return (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    // EFFECTS: returns offset past the last byte in use
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    // EFFECTS: returns number of free bytes before the end
+    public synchronized long getFree() {
+        long bytes = 0;
+        for (long length : free.values()) {
+            bytes += length;
+        }
+        return bytes;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: returns an extent of at least length bytes, aligned, that is no longer free
+    // REQUIRES: length > 0
+    public synchronized Extent allocate(long length) {
+        long size = align(length);
+        Extent fit = bySize.ceiling(new Extent(-1, size));
+        if (fit == null) {
+            Extent extent = new Extent(end, size);
+            end += size;
+            return extent;
+        }
+        removeFree(fit.getOffset(), fit.getLength());
+        if (fit.getLength() > size) {
+            addFree(fit.getOffset() + size, fit.getLength() - size);
+        }
+        return new Extent(fit.getOffset(), size);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: makes the length bytes at offset free again, merged with the free extents next to them
+    // REQUIRES: offset and length are aligned and the bytes were allocated
+    public synchronized void free(long offset, long length) {
+        if (length <= 0) return;
+        Map.Entry<Long, Long> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            removeFree(before.getKey(), before.getValue());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        Long after = free.get(offset + length);
+        if (after != null) {
+            removeFree(offset + length, after);
+            length += after;
+        }
+        if (offset + length == end) {
+            end = offset;
+        } else {
+            addFree(offset, length);
+        }
+    }
+
+    private void addFree(long offset, long length) {
+        free.put(offset, length);
+        bySize.add(new Extent(offset, length));
+    }
+
+    private void removeFree(long offset, long length) {
+        free.remove(offset);
+        bySize.remove(new Extent(offset, length));
+    }
+}
@@ -0,0 +1,156 @@
+package main.io;
+
+import main.exceptions.CryptoException;
+import main.util.CryptoUtils;
+import main.util.ObjectPool;
+import main.util.SegmentCipher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * encrypts and decrypts whole files in the segmented file format from one file channel to another.
+ * Segments are read into direct buffers, or sliced straight out of a memory-mapped window of a large input, and
+ * handed to the cipher as buffers, so file contents are never copied to the heap.
+ */
+public class FileCipher {
+    public static final long MAP_THRESHOLD = 16L * 1024 * 1024; // inputs of at least this many bytes are mapped
+    private static final int WINDOW_SEGMENTS = 1024; // segments per mapped window of the input
+
+    // direct buffers for a plaintext and a sealed segment, taken by a caller for as long as it works on a segment
+    static final ObjectPool<ByteBuffer> PLAIN =
+            new ObjectPool<>(() -> ByteBuffer.allocateDirect(SegmentCipher.SEGMENT_SIZE));
+    static final ObjectPool<ByteBuffer> SEALED =
+            new ObjectPool<>(() -> ByteBuffer.allocateDirect(SegmentCipher.CIPHER_SEGMENT_SIZE));
+
+    /**
+     * seals or opens one segment
+     */
+    private interface SegmentOp {
+        int apply(long index, boolean last, ByteBuffer in, ByteBuffer out) throws CryptoException;
+    }
+
+    private FileCipher() {
+    }
+
+    // EFFECTS: writes the header of cipher and every segment of in, sealed with cipher, to out
+    public static void encrypt(FileChannel in, WritableByteChannel out, SegmentCipher cipher)
+            throws IOException, CryptoException {
+        writeFully(out, ByteBuffer.wrap(cipher.getHeader()));
+        ByteBuffer plain = PLAIN.take();
+        ByteBuffer sealed = SEALED.take();
+        try {
+            transform(in, 0, SegmentCipher.SEGMENT_SIZE, out, plain, sealed, cipher::seal);
+        } finally {
+            PLAIN.give(plain);
+            SEALED.give(sealed);
+        }
+    }
+
+    // EFFECTS: writes the header of cipher and the remaining bytes of in, sealed with cipher, to out;
+    //          each segment is copied to a direct buffer first, as the cipher is much faster on those
+    public static void encrypt(ByteBuffer in, WritableByteChannel out, SegmentCipher cipher)
+            throws IOException, CryptoException {
+        writeFully(out, ByteBuffer.wrap(cipher.getHeader()));
+        ByteBuffer plain = PLAIN.take();
+        ByteBuffer sealed = SEALED.take();
+        try {
+            long index = 0;
+            do {
+                plain.clear();
+                ByteBuffer segment = in.slice();
+                segment.limit(Math.min(segment.remaining(), plain.capacity()));
+                in.position(in.position() + segment.remaining());
+                plain.put(segment).flip();
+                sealed.clear();
+                cipher.seal(index++, !in.hasRemaining(), plain, sealed);
+                sealed.flip();
+                writeFully(out, sealed);
+            } while (in.hasRemaining());
+        } finally {
+            PLAIN.give(plain);
+            SEALED.give(sealed);
+        }
+    }
+
+    // EFFECTS: writes the plaintext of the encrypted file in to out, verifying every segment;
+    //          throws CryptoException if the file was tampered with or not encrypted with the key of cryptoUtils
+    public static void decrypt(SeekableByteChannel in, WritableByteChannel out, CryptoUtils cryptoUtils)
+            throws IOException, CryptoException {
+        ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_LENGTH);
+        readFully(in, 0, header);
+        if (header.hasRemaining()) {
+            throw new IOException("encrypted file is truncated");
+        }
+        SegmentCipher cipher = cryptoUtils.segmentCipher(header.array());
+        ByteBuffer plain = PLAIN.take();
+        ByteBuffer sealed = SEALED.take();
+        try {
+            transform(in, SegmentCipher.HEADER_LENGTH, SegmentCipher.CIPHER_SEGMENT_SIZE, out, sealed, plain,
+                    cipher::open);
+        } finally {
+            PLAIN.give(plain);
+            SEALED.give(sealed);
+        }
+    }
+
+    // EFFECTS: applies op to every segment of segmentSize bytes of in from start on and writes the results to out;
+    //          there is always at least one segment, so an empty input has an empty last segment. Large files are
+    //          mapped rather than read; other channels are read
+    private static void transform(SeekableByteChannel in, long start, int segmentSize, WritableByteChannel out,
+                                  ByteBuffer src, ByteBuffer dst, SegmentOp op) throws IOException, CryptoException {
+        long size = Math.max(0, in.size() - start);
+        long segments = Math.max(1, (size + segmentSize - 1) / segmentSize);
+        boolean mapped = size >= MAP_THRESHOLD && in instanceof FileChannel;
+        ByteBuffer window = null;
+        for (long i = 0; i < segments; i++) {
+            long offset = i * segmentSize;
+            int len = (int) Math.min(segmentSize, size - offset);
+            ByteBuffer segment;
+            if (mapped) {
+                if (i % WINDOW_SEGMENTS == 0) {
+                    window = ((FileChannel) in).map(FileChannel.MapMode.READ_ONLY, start + offset,
+                            Math.min((long) WINDOW_SEGMENTS * segmentSize, size - offset));
+                }
+                segment = window.slice((int) (i % WINDOW_SEGMENTS) * segmentSize, len);
+            } else {
+                segment = src;
+                segment.clear().limit(len);
+                readFully(in, start + offset, segment);
+                if (segment.hasRemaining()) {
+                    throw new IOException("file changed while it was read");
+                }
+                segment.flip();
+            }
+            dst.clear();
+            op.apply(i, i == segments - 1, segment, dst);
+            dst.flip();
+            writeFully(out, dst);
+        }
+    }
+
+    // EFFECTS: reads from in at offset until buf is full or the end of the file
+    private static void readFully(SeekableByteChannel in, long offset, ByteBuffer buf) throws IOException {
+        if (in instanceof FileChannel) {
+            int n;
+            while (buf.hasRemaining() && (n = ((FileChannel) in).read(buf, offset)) >= 0) {
+                offset += n;
+            }
+            return;
+        }
+        in.position(offset);
+        while (buf.hasRemaining() && in.read(buf) >= 0) {
+            // keep reading until buf is full or the end of the file
+        }
+    }
+
+    // EFFECTS: writes all remaining bytes of buf to out
+    private static void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
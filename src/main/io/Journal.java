@@ -0,0 +1,299 @@
+package main.io;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import main.exceptions.CryptoException;
+import main.util.CryptoUtils;
+import main.util.JsonUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * header of a vault stored as a snapshot plus an append-only journal of the mutations made since the snapshot.
+ * Every record carries a sequence number; the snapshot remembers the last sequence number it contains, so records
+ * already folded into the snapshot are skipped on replay. Records are encrypted one by one with the vault key and
+ * written with a length prefix.
+ * Appending only hands a record to the operating system; sync makes it durable with group commit: one thread
+ * forces the journal for every record appended so far while the others wait for it, so concurrent writers share
+ * one fsync. Directories holding files the records refer to are forced first, once per batch, and so are the other
+ * dependencies registered with syncBefore.
+ */
+public class Journal {
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private CryptoUtils cryptoUtils;
+    private FileOutputStream file; // opened on first append
+    private DataOutputStream out;
+    private long seq; // sequence number of the last record
+    private long snapshotSeq; // sequence number of the last record contained in the snapshot
+    private long journalSize; // bytes in the journal file
+    private long validSize = -1; // bytes of the journal made of complete records, -1 if not read yet
+    private long durableSeq; // sequence number of the last record forced to disk
+    private boolean syncing; // a thread is forcing the journal
+    private long syncCount; // number of times the journal was forced
+    private final Set<File> pendingDirectories = new LinkedHashSet<>(); // to force before the next records
+    private final Set<Dependency> pendingDependencies = new LinkedHashSet<>(); // to force before the next records
+
+    /**
+     * storage the records may refer to that has to be forced to disk before them
+     */
+    public interface Dependency {
+        void force() throws IOException;
+    }
+
+    public Journal(File snapshotFile, File journalFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.journalSize = journalFile.length();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: sets the keys used to encrypt and decrypt records
+    public synchronized void setCryptoUtils(CryptoUtils cryptoUtils) {
+        this.cryptoUtils = cryptoUtils;
+    }
+
+    // EFFECTS: reads the snapshot and remembers its sequence number
+    public synchronized JsonObject readSnapshot() throws IOException {
+        JsonObject snapshot = new Reader(snapshotFile).readJson();
+        snapshotSeq = snapshot.has("seq") ? snapshot.get("seq").getAsLong() : 0;
+        seq = Math.max(seq, snapshotSeq);
+        durableSeq = Math.max(durableSeq, snapshotSeq);
+        snapshot.remove("seq");
+        return snapshot;
+    }
+
+    // EFFECTS: returns the records appended after the snapshot, in order;
+    //          a torn last record left by a crash during append ends the journal
+    public synchronized List<JsonObject> readRecords() throws IOException {
+        List<JsonObject> records = new ArrayList<>();
+        validSize = 0;
+        if (!journalFile.exists()) return records;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                JsonObject record;
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length < 0 || length > journalSize) break;
+                    byte[] encrypted = new byte[length];
+                    in.readFully(encrypted);
+                    record = JsonParser.parseString(new String(cryptoUtils.decrypt(encrypted), UTF_8))
+                            .getAsJsonObject();
+                } catch (EOFException | CryptoException | JsonParseException | IllegalStateException e) {
+                    break;
+                }
+                validSize += 4 + length;
+                long recordSeq = record.get("seq").getAsLong();
+                seq = Math.max(seq, recordSeq);
+                if (recordSeq > snapshotSeq) {
+                    records.add(record);
+                }
+            }
+        }
+        if (out == null) {
+            durableSeq = Math.max(durableSeq, seq); // nothing was appended since the file was last on disk
+        }
+        return records;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: assigns the next sequence number to record, appends it to the journal and returns the number
+    public synchronized long append(JsonObject record) throws IOException {
+        record.addProperty("seq", ++seq);
+        if (out == null) {
+            open();
+        }
+        byte[] encrypted = encrypt(record);
+        out.writeInt(encrypted.length);
+        out.write(encrypted);
+        out.flush();
+        journalSize += 4 + encrypted.length;
+        return seq;
+    }
+
+    // EFFECTS: opens the journal for appending after cutting off a torn last record
+    private void open() throws IOException {
+        if (validSize < 0) {
+            readRecords();
+        }
+        if (journalFile.exists() && journalFile.length() > validSize) {
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(validSize);
+            }
+        }
+        journalSize = validSize;
+        file = new FileOutputStream(journalFile, true);
+        out = new DataOutputStream(file);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: makes sure the entries of directory are on disk before any record appended from now on is
+    public synchronized void syncBefore(File directory) {
+        pendingDirectories.add(directory);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: makes sure dependency is forced to disk before any record appended from now on is
+    public synchronized void syncBefore(Dependency dependency) {
+        pendingDependencies.add(dependency);
+    }
+
+    // EFFECTS: returns once every record up to upToSeq is on disk. If another thread is forcing the journal, waits
+    //          for it, and forces the journal itself only if that did not cover upToSeq; a force covers every record
+    //          appended before it started and the directories and dependencies registered with syncBefore
+    public void sync(long upToSeq) throws IOException {
+        List<File> directories;
+        List<Dependency> dependencies;
+        FileChannel channel;
+        long target;
+        synchronized (this) {
+            while (syncing && durableSeq < upToSeq) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            if (durableSeq >= upToSeq) return;
+            syncing = true;
+            target = seq;
+            directories = new ArrayList<>(pendingDirectories);
+            pendingDirectories.clear();
+            dependencies = new ArrayList<>(pendingDependencies);
+            pendingDependencies.clear();
+            channel = file == null ? null : file.getChannel();
+        }
+        boolean synced = false;
+        try {
+            for (File directory : directories) {
+                Writer.syncDirectory(directory);
+            }
+            for (Dependency dependency : dependencies) {
+                dependency.force();
+            }
+            if (channel != null) {
+                channel.force(false);
+            }
+            synced = true;
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if (synced) {
+                    durableSeq = Math.max(durableSeq, target);
+                    syncCount++;
+                } else {
+                    pendingDirectories.addAll(directories);
+                    pendingDependencies.addAll(dependencies);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    // EFFECTS: returns number of times the journal was forced to disk
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    // EFFECTS: waits until no thread is forcing the journal
+    private void awaitSync() throws IOException {
+        while (syncing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private byte[] encrypt(JsonObject record) throws IOException {
+        try {
+            return cryptoUtils.encrypt(JsonUtils.toCompactString(record).getBytes(UTF_8));
+        } catch (CryptoException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // GETTERS
+    public synchronized long getSeq() {
+        return seq;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: records that the filesystem tree, stored outside the snapshot, contains all records up to seq
+    public synchronized void setSnapshotSeq(long seq) {
+        snapshotSeq = seq;
+        this.seq = Math.max(this.seq, seq);
+        durableSeq = Math.max(durableSeq, seq);
+    }
+
+    // EFFECTS: returns true if replaying the journal costs more than reading a snapshot of snapshotSize bytes would
+    public synchronized boolean needsCompaction(long snapshotSize) {
+        return journalSize > Math.max(MIN_COMPACT_SIZE, snapshotSize);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: atomically replaces the snapshot with contents, which include all records up to upToSeq,
+    //          then drops those records from the journal
+    public synchronized void writeSnapshot(JsonObject contents, long upToSeq) throws IOException {
+        JsonObject snapshot = new JsonObject();
+        contents.entrySet().forEach(e -> snapshot.add(e.getKey(), e.getValue()));
+        snapshot.addProperty("seq", upToSeq);
+        String json = JsonUtils.toJsonString(snapshot);
+        new Writer(snapshotFile).writeStringAtomic(json);
+        snapshotSeq = upToSeq;
+        truncate();
+    }
+
+    // EFFECTS: rewrites the journal keeping only the records that are not in the snapshot
+    private void truncate() throws IOException {
+        List<JsonObject> remaining = readRecords();
+        awaitSync();
+        close();
+        new Writer(journalFile).writeAtomic(stream -> {
+            DataOutputStream data = new DataOutputStream(stream);
+            for (JsonObject record : remaining) {
+                byte[] encrypted = encrypt(record);
+                data.writeInt(encrypted.length);
+                data.write(encrypted);
+            }
+            data.flush();
+        });
+        journalSize = journalFile.length();
+        validSize = journalSize;
+        durableSeq = seq; // the new journal was forced to disk before it replaced the old one
+    }
+
+    // EFFECTS: forces the journal to disk and closes it
+    public synchronized void close() throws IOException {
+        awaitSync();
+        if (out != null) {
+            file.getChannel().force(false);
+            durableSeq = seq;
+            out.close();
+            out = null;
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package main.io;
+
+import main.util.ObjectPool;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * fast LZ77 compression of blocks of up to 64 KiB, in the layout of LZ4 blocks.
+ * A block is a run of sequences, each a token (literal count and match length less 4, four bits each, 15 meaning
+ * more bytes follow), the literals, and the two-byte distance back to the match; the last sequence has literals
+ * only. Matches are found through a hash of the next four bytes, without searching further, and the step grows
+ * while nothing matches, so incompressible data is skipped at almost the speed of a copy.
+ */
+public final class Lz {
+    public static final int MAX_BLOCK = 64 * 1024;
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5; // bytes at the end of a block that are always literals
+    private static final int MATCH_LIMIT = 12; // no match starts in the last bytes of a block
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_SHIFT = 6; // the step grows by one every 64 bytes without a match
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final ObjectPool<int[]> TABLES = new ObjectPool<>(() -> new int[1 << HASH_LOG]);
+
+    private Lz() {
+    }
+
+    // EFFECTS: returns the most bytes compress may write for len bytes
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    // REQUIRES: len <= MAX_BLOCK, dst has room for maxCompressedLength(len) bytes from 0
+    // EFFECTS: compresses the first len bytes of src into dst, returns number of bytes written
+    public static int compress(byte[] src, int len, byte[] dst) {
+        int[] table = TABLES.take();
+        try {
+            return compress(src, len, dst, table);
+        } finally {
+            TABLES.give(table);
+        }
+    }
+
+    // EFFECTS: compresses like compress, finding matches through table
+    private static int compress(byte[] src, int len, byte[] dst, int[] table) {
+        Arrays.fill(table, -1);
+        int ip = 0;
+        int anchor = 0;
+        int op = 0;
+        int limit = len - MATCH_LIMIT;
+        while (ip < limit) {
+            int seq = (int) INT.get(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || (int) INT.get(src, ref) != seq) {
+                ip += 1 + ((ip - anchor) >>> SKIP_SHIFT);
+                continue;
+            }
+            int matchLen = MIN_MATCH + commonLength(src, ip + MIN_MATCH, ref + MIN_MATCH, len - LAST_LITERALS);
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+                matchLen++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+            ip += matchLen;
+            anchor = ip;
+            if (ip - 2 < limit) {
+                table[hash((int) INT.get(src, ip - 2))] = ip - 2;
+            }
+        }
+        return writeLiterals(src, anchor, len - anchor, dst, op);
+    }
+
+    // REQUIRES: dst has room for dstLen bytes from 0
+    // EFFECTS: decompresses the srcLen bytes of src into dst, which must come to exactly dstLen bytes;
+    //          throws IOException if they do not or the block is malformed
+    public static void decompress(byte[] src, int srcLen, byte[] dst, int dstLen) throws IOException {
+        try {
+            int ip = 0;
+            int op = 0;
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (ip + literals > srcLen || op + literals > dstLen) break;
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == srcLen) {
+                    if (op == dstLen) return;
+                    break;
+                }
+                int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLen = token & 15;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                if (distance == 0 || distance > op || op + matchLen > dstLen) break;
+                if (distance >= matchLen) {
+                    System.arraycopy(dst, op - distance, dst, op, matchLen);
+                } else {
+                    for (int i = 0; i < matchLen; i++) {
+                        dst[op + i] = dst[op - distance + i]; // the match overlaps the bytes it produces
+                    }
+                }
+                op += matchLen;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // falls through to the error below
+        }
+        throw new IOException("compressed block is corrupt");
+    }
+
+    // EFFECTS: returns number of equal bytes of src from i and from j on, comparing eight at a time, up to end
+    private static int commonLength(byte[] src, int i, int j, int end) {
+        int start = i;
+        while (i + 8 <= end) {
+            long diff = (long) LONG.get(src, i) ^ (long) LONG.get(src, j);
+            if (diff != 0) {
+                return i - start + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            i += 8;
+            j += 8;
+        }
+        while (i < end && src[i] == src[j]) {
+            i++;
+            j++;
+        }
+        return i - start;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    // EFFECTS: writes a sequence of count literals from src at start followed by a match, returns new end of dst
+    private static int writeSequence(byte[] src, int start, int count, int distance, int matchLen, byte[] dst,
+                                     int op) {
+        int token = op++;
+        int extra = matchLen - MIN_MATCH;
+        dst[token] = (byte) (Math.min(count, 15) << 4 | Math.min(extra, 15));
+        op = writeLength(count, dst, op);
+        System.arraycopy(src, start, dst, op, count);
+        op += count;
+        dst[op++] = (byte) distance;
+        dst[op++] = (byte) (distance >>> 8);
+        return writeLength(extra, dst, op);
+    }
+
+    // EFFECTS: writes the last sequence, count literals from src at start, returns new end of dst
+    private static int writeLiterals(byte[] src, int start, int count, byte[] dst, int op) {
+        dst[op++] = (byte) (Math.min(count, 15) << 4);
+        op = writeLength(count, dst, op);
+        System.arraycopy(src, start, dst, op, count);
+        return op + count;
+    }
+
+    // EFFECTS: writes the bytes extending a length of at least 15 in a token, returns new end of dst
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length < 15) return op;
+        for (length -= 15; length >= 255; length -= 255) {
+            dst[op++] = (byte) 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+}
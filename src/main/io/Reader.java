@@ -4,10 +4,16 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 public class Reader {
     private File file;
@@ -18,19 +24,36 @@ public class Reader {
 
     // EFFECTS: reads JSON from file
     public JsonObject readJson() throws IOException {
-        JsonElement jsonElement = JsonParser.parseReader(new FileReader(file));
-        JsonObject jo = jsonElement.getAsJsonObject();
-        return jo;
+        try (FileReader in = new FileReader(file)) {
+            JsonElement jsonElement = JsonParser.parseReader(in);
+            JsonObject jo = jsonElement.getAsJsonObject();
+            return jo;
+        }
 //        return JsonUtils.parse(new String(Files.readAllBytes(Paths.get(file.getAbsolutePath()))));
     }
 
-    // EFFECTS: reads large file into byte array one byte at a time
+    // EFFECTS: reads the whole file into a byte array
     public byte[] readBytes() throws IOException {
-        byte[] bytes = new byte[(int) file.length()];
-        FileInputStream in = new FileInputStream(file);
-        int numBytes = in.read(bytes);
-        in.close();
-        return bytes;
+        try (FileChannel in = openChannel()) {
+            if (in.size() > Integer.MAX_VALUE - 8) {
+                throw new IOException(file + " is too large to read into memory");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) in.size());
+            while (buf.hasRemaining() && in.read(buf) >= 0) {
+                // keep reading until buf is full or the end of the file
+            }
+            return buf.position() == buf.capacity() ? buf.array() : Arrays.copyOf(buf.array(), buf.position());
+        }
+    }
+
+    // EFFECTS: opens a buffered stream reading the file
+    public InputStream openStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    // EFFECTS: opens a read-only channel to the file for random access
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
     }
 
 
@@ -0,0 +1,85 @@
+package main.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * read-only view of a range of bytes of a file as a channel of its own; closing it closes the file
+ */
+public class SliceChannel implements SeekableByteChannel {
+    private final FileChannel file;
+    private final long start;
+    private final long size;
+    private long position;
+
+    // EFFECTS: creates channel over the size bytes of file starting at start
+    public SliceChannel(FileChannel file, long start, long size) {
+        this.file = file;
+        this.start = start;
+        this.size = size;
+    }
+
+    // EFFECTS: reads bytes from the current position into dst, returns number of bytes read or -1 at the end
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) return -1;
+        ByteBuffer part = dst.duplicate();
+        part.limit(part.position() + (int) Math.min(dst.remaining(), size - position));
+        int n = file.read(part, start + position);
+        if (n < 0) {
+            throw new IOException("file is shorter than the slice");
+        }
+        dst.position(part.position());
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return file.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!file.isOpen()) throw new ClosedChannelException();
+    }
+}
@@ -3,9 +3,17 @@ package main.io;
 import com.google.gson.JsonObject;
 import main.util.JsonUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class Writer {
 
@@ -17,19 +25,94 @@ public class Writer {
 
     // EFFECTS: writes given string to file
     public void writeString(String outputString) throws IOException {
-        FileOutputStream out = new FileOutputStream(outFile);
-        out.write(outputString.getBytes());
-        out.close();
+        writeBytes(outputString.getBytes());
+    }
+
+    /**
+     * contents written to a stream
+     */
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // EFFECTS: writes given string to a temporary file and renames it over the file,
+    //          so the file holds either its old or its new contents even if writing is interrupted
+    public void writeStringAtomic(String outputString) throws IOException {
+        writeAtomic(out -> out.write(outputString.getBytes()));
+    }
+
+    /**
+     * contents written to a file channel
+     */
+    public interface ChannelContent {
+        void writeTo(FileChannel out) throws IOException;
+    }
+
+    // EFFECTS: writes content to a temporary file, forces it to disk and renames it over the file, then forces the
+    //          rename to disk; the file holds either its old or its new contents even if the machine crashes
+    public void writeAtomic(Content content) throws IOException {
+        writeAtomicChannel(channel -> {
+            // content may close the stream it is given; the file is only closed once it is on disk
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel)) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            content.writeTo(out);
+            out.flush();
+        });
+    }
+
+    // EFFECTS: writes content to a temporary file through a channel, then replaces the file like writeAtomic
+    public void writeAtomicChannel(ChannelContent content) throws IOException {
+        File temp = new File(outFile.getPath() + ".tmp");
+        try (FileChannel channel = new Writer(temp).openChannel()) {
+            content.writeTo(channel);
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(outFile.getAbsoluteFile().getParentFile());
+    }
+
+    // EFFECTS: forces the entries of directory to disk, so files created in or renamed into it survive a crash;
+    //          does nothing on platforms that cannot open a directory, where the entries are durable with the file
+    public static void syncDirectory(File directory) throws IOException {
+        FileChannel dir;
+        try {
+            dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (dir) {
+            dir.force(true);
+        }
     }
 
     // EFFECTS: writes given byte array to file
     public void writeBytes(byte[] outputByteArray) throws IOException {
-        FileOutputStream out = new FileOutputStream(outFile);
-        out.write(outputByteArray);
-        out.close();
+        try (FileChannel out = openChannel()) {
+            ByteBuffer buf = ByteBuffer.wrap(outputByteArray);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+    }
+
+    // EFFECTS: opens a buffered stream writing the file
+    public OutputStream openStream() throws IOException {
+        return new BufferedOutputStream(new FileOutputStream(outFile));
+    }
+
+    // EFFECTS: opens a channel writing the file from the start, creating or truncating it
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
     }
 
+    // EFFECTS: atomically replaces the file with obj
     public void writeJson(JsonObject obj) throws IOException {
-        writeString(JsonUtils.toJsonString(obj));
+        writeStringAtomic(JsonUtils.toJsonString(obj));
     }
 }
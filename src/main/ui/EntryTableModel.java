@@ -0,0 +1,195 @@
+package main.ui;
+
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * rows of the finder table: the entries of one directory, with a column for their icon, name, size and ID. Rows
+ * refer to the entries themselves, so a selected row is its entry, and the table only asks for the cells of the
+ * rows it shows. The rows are kept apart from the list of the directory, which background tasks change before the
+ * event dispatch thread hears of it, and are changed one at a time as tasks finish; they are sorted in place by
+ * any column. The icon of an entry may be given by a function, such as a thumbnail of an image file. Only used from
+ * the event dispatch thread
+ */
+public class EntryTableModel extends AbstractTableModel {
+    public static final int ICON = 0;
+    public static final int NAME = 1;
+    public static final int SIZE = 2;
+    public static final int ID = 3;
+
+    private final String[] columns;
+    private final ArrayList<VaultEntry> rows = new ArrayList<>();
+    private int sortColumn = -1; // -1 keeps the order of the directory
+    private boolean ascending = true;
+    private Function<VaultEntry, Icon> icons = entry -> null;
+
+    // EFFECTS: creates empty model with given names of the ICON, NAME, SIZE and ID columns
+    public EntryTableModel(String[] columns) {
+        this.columns = columns.clone();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: shows entries, in the order of the sort column if there is one
+    // REQUIRES: the tree of the entries is not changed while they are read
+    public void setEntries(Collection<VaultEntry> entries) {
+        rows.clear();
+        rows.ensureCapacity(entries.size());
+        rows.addAll(entries);
+        if (sortColumn >= 0) {
+            rows.sort(comparator());
+        }
+        fireTableDataChanged();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: shows no entries
+    public void clear() {
+        rows.clear();
+        fireTableDataChanged();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: shows icons given by icons, or the icon of a directory or file where it gives null
+    public void setIcons(Function<VaultEntry, Icon> icons) {
+        this.icons = icons;
+        fireTableDataChanged();
+    }
+
+    // EFFECTS: returns entry shown in row, or null if there is no such row
+    public VaultEntry getEntry(int row) {
+        return row >= 0 && row < rows.size() ? rows.get(row) : null;
+    }
+
+    // EFFECTS: returns row showing entry, or -1 if it is not shown
+    public int indexOf(VaultEntry entry) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i) == entry) return i;
+        }
+        return -1;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: shows entry, at its place in the sort order or else at the end, and returns its row
+    public int add(VaultEntry entry) {
+        int row = rows.size();
+        if (sortColumn >= 0) {
+            row = Collections.binarySearch(rows, entry, comparator());
+            row = row < 0 ? -row - 1 : row;
+        }
+        rows.add(row, entry);
+        fireTableRowsInserted(row, row);
+        return row;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: stops showing entry, if it is shown
+    public void remove(VaultEntry entry) {
+        int row = indexOf(entry);
+        if (row >= 0) {
+            rows.remove(row);
+            fireTableRowsDeleted(row, row);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: sorts the rows by column, in the reverse order if they are already sorted by it
+    public void sortBy(int column) {
+        ascending = column != sortColumn || !ascending;
+        sortColumn = column;
+        rows.sort(comparator());
+        fireTableDataChanged();
+    }
+
+    // EFFECTS: returns column the rows are sorted by, -1 if they are in the order of the directory
+    public int getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case ICON:
+                return Icon.class;
+            case SIZE:
+                return Long.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        VaultEntry entry = rows.get(row);
+        switch (column) {
+            case ICON:
+                Icon icon = icons.apply(entry);
+                return icon != null ? icon
+                        : UIManager.getIcon(isDirectory(entry) ? "FileView.directoryIcon" : "FileView.fileIcon");
+            case NAME:
+                return entry.getName();
+            case SIZE:
+                return entry.getSize();
+            default:
+                return entry.getId();
+        }
+    }
+
+    // EFFECTS: returns order of the rows by the sort column, directories before files when it is the ICON column
+    private Comparator<VaultEntry> comparator() {
+        Comparator<VaultEntry> byName = Comparator.comparing(VaultEntry::getName, String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(VaultEntry::getName);
+        Comparator<VaultEntry> order;
+        switch (sortColumn) {
+            case ICON:
+                order = Comparator.comparing((VaultEntry e) -> !isDirectory(e)).thenComparing(byName);
+                break;
+            case SIZE:
+                order = Comparator.comparingLong(VaultEntry::getSize).thenComparing(byName);
+                break;
+            case ID:
+                order = Comparator.comparing(VaultEntry::getUuid, EntryTableModel::compareAsText);
+                break;
+            default:
+                order = byName;
+        }
+        return ascending ? order : order.reversed();
+    }
+
+    // EFFECTS: compares ids in the order of their text, without formatting them
+    private static int compareAsText(UUID a, UUID b) {
+        int c = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return c != 0 ? c : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+
+    private static boolean isDirectory(VaultEntry entry) {
+        return entry.getClass().equals(VaultDirectory.class);
+    }
+}
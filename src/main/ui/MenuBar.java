@@ -14,6 +14,7 @@ public class MenuBar extends JMenuBar {
     private JMenu editMenu;
     private JMenu viewMenu;
     private JMenuItem closeVault;
+    private JCheckBoxMenuItem storeThumbnails;
     private JPanel dialogPane;
     private JTextField nameField, dirField;
     private JPasswordField pwdField;
@@ -64,16 +65,21 @@ public class MenuBar extends JMenuBar {
         JMenuItem addFile = new JMenuItem("Add File");
         JMenuItem saveFile = new JMenuItem("Save File");
         JMenuItem delete = new JMenuItem("Delete");
+        storeThumbnails = new JCheckBoxMenuItem("Store Thumbnails of Images Added");
 
         addFile.addActionListener(e -> handleAddFile());
         newFolder.addActionListener(e -> handleNewFolder());
         saveFile.addActionListener(e -> handleSaveFile());
         delete.addActionListener(e -> App.getScreen().finder.delete());
+        storeThumbnails.addActionListener(e -> App.getScreen().finder.setStoringThumbnails(
+                storeThumbnails.isSelected()));
 
         editMenu.add(newFolder);
         editMenu.add(addFile);
         editMenu.add(saveFile);
         editMenu.add(delete);
+        editMenu.addSeparator();
+        editMenu.add(storeThumbnails);
     }
 
     // EFFECTS: creates View menu
@@ -256,6 +262,7 @@ public class MenuBar extends JMenuBar {
     private void handleAddFile() {
         JFileChooser chooser = new JFileChooser();
         chooser.setDialogTitle("Select File to Add");
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         int status = chooser.showOpenDialog(null);
         File file = chooser.getSelectedFile();
         if (status == JFileChooser.APPROVE_OPTION) {
@@ -271,6 +278,11 @@ public class MenuBar extends JMenuBar {
         App.getScreen().finder.createFolder(name);
     }
 
+    // EFFECTS: shows whether the loaded vault stores thumbnails of images added
+    protected void showStoringThumbnails(boolean state) {
+        storeThumbnails.setSelected(state);
+    }
+
     //EFFECTS: enables or disables menu items relevant to loaded vault
     protected void enableLoadedVaultMenu(boolean state) {
         Arrays.stream(editMenu.getMenuComponents()).forEach(x -> x.setEnabled(state));
@@ -0,0 +1,250 @@
+package main.ui;
+
+import main.exceptions.CryptoException;
+import main.filesystem.Vault;
+import main.filesystem.VaultFile;
+import main.util.ByteLruCache;
+import main.util.Thumbnails;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * decoded thumbnails and previews of the image files of a vault, kept in memory up to a capacity in bytes and
+ * evicted least recently used first. Thumbnails are loaded in the background for the rows the finder shows, from
+ * the thumbnail the vault stores for a file if it has one and else from its contents; each request replaces the
+ * thumbnails not started yet, so scrolling fast does not queue up the rows scrolled past.
+ * Previews are loaded on a thread of their own, so they never wait behind thumbnails, and handed out as copies
+ * their callers own. Images evicted or dropped are wiped, everything cached is wiped when the vault is locked,
+ * images still loading then are dropped, and the cache loads nothing more
+ */
+public class PreviewCache {
+    private final Vault vault;
+    private final ByteLruCache<Key, BufferedImage> images;
+    private final Consumer<VaultFile> thumbnailLoaded;
+    private final ExecutorService thumbnailLoader = newLoader("thumbnail-loader");
+    private final ExecutorService previewLoader = newLoader("preview-loader");
+    private final Deque<VaultFile> wanted = new ArrayDeque<>(); // thumbnails to load next
+    private final Set<UUID> unreadable = new HashSet<>(); // files that are no image ImageIO can read
+    private boolean draining; // a task loading the wanted thumbnails is queued or running
+    private int generation; // counts wipes, so loads from before one are dropped
+
+    /**
+     * image of a file cached: its thumbnail or its preview
+     */
+    private static final class Key {
+        private final UUID id;
+        private final boolean thumbnail;
+
+        private Key(UUID id, boolean thumbnail) {
+            this.id = id;
+            this.thumbnail = thumbnail;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id.equals(id) && ((Key) o).thumbnail == thumbnail;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, thumbnail);
+        }
+    }
+
+    // EFFECTS: creates empty cache of capacity bytes of the images of vault, wiped when vault is locked;
+    //          thumbnailLoaded is told about every thumbnail loaded, from the thread that loaded it
+    public PreviewCache(Vault vault, long capacity, Consumer<VaultFile> thumbnailLoaded) {
+        this.vault = vault;
+        this.images = new ByteLruCache<>(capacity, Thumbnails::weight);
+        this.thumbnailLoaded = thumbnailLoaded;
+        vault.addLockListener(this::close);
+    }
+
+    // EFFECTS: returns cached thumbnail of file, or null if it is not loaded
+    public BufferedImage getThumbnail(VaultFile file) {
+        return images.get(new Key(file.getUuid(), true));
+    }
+
+    // MODIFIES: this
+    // EFFECTS: loads the thumbnails of the image files of files that are not cached, in order, in the background,
+    //          instead of those asked for before and not started yet
+    public void prefetch(List<VaultFile> files) {
+        synchronized (this) {
+            wanted.clear();
+            for (VaultFile file : files) {
+                if (Thumbnails.isImage(file.getName()) && !unreadable.contains(file.getUuid())
+                        && !images.contains(new Key(file.getUuid(), true))) {
+                    wanted.add(file);
+                }
+            }
+            if (wanted.isEmpty() || draining) return;
+            draining = true;
+        }
+        try {
+            thumbnailLoader.execute(this::loadWanted);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                draining = false; // the vault is locked
+            }
+        }
+    }
+
+    // EFFECTS: returns a copy of the decoded image of file, from the cache or else loaded in the background and
+    //          cached; the caller owns the copy, which the cache never wipes
+    public CompletableFuture<BufferedImage> preview(VaultFile file) {
+        synchronized (this) {
+            BufferedImage cached = images.get(new Key(file.getUuid(), false));
+            if (cached != null) {
+                return CompletableFuture.completedFuture(Thumbnails.copy(cached));
+            }
+        }
+        int started = generationNow();
+        try {
+            return CompletableFuture.supplyAsync(() -> load(started, file), previewLoader);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IOException("vault is locked"));
+        }
+    }
+
+    // EFFECTS: decodes the image of file and caches it, with its thumbnail if that is not cached yet; returns a
+    //          copy of the image, or the image itself if it was not cached
+    private BufferedImage load(int started, VaultFile file) {
+        try {
+            byte[] plain = vault.open(file);
+            BufferedImage image;
+            try {
+                image = Thumbnails.read(new ByteArrayInputStream(plain));
+            } finally {
+                Arrays.fill(plain, (byte) 0);
+            }
+            if (getThumbnail(file) == null) {
+                BufferedImage thumbnail = Thumbnails.scale(image, Thumbnails.SIZE);
+                cacheOrWipe(started, new Key(file.getUuid(), true),
+                        thumbnail == image ? Thumbnails.copy(image) : thumbnail);
+            }
+            synchronized (this) {
+                if (cache(started, new Key(file.getUuid(), false), image)) {
+                    return Thumbnails.copy(image); // before another image can evict and wipe it
+                }
+            }
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (CryptoException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: drops the images of the files with the given ids
+    public void invalidate(Set<UUID> ids) {
+        images.removeIf(key -> ids.contains(key.id)).forEach(Thumbnails::wipe);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: wipes every image cached and stops loading images
+    public void close() {
+        clear();
+        thumbnailLoader.shutdown();
+        previewLoader.shutdown();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: wipes every image cached and drops the thumbnails waiting to be loaded and the images loading
+    public void clear() {
+        List<BufferedImage> removed;
+        synchronized (this) {
+            generation++;
+            wanted.clear();
+            unreadable.clear();
+            removed = images.clear();
+        }
+        removed.forEach(Thumbnails::wipe);
+    }
+
+    // EFFECTS: loads the wanted thumbnails one by one until none is left
+    private void loadWanted() {
+        while (true) {
+            VaultFile file;
+            int started;
+            synchronized (this) {
+                file = wanted.poll();
+                if (file == null) {
+                    draining = false;
+                    return;
+                }
+                started = generation;
+            }
+            BufferedImage thumbnail;
+            try {
+                thumbnail = readThumbnail(file);
+            } catch (IOException | CryptoException | RuntimeException e) {
+                synchronized (this) {
+                    unreadable.add(file.getUuid()); // not asked for again until the cache is wiped
+                }
+                continue;
+            }
+            if (cacheOrWipe(started, new Key(file.getUuid(), true), thumbnail)) {
+                thumbnailLoaded.accept(file);
+            }
+        }
+    }
+
+    // EFFECTS: returns the thumbnail the vault stores for file, or else one decoded from its contents
+    private BufferedImage readThumbnail(VaultFile file) throws IOException, CryptoException {
+        if (file.hasThumbnail()) {
+            try {
+                return vault.readThumbnail(file);
+            } catch (IOException e) {
+                // decoded from the contents instead
+            }
+        }
+        try (InputStream in = Channels.newInputStream(vault.openChannel(file))) {
+            return Thumbnails.readThumbnail(in, Thumbnails.SIZE);
+        }
+    }
+
+    // EFFECTS: caches image under key unless the cache was wiped since the load of image started, and wipes the
+    //          images it evicts; returns true if image was cached, or else leaves image to the caller
+    private synchronized boolean cache(int started, Key key, BufferedImage image) {
+        return generation == started && images.put(key, image, Thumbnails::wipe);
+    }
+
+    // EFFECTS: caches image under key like cache, or wipes it if it was not cached; returns true if it was cached
+    private boolean cacheOrWipe(int started, Key key, BufferedImage image) {
+        if (cache(started, key, image)) return true;
+        Thumbnails.wipe(image);
+        return false;
+    }
+
+    private synchronized int generationNow() {
+        return generation;
+    }
+
+    private static ExecutorService newLoader(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -7,6 +7,7 @@ public class Screen extends JPanel{
     protected main.ui.MenuBar menuBar;
     protected VaultFinder finder;
     protected StatusBar statusBar;
+    protected TaskManager tasks; // vault operations running in the background
 
     public Screen(){
         onOpen();
@@ -19,8 +20,10 @@ public class Screen extends JPanel{
         menuBar = new MenuBar();
         menuBar.makeMenu();
 
+        tasks = new TaskManager(2);
         finder = new VaultFinder();
         statusBar = new StatusBar();
+        tasks.addListener(statusBar);
 
         this.add(menuBar, BorderLayout.NORTH);
         this.add(finder, BorderLayout.CENTER);
@@ -2,38 +2,134 @@ package main.ui;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
 
-public class StatusBar extends JTextArea {
+/**
+ * status line of the application above a row for each task of the task manager, showing its progress bar, files
+ * and byte rate, and a button cancelling it
+ */
+public class StatusBar extends JPanel implements TaskManager.Listener {
 
     public enum Error{IO, CRYPTO, DEFAULT}
 
+    private final JTextArea message;
+    private final JPanel taskRows;
+    private final Map<TaskManager.Task<?>, TaskRow> rows = new HashMap<>();
+
     public StatusBar(){
-        super(2,1);
-        this.setEditable(false);
-        this.setLineWrap(true);
-        this.setBackground(Color.BLACK);
+        super(new BorderLayout());
+        taskRows = new JPanel();
+        taskRows.setLayout(new BoxLayout(taskRows, BoxLayout.Y_AXIS));
+        message = new JTextArea(2, 1);
+        message.setEditable(false);
+        message.setLineWrap(true);
+        message.setBackground(Color.BLACK);
+        this.add(taskRows, BorderLayout.NORTH);
+        this.add(message, BorderLayout.CENTER);
         showStatus("No Vault Loaded", Color.RED);
     }
 
+    // EFFECTS: displays text in the color of the last status
+    public void setText(String text) {
+        message.setText(text);
+    }
+
     // EFFECTS: displays text in given color
     public void showStatus(String status, Color color){
-        this.setText(status);
-        this.setFont(new Font("Courier New", Font.PLAIN, 12));
-        this.setForeground(color);
+        message.setText(status);
+        message.setFont(new Font("Courier New", Font.PLAIN, 12));
+        message.setForeground(color);
     }
 
     // EFFECTS: displays error
     public void showError(String operation, Error err, Exception e){
         switch(err){
             case IO:
-                this.setText(err + " error when " + operation + ": " + e.getMessage());
+                message.setText(err + " error when " + operation + ": " + e.getMessage());
                 break;
             case CRYPTO:
-                this.setText(err + " error when " + operation + ". Please re-enter your password: " + e.getMessage());
+                message.setText(err + " error when " + operation + ". Please re-enter your password: "
+                        + e.getMessage());
                 break;
             default:
-                this.setText("Error when " + operation + ": " + e.getMessage());
+                message.setText("Error when " + operation + ": " + e.getMessage());
+        }
+        message.setForeground(Color.RED);
+    }
+
+    @Override
+    public void taskAdded(TaskManager.Task<?> task) {
+        TaskRow row = new TaskRow(task);
+        rows.put(task, row);
+        taskRows.add(row);
+        row.update();
+        revalidate();
+    }
+
+    @Override
+    public void taskChanged(TaskManager.Task<?> task) {
+        TaskRow row = rows.get(task);
+        if (row != null) {
+            row.update();
+        }
+    }
+
+    @Override
+    public void taskRemoved(TaskManager.Task<?> task) {
+        TaskRow row = rows.remove(task);
+        if (row != null) {
+            taskRows.remove(row);
+            revalidate();
+            repaint();
+        }
+    }
+
+    /**
+     * progress of one task
+     */
+    private static class TaskRow extends JPanel {
+        private static final int STEPS = 1000; // resolution of the progress bar
+
+        private final TaskManager.Task<?> task;
+        private final JProgressBar bar = new JProgressBar(0, STEPS);
+        private final JLabel details = new JLabel();
+
+        private TaskRow(TaskManager.Task<?> task) {
+            super(new BorderLayout(6, 0));
+            this.task = task;
+            JButton cancel = new JButton("✕");
+            cancel.setToolTipText("Cancel " + task.getName());
+            cancel.addActionListener(e -> task.cancel());
+            bar.setStringPainted(true);
+            add(new JLabel(task.getName()), BorderLayout.WEST);
+            add(bar, BorderLayout.CENTER);
+            JPanel east = new JPanel(new BorderLayout(6, 0));
+            east.add(details, BorderLayout.CENTER);
+            east.add(cancel, BorderLayout.EAST);
+            add(east, BorderLayout.EAST);
+        }
+
+        // EFFECTS: shows the latest progress of the task
+        private void update() {
+            if (!task.isStarted()) {
+                bar.setIndeterminate(false);
+                bar.setValue(0);
+                bar.setString("Waiting");
+                details.setText("");
+                return;
+            }
+            bar.setIndeterminate(task.isIndeterminate() || task.isCancelled());
+            bar.setValue((int) (task.getFraction() * STEPS));
+            if (task.isCancelled()) {
+                bar.setString("Cancelling");
+            } else {
+                bar.setString(task.isIndeterminate() ? "" : Math.round(task.getFraction() * 100) + "%");
+            }
+            if (task.getFilesTotal() > 0) {
+                details.setText(String.format("%d/%d files, %.1f MB/s", task.getFilesDone(), task.getFilesTotal(),
+                        task.getBytesPerSecond() / 1e6));
+            }
         }
-        this.setForeground(Color.RED);
     }
 }
@@ -0,0 +1,234 @@
+package main.ui;
+
+import main.util.ProgressListener;
+
+import javax.swing.*;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * queue of long-running vault operations started from the UI: at most maxRunning run at once and the rest wait in
+ * order. Progress reported by the workers of a task is kept in the task and passed on to the listeners on the
+ * event dispatch thread, with at most one update of a task waiting there, so a flood of reports never backs up
+ * the event queue. The manager itself is only used from the event dispatch thread
+ */
+public class TaskManager {
+    private final int maxRunning;
+    private final Deque<Task<?>> queued = new ArrayDeque<>();
+    private final List<Task<?>> running = new ArrayList<>();
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * vault operation started by a task, told about its progress and cancellation through listener
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        CompletableFuture<T> start(ProgressListener listener);
+    }
+
+    /**
+     * receives changes of the tasks of a manager, on the event dispatch thread
+     */
+    public interface Listener {
+        void taskAdded(Task<?> task);
+
+        void taskChanged(Task<?> task);
+
+        void taskRemoved(Task<?> task);
+    }
+
+    // EFFECTS: creates manager running at most maxRunning tasks at once
+    public TaskManager(int maxRunning) {
+        this.maxRunning = maxRunning;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: adds listener of the tasks of this
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: queues work under name and returns its future, completed on the event dispatch thread once the work
+    //          is done, failed or cancelled
+    public <T> CompletableFuture<T> submit(String name, Work<T> work) {
+        Task<T> task = new Task<>(name, work);
+        queued.add(task);
+        listeners.forEach(l -> l.taskAdded(task));
+        startQueued();
+        return task.result;
+    }
+
+    // EFFECTS: returns number of tasks running or waiting
+    public int size() {
+        return queued.size() + running.size();
+    }
+
+    // MODIFIES: this
+    // EFFECTS: cancels every task running or waiting
+    public void cancelAll() {
+        new ArrayList<>(queued).forEach(Task::cancel);
+        new ArrayList<>(running).forEach(Task::cancel);
+    }
+
+    // EFFECTS: starts waiting tasks while fewer than maxRunning run
+    private void startQueued() {
+        while (running.size() < maxRunning && !queued.isEmpty()) {
+            queued.poll().start();
+        }
+    }
+
+    // EFFECTS: removes task, done, from the manager and completes its future with the outcome of its work
+    private <T> void finish(Task<T> task, T result, Throwable e) {
+        if (!running.remove(task) && !queued.remove(task)) return;
+        listeners.forEach(l -> l.taskRemoved(task));
+        if (e != null) {
+            task.result.completeExceptionally(e);
+        } else {
+            task.result.complete(result);
+        }
+        startQueued();
+    }
+
+    /**
+     * operation of a manager, with the latest progress its workers reported
+     */
+    public class Task<T> {
+        private final String name;
+        private final Work<T> work;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicBoolean updatePending = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile boolean started;
+        private volatile int filesDone;
+        private volatile int filesTotal;
+        private volatile long bytesDone;
+        private volatile long bytesTotal;
+        private volatile double bytesPerSecond;
+
+        private Task(String name, Work<T> work) {
+            this.name = name;
+            this.work = work;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // EFFECTS: returns true once the work has started
+        public boolean isStarted() {
+            return started;
+        }
+
+        // EFFECTS: returns true if no progress was reported yet, so the share done is unknown
+        public boolean isIndeterminate() {
+            return bytesTotal == 0 && filesTotal == 0;
+        }
+
+        public int getFilesDone() {
+            return filesDone;
+        }
+
+        public int getFilesTotal() {
+            return filesTotal;
+        }
+
+        public long getBytesDone() {
+            return bytesDone;
+        }
+
+        public long getBytesTotal() {
+            return bytesTotal;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        // EFFECTS: returns share of the work done, from 0 to 1, by bytes where they are known and else by files
+        public double getFraction() {
+            if (bytesTotal > 0) return Math.min(1, (double) bytesDone / bytesTotal);
+            if (filesTotal > 0) return Math.min(1, (double) filesDone / filesTotal);
+            return 0;
+        }
+
+        // EFFECTS: returns true once the task was asked to stop
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // MODIFIES: this
+        // EFFECTS: cancels the task: a waiting one never starts and its future completes with a
+        //          CancellationException at once. A running one is asked to stop and undo what it did, and its future
+        //          completes once the work ends: with a CancellationException if the work stopped, or with the
+        //          outcome of the work if it ended anyway
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            if (!started) {
+                finish(this, null, new CancellationException(name + " cancelled"));
+            } else if (running.contains(this)) {
+                listeners.forEach(l -> l.taskChanged(this));
+            }
+        }
+
+        // EFFECTS: starts the work and finishes the task once the work is done
+        private void start() {
+            running.add(this);
+            started = true;
+            listeners.forEach(l -> l.taskChanged(this));
+            CompletableFuture<T> future;
+            try {
+                future = work.start(new ProgressListener() {
+                    @Override
+                    public void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal,
+                                         double bytesPerSecond) {
+                        update(filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond);
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return cancelled;
+                    }
+                });
+            } catch (RuntimeException e) {
+                finish(this, null, e);
+                return;
+            }
+            future.whenComplete((value, e) -> SwingUtilities.invokeLater(() -> finish(this, value,
+                    cancelled && stoppedBy(e) ? new CancellationException(name + " cancelled") : e)));
+        }
+
+        // EFFECTS: returns true if e, or one of its causes, tells that the work stopped because it was cancelled
+        private boolean stoppedBy(Throwable e) {
+            for (; e != null; e = e.getCause()) {
+                if (e instanceof CancellationException || e instanceof InterruptedIOException) return true;
+            }
+            return false;
+        }
+
+        // EFFECTS: records progress reported by a worker and has the listeners told about it, on the event
+        //          dispatch thread, unless an update is already waiting there
+        private void update(int filesDone, int filesTotal, long bytesDone, long bytesTotal, double bytesPerSecond) {
+            this.filesDone = filesDone;
+            this.filesTotal = filesTotal;
+            this.bytesDone = bytesDone;
+            this.bytesTotal = bytesTotal;
+            this.bytesPerSecond = bytesPerSecond;
+            if (updatePending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    updatePending.set(false);
+                    if (running.contains(this)) {
+                        listeners.forEach(l -> l.taskChanged(this));
+                    }
+                });
+            }
+        }
+    }
+}
@@ -1,32 +1,52 @@
 package main.ui;
 
+import main.filesystem.AsyncVault;
 import main.filesystem.Vault;
 import main.filesystem.VaultDirectory;
 import main.filesystem.VaultEntry;
 import main.filesystem.VaultFile;
 import main.exceptions.CryptoException;
-import javax.imageio.ImageIO;
+import main.util.ProgressListener;
+import main.util.Thumbnails;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * browser of the loaded vault. Vault operations run in the background through an AsyncVault, and their results are
+ * shown on the event dispatch thread once they complete, so the window stays responsive while files are encrypted.
+ * The search field lists the entries of the whole vault whose names contain the text typed, in place of the
+ * current directory, until a directory is opened again. The tree is only read in the background too, through
+ * snapshots of the AsyncVault, so the event dispatch thread never waits for the monitor of the vault
+ */
 public class VaultFinder extends JPanel {
+    private static final int SEARCH_RESULTS = 1000; // most entries a search shows
 
-    private JTextField address;
+    private JTextField address, searchField;
+    private String query; // text the entries shown were searched for, null while a directory is shown
     private JButton back, reload;
     private Vault vault;
+    private AsyncVault asyncVault;
     private VaultDirectory currDir;
-    private DefaultListModel model;
-    private JList list;
+    private EntryTableModel model;
+    private JTable table;
+    private PreviewCache previews;
     final String[] colHeads = {"Icon", "File Name", "Size (in Bytes)", "ID"};
     private JLabel fileName, size, id;
 
@@ -64,43 +84,65 @@ public class VaultFinder extends JPanel {
         reload.addActionListener(e -> refreshList(currDir));
         reload.setFont(new Font("Arial", Font.PLAIN, 15));
 
+        searchField = new JTextField();
+        searchField.setColumns(15);
+        searchField.setToolTipText("Search Names");
+        searchField.setEnabled(false);
+        searchField.addActionListener(e -> search(searchField.getText()));
+
         adrPane.add(back);
         adrPane.add(address);
         adrPane.add(reload);
+        adrPane.add(searchField);
 
         this.add(adrPane, BorderLayout.NORTH);
     }
 
     // EFFECTS: adds finder to panel
     private void addFinder() {
-        model = new DefaultListModel<>();
-        list = new JList(model);
+        model = new EntryTableModel(colHeads);
+        table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setShowGrid(false);
+        table.setFillsViewportHeight(true);
+        table.setRowHeight(Thumbnails.SIZE + 4);
+        table.getColumnModel().getColumn(EntryTableModel.ICON).setMaxWidth(Thumbnails.SIZE + 8);
+        table.getColumnModel().getColumn(EntryTableModel.NAME).setPreferredWidth(300);
+        table.getTableHeader().setReorderingAllowed(false);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0) {
+                    VaultEntry selected = getSelectedEntry();
+                    model.sortBy(table.convertColumnIndexToModel(column));
+                    select(selected);
+                    prefetchThumbnails();
+                }
+            }
+        });
         createFinder();
     }
 
     // EFFECTS: adds Finder to pane
     private void createFinder() {
-        JScrollPane scrollPane = new JScrollPane(list);
-        list.addMouseListener(new MouseAdapter() {
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.getViewport().addChangeListener(e -> prefetchThumbnails());
+        table.addMouseListener(new MouseAdapter() {
                                   @Override
                                   public void mouseClicked(MouseEvent e) {
-                                      String selected = (String) list.getSelectedValue();
-                                      if (selected == null) return;
-                                      for (VaultEntry vaultEntry : currDir.getEntries()) {
-                                          if (selected.equals(vaultEntry.getName())) {
-                                              // double-clicked
-                                              if (e.getClickCount() % 2 == 0) {
-                                                  if (vaultEntry.getClass().equals(VaultDirectory.class)) {
-                                                      refreshList((VaultDirectory) vaultEntry);
-                                                  } else {
-                                                      openImageFile((VaultFile) vaultEntry);
-                                                  }
-                                                  // single-clicked
-                                              } else if (e.getClickCount() == 1)
-                                                  setFileDetails(vaultEntry);
-                                              break;
+                                      VaultEntry vaultEntry = getSelectedEntry();
+                                      if (vaultEntry == null) return;
+                                      // double-clicked
+                                      if (e.getClickCount() % 2 == 0) {
+                                          if (vaultEntry.getClass().equals(VaultDirectory.class)) {
+                                              refreshList((VaultDirectory) vaultEntry);
+                                          } else {
+                                              openImageFile((VaultFile) vaultEntry);
                                           }
-                                      }
+                                          // single-clicked
+                                      } else if (e.getClickCount() == 1)
+                                          setFileDetails(vaultEntry);
                                   }
                               }
 
@@ -108,6 +150,71 @@ public class VaultFinder extends JPanel {
         this.add(scrollPane, BorderLayout.CENTER);
     }
 
+    // EFFECTS: loads the thumbnails of the image files in the rows shown and in the screen of rows below them
+    private void prefetchThumbnails() {
+        if (previews == null || model.getRowCount() == 0) return;
+        Rectangle shown = table.getVisibleRect();
+        int first = Math.max(0, table.rowAtPoint(shown.getLocation()));
+        int screen = Math.max(1, shown.height / table.getRowHeight() + 1);
+        int last = Math.min(model.getRowCount(), first + 2 * screen);
+        List<VaultFile> files = new ArrayList<>();
+        for (int row = first; row < last; row++) {
+            VaultEntry entry = model.getEntry(row);
+            if (entry.getClass().equals(VaultFile.class)) {
+                files.add((VaultFile) entry);
+            }
+        }
+        previews.prefetch(files);
+    }
+
+    // EFFECTS: returns thumbnail of entry if it is an image file whose thumbnail is loaded, null otherwise
+    private Icon thumbnailOf(VaultEntry entry) {
+        if (previews == null || !entry.getClass().equals(VaultFile.class)) return null;
+        BufferedImage thumbnail = previews.getThumbnail((VaultFile) entry);
+        return thumbnail == null ? null : new ThumbnailIcon(thumbnail);
+    }
+
+    /**
+     * icon drawing a cached thumbnail, centred in a square of the size of a thumbnail
+     */
+    private static final class ThumbnailIcon implements Icon {
+        private final BufferedImage image;
+
+        private ThumbnailIcon(BufferedImage image) {
+            this.image = image;
+        }
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            g.drawImage(image, x + (Thumbnails.SIZE - image.getWidth()) / 2,
+                    y + (Thumbnails.SIZE - image.getHeight()) / 2, null);
+        }
+
+        @Override
+        public int getIconWidth() {
+            return Thumbnails.SIZE;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return Thumbnails.SIZE;
+        }
+    }
+
+    // EFFECTS: returns entry of current directory selected in the table, or null if nothing is selected
+    private VaultEntry getSelectedEntry() {
+        return model.getEntry(table.getSelectedRow());
+    }
+
+    // EFFECTS: selects the row of entry and scrolls to it, if it is shown
+    private void select(VaultEntry entry) {
+        int row = entry == null ? -1 : model.indexOf(entry);
+        if (row >= 0) {
+            table.setRowSelectionInterval(row, row);
+            table.scrollRectToVisible(table.getCellRect(row, 0, true));
+        }
+    }
+
     // EFFECTS: adds detail view to pane
     private void addDetailView() {
         // shows details for a file
@@ -152,34 +259,124 @@ public class VaultFinder extends JPanel {
 
     }
 
-    // EFFECTS: updates current directory with dir and updates list of files
+    // EFFECTS: updates current directory with dir and shows its entries, listed in the background
     private void refreshList(VaultDirectory dir) {
         currDir = dir;
-        address.setText("/" + vault.getRoot().getPathOfEntry(currDir.getId(), true));
-        model.clear();
-        model.addAll(dir.getEntries().stream().map(VaultEntry::getName).collect(Collectors.toList()));
+        query = null;
+        searchField.setText("");
+        onEdt(asyncVault.listAsync(dir), (listing, e) -> {
+            if (e != null) {
+                showFailure("Opening Folder", e);
+                return;
+            }
+            if (dir != currDir || query != null) return; // opened something else since
+            address.setText("/" + listing.getPath());
+            model.setEntries(listing.getEntries());
+            prefetchThumbnails();
+        });
+    }
+
+    // EFFECTS: shows the entries of the vault whose names contain text, searched in the background, or the current
+    //          directory again if text is blank
+    private void search(String text) {
+        if (text.isBlank()) {
+            refreshList(currDir);
+            return;
+        }
+        onEdt(asyncVault.searchAsync(text, false, SEARCH_RESULTS), (found, e) -> {
+            if (e != null) {
+                showFailure("Searching", e);
+                return;
+            }
+            if (!text.equals(searchField.getText())) return; // searched for something else since
+            query = text;
+            address.setText("Search: " + text);
+            model.setEntries(found);
+            prefetchThumbnails();
+            App.getScreen().statusBar.showStatus(found.size() + (found.size() == SEARCH_RESULTS ? "+" : "")
+                    + " Entries Found for \"" + text + "\"", Color.WHITE);
+        });
     }
 
+    // EFFECTS: shows status followed by the path of dir from the root of the vault, read in the background
+    private void showStatusUnder(String status, VaultDirectory dir, Color color) {
+        onEdt(asyncVault.pathAsync(dir), (path, e) ->
+                App.getScreen().statusBar.showStatus(status + " \"/" + (e == null ? path : "") + "\"", color));
+    }
 
-    // EFFECTS: opens image file in pop-up window
+    // EFFECTS: calls done with the result or the failure of future on the event dispatch thread once it completes
+    private static <T> void onEdt(CompletableFuture<T> future, BiConsumer<T, Throwable> done) {
+        future.whenComplete((result, e) -> SwingUtilities.invokeLater(() -> done.accept(result, unwrap(e))));
+    }
+
+    // EFFECTS: returns the exception an operation failed with, without the wrappers the futures added around it
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    // EFFECTS: shows in the status bar that operation failed with e, or that it was cancelled
+    private static void showFailure(String operation, Throwable e) {
+        StatusBar statusBar = App.getScreen().statusBar;
+        if (e instanceof CancellationException) {
+            statusBar.showStatus(operation + " Cancelled", Color.WHITE);
+        } else if (e instanceof CryptoException) {
+            statusBar.showError(operation, StatusBar.Error.CRYPTO, (Exception) e);
+        } else if (e instanceof IOException) {
+            statusBar.showError(operation, StatusBar.Error.IO, (Exception) e);
+        } else {
+            statusBar.showError(operation, StatusBar.Error.DEFAULT,
+                    e instanceof Exception ? (Exception) e : new Exception(e));
+        }
+    }
+
+    // EFFECTS: returns the manager of the operations running in the background
+    private static TaskManager tasks() {
+        return App.getScreen().tasks;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: shows entry, added to dir, if dir is the current directory and no search results are shown
+    private void entryAdded(VaultDirectory dir, VaultEntry entry) {
+        if (dir == currDir && query == null) {
+            model.add(entry);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: stops showing entry, deleted from dir, if dir is the current directory or it is a search result
+    private void entryRemoved(VaultDirectory dir, VaultEntry entry) {
+        if (dir == currDir || query != null) {
+            model.remove(entry);
+        }
+    }
+
+    // EFFECTS: opens image file in pop-up window, decoded in the background unless it is cached
     private void openImageFile(VaultFile file) {
-        String extension = file.getName().substring(file.getName().lastIndexOf('.'));
-        if (extension.toLowerCase().matches(".(png|jpg|jpeg|gif|svg)")) {
+        if (Thumbnails.isImage(file.getName())) {
             App.getScreen().statusBar.showStatus("Opening " + file.getName(), Color.WHITE);
-            try {
+            onEdt(previews.preview(file), (bImage, e) -> {
+                if (e != null) {
+                    showFailure("opening file", e);
+                    return;
+                }
                 JDialog dialog = new JDialog();
                 dialog.setTitle(file.getName());
                 dialog.setUndecorated(false);
-                BufferedImage bImage = ImageIO.read(new ByteArrayInputStream(vault.open(file)));
+                dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+                dialog.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosed(WindowEvent e) {
+                        Thumbnails.wipe(bImage); // the copy of the preview this dialog owns
+                    }
+                });
                 JLabel label = new JLabel(new ImageIcon(bImage));
                 dialog.add(label);
                 dialog.pack();
                 dialog.setVisible(true);
-            } catch (IOException e) {
-                App.getScreen().statusBar.showError("opening file", StatusBar.Error.IO, e);
-            } catch (CryptoException e) {
-                App.getScreen().statusBar.showError("opening file", StatusBar.Error.CRYPTO, e);
-            }
+            });
         } else {
             App.getScreen().statusBar.showError("opening unsupported file", StatusBar.Error.DEFAULT,
                     new Exception(file.getName()));
@@ -187,113 +384,158 @@ public class VaultFinder extends JPanel {
     }
 
     // EFFECTS: if name is null, load existing vault at directory;
-    // otherwise, create new vault in directory
+    // otherwise, create new vault in directory. The key is derived in the background
     public void loadVault(String name, File directory, char[] password) {
-        try {
-            if (name == null) {
-                vault = new Vault(directory, password); // load vault
-            } else {
-                vault = new Vault(new File(directory, name), password); // create new vault
+        File vaultFolder = name == null ? directory : new File(directory, name);
+        CompletableFuture<AsyncVault> loading = tasks().submit("Unlocking \"" + vaultFolder.getName() + "\"",
+                listener -> AsyncVault.loadAsync(vaultFolder, password));
+        onEdt(loading, (loaded, e) -> {
+            if (e instanceof CryptoException) {
+                App.getScreen().statusBar.showError("Incorrect Password for \"" + vaultFolder.getName()
+                        + "\". Re-Open the Vault With Correct Password", StatusBar.Error.CRYPTO, (Exception) e);
+                return;
+            } else if (e != null) {
+                showFailure("Loading Vault", e);
+                return;
             }
-        } catch (IOException e) {
-            App.getScreen().statusBar.showError("Loading Vault", StatusBar.Error.IO, e);
-            return;
-        } catch (CryptoException e) {
-            App.getScreen().statusBar.showError("Incorrect Password for \"" + name + "\". Re-Open the Vault With Correct Password", StatusBar.Error.CRYPTO, e);
-            return;
-        }
-        refreshList(vault.getRoot());
-        enableLoadedVaultUI(true);
-        App.getScreen().menuBar.enableLoadedVaultMenu(true);
-        App.getFrame().setTitle(vault.getVaultFolder().getName());
-        App.getScreen().statusBar.showStatus("Loaded Vault \"" + vault.getVaultFolder().getName() + "\"", Color.WHITE);
+            asyncVault = loaded;
+            vault = loaded.getVault();
+            previews = new PreviewCache(vault, Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4),
+                    file -> SwingUtilities.invokeLater(table::repaint));
+            model.setIcons(this::thumbnailOf);
+            refreshList(vault.getRoot());
+            enableLoadedVaultUI(true);
+            App.getScreen().menuBar.enableLoadedVaultMenu(true);
+            App.getScreen().menuBar.showStoringThumbnails(vault.isStoringThumbnails());
+            App.getFrame().setTitle(vault.getVaultFolder().getName());
+            App.getScreen().statusBar.showStatus("Loaded Vault \"" + vault.getVaultFolder().getName() + "\"",
+                    Color.WHITE);
+        });
     }
 
     private void enableLoadedVaultUI(boolean state) {
         back.setEnabled(state);
         address.setEnabled(state);
+        searchField.setEnabled(state);
     }
 
-    // EFFECTS: adds file to vault and reloads list
+    // EFFECTS: adds file, or folder with everything in it, to vault in the background and adds it to the list
+    //          once done
     protected void addFile(File file) {
-        try {
-            vault.addFile(file, currDir);
-            refreshList(currDir);
-            App.getScreen().statusBar.showStatus("Added File \"" + file.getName() + "\" Under \"/"
-                    + vault.getRoot().getPathOfEntry(currDir.getId(), true) + "\"", Color.WHITE);
-        } catch (IOException e) {
-            App.getScreen().statusBar.showError("Adding File", StatusBar.Error.IO, e);
-        } catch (CryptoException e) {
-            App.getScreen().statusBar.showError("Adding File", StatusBar.Error.CRYPTO, e);
-        }
+        VaultDirectory dir = currDir;
+        CompletableFuture<VaultEntry> adding = tasks().submit("Adding \"" + file.getName() + "\"",
+                listener -> asyncVault.importTreeAsync(file.toPath(), dir, listener));
+        onEdt(adding, (added, e) -> {
+            if (e != null) {
+                showFailure("Adding File", e);
+                return;
+            }
+            entryAdded(dir, added);
+            showStatusUnder("Added File \"" + file.getName() + "\" Under", dir, Color.WHITE);
+        });
     }
 
-    // EFFECTS: creates VaultDirectory under currDir with name and reloads list
+    // EFFECTS: creates VaultDirectory under currDir with name and adds it to the list
     protected void createFolder(String name) {
-        try {
-            vault.createFolder(name, currDir);
-            refreshList(currDir);
-            App.getScreen().statusBar.showStatus("Successfully Created New Folder \"" + name + "\" Under \"/" +
-                    vault.getRoot().getPathOfEntry(currDir.getId(), true) + "\"", Color.BLUE);
-        } catch (IOException e) {
-            App.getScreen().statusBar.showError("Creating Folder", StatusBar.Error.IO, e);
-        }
+        VaultDirectory dir = currDir;
+        onEdt(asyncVault.createFolderAsync(name, dir), (created, e) -> {
+            if (e != null) {
+                showFailure("Creating Folder", e);
+                return;
+            }
+            entryAdded(dir, created);
+            showStatusUnder("Successfully Created New Folder \"" + created.getName() + "\" Under", dir, Color.BLUE);
+        });
     }
 
-    // EFFECTS: decrypts and saves selected file locally under selected destination directory
+    // EFFECTS: turns thumbnails of images added to the vault on or off, showing the setting the vault keeps
+    protected void setStoringThumbnails(boolean thumbnails) {
+        onEdt(asyncVault.setStoringThumbnailsAsync(thumbnails), (set, e) -> {
+            App.getScreen().menuBar.showStoringThumbnails(vault.isStoringThumbnails());
+            if (e != null) {
+                showFailure("Saving Vault", e);
+            }
+        });
+    }
+
+    // EFFECTS: decrypts and saves selected file, or folder with everything in it, locally under selected
+    //          destination directory
     protected void saveFile() {
-        // find the first vault entry that matches with the name of the selected file
-        Optional<VaultEntry> vaultFile = currDir.getEntries().stream().filter(
-                x -> x.getName().equals(list.getSelectedValue().toString())).findFirst();
-        if (vaultFile.isPresent() && vaultFile.get().getClass().equals(VaultFile.class)) {
+        Optional<VaultEntry> vaultFile = Optional.ofNullable(getSelectedEntry());
+        if (vaultFile.isPresent()) {
             JFileChooser chooser = new JFileChooser();
             chooser.setDialogTitle("Select Destination Folder"); //
             chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
             int destination = chooser.showSaveDialog(null);
             if (destination == JFileChooser.APPROVE_OPTION) {
                 File selected = chooser.getSelectedFile();
-                App.getScreen().statusBar.setText("Saving: " + vaultFile.get().getName() + ".");
-                try {
-                    vault.saveFile(vaultFile.get().getName(), selected);
-                    App.getScreen().statusBar.showStatus("Saved \"" + vaultFile.get().getName() + "\" Under \"" +
-                            selected.getAbsolutePath() + "\"", Color.WHITE);
-                } catch (IOException e) {
-                    App.getScreen().statusBar.showError("Saving File", StatusBar.Error.IO, e);
-                } catch (CryptoException e) {
-                    App.getScreen().statusBar.showError("Saving File", StatusBar.Error.CRYPTO, e);
-                }
+                double[] throughput = new double[1];
+                CompletableFuture<Void> saving = tasks().submit("Saving \"" + vaultFile.get().getName() + "\"",
+                        listener -> asyncVault.exportAsync(vaultFile.get(), selected, new ProgressListener() {
+                            @Override
+                            public void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal,
+                                                 double bytesPerSecond) {
+                                throughput[0] = bytesPerSecond;
+                                listener.progress(filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond);
+                            }
+
+                            @Override
+                            public boolean isCancelled() {
+                                return listener.isCancelled();
+                            }
+                        }));
+                onEdt(saving, (saved, e) -> {
+                    if (e != null) {
+                        showFailure("Saving File", e);
+                        return;
+                    }
+                    App.getScreen().statusBar.showStatus("Saved \"" + vaultFile.get().getName() + "\" Under \""
+                            + selected.getAbsolutePath() + "\"" + String.format(" (%.1f MB/s)", throughput[0] / 1e6),
+                            Color.WHITE);
+                });
             } else {
                 App.getScreen().statusBar.setText("Save Command Cancelled By User.");
             }
         }
     }
 
+    // EFFECTS: cancels the operations in the background and locks the vault once they have ended; its menus are
+    //          disabled right away
     protected void closeVault() {
-        try {
-            vault.lock();
-            enableLoadedVaultUI(false);
-            App.getScreen().menuBar.enableLoadedVaultMenu(false);
+        enableLoadedVaultUI(false);
+        App.getScreen().menuBar.enableLoadedVaultMenu(false);
+        tasks().cancelAll();
+        onEdt(asyncVault.lockAsync(), (locked, e) -> {
+            if (e != null) {
+                showFailure("Saving Vault", e);
+                return;
+            }
             App.getFrame().setTitle(null);
             App.getScreen().statusBar.showStatus("\"" + vault.getVaultFolder().getName() + "\" Closed", Color.WHITE);
             model.clear();
-        } catch (IOException e) {
-            App.getScreen().statusBar.showError("Saving Vault", StatusBar.Error.IO, e);
-        }
+        });
     }
 
-    // EFFECTS: deletes selected entry from vault and reloads list
+    // EFFECTS: deletes selected entry from vault in the background and removes it from the list once done
     public void delete() {
-        Optional<VaultEntry> vaultFile = currDir.getEntries().stream().filter(
-                x -> x.getName().equals(list.getSelectedValue().toString())).findFirst();
+        VaultEntry vaultFile = getSelectedEntry();
         if (vaultFile != null) {
-            try {
-                vault.delete(vaultFile.get(), currDir);
-                refreshList(currDir);
-                App.getScreen().statusBar.showStatus("Deleted Entry \"" + vaultFile.get().getName() + "\" under \"/"
-                        + vault.getRoot().getPathOfEntry(currDir.getId(), true) + "\"", Color.WHITE);
-            } catch (IOException e) {
-                App.getScreen().statusBar.showError("Deleting Entry", StatusBar.Error.IO, e);
-            }
+            // search results are in directories other than the current one, so the vault finds the parent
+            CompletableFuture<VaultDirectory> deleting = tasks().submit("Deleting \"" + vaultFile.getName() + "\"",
+                    listener -> asyncVault.deleteAsync(vaultFile));
+            onEdt(deleting, (dir, e) -> {
+                if (e != null) {
+                    showFailure("Deleting Entry", e);
+                    return;
+                }
+                onEdt(asyncVault.idsAsync(vaultFile), (ids, failed) -> {
+                    if (failed == null) {
+                        previews.invalidate(ids);
+                    }
+                });
+                entryRemoved(dir, vaultFile);
+                showStatusUnder("Deleted Entry \"" + vaultFile.getName() + "\" under", dir, Color.WHITE);
+            });
         } else {
             App.getScreen().statusBar.showStatus("No Entry Selected", Color.red);
         }
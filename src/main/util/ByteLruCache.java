@@ -0,0 +1,109 @@
+package main.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * cache holding values up to a capacity in bytes, as weighed by a function of each value, evicting the values
+ * used least recently once it is full; a value heavier than the whole capacity is not kept. Safe to use from
+ * several threads
+ */
+public class ByteLruCache<K, V> {
+    private final long capacity;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> values = new LinkedHashMap<>(16, 0.75f, true); // least recently used first
+    private long bytes;
+
+    // EFFECTS: creates empty cache of capacity bytes, weighing values with weigher
+    public ByteLruCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    // EFFECTS: returns value of key, marked as just used, or null if it is not cached
+    public synchronized V get(K key) {
+        return values.get(key);
+    }
+
+    // EFFECTS: returns true if key has a value, without marking it as used
+    public synchronized boolean contains(K key) {
+        return values.containsKey(key);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: caches value under key, replacing the value it had, and evicts the values used least recently
+    //          until the cache is within its capacity; passes the value replaced and those evicted to evicted,
+    //          while holding the cache. Returns false if value is too heavy to be kept
+    public synchronized boolean put(K key, V value, Consumer<? super V> evicted) {
+        long weight = weigher.applyAsLong(value);
+        V replaced = remove(key);
+        if (replaced != null && replaced != value) {
+            evicted.accept(replaced);
+        }
+        if (weight > capacity) return false;
+        values.put(key, value);
+        bytes += weight;
+        Iterator<V> eldest = values.values().iterator();
+        while (bytes > capacity) {
+            V old = eldest.next();
+            bytes -= weigher.applyAsLong(old);
+            eldest.remove();
+            evicted.accept(old);
+        }
+        return true;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: removes value of key and returns it, or null if it is not cached
+    public synchronized V remove(K key) {
+        V value = values.remove(key);
+        if (value != null) {
+            bytes -= weigher.applyAsLong(value);
+        }
+        return value;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: removes the values of the keys matching filter and returns them
+    public synchronized List<V> removeIf(Predicate<K> filter) {
+        List<V> removed = new ArrayList<>();
+        for (Iterator<Map.Entry<K, V>> i = values.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<K, V> entry = i.next();
+            if (filter.test(entry.getKey())) {
+                removed.add(entry.getValue());
+                bytes -= weigher.applyAsLong(entry.getValue());
+                i.remove();
+            }
+        }
+        return removed;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: removes every value and returns them
+    public synchronized List<V> clear() {
+        List<V> removed = new ArrayList<>(values.values());
+        values.clear();
+        bytes = 0;
+        return removed;
+    }
+
+    // EFFECTS: returns number of values cached
+    public synchronized int size() {
+        return values.size();
+    }
+
+    // EFFECTS: returns weight of the values cached, in bytes
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+}
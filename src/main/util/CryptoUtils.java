@@ -2,120 +2,404 @@ package main.util;
 
 import com.google.gson.JsonObject;
 import main.exceptions.CryptoException;
+import main.io.Codec;
+import main.io.DecryptingInputStream;
+import main.io.EncryptingOutputStream;
+import main.io.FileCipher;
 import main.io.Jsonable;
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidAlgorithmParameterException;
+import java.security.DrbgParameters;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+/**
+ * key hierarchy of a vault: a key-encryption key derived from the password with PBKDF2 wraps a random master key,
+ * and a key for each file is derived from the master key with HKDF.
+ * Safe for use by many threads: the master key never changes, the wrapped key is replaced as a whole, and every
+ * caller borrows a Cipher, Mac and random generator of its own from pools shared by all threads. The master key is
+ * only read under a read lock that destroy takes for writing, so no key is ever derived from a wiped master key.
+ */
 public class CryptoUtils implements Jsonable {
     private static final String ENCRYPT_ALGO = "AES/GCM/NoPadding";
     protected static final String ALGORITHM = "PBKDF2WithHmacSHA256";
-    private static final int SALT_LENGTH = 16;
+    private static final String HMAC_ALGO = "HmacSHA256";
+    private static final String FILE_KEY_INFO = "file";
+    private static final int SALT_LENGTH = SegmentCipher.SALT_LENGTH;
     private static final int IV_LENGTH = 12;
     protected static final int ITERATION_COUNT = 100000; //65536
     protected static final int KEY_SIZE = 256;
     private int T_LEN = 128;
 
-    private char[] password;
-    private Cipher aes;
+    private static final ObjectPool<Cipher> AES = new ObjectPool<>(CryptoUtils::newCipher);
+    private static final ObjectPool<Mac> HMAC = new ObjectPool<>(CryptoUtils::newMac);
+    private static final ObjectPool<SecureRandom> RANDOM = new ObjectPool<>(CryptoUtils::newRandom);
 
-    // EFFECTS: creates instance from Cipher class
+    private volatile Wrapping wrapping; // how the master key is stored in the vault header
+    private volatile byte[] masterKey;
+    private final ReadWriteLock keyLock = new ReentrantReadWriteLock(); // written only to destroy the master key
+
+    /**
+     * master key encrypted under a key-encryption key, with the parameters the latter is derived with
+     */
+    private static class Wrapping {
+        private final byte[] salt; // salt of the key-encryption key
+        private final int iterations;
+        private final byte[] wrappedKey;
+
+        private Wrapping(byte[] salt, int iterations, byte[] wrappedKey) {
+            this.salt = salt;
+            this.iterations = iterations;
+            this.wrappedKey = wrappedKey;
+        }
+    }
+
+    // EFFECTS: creates a new random master key and wraps it under a key derived from password
     public CryptoUtils(char[] password) throws CryptoException {
-        this.password = password;
-        initCipher();
+        try {
+            masterKey = generateSecureBytes(KEY_SIZE / 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new CryptoException(e);
+        }
+        wrap(password);
+    }
+
+    // EFFECTS: unwraps the master key stored in header using password;
+    //          throws CryptoException if password is incorrect or header is corrupted
+    public CryptoUtils(char[] password, JsonObject header) throws CryptoException {
+        byte[] salt = decode(header.get("salt").getAsString());
+        int iterations = header.get("iterations").getAsInt();
+        byte[] wrappedKey = decode(header.get("key").getAsString());
+        masterKey = decrypt(wrappedKey, generateAESKey(password, salt, iterations));
+        wrapping = new Wrapping(salt, iterations, wrappedKey);
     }
 
-    // EFFECTS: initiates AES cipher
-    private void initCipher() throws CryptoException {
+    // EFFECTS: returns a new AES-GCM cipher for the pool
+    private static Cipher newCipher() {
         try {
-            aes = Cipher.getInstance(ENCRYPT_ALGO);
+            return Cipher.getInstance(ENCRYPT_ALGO);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new CryptoException(e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // EFFECTS: returns a new HMAC-SHA256 for the pool
+    private static Mac newMac() {
+        try {
+            return Mac.getInstance(HMAC_ALGO);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // EFFECTS: returns a new DRBG for the pool, seeded once from the system entropy source
+    private static SecureRandom newRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG",
+                    DrbgParameters.instantiation(KEY_SIZE, DrbgParameters.Capability.RESEED_ONLY, null));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // REQUIRES: the calling thread holds the read lock of keyLock
+    // EFFECTS: returns master key; throws CryptoException if it has been destroyed
+    private byte[] getMasterKey() throws CryptoException {
+        byte[] key = masterKey;
+        if (key == null) {
+            throw new CryptoException(new InvalidKeyException("vault is locked"));
         }
+        return key;
     }
 
     // EFFECTS: generates a secret key from salt and password
     public SecretKey generateAESKey(char[] password, byte[] salt) throws CryptoException {
+        return generateAESKey(password, salt, ITERATION_COUNT);
+    }
+
+    // EFFECTS: generates a secret key from salt and password using given number of PBKDF2 iterations
+    private SecretKey generateAESKey(char[] password, byte[] salt, int iterations) throws CryptoException {
         // generates key
         try {
-            PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATION_COUNT, KEY_SIZE); // instantiate password-based encryption specification
+            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_SIZE); // instantiate password-based encryption specification
             SecretKeyFactory factory = SecretKeyFactory.getInstance(ALGORITHM); // used to generate key
             SecretKey key = factory.generateSecret(spec);
             SecretKey keySpec = new SecretKeySpec(key.getEncoded(), "AES"); // generate secret key specs
+            spec.clearPassword();
             return keySpec;
         } catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
             throw new CryptoException(e);
         }
     }
 
-    // EFFECTS: securely generates random bytes of the specified length
+    // EFFECTS: derives a key from the master key with HKDF-SHA256 (RFC 5869) using salt and info
+    public SecretKey deriveKey(byte[] salt, String info) throws CryptoException {
+        Mac hmac = HMAC.take();
+        try {
+            // extract
+            hmac.init(new SecretKeySpec(salt, HMAC_ALGO));
+            byte[] prk;
+            keyLock.readLock().lock();
+            try {
+                prk = hmac.doFinal(getMasterKey());
+            } finally {
+                keyLock.readLock().unlock();
+            }
+            // expand: a single block is enough for a 256-bit key
+            hmac.init(new SecretKeySpec(prk, HMAC_ALGO));
+            hmac.update(info.getBytes(UTF_8));
+            hmac.update((byte) 1);
+            byte[] okm = hmac.doFinal();
+            Arrays.fill(prk, (byte) 0);
+            return new SecretKeySpec(okm, 0, KEY_SIZE / 8, "AES");
+        } catch (InvalidKeyException e) {
+            throw new CryptoException(e);
+        } finally {
+            HMAC.give(hmac);
+        }
+    }
+
+    // EFFECTS: returns HMAC-SHA256 under key of len bytes of data starting at off
+    public static byte[] hmac(SecretKey key, byte[] data, int off, int len) throws CryptoException {
+        Mac hmac = HMAC.take();
+        try {
+            hmac.init(new SecretKeySpec(key.getEncoded(), HMAC_ALGO));
+            hmac.update(data, off, len);
+            return hmac.doFinal();
+        } catch (InvalidKeyException e) {
+            throw new CryptoException(e);
+        } finally {
+            HMAC.give(hmac);
+        }
+    }
+
+    // MODIFIES: this
+    // EFFECTS: wraps the master key under a key derived from password with a fresh salt
+    private void wrap(char[] password) throws CryptoException {
+        byte[] salt;
+        try {
+            salt = generateSecureBytes(SALT_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new CryptoException(e);
+        }
+        SecretKey kek = generateAESKey(password, salt, ITERATION_COUNT);
+        byte[] wrappedKey;
+        keyLock.readLock().lock();
+        try {
+            wrappedKey = encrypt(getMasterKey(), kek);
+        } finally {
+            keyLock.readLock().unlock();
+        }
+        wrapping = new Wrapping(salt, ITERATION_COUNT, wrappedKey);
+    }
+
+    // MODIFIES: this
+    // EFFECTS: re-wraps the master key under newPassword; file contents stay valid
+    public void changePassword(char[] newPassword) throws CryptoException {
+        wrap(newPassword);
+    }
+
+    // EFFECTS: securely generates random bytes of the specified length from a pooled DRBG, each seeded once;
+    //          never blocks once the DRBG is seeded
     public static byte[] generateSecureBytes(int length) throws NoSuchAlgorithmException {
-        SecureRandom sr = SecureRandom.getInstanceStrong();
         byte[] bytes = new byte[length];
-        sr.nextBytes(bytes);
+        SecureRandom random = RANDOM.take();
+        try {
+            random.nextBytes(bytes);
+        } finally {
+            RANDOM.give(random);
+        }
         return bytes;
     }
 
-    // EFFECTS: encrypts input data using key
+    // EFFECTS: returns cipher for a new encrypted file with a fresh file key and nonce prefix; nonces never repeat
+    //          under a file key because the key is derived from a random salt and segments are numbered
+    public SegmentCipher newSegmentCipher() throws CryptoException {
+        try {
+            byte[] header = SegmentCipher.makeHeader(generateSecureBytes(SegmentCipher.SALT_LENGTH),
+                    generateSecureBytes(SegmentCipher.NONCE_PREFIX_LENGTH));
+            return segmentCipher(header);
+        } catch (NoSuchAlgorithmException e) {
+            throw new CryptoException(e);
+        }
+    }
+
+    // EFFECTS: returns cipher for the encrypted file starting with header
+    public SegmentCipher segmentCipher(byte[] header) throws CryptoException {
+        return new SegmentCipher(deriveKey(SegmentCipher.getSalt(header), FILE_KEY_INFO), header);
+    }
+
+    // EFFECTS: encrypts everything from in to out, one segment at a time; closes out
+    public void encrypt(InputStream in, OutputStream out) throws IOException, CryptoException {
+        try (OutputStream encrypted = new EncryptingOutputStream(out, newSegmentCipher())) {
+            in.transferTo(encrypted);
+        } catch (IOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    // EFFECTS: decrypts everything from in to out, one segment at a time; closes in
+    public void decrypt(InputStream in, OutputStream out) throws IOException, CryptoException {
+        try (InputStream decrypted = new DecryptingInputStream(in, this)) {
+            decrypted.transferTo(out);
+        } catch (IOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    // EFFECTS: encrypts everything in the file of in to out, one segment at a time, without copying it to the heap
+    public void encrypt(FileChannel in, WritableByteChannel out) throws IOException, CryptoException {
+        FileCipher.encrypt(in, out, newSegmentCipher());
+    }
+
+    // EFFECTS: compresses everything in the file of in with codec and encrypts it to out; leaves out open
+    public void encrypt(FileChannel in, WritableByteChannel out, Codec codec) throws IOException, CryptoException {
+        if (codec == Codec.NONE) {
+            encrypt(in, out);
+            return;
+        }
+        OutputStream file = new FilterOutputStream(Channels.newOutputStream(out)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush(); // the caller forces and closes the channel
+            }
+        };
+        encrypt(Channels.newInputStream(in.position(0)), file, codec);
+    }
+
+    // EFFECTS: compresses everything from in with codec and encrypts it to out; closes out
+    public void encrypt(InputStream in, OutputStream out, Codec codec) throws IOException, CryptoException {
+        try (OutputStream compressed = codec.compress(new EncryptingOutputStream(out, newSegmentCipher()))) {
+            in.transferTo(compressed);
+        } catch (IOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    // EFFECTS: decrypts the whole file of in and decompresses it with codec to out
+    public void decrypt(SeekableByteChannel in, WritableByteChannel out, Codec codec)
+            throws IOException, CryptoException {
+        if (codec == Codec.NONE) {
+            decrypt(in, out);
+            return;
+        }
+        decrypt(Channels.newInputStream(in), Channels.newOutputStream(out), codec);
+    }
+
+    // EFFECTS: decrypts everything from in and decompresses it with codec to out; closes in
+    public void decrypt(InputStream in, OutputStream out, Codec codec) throws IOException, CryptoException {
+        try (InputStream plain = codec.decompress(new DecryptingInputStream(in, this))) {
+            plain.transferTo(out);
+        } catch (IOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    // EFFECTS: encrypts the remaining bytes of in to out, one segment at a time
+    public void encrypt(ByteBuffer in, WritableByteChannel out) throws IOException, CryptoException {
+        FileCipher.encrypt(in, out, newSegmentCipher());
+    }
+
+    // EFFECTS: decrypts the whole file of in to out, one segment at a time, without copying it to the heap
+    public void decrypt(SeekableByteChannel in, WritableByteChannel out) throws IOException, CryptoException {
+        FileCipher.decrypt(in, out, this);
+    }
+
+    // EFFECTS: rethrows the CryptoException carried by an IOException of an encrypting or decrypting stream
+    public static IOException unwrap(IOException e) throws CryptoException {
+        if (e.getCause() instanceof CryptoException) {
+            throw (CryptoException) e.getCause();
+        }
+        return e;
+    }
+
+    // EFFECTS: encrypts input data using a key derived from the master key
     public byte[] encrypt(byte[] input) throws CryptoException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) SegmentCipher.ciphertextSize(input.length));
+        try {
+            encrypt(new ByteArrayInputStream(input), out);
+        } catch (IOException e) {
+            throw new CryptoException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // EFFECTS: encrypts input data under key, returns IV followed by cipher text
+    private byte[] encrypt(byte[] input, SecretKey key) throws CryptoException {
         try {
-            // generate salt
-            byte[] salt = generateSecureBytes(SALT_LENGTH);
-            // generate key from password
-            SecretKey key = generateAESKey(password, salt);
             // generate IV
             byte[] iv = generateSecureBytes(IV_LENGTH);
             GCMParameterSpec ivParams = new GCMParameterSpec(T_LEN, iv);
 
             // initialize AES encryption
-            aes.init(Cipher.ENCRYPT_MODE, key, ivParams); // initializes cipher to encrypt
-
-            byte[] cipherText = aes.doFinal(input); // encrypts the input
+            Cipher aes = AES.take();
+            byte[] cipherText;
+            try {
+                aes.init(Cipher.ENCRYPT_MODE, key, ivParams); // initializes cipher to encrypt
+                cipherText = aes.doFinal(input); // encrypts the input
+            } finally {
+                AES.give(aes);
+            }
 
-            // prepend IV and Salt to cipher text
-            byte[] cipherTextWithIvSalt = ByteBuffer.allocate(iv.length + salt.length + cipherText.length)
+            // prepend IV to cipher text
+            return ByteBuffer.allocate(iv.length + cipherText.length)
                     .put(iv)
-                    .put(salt)
                     .put(cipherText)
                     .array();
-
-            return cipherTextWithIvSalt;
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException |
                  BadPaddingException | NoSuchAlgorithmException e){
             throw new CryptoException(e);
         }
     }
 
-    //EFFECTS: decrypts input data
-    public byte[] decrypt(byte[] cipherText, char[] password) throws CryptoException {
+    //EFFECTS: decrypts input data using a key derived from the master key
+    public byte[] decrypt(byte[] cipherText) throws CryptoException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) SegmentCipher.plaintextSize(cipherText.length));
         try {
-            // split into iv, salt, and cipher text
-            ByteBuffer bb = ByteBuffer.wrap(cipherText);
-            byte[] iv = new byte[IV_LENGTH];
-            bb.get(iv);
-            byte[] salt = new byte[SALT_LENGTH];
-            bb.get(salt);
-            byte[] encrypted = new byte[bb.remaining()];
-            bb.get(encrypted);
-
-            // get back key from password and salt
-            SecretKey key = generateAESKey(password, salt);
+            decrypt(new ByteArrayInputStream(cipherText), out);
+        } catch (IOException e) {
+            throw new CryptoException(e);
+        }
+        return out.toByteArray();
+    }
 
-            // decrypt
-            GCMParameterSpec spec = new GCMParameterSpec(T_LEN, iv);
-            aes.init(Cipher.DECRYPT_MODE, key, spec);
-            byte[] plainText = aes.doFinal(encrypted);
-            //return new String(plainText, UTF_8);
-            return plainText;
+    //EFFECTS: decrypts IV followed by cipher text under key
+    private byte[] decrypt(byte[] cipherText, SecretKey key) throws CryptoException {
+        try {
+            GCMParameterSpec spec = new GCMParameterSpec(T_LEN, cipherText, 0, IV_LENGTH);
+            Cipher aes = AES.take();
+            try {
+                aes.init(Cipher.DECRYPT_MODE, key, spec);
+                return aes.doFinal(cipherText, IV_LENGTH, cipherText.length - IV_LENGTH);
+            } finally {
+                AES.give(aes);
+            }
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException
                  | BadPaddingException e){
             throw new CryptoException(e);
@@ -132,14 +416,29 @@ public class CryptoUtils implements Jsonable {
         return Base64.getDecoder().decode(data.getBytes(UTF_8));
     }
 
-    // EFFECTS: sets password to null
-    public void destroy(){
-        password = null;
+    // EFFECTS: wipes the master key once no thread is reading it; operations still running on other threads fail
+    //          with CryptoException the next time they need it
+    public void destroy() {
+        keyLock.writeLock().lock();
+        try {
+            byte[] key = masterKey;
+            masterKey = null;
+            if (key != null) {
+                Arrays.fill(key, (byte) 0);
+            }
+        } finally {
+            keyLock.writeLock().unlock();
+        }
     }
 
+    // EFFECTS: returns JsonObject containing the salt, iteration count and wrapped master key
     @Override
     public JsonObject toJson() {
+        Wrapping w = wrapping;
         JsonObject crypto = new JsonObject();
+        crypto.addProperty("salt", encode(w.salt));
+        crypto.addProperty("iterations", w.iterations);
+        crypto.addProperty("key", encode(w.wrappedKey));
         return crypto;
     }
 }
@@ -6,6 +6,7 @@ import com.google.gson.JsonObject;
 
 public class JsonUtils {
     private static Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static Gson compactGson = new GsonBuilder().disableHtmlEscaping().create();
 
     // GETTERS
     public static Gson getGson(){return gson;}
@@ -15,6 +16,11 @@ public class JsonUtils {
         return gson.toJson(obj);
     }
 
+    // EFFECTS: converts JsonObject to JSON-formatted string on a single line
+    public static String toCompactString(JsonObject obj) {
+        return compactGson.toJson(obj);
+    }
+
     // EFFECTS: converts JSON-formatted string to JsonObject
     public static JsonObject parse(String json){
         return gson.fromJson(json, JsonObject.class);
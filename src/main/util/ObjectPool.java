@@ -0,0 +1,49 @@
+package main.util;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * objects that are costly to make, such as direct buffers and seeded random generators, lent to one caller at a
+ * time and kept for the next once given back. Unlike objects kept per thread they outlive the threads using them,
+ * which come and go with every operation of a vault. Keeps a few idle objects per core at most; any more given
+ * back are dropped. Safe to use from several threads
+ */
+public class ObjectPool<T> {
+    private static final int MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final Supplier<T> factory;
+    private final ConcurrentLinkedDeque<T> idle = new ConcurrentLinkedDeque<>(); // most recently given back first
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    // EFFECTS: creates empty pool making new objects with factory
+    public ObjectPool(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    // EFFECTS: returns an idle object, or a new one if none is idle; the caller gives it back once done with it
+    public T take() {
+        T object = idle.pollFirst();
+        if (object == null) {
+            return factory.get();
+        }
+        idleCount.decrementAndGet();
+        return object;
+    }
+
+    // MODIFIES: this
+    // EFFECTS: keeps object, taken from this pool, for the next caller of take unless enough are idle already
+    public void give(T object) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.addFirst(object);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    // EFFECTS: returns number of idle objects
+    public int idleCount() {
+        return idleCount.get();
+    }
+}
@@ -0,0 +1,134 @@
+package main.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * files and bytes done by a long-running vault operation, counted from any of its workers and reported to its
+ * listener each time a file is done and, while a large file is, at most every REPORT_INTERVAL nanoseconds.
+ * Workers ask it whether the listener cancelled the operation before each file and as they write
+ */
+public class Progress {
+    private static final long REPORT_INTERVAL = 50_000_000;
+
+    private final ProgressListener listener;
+    private final int filesTotal;
+    private final long bytesTotal;
+    private final long start = System.nanoTime();
+    private final AtomicLong lastReport = new AtomicLong(start);
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final Object reporting = new Object();
+
+    // EFFECTS: creates progress of an operation on filesTotal files of bytesTotal bytes
+    public Progress(ProgressListener listener, int filesTotal, long bytesTotal) {
+        this.listener = listener;
+        this.filesTotal = filesTotal;
+        this.bytesTotal = bytesTotal;
+    }
+
+    // EFFECTS: throws InterruptedIOException if the listener cancelled the operation
+    public void checkCancelled() throws InterruptedIOException {
+        if (listener.isCancelled()) {
+            throw new InterruptedIOException("cancelled");
+        }
+    }
+
+    // EFFECTS: starts counting a file of size bytes; throws InterruptedIOException if the operation was cancelled
+    public FileProgress startFile(long size) throws InterruptedIOException {
+        checkCancelled();
+        return new FileProgress(size);
+    }
+
+    // EFFECTS: reports the counts to the listener if force or if the last report is old enough
+    private void report(boolean force) {
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if (force || (now - last >= REPORT_INTERVAL && lastReport.compareAndSet(last, now))) {
+            synchronized (reporting) { // counts read later are reported later, so the listener never sees them drop
+                long bytes = bytesDone.get();
+                double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+                listener.progress(filesDone.get(), filesTotal, bytes, bytesTotal, bytes / seconds);
+            }
+        }
+    }
+
+    /**
+     * bytes done of one file of the operation, used by one worker
+     */
+    public class FileProgress {
+        private final long size;
+        private long counted;
+
+        private FileProgress(long size) {
+            this.size = size;
+        }
+
+        // EFFECTS: counts n more bytes of the file as done, up to its size;
+        //          throws InterruptedIOException if the operation was cancelled
+        public void add(long n) throws InterruptedIOException {
+            long bytes = Math.min(n, size - counted);
+            if (bytes > 0) {
+                counted += bytes;
+                bytesDone.addAndGet(bytes);
+                report(false);
+            }
+            checkCancelled();
+        }
+
+        // EFFECTS: counts the bytes of the file not counted yet and the file as done
+        public void done() {
+            bytesDone.addAndGet(size - counted);
+            counted = size;
+            filesDone.incrementAndGet();
+            report(true);
+        }
+
+        // EFFECTS: returns out, counting the bytes written to it as bytes of the file
+        public WritableByteChannel track(WritableByteChannel out) {
+            return new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer src) throws IOException {
+                    int n = out.write(src);
+                    add(n);
+                    return n;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return out.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+
+        // EFFECTS: returns in, counting the bytes read from it as bytes of the file
+        public InputStream track(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    add(b < 0 ? 0 : 1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    add(Math.max(0, n));
+                    return n;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package main.util;
+
+/**
+ * receives progress of a long-running vault operation and may cancel it; may be called from worker threads
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    ProgressListener NONE = (filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond) -> { };
+
+    // EFFECTS: called each time a file is done, and now and then while a large file is; bytesPerSecond is the
+    //          average since the operation started
+    void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal, double bytesPerSecond);
+
+    // EFFECTS: returns true once the operation should stop; it is asked before each file and as files are written,
+    //          and the operation then undoes what it did and throws InterruptedIOException
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package main.util;
+
+import main.exceptions.CryptoException;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * seals and opens the fixed-size segments of an encrypted file.
+ * An encrypted file is a header (version, salt of the file key, nonce prefix) followed by segments that each carry
+ * their own GCM tag. The nonce of a segment is the nonce prefix, the segment index and a flag marking the last
+ * segment, so segments cannot be reordered, and a file cut at a segment boundary fails to decrypt.
+ */
+public class SegmentCipher {
+    public static final byte VERSION = 1;
+    public static final int SEGMENT_SIZE = 64 * 1024; // plaintext bytes per segment
+    public static final int TAG_LENGTH = 16;
+    public static final int SALT_LENGTH = 16;
+    public static final int NONCE_PREFIX_LENGTH = 7;
+    public static final int HEADER_LENGTH = 1 + SALT_LENGTH + NONCE_PREFIX_LENGTH;
+    public static final int CIPHER_SEGMENT_SIZE = SEGMENT_SIZE + TAG_LENGTH;
+    private static final String ENCRYPT_ALGO = "AES/GCM/NoPadding";
+
+    private final SecretKey key;
+    private final byte[] header;
+    private final Cipher aes;
+
+    // EFFECTS: creates cipher for the file with given key and header
+    SegmentCipher(SecretKey key, byte[] header) throws CryptoException {
+        if (header.length != HEADER_LENGTH || header[0] != VERSION) {
+            throw new CryptoException(new GeneralSecurityException("unsupported encrypted file header"));
+        }
+        this.key = key;
+        this.header = header;
+        try {
+            aes = Cipher.getInstance(ENCRYPT_ALGO);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new CryptoException(e);
+        }
+    }
+
+    // GETTERS
+    public byte[] getHeader() {
+        return header.clone();
+    }
+
+    // EFFECTS: returns the salt stored in header
+    public static byte[] getSalt(byte[] header) {
+        byte[] salt = new byte[SALT_LENGTH];
+        System.arraycopy(header, 1, salt, 0, SALT_LENGTH);
+        return salt;
+    }
+
+    // EFFECTS: returns header made of the current version, salt and nonce prefix
+    public static byte[] makeHeader(byte[] salt, byte[] noncePrefix) {
+        return ByteBuffer.allocate(HEADER_LENGTH).put(VERSION).put(salt).put(noncePrefix).array();
+    }
+
+    // REQUIRES: 0 <= len <= SEGMENT_SIZE, out has room for len + TAG_LENGTH bytes
+    // EFFECTS: encrypts len bytes of in as segment number index into out, returns number of bytes written
+    public int seal(long index, boolean last, byte[] in, int len, byte[] out) throws CryptoException {
+        return doFinal(Cipher.ENCRYPT_MODE, index, last, in, len, out);
+    }
+
+    // REQUIRES: len <= CIPHER_SEGMENT_SIZE, out has room for len - TAG_LENGTH bytes
+    // EFFECTS: decrypts and verifies len bytes of in as segment number index into out,
+    //          returns number of bytes written; throws CryptoException if the segment was tampered with
+    public int open(long index, boolean last, byte[] in, int len, byte[] out) throws CryptoException {
+        checkTag(len);
+        return doFinal(Cipher.DECRYPT_MODE, index, last, in, len, out);
+    }
+
+    // REQUIRES: in has at most SEGMENT_SIZE bytes remaining, out has room for them and TAG_LENGTH more
+    // EFFECTS: encrypts the remaining bytes of in as segment number index into out, returns number of bytes written;
+    //          direct buffers are passed to the cipher without copying them to the heap
+    public int seal(long index, boolean last, ByteBuffer in, ByteBuffer out) throws CryptoException {
+        return doFinal(Cipher.ENCRYPT_MODE, index, last, in, out);
+    }
+
+    // REQUIRES: in has at most CIPHER_SEGMENT_SIZE bytes remaining, out has room for them less TAG_LENGTH
+    // EFFECTS: decrypts and verifies the remaining bytes of in as segment number index into out,
+    //          returns number of bytes written; throws CryptoException if the segment was tampered with
+    public int open(long index, boolean last, ByteBuffer in, ByteBuffer out) throws CryptoException {
+        checkTag(in.remaining());
+        return doFinal(Cipher.DECRYPT_MODE, index, last, in, out);
+    }
+
+    // EFFECTS: throws CryptoException if a sealed segment of len bytes is too short to hold its tag, which the
+    //          cipher would fail on with an unchecked exception
+    private static void checkTag(int len) throws CryptoException {
+        if (len < TAG_LENGTH) {
+            throw new CryptoException(new AEADBadTagException("segment shorter than its tag"));
+        }
+    }
+
+    private int doFinal(int mode, long index, boolean last, ByteBuffer in, ByteBuffer out) throws CryptoException {
+        try {
+            aes.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(index, last)));
+            return aes.doFinal(in, out);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException
+                 | BadPaddingException | ShortBufferException e) {
+            throw new CryptoException(e);
+        }
+    }
+
+    private int doFinal(int mode, long index, boolean last, byte[] in, int len, byte[] out) throws CryptoException {
+        try {
+            aes.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(index, last)));
+            return aes.doFinal(in, 0, len, out, 0);
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException
+                 | BadPaddingException | ShortBufferException e) {
+            throw new CryptoException(e);
+        }
+    }
+
+    // EFFECTS: returns nonce prefix || segment index || last segment flag
+    private byte[] nonce(long index, boolean last) throws InvalidAlgorithmParameterException {
+        if (index < 0 || index > 0xFFFFFFFFL) {
+            throw new InvalidAlgorithmParameterException("too many segments");
+        }
+        return ByteBuffer.allocate(NONCE_PREFIX_LENGTH + 5)
+                .put(header, 1 + SALT_LENGTH, NONCE_PREFIX_LENGTH)
+                .putInt((int) index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+
+    // EFFECTS: returns size of the encrypted file holding plaintextSize bytes
+    public static long ciphertextSize(long plaintextSize) {
+        long segments = Math.max(1, (plaintextSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        return HEADER_LENGTH + plaintextSize + segments * TAG_LENGTH;
+    }
+
+    // EFFECTS: returns number of plaintext bytes held by an encrypted file of ciphertextSize bytes
+    public static long plaintextSize(long ciphertextSize) {
+        long body = ciphertextSize - HEADER_LENGTH;
+        long segments = Math.max(1, (body + CIPHER_SEGMENT_SIZE - 1) / CIPHER_SEGMENT_SIZE);
+        return Math.max(0, body - segments * TAG_LENGTH);
+    }
+}
@@ -0,0 +1,136 @@
+package main.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * decoding of images and of thumbnails of them, shrunk to fit in a square of a few dozen pixels. Streams are
+ * buffered in memory, where ImageIO would buffer them in temporary files on disk
+ */
+public final class Thumbnails {
+    public static final int SIZE = 44; // pixels of the longer side of a thumbnail
+
+    private Thumbnails() {
+    }
+
+    // EFFECTS: returns true if a file named name is an image the finder shows
+    public static boolean isImage(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && name.substring(dot).toLowerCase(Locale.ROOT).matches("\\.(png|jpg|jpeg|gif|svg)");
+    }
+
+    // EFFECTS: decodes the image in in; throws IOException if it is no image ImageIO can read
+    public static BufferedImage read(InputStream in) throws IOException {
+        BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(in));
+        if (image == null) {
+            throw new IOException("not a readable image");
+        }
+        return image;
+    }
+
+    // EFFECTS: decodes the image in in into a thumbnail of at most size pixels a side; only every n-th pixel of a
+    //          large image is decoded, for the n that still leaves twice the pixels the thumbnail needs
+    public static BufferedImage readThumbnail(InputStream in, int size) throws IOException {
+        try (ImageInputStream images = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(images);
+            if (!readers.hasNext()) {
+                throw new IOException("not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(images, true, true);
+                int longer = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longer / (2 * size));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                BufferedImage thumbnail = scale(decoded, size);
+                if (thumbnail != decoded) {
+                    wipe(decoded);
+                }
+                return thumbnail;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // EFFECTS: returns image encoded as PNG
+    public static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(png)) {
+            if (!ImageIO.write(image, "png", out)) {
+                throw new IOException("no PNG writer");
+            }
+        }
+        return png.toByteArray();
+    }
+
+    // EFFECTS: returns image shrunk to at most size pixels a side, keeping its proportions, or image itself if it
+    //          is small enough
+    public static BufferedImage scale(BufferedImage image, int size) {
+        int longer = Math.max(image.getWidth(), image.getHeight());
+        if (longer <= size) return image;
+        int width = Math.max(1, image.getWidth() * size / longer);
+        int height = Math.max(1, image.getHeight() * size / longer);
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return thumbnail;
+    }
+
+    // EFFECTS: returns number of bytes the pixels of image take up
+    public static long weight(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    // EFFECTS: returns image with pixels of its own, the same as those of image
+    public static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    // MODIFIES: image
+    // EFFECTS: overwrites the pixels of image with zeros, so the plaintext they show does not stay in memory
+    public static void wipe(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        for (int bank = 0; bank < buffer.getNumBanks(); bank++) {
+            if (buffer instanceof DataBufferByte) {
+                Arrays.fill(((DataBufferByte) buffer).getData(bank), (byte) 0);
+            } else if (buffer instanceof DataBufferInt) {
+                Arrays.fill(((DataBufferInt) buffer).getData(bank), 0);
+            } else if (buffer instanceof DataBufferShort) {
+                Arrays.fill(((DataBufferShort) buffer).getData(bank), (short) 0);
+            } else if (buffer instanceof DataBufferUShort) {
+                Arrays.fill(((DataBufferUShort) buffer).getData(bank), (short) 0);
+            } else {
+                for (int i = 0; i < buffer.getSize(); i++) {
+                    buffer.setElem(bank, i, 0);
+                }
+            }
+        }
+    }
+}
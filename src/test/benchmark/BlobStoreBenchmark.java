@@ -0,0 +1,69 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.filesystem.BlobStore;
+import main.filesystem.CatalogFormat;
+import main.filesystem.LooseBlobStore;
+import main.filesystem.MemoryBlobStore;
+import main.filesystem.Vault;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.io.Writer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * compares adding and reading back files of random bytes with their blobs in the data folder and in memory, so the
+ * cost of the cipher can be told apart from the cost of the filesystem. Files are added one by one, not packed
+ * Takes the number of files and their size in MiB as arguments, 64 files of 1 MiB by default
+ */
+public class BlobStoreBenchmark {
+
+    public static void main(String[] args) throws IOException, CryptoException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int size = (args.length > 1 ? Integer.parseInt(args[1]) : 1) << 20;
+        File work = new File(System.getProperty("java.io.tmpdir"), "blob-store-benchmark");
+        FileUtils.deleteDirectory(work);
+        File source = new File(work, "source");
+        source.mkdirs();
+        Random random = new Random(0);
+        byte[] content = new byte[size];
+        for (int i = 0; i < files; i++) {
+            random.nextBytes(content);
+            new Writer(new File(source, i + ".bin")).writeBytes(content);
+        }
+        System.out.printf("%d files of %d MiB%n", files, size >> 20);
+
+        try {
+            for (String store : new String[]{"loose", "memory"}) {
+                File folder = new File(work, store);
+                BlobStore blobs = store.equals("loose")
+                        ? new LooseBlobStore(new File(folder, "data")) : new MemoryBlobStore();
+                Vault vault = new Vault(folder, "benchmark".toCharArray(), CatalogFormat.JSON, blobs);
+                vault.setPacking(false);
+                vault.createFolder("files", vault.getRoot());
+                VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("files");
+                long start = System.nanoTime();
+                for (int i = 0; i < files; i++) {
+                    vault.addFile(new File(source, i + ".bin"), dir);
+                }
+                double addSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                for (VaultEntry file : dir.getEntries()) {
+                    vault.open(file);
+                }
+                double readSeconds = (System.nanoTime() - start) / 1e9;
+                vault.lock();
+                double mib = (double) files * size / 1048576;
+                System.out.printf("%-7s add %6.2f s %7.1f MiB/s   read %6.2f s %7.1f MiB/s%n", store,
+                        addSeconds, mib / addSeconds, readSeconds, mib / readSeconds);
+            }
+        } finally {
+            FileUtils.deleteDirectory(work);
+        }
+    }
+}
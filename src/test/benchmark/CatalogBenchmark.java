@@ -0,0 +1,76 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.filesystem.JsonCatalog;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultFile;
+import main.io.DecryptingInputStream;
+import main.io.EncryptingOutputStream;
+import main.util.CryptoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * compares the time to write and read a large catalog as plaintext JSON and encrypted with the vault key
+ */
+public class CatalogBenchmark {
+    private static final int DIRECTORIES = 1000;
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException, CryptoException {
+        CryptoUtils cryptoUtils = new CryptoUtils("benchmark".toCharArray());
+        VaultDirectory root = makeTree();
+        System.out.printf("catalog of %d entries%n", DIRECTORIES * (FILES_PER_DIRECTORY + 1));
+
+        for (int warmup = 0; warmup < 2; warmup++) {
+            run(root, null, false);
+            run(root, cryptoUtils, false);
+        }
+        run(root, null, true);
+        run(root, cryptoUtils, true);
+    }
+
+    // EFFECTS: writes and reads the catalog ROUNDS times, prints average times if print
+    private static void run(VaultDirectory root, CryptoUtils cryptoUtils, boolean print)
+            throws IOException, CryptoException {
+        long writeNanos = 0;
+        long readNanos = 0;
+        int size = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            JsonCatalog.writeTree(root, i, cryptoUtils == null ? out
+                    : new EncryptingOutputStream(out, cryptoUtils.newSegmentCipher()));
+            writeNanos += System.nanoTime() - start;
+            size = out.size();
+
+            ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+            start = System.nanoTime();
+            JsonCatalog.readTree(cryptoUtils == null ? in : new DecryptingInputStream(in, cryptoUtils),
+                    new VaultDirectory(UUID.randomUUID().toString(), "root"));
+            readNanos += System.nanoTime() - start;
+        }
+        if (print) {
+            System.out.printf("%-10s %8d KiB  write %7.1f ms  read %7.1f ms%n",
+                    cryptoUtils == null ? "plaintext" : "encrypted", size / 1024,
+                    writeNanos / 1e6 / ROUNDS, readNanos / 1e6 / ROUNDS);
+        }
+    }
+
+    // EFFECTS: returns a tree of DIRECTORIES directories holding FILES_PER_DIRECTORY files each
+    private static VaultDirectory makeTree() {
+        VaultDirectory root = new VaultDirectory(UUID.randomUUID().toString(), "root");
+        for (int d = 0; d < DIRECTORIES; d++) {
+            VaultDirectory dir = new VaultDirectory(UUID.randomUUID().toString(), "directory " + d);
+            root.addEntry(dir);
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                dir.addEntry(new VaultFile(UUID.randomUUID().toString(), "file " + f + ".txt", f * 1000L));
+            }
+        }
+        return root;
+    }
+}
@@ -0,0 +1,127 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.io.Codec;
+import main.io.Reader;
+import main.io.Writer;
+import main.util.CryptoUtils;
+import main.util.SegmentCipher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * compares encrypting files as they are with picking a codec, compressing and encrypting them, for text that
+ * compresses well, hex dumps that only entropy coding shrinks, and random and deflated data standing in for media
+ * that is already compressed. The time to pick a codec is all a file that is not compressed pays extra.
+ * Takes the file size in MiB as argument, 64 by default
+ */
+public class CompressionBenchmark {
+    private static final int ROUNDS = 6;
+    private static final int PICKS = 100;
+
+    public static void main(String[] args) throws IOException, CryptoException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 64) * 1024 * 1024;
+        CryptoUtils cryptoUtils = new CryptoUtils("benchmark".toCharArray());
+        File input = File.createTempFile("plain", null);
+        File output = File.createTempFile("encrypted", null);
+        try {
+            for (String kind : new String[]{"text", "hex", "random", "deflated"}) {
+                makeInput(input, size, kind);
+                double plain = Double.MAX_VALUE;
+                double compressed = Double.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) { // best of the rounds, taking turns to go first
+                    for (int turn = 0; turn < 2; turn++) {
+                        boolean compress = (round + turn) % 2 == 1;
+                        double seconds = encrypt(cryptoUtils, input, output, compress);
+                        if (compress) {
+                            compressed = Math.min(compressed, seconds);
+                        } else {
+                            plain = Math.min(plain, seconds);
+                        }
+                    }
+                }
+                long plainSize = SegmentCipher.ciphertextSize(size);
+                encrypt(cryptoUtils, input, output, true);
+                long compressedSize = output.length();
+                Codec codec = null;
+                long start = System.nanoTime();
+                try (FileChannel in = new Reader(input).openChannel()) {
+                    for (int i = 0; i < PICKS; i++) {
+                        codec = Codec.choose(in);
+                    }
+                }
+                double pick = (System.nanoTime() - start) / 1e6 / PICKS;
+                System.out.printf("%-9s as is %7.1f MiB/s %7.1f MiB   %-7s %7.1f MiB/s %7.1f MiB   picked in %.2f ms%n",
+                        kind, size / 1048576.0 / plain, plainSize / 1048576.0, codec,
+                        size / 1048576.0 / compressed, compressedSize / 1048576.0, pick);
+            }
+        } finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    // EFFECTS: encrypts input to output, after picking a codec and compressing it if compress, returns seconds taken
+    private static double encrypt(CryptoUtils cryptoUtils, File input, File output, boolean compress)
+            throws IOException, CryptoException {
+        long start = System.nanoTime();
+        try (FileChannel in = new Reader(input).openChannel();
+             FileChannel out = new Writer(output).openChannel()) {
+            if (compress) {
+                cryptoUtils.encrypt(in, out, Codec.choose(in));
+            } else {
+                cryptoUtils.encrypt(in, out);
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    // EFFECTS: fills file with size bytes of CSV-like text, hex of random bytes, random bytes, or deflated text
+    private static void makeInput(File file, long size, String kind) throws IOException {
+        Random random = new Random(0);
+        try (FileChannel out = new Writer(file).openChannel()) {
+            for (long written = 0, line = 0; written < size; ) {
+                byte[] block;
+                if (kind.equals("random")) {
+                    block = new byte[1024 * 1024];
+                    random.nextBytes(block);
+                } else if (kind.equals("hex")) {
+                    byte[] bytes = new byte[512 * 1024];
+                    random.nextBytes(bytes);
+                    block = HexFormat.of().formatHex(bytes).getBytes(UTF_8);
+                } else {
+                    StringBuilder text = new StringBuilder();
+                    while (text.length() < 1024 * 1024) {
+                        text.append(line++).append(',').append(random.nextInt(1000)).append(",user")
+                                .append(random.nextInt(50)).append(",GET /index.html,200,")
+                                .append(random.nextInt(5000)).append('\n');
+                    }
+                    block = text.toString().getBytes(UTF_8);
+                    if (kind.equals("deflated")) {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        try (DeflaterOutputStream deflated = new DeflaterOutputStream(bytes,
+                                new Deflater(Deflater.BEST_COMPRESSION))) {
+                            deflated.write(block);
+                        }
+                        block = bytes.toByteArray();
+                    }
+                }
+                ByteBuffer buf = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written));
+                written += buf.remaining();
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+        }
+    }
+}
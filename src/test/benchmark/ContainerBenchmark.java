@@ -0,0 +1,81 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.filesystem.CatalogFormat;
+import main.filesystem.Vault;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultLayout;
+import main.io.Writer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * compares a vault laid out in folders, with and without packing, and in a container: importing a folder of files,
+ * copying the locked vault as a backup would, and reading ranges of files picked at random, by time and by files
+ * on disk. Files of 32 KiB are below the packing threshold, so the packed vault holds them in a few pack files.
+ * Takes the number of files as argument, 5000 by default
+ */
+public class ContainerBenchmark {
+    private static final int FILE_SIZE = 32 * 1024;
+    private static final int READS = 2000;
+
+    public static void main(String[] args) throws IOException, CryptoException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        File work = new File(System.getProperty("java.io.tmpdir"), "container-benchmark");
+        FileUtils.deleteDirectory(work);
+        File source = new File(work, "source");
+        Random random = new Random(0);
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < files; i++) {
+            random.nextBytes(content);
+            File part = new File(source, String.valueOf(i % 10));
+            part.mkdirs();
+            new Writer(new File(part, i + ".bin")).writeBytes(content);
+        }
+        System.out.printf("%d files of %d KiB%n", files, FILE_SIZE >> 10);
+
+        try {
+            String[] names = {"folders", "packed", "container"};
+            for (String name : names) {
+                File folder = new File(work, name);
+                VaultLayout layout = name.equals("container") ? VaultLayout.CONTAINER : VaultLayout.FOLDERS;
+                Vault vault = new Vault(folder, "benchmark".toCharArray(), CatalogFormat.BINARY, layout);
+                vault.setPacking(name.equals("packed"));
+                long start = System.nanoTime();
+                vault.importTree(source.toPath(), vault.getRoot());
+                double importSeconds = (System.nanoTime() - start) / 1e9;
+                vault.lock();
+
+                File copy = new File(work, name + "-copy");
+                start = System.nanoTime();
+                FileUtils.copyDirectory(folder, copy);
+                double copySeconds = (System.nanoTime() - start) / 1e9;
+                int stored = FileUtils.listFiles(folder, null, true).size();
+                FileUtils.deleteDirectory(copy);
+
+                vault = new Vault(folder, "benchmark".toCharArray());
+                List<VaultEntry> entries = new ArrayList<>();
+                for (VaultEntry part : ((VaultDirectory) vault.getRoot().getEntry("source")).getEntries()) {
+                    entries.addAll(((VaultDirectory) part).getEntries());
+                }
+                Random picks = new Random(1);
+                start = System.nanoTime();
+                for (int i = 0; i < READS; i++) {
+                    vault.readAt(entries.get(picks.nextInt(entries.size())), picks.nextInt(FILE_SIZE - 100), 100);
+                }
+                double readSeconds = (System.nanoTime() - start) / 1e9;
+                vault.lock();
+                System.out.printf("%-9s import %6.2f s  %6d files on disk   copy %6.2f s   %d random reads %6.2f s%n",
+                        name, importSeconds, stored, copySeconds, READS, readSeconds);
+            }
+        } finally {
+            FileUtils.deleteDirectory(work);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.util.CryptoUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * measures throughput of encrypting and decrypting with one shared CryptoUtils from a growing number of threads
+ */
+public class CryptoBenchmark {
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private static final int FILES_PER_THREAD = 16;
+
+    public static void main(String[] args) throws CryptoException, InterruptedException, ExecutionException {
+        CryptoUtils cryptoUtils = new CryptoUtils("benchmark".toCharArray());
+        byte[] data = new byte[FILE_SIZE];
+        new Random(0).nextBytes(data);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d cores, %d MiB per thread%n", cores, FILE_SIZE / (1024 * 1024) * FILES_PER_THREAD);
+
+        run(cryptoUtils, data, cores); // warm up
+        double single = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double rate = run(cryptoUtils, data, threads);
+            if (threads == 1) {
+                single = rate;
+            }
+            System.out.printf("%3d threads  %8.1f MiB/s  speedup %4.1fx%n", threads, rate, rate / single);
+        }
+    }
+
+    // EFFECTS: encrypts and decrypts FILES_PER_THREAD copies of data on each of threads threads,
+    //          returns the total throughput in MiB/s
+    private static double run(CryptoUtils cryptoUtils, byte[] data, int threads)
+            throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                done.add(pool.submit(() -> {
+                    for (int i = 0; i < FILES_PER_THREAD; i++) {
+                        cryptoUtils.decrypt(cryptoUtils.encrypt(data));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return (double) threads * FILES_PER_THREAD * data.length / (1024 * 1024) / seconds;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
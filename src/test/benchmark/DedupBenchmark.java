@@ -0,0 +1,53 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.filesystem.Vault;
+import main.io.Writer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * compares import time and storage of a folder in which a share of the files are copies of others, with and
+ * without deduplication. Takes the share of copies in percent as argument, 50 by default
+ */
+public class DedupBenchmark {
+    private static final int FILES = 64;
+    private static final int FILE_SIZE = 2 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException, CryptoException {
+        int duplicatePercent = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        File work = new File(System.getProperty("java.io.tmpdir"), "dedup-benchmark");
+        FileUtils.deleteDirectory(work);
+        File source = new File(work, "source");
+        source.mkdirs();
+        int distinct = Math.max(1, FILES * (100 - duplicatePercent) / 100);
+        Random random = new Random(0);
+        byte[][] contents = new byte[distinct][FILE_SIZE];
+        for (byte[] c : contents) {
+            random.nextBytes(c);
+        }
+        for (int i = 0; i < FILES; i++) {
+            new Writer(new File(source, i + ".bin")).writeBytes(contents[i % distinct]);
+        }
+        System.out.printf("%d files of %d MiB, %d%% copies%n", FILES, FILE_SIZE >> 20, duplicatePercent);
+
+        try {
+            for (boolean deduplicate : new boolean[]{false, true}) {
+                File folder = new File(work, deduplicate ? "deduplicated" : "plain");
+                Vault vault = new Vault(folder, "benchmark".toCharArray());
+                vault.setDeduplicating(deduplicate);
+                long start = System.nanoTime();
+                vault.importTree(source.toPath(), vault.getRoot());
+                double seconds = (System.nanoTime() - start) / 1e9;
+                vault.lock();
+                System.out.printf("%-13s import %7.2f s  stored %7.1f MiB%n", deduplicate ? "deduplicated" : "plain",
+                        seconds, FileUtils.sizeOfDirectory(vault.getDataFolder()) / 1048576.0);
+            }
+        } finally {
+            FileUtils.deleteDirectory(work);
+        }
+    }
+}
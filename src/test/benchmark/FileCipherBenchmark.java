@@ -0,0 +1,98 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.io.Reader;
+import main.io.Writer;
+import main.util.CryptoUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * compares encrypting a large file through buffered streams and through file channels, against a plain copy of
+ * the file as the speed of the disk. Takes the file size in MiB as argument, 512 by default
+ */
+public class FileCipherBenchmark {
+    public static void main(String[] args) throws IOException, CryptoException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 512) * 1024 * 1024;
+        CryptoUtils cryptoUtils = new CryptoUtils("benchmark".toCharArray());
+        File input = File.createTempFile("plain", null);
+        File output = File.createTempFile("encrypted", null);
+        try {
+            makeInput(input, size);
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1; // first round warms up
+                resetPeakHeap();
+                long start = System.nanoTime();
+                try (FileChannel in = new Reader(input).openChannel();
+                     FileChannel out = new Writer(output).openChannel()) {
+                    in.transferTo(0, in.size(), out);
+                }
+                report(print, "copy", size, start);
+
+                resetPeakHeap();
+                start = System.nanoTime();
+                try (InputStream in = new Reader(input).openStream()) {
+                    OutputStream out = new Writer(output).openStream();
+                    cryptoUtils.encrypt(in, out);
+                }
+                report(print, "streams", size, start);
+
+                resetPeakHeap();
+                start = System.nanoTime();
+                try (FileChannel in = new Reader(input).openChannel();
+                     FileChannel out = new Writer(output).openChannel()) {
+                    cryptoUtils.encrypt(in, out);
+                }
+                report(print, "channels", size, start);
+            }
+        } finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    // EFFECTS: fills file with size random bytes
+    private static void makeInput(File file, long size) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        new Random(0).nextBytes(block);
+        try (FileChannel out = new Writer(file).openChannel()) {
+            for (long written = 0; written < size; written += block.length) {
+                ByteBuffer buf = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written));
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    // EFFECTS: prints throughput since start and the peak heap usage if print
+    private static void report(boolean print, String name, long size, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        if (print) {
+            System.out.printf("%-10s %8.1f MiB/s  peak heap %6.1f MiB%n", name, size / 1048576.0 / seconds,
+                    peak / 1048576.0);
+        }
+    }
+}
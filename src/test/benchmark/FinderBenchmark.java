@@ -0,0 +1,109 @@
+package benchmark;
+
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultFile;
+import main.ui.EntryTableModel;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * compares the time to navigate into a directory of 100k entries and show its first screen: the names copied
+ * into a list model, as the finder did, and the entries shown by the table model; then the time to sort the table
+ * by each column and to insert and remove one entry in sorted order. Runs headless, painting into an image
+ */
+public class FinderBenchmark {
+    private static final int ENTRIES = 100_000;
+    private static final int ROUNDS = 10;
+    private static final String[] COLUMNS = {"Icon", "File Name", "Size (in Bytes)", "ID"};
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        System.setProperty("java.awt.headless", "true");
+        VaultDirectory dir = new VaultDirectory(UUID.randomUUID().toString(), "photos");
+        for (int i = 0; i < ENTRIES; i++) {
+            dir.addEntry(new VaultFile(UUID.randomUUID().toString(), "IMG_" + i + ".jpg", (i * 7919L) % 5_000_000));
+        }
+        System.out.printf("directory of %d entries%n", ENTRIES);
+        SwingUtilities.invokeAndWait(() -> {
+            for (int warmup = 0; warmup < 2; warmup++) {
+                runList(dir, false);
+                runTable(dir, false);
+            }
+            runList(dir, true);
+            runTable(dir, true);
+        });
+    }
+
+    // EFFECTS: shows the names of the entries of dir in a list ROUNDS times, prints average time if print
+    private static void runList(VaultDirectory dir, boolean print) {
+        DefaultListModel<String> model = new DefaultListModel<>();
+        JList<String> list = new JList<>(model);
+        JScrollPane pane = layOut(list);
+        long nanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            model.clear();
+            model.addAll(dir.getEntries().stream().map(VaultEntry::getName).collect(Collectors.toList()));
+            paint(pane);
+            nanos += System.nanoTime() - start;
+        }
+        if (print) {
+            System.out.printf("list of names   navigate %7.1f ms%n", nanos / 1e6 / ROUNDS);
+        }
+    }
+
+    // EFFECTS: shows the entries of dir in a table ROUNDS times, then sorts it by each column and inserts and
+    //          removes an entry; prints average times if print
+    private static void runTable(VaultDirectory dir, boolean print) {
+        EntryTableModel model = new EntryTableModel(COLUMNS);
+        JTable table = new JTable(model);
+        JScrollPane pane = layOut(table);
+        long nanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            model.setEntries(dir.getEntries());
+            paint(pane);
+            nanos += System.nanoTime() - start;
+        }
+        StringBuilder sorts = new StringBuilder();
+        for (int column = 0; column < COLUMNS.length; column++) {
+            long start = System.nanoTime();
+            model.sortBy(column);
+            paint(pane);
+            sorts.append(String.format("  by %s %.1f ms", COLUMNS[column], (System.nanoTime() - start) / 1e6));
+        }
+        model.sortBy(EntryTableModel.NAME);
+        VaultFile added = new VaultFile(UUID.randomUUID().toString(), "IMG_50000a.jpg", 1);
+        long start = System.nanoTime();
+        model.add(added);
+        model.remove(added);
+        long update = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("table model     navigate %7.1f ms%n", nanos / 1e6 / ROUNDS);
+            System.out.printf("table model     sort    %s%n", sorts);
+            System.out.printf("table model     insert and remove one entry %.3f ms%n", update / 1e6);
+        }
+    }
+
+    private static JScrollPane layOut(JComponent view) {
+        JScrollPane pane = new JScrollPane(view);
+        pane.setSize(800, 600);
+        pane.doLayout();
+        return pane;
+    }
+
+    // EFFECTS: lays out pane and paints its visible part into an image, as a frame would
+    private static void paint(JScrollPane pane) {
+        pane.getViewport().getView().doLayout();
+        pane.validate();
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        pane.paint(g);
+        g.dispose();
+    }
+}
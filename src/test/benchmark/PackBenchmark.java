@@ -0,0 +1,75 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.filesystem.Vault;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.io.Writer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * compares importing, reading back and deleting two thirds of a folder of many small files, each in its own
+ * encrypted file and packed into shared pack files, by time and by files and bytes stored. Files are read into
+ * memory rather than exported, as creating thousands of output files takes longer than anything measured; the
+ * vault is reopened before the deletion, so the pack written by the import is no longer the one appended to and
+ * can be repacked.
+ * Takes the number of files as argument, 5000 by default
+ */
+public class PackBenchmark {
+    private static final int FILE_SIZE = 4 * 1024;
+
+    public static void main(String[] args) throws IOException, CryptoException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        File work = new File(System.getProperty("java.io.tmpdir"), "pack-benchmark");
+        FileUtils.deleteDirectory(work);
+        File source = new File(work, "source");
+        Random random = new Random(0);
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < files; i++) {
+            random.nextBytes(content);
+            File part = new File(source, i % 3 == 0 ? "keep" : "drop");
+            part.mkdirs();
+            new Writer(new File(part, i + ".bin")).writeBytes(content);
+        }
+        System.out.printf("%d files of %d KiB%n", files, FILE_SIZE >> 10);
+
+        try {
+            for (boolean packing : new boolean[]{false, true}) {
+                File folder = new File(work, packing ? "packed" : "loose");
+                Vault vault = new Vault(folder, "benchmark".toCharArray());
+                vault.setPacking(packing);
+                long start = System.nanoTime();
+                VaultDirectory imported = (VaultDirectory) vault.importTree(source.toPath(), vault.getRoot());
+                double importSeconds = (System.nanoTime() - start) / 1e9;
+                int stored = FileUtils.listFiles(vault.getDataFolder(), null, true).size();
+
+                start = System.nanoTime();
+                for (VaultEntry part : imported.getEntries()) {
+                    for (VaultEntry file : ((VaultDirectory) part).getEntries()) {
+                        vault.open(file);
+                    }
+                }
+                double readSeconds = (System.nanoTime() - start) / 1e9;
+                vault.lock();
+
+                vault = new Vault(folder, "benchmark".toCharArray());
+                imported = (VaultDirectory) vault.getRoot().getEntry("source");
+                start = System.nanoTime();
+                vault.delete(imported.getEntry("drop"), imported);
+                vault.repack();
+                double deleteSeconds = (System.nanoTime() - start) / 1e9;
+                long bytes = FileUtils.sizeOfDirectory(vault.getDataFolder());
+                vault.lock();
+                System.out.printf("%-7s import %6.2f s  %6d files   read %6.2f s   delete 2/3 %6.2f s  %6.1f MiB%n",
+                        packing ? "packed" : "loose", importSeconds, stored, readSeconds, deleteSeconds,
+                        bytes / 1048576.0);
+            }
+        } finally {
+            FileUtils.deleteDirectory(work);
+        }
+    }
+}
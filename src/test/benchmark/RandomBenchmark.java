@@ -0,0 +1,46 @@
+package benchmark;
+
+import main.util.CryptoUtils;
+import main.util.SegmentCipher;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * compares nonces per second of a strong SecureRandom created for every nonce with the pooled DRBGs of CryptoUtils
+ */
+public class RandomBenchmark {
+    private static final int NONCES = 20000;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        for (int warmup = 0; warmup < 2; warmup++) {
+            strongPerCall();
+            drbg();
+        }
+        print("strong per call", strongPerCall());
+        print("pooled DRBG", drbg());
+    }
+
+    // EFFECTS: returns nanoseconds to generate NONCES nonces the old way, from a new strong SecureRandom each
+    private static long strongPerCall() throws NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        for (int i = 0; i < NONCES; i++) {
+            byte[] nonce = new byte[SegmentCipher.NONCE_PREFIX_LENGTH];
+            SecureRandom.getInstanceStrong().nextBytes(nonce);
+        }
+        return System.nanoTime() - start;
+    }
+
+    // EFFECTS: returns nanoseconds to generate NONCES nonces with CryptoUtils
+    private static long drbg() throws NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        for (int i = 0; i < NONCES; i++) {
+            CryptoUtils.generateSecureBytes(SegmentCipher.NONCE_PREFIX_LENGTH);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void print(String name, long nanos) {
+        System.out.printf("%-16s %12.0f nonces/s%n", name, NONCES / (nanos / 1e9));
+    }
+}
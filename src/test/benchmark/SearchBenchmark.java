@@ -0,0 +1,120 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.filesystem.SearchIndex;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultFile;
+import main.io.AtomicFile;
+import main.util.CryptoUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * compares the time to find entries by name in a large tree with the search index and by walking the tree, for
+ * prefixes and for texts inside names, and prints the time to build, write and read the encrypted index.
+ * Takes the number of entries in thousands as argument, 1000 by default
+ */
+public class SearchBenchmark {
+    private static final String[] WORDS = {"holiday", "photo", "scan", "invoice", "report", "draft", "budget",
+            "contract", "letter", "receipt", "notes", "backup", "passport", "tax", "family", "project"};
+    private static final String[] EXTENSIONS = {".jpg", ".png", ".pdf", ".txt", ".docx"};
+    private static final String[] QUERIES = {"pass", "invoice 2", "receipt 19", "backup", "xyz"};
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final int LIMIT = 100;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws IOException, CryptoException {
+        int entries = (args.length > 0 ? Integer.parseInt(args[0]) : 1000) * 1000;
+        CryptoUtils cryptoUtils = new CryptoUtils("benchmark".toCharArray());
+        VaultDirectory root = makeTree(entries / FILES_PER_DIRECTORY);
+        System.out.printf("tree of %d entries%n", entries + entries / FILES_PER_DIRECTORY);
+
+        long start = System.nanoTime();
+        SearchIndex index = new SearchIndex();
+        for (VaultEntry e : root.getEntries()) {
+            index.add(e);
+        }
+        System.out.printf("build %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+        File file = File.createTempFile("search", ".index");
+        try {
+            AtomicFile stored = AtomicFile.of(file);
+            start = System.nanoTime();
+            index.write(stored, 1, cryptoUtils);
+            System.out.printf("write %8.1f ms  %d KiB%n", (System.nanoTime() - start) / 1e6, file.length() / 1024);
+            start = System.nanoTime();
+            index = SearchIndex.read(stored, 1, cryptoUtils);
+            System.out.printf("read  %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+        } finally {
+            file.delete();
+        }
+
+        for (int warmup = 0; warmup < 2; warmup++) {
+            run(root, index, false);
+        }
+        run(root, index, true);
+    }
+
+    // EFFECTS: runs every query ROUNDS times as prefix and as text inside names, prints average times if print
+    private static void run(VaultDirectory root, SearchIndex index, boolean print) {
+        for (boolean prefix : new boolean[]{true, false}) {
+            for (String query : QUERIES) {
+                long indexNanos = 0;
+                long walkNanos = 0;
+                int found = 0;
+                for (int i = 0; i < ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    found = index.search(query, prefix, LIMIT).length;
+                    indexNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    int walked = walk(root, query.toLowerCase(Locale.ROOT), prefix, new int[1]);
+                    walkNanos += System.nanoTime() - start;
+                    if (walked != found) {
+                        throw new IllegalStateException("index found " + found + ", walk " + walked);
+                    }
+                }
+                if (print) {
+                    System.out.printf("%-6s %-12s %4d found  index %8.3f ms  walk %8.2f ms%n",
+                            prefix ? "prefix" : "text", "\"" + query + "\"", found,
+                            indexNanos / 1e6 / ROUNDS, walkNanos / 1e6 / ROUNDS);
+                }
+            }
+        }
+    }
+
+    // EFFECTS: returns the number of entries under dir whose names match text, counting into found, up to LIMIT
+    private static int walk(VaultDirectory dir, String text, boolean prefix, int[] found) {
+        for (VaultEntry e : dir.getEntries()) {
+            if (found[0] == LIMIT) break;
+            String name = e.getName().toLowerCase(Locale.ROOT);
+            if (prefix ? name.startsWith(text) : name.contains(text)) {
+                found[0]++;
+            }
+            if (e.getClass().equals(VaultDirectory.class)) {
+                walk((VaultDirectory) e, text, prefix, found);
+            }
+        }
+        return found[0];
+    }
+
+    // EFFECTS: returns a tree of directories directories holding FILES_PER_DIRECTORY files each, named after a
+    //          couple of words and numbers
+    private static VaultDirectory makeTree(int directories) {
+        Random random = new Random(0);
+        VaultDirectory root = new VaultDirectory(UUID.randomUUID().toString(), "root");
+        for (int d = 0; d < directories; d++) {
+            VaultDirectory dir = new VaultDirectory(UUID.randomUUID().toString(), "folder " + d);
+            root.addEntry(dir);
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+                        + random.nextInt(100000) + " (" + f + ")" + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+                dir.addEntry(new VaultFile(UUID.randomUUID().toString(), name, f * 1000L));
+            }
+        }
+        return root;
+    }
+}
@@ -0,0 +1,105 @@
+package benchmark;
+
+import main.exceptions.CryptoException;
+import main.filesystem.Vault;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultFile;
+import main.ui.PreviewCache;
+import org.apache.commons.io.FileUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares the time to first grid of a folder of photos in a vault reopened after import, with the thumbnails
+ * decoded from the photos and read from the thumbnails stored at import: the time from unlocking the vault until
+ * the thumbnails of the first screen of the folder, in name order, are loaded, and until all of them are. Also
+ * prints what storing the thumbnails adds to the import.
+ * Takes the number of photos as argument, 5000 by default
+ */
+public class ThumbnailBenchmark {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int GRID = 48; // thumbnails on the first screen
+
+    public static void main(String[] args) throws IOException, CryptoException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        int photos = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        File work = new File(System.getProperty("java.io.tmpdir"), "thumbnail-benchmark");
+        FileUtils.deleteDirectory(work);
+        File source = new File(work, "photos");
+        source.mkdirs();
+        Random random = new Random(0);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < photos; i++) {
+            int tint = random.nextInt(0xFFFFFF);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    image.setRGB(x, y, (tint + x * 0x010203 + y * 0x030201 + random.nextInt(16)) & 0xFFFFFF);
+                }
+            }
+            ImageIO.write(image, "jpg", new File(source, String.format("IMG_%05d.jpg", i)));
+        }
+        System.out.printf("%d photos of %dx%d, %.1f MiB%n", photos, WIDTH, HEIGHT,
+                FileUtils.sizeOfDirectory(source) / 1048576.0);
+
+        try {
+            for (boolean stored : new boolean[]{false, true}) {
+                File folder = new File(work, stored ? "stored" : "decoded");
+                Vault vault = new Vault(folder, "benchmark".toCharArray());
+                vault.setStoringThumbnails(stored);
+                long start = System.nanoTime();
+                vault.importTree(source.toPath(), vault.getRoot());
+                double importSeconds = (System.nanoTime() - start) / 1e9;
+                vault.lock();
+
+                start = System.nanoTime();
+                vault = new Vault(folder, "benchmark".toCharArray());
+                double unlockMillis = (System.nanoTime() - start) / 1e6;
+                List<VaultFile> files = sortedFiles((VaultDirectory) vault.getRoot().getEntry("photos"));
+                double firstGrid = load(vault, files.subList(0, Math.min(GRID, files.size())), start);
+                vault.lock();
+
+                start = System.nanoTime();
+                vault = new Vault(folder, "benchmark".toCharArray());
+                double all = load(vault, sortedFiles((VaultDirectory) vault.getRoot().getEntry("photos")), start);
+                vault.lock();
+                System.out.printf("%-8s import %6.2f s   unlock %6.1f ms   first grid of %d %7.1f ms   all %7.2f s%n",
+                        stored ? "stored" : "decoded", importSeconds, unlockMillis, GRID, firstGrid, all / 1e3);
+            }
+        } finally {
+            FileUtils.deleteDirectory(work);
+        }
+    }
+
+    // EFFECTS: returns the files of dir in name order, as the finder shows them
+    private static List<VaultFile> sortedFiles(VaultDirectory dir) {
+        List<VaultFile> files = new ArrayList<>();
+        for (VaultEntry e : dir.getEntries()) {
+            files.add((VaultFile) e);
+        }
+        files.sort(Comparator.comparing(VaultEntry::getName));
+        return files;
+    }
+
+    // EFFECTS: loads the thumbnails of files into a cache of vault and returns milliseconds from start until they
+    //          all are
+    private static double load(Vault vault, List<VaultFile> files, long start) throws InterruptedException {
+        CountDownLatch loaded = new CountDownLatch(files.size());
+        PreviewCache cache = new PreviewCache(vault, 256L << 20, file -> loaded.countDown());
+        cache.prefetch(files);
+        if (!loaded.await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("thumbnails not loaded");
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
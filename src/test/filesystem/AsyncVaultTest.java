@@ -0,0 +1,299 @@
+package filesystem;
+
+import main.exceptions.CryptoException;
+import main.filesystem.AsyncVault;
+import main.filesystem.PackStore;
+import main.filesystem.Vault;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultFile;
+import main.io.Writer;
+import main.util.ProgressListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncVaultTest {
+    private static final File TEST_FOLDER = new File("test_vault/async");
+    private static final File VAULT_FOLDER = new File(TEST_FOLDER, "vault");
+    private static final char[] TEST_PASSWORD = "pwd1234".toCharArray();
+
+    private ExecutorService executor;
+    private AsyncVault vault;
+
+    @BeforeEach
+    public void runBefore() {
+        try {
+            FileUtils.deleteDirectory(TEST_FOLDER);
+            executor = Executors.newSingleThreadExecutor();
+            vault = AsyncVault.loadAsync(VAULT_FOLDER, TEST_PASSWORD, executor).get();
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @AfterEach
+    public void runAfter() {
+        try {
+            vault.lockAsync().get();
+            executor.shutdown();
+            FileUtils.deleteDirectory(TEST_FOLDER);
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    // EFFECTS: writes given number of random files of size bytes each to a new folder named name and returns it
+    private static File makeTree(String name, int files, int size) throws IOException {
+        File tree = new File(TEST_FOLDER, name);
+        tree.mkdirs();
+        Random random = new Random(20);
+        for (int i = 0; i < files; i++) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            new Writer(new File(tree, "file" + i)).writeBytes(data);
+        }
+        return tree;
+    }
+
+    @Test
+    public void testAddOpenDelete() {
+        try {
+            byte[] data = new byte[100000];
+            new Random(3).nextBytes(data);
+            TEST_FOLDER.mkdirs();
+            File input = new File(TEST_FOLDER, "input");
+            new Writer(input).writeBytes(data);
+            Vault inner = vault.getVault();
+
+            VaultFile file = vault.addFileAsync(input, inner.getRoot(), ProgressListener.NONE).get();
+            assertSame(file, inner.getRoot().getEntry("input"));
+            assertArrayEquals(data, vault.openAsync(file).get());
+            vault.createFolderAsync("dir", inner.getRoot()).get();
+            vault.deleteAsync(file, inner.getRoot()).get();
+            assertNull(inner.getRoot().getEntry("input"));
+            assertNotNull(inner.getRoot().getEntry("dir"));
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testSnapshots() {
+        try {
+            File tree = makeTree("tree", 2, 100);
+            Vault inner = vault.getVault();
+            VaultDirectory dir = (VaultDirectory) vault.importTreeAsync(tree.toPath(), inner.getRoot(),
+                    ProgressListener.NONE).get();
+            VaultEntry file = dir.getEntry("file0");
+
+            AsyncVault.Listing listing = vault.listAsync(dir).get();
+            assertEquals("tree", listing.getPath());
+            assertEquals(2, listing.getEntries().size());
+            assertTrue(listing.getEntries().contains(file));
+            assertEquals("tree/file0", vault.pathAsync(file).get());
+            assertEquals(Set.of(dir.getUuid(), file.getUuid(), dir.getEntry("file1").getUuid()),
+                    vault.idsAsync(dir).get());
+
+            assertSame(dir, vault.deleteAsync(file).get());
+            assertNull(dir.getEntry("file0"));
+            assertEquals(2, listing.getEntries().size()); // a copy, not the live entries
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testWrongPassword() {
+        try {
+            vault.lockAsync().get();
+            AsyncVault.loadAsync(VAULT_FOLDER, "wrong".toCharArray(), executor).get();
+            fail("vault unlocked with wrong password");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CryptoException);
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        try {
+            vault = AsyncVault.loadAsync(VAULT_FOLDER, TEST_PASSWORD, executor).get();
+        } catch (InterruptedException | ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testImportProgress() {
+        try {
+            File tree = makeTree("tree", 5, PackStore.MAX_PACKED + 1);
+            long[] last = new long[4];
+            VaultEntry imported = vault.importTreeAsync(tree.toPath(), vault.getVault().getRoot(),
+                    (filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond) -> {
+                        assertTrue(filesDone >= last[0] && bytesDone >= last[2]);
+                        last[0] = filesDone;
+                        last[1] = filesTotal;
+                        last[2] = bytesDone;
+                        last[3] = bytesTotal;
+                    }).get();
+            assertEquals(5, imported.getSize() / (PackStore.MAX_PACKED + 1));
+            assertArrayEquals(new long[] {5, 5, imported.getSize(), imported.getSize()}, last);
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testCancelImport() {
+        try {
+            File tree = makeTree("tree", 8, 4 * PackStore.MAX_PACKED);
+            String[] before = vault.getVault().getDataFolder().list();
+            AtomicReference<CompletableFuture<VaultEntry>> running = new AtomicReference<>();
+            CompletableFuture<VaultEntry> future = vault.importTreeAsync(tree.toPath(), vault.getVault().getRoot(),
+                    (filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond) -> {
+                        if (running.get() != null) {
+                            running.get().cancel(false);
+                        }
+                    });
+            running.set(future);
+            assertThrows(CancellationException.class, future::get);
+
+            // the import goes on until it sees the cancellation, then undoes what it did
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            executor = Executors.newSingleThreadExecutor();
+            vault = new AsyncVault(vault.getVault(), executor);
+            assertTrue(vault.getVault().getRoot().getEntries().isEmpty());
+            String[] after = vault.getVault().getDataFolder().list();
+            Arrays.sort(before);
+            Arrays.sort(after);
+            assertArrayEquals(before, after);
+        } catch (IOException | InterruptedException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testLockWaitsForOperations() {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            File tree = makeTree("tree", 8, 4 * PackStore.MAX_PACKED);
+            AsyncVault concurrent = new AsyncVault(vault.getVault(), pool);
+            CompletableFuture<VaultEntry> importing = concurrent.importTreeAsync(tree.toPath(),
+                    vault.getVault().getRoot(), ProgressListener.NONE);
+            CompletableFuture<VaultEntry> cancelled = concurrent.importTreeAsync(tree.toPath(),
+                    vault.getVault().getRoot(), ProgressListener.NONE);
+            cancelled.cancel(false);
+            concurrent.lockAsync().get();
+            assertTrue(importing.isDone());
+
+            vault = AsyncVault.loadAsync(VAULT_FOLDER, TEST_PASSWORD, executor).get();
+            assertEquals(1, vault.getVault().getRoot().getEntries().size());
+            assertEquals(8, ((VaultDirectory) vault.getVault().getRoot().getEntry("tree")).getEntries().size());
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLockWaitsForOpenChannel() {
+        try {
+            File tree = makeTree("tree", 1, 4 * PackStore.MAX_PACKED);
+            Vault inner = vault.getVault();
+            VaultFile file = inner.addFile(new File(tree, "file0"), inner.getRoot());
+            SeekableByteChannel channel = inner.openChannel(file);
+            CompletableFuture<Void> locked = vault.lockAsync();
+            Thread.sleep(200);
+            assertFalse(locked.isDone()); // the channel still needs the key
+            ByteBuffer buf = ByteBuffer.allocate(100);
+            assertEquals(100, channel.read(buf));
+            channel.close();
+            locked.get();
+            assertThrows(IOException.class, () -> inner.openChannel(file));
+            assertThrows(IOException.class, () -> inner.addFile(new File(tree, "file0"), inner.getRoot()));
+
+            vault = AsyncVault.loadAsync(VAULT_FOLDER, TEST_PASSWORD, executor).get();
+            assertEquals(1, vault.getVault().getRoot().getEntries().size());
+        } catch (IOException | CryptoException | InterruptedException | ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testFailedAddFileLeavesNothing() {
+        try {
+            File tree = makeTree("tree", 1, 4 * PackStore.MAX_PACKED);
+            Vault inner = vault.getVault();
+            String[] before = inner.getDataFolder().list();
+            int[] asked = new int[1];
+            ProgressListener failing = new ProgressListener() {
+                @Override
+                public void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal,
+                                     double bytesPerSecond) {
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    if (++asked[0] > 3) { // once some of the file is written
+                        throw new IllegalStateException("listener failed");
+                    }
+                    return false;
+                }
+            };
+            assertThrows(IllegalStateException.class,
+                    () -> inner.addFile(new File(tree, "file0"), inner.getRoot(), failing));
+            assertTrue(inner.getRoot().getEntries().isEmpty());
+            assertArrayEquals(before, inner.getDataFolder().list());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testCancelAddFile() {
+        try {
+            File tree = makeTree("tree", 1, 4 * PackStore.MAX_PACKED);
+            Vault inner = vault.getVault();
+            String[] before = inner.getDataFolder().list();
+            int[] asked = new int[1];
+            ProgressListener cancelling = new ProgressListener() {
+                @Override
+                public void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal,
+                                     double bytesPerSecond) {
+                    assertEquals(0, filesDone);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return ++asked[0] > 3; // once some of the file is written
+                }
+            };
+            assertThrows(InterruptedIOException.class,
+                    () -> inner.addFile(new File(tree, "file0"), inner.getRoot(), cancelling));
+            assertTrue(asked[0] > 3);
+            assertTrue(inner.getRoot().getEntries().isEmpty());
+            assertArrayEquals(before, inner.getDataFolder().list());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+}
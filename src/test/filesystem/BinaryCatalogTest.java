@@ -0,0 +1,189 @@
+package filesystem;
+
+import main.exceptions.CryptoException;
+import main.filesystem.CatalogFormat;
+import main.filesystem.Vault;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultFile;
+import main.io.Codec;
+import main.io.Reader;
+import main.io.Writer;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCatalogTest {
+    private static final File VAULT = new File("test_vault/binary_vault");
+    private static final char[] TEST_PASSWORD = "pwd1234".toCharArray();
+    private Vault vault;
+
+    @BeforeEach
+    public void runBefore() {
+        deleteTestVaults();
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD, CatalogFormat.BINARY);
+            vault.createFolder("testDir", vault.getRoot());
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("testDir");
+            vault.createFolder("testDir2", dir);
+            vault.addFile(new File("testReadWrite"), (VaultDirectory) dir.getEntry("testDir2"));
+            vault.addFile(new File("testReadWrite"), vault.getRoot());
+            vault.lock();
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @AfterAll
+    public static void deleteTestVaults() {
+        try {
+            FileUtils.deleteDirectory(VAULT);
+        } catch (IOException e) {
+
+        }
+    }
+
+    @Test
+    public void testLoadReadsOnlyRoot() {
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            assertTrue(new File(VAULT, VAULT.getName() + ".catalog").exists());
+            assertEquals(2, vault.getRoot().getEntries().size());
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("testDir");
+            assertFalse(dir.isLoaded());
+            assertEquals(vault.getRoot().getEntry("testReadWrite").getSize(), dir.getSize());
+            assertEquals(2 * dir.getSize(), vault.getRoot().getSize());
+
+            VaultDirectory dir2 = (VaultDirectory) dir.getEntry("testDir2");
+            assertTrue(dir.isLoaded());
+            assertFalse(dir2.isLoaded());
+            VaultEntry file = dir2.getEntry("testReadWrite");
+            assertEquals("testDir/testDir2/testReadWrite", vault.getRoot().getPathOfEntry(file.getId(), true));
+            assertArrayEquals(vault.open(vault.getRoot().getEntry("testReadWrite")), vault.open(file));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testChunksInUnvisitedDirectoryAreKept() {
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            vault.setDeduplicating(true);
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("testDir");
+            vault.addFile(new File("testReadWrite"), (VaultDirectory) dir.getEntry("testDir2"));
+            vault.createFolder("copies", vault.getRoot());
+            vault.addFile(new File("testReadWrite"), (VaultDirectory) vault.getRoot().getEntry("copies"));
+            vault.lock();
+
+            vault = new Vault(VAULT, TEST_PASSWORD); // the chunks in testDir are counted by the catalog
+            VaultDirectory copies = (VaultDirectory) vault.getRoot().getEntry("copies");
+            vault.delete(copies.getEntry("testReadWrite"), copies);
+            assertFalse(((VaultDirectory) vault.getRoot().getEntry("testDir")).isLoaded());
+            vault.delete(copies, vault.getRoot());
+            assertFalse(((VaultDirectory) vault.getRoot().getEntry("testDir")).isLoaded());
+            vault.lock();
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            dir = (VaultDirectory) ((VaultDirectory) vault.getRoot().getEntry("testDir")).getEntry("testDir2");
+            assertArrayEquals(vault.open(vault.getRoot().getEntry("testReadWrite")),
+                    vault.open(dir.getEntry("testReadWrite (1)")));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPacksInUnvisitedDirectoryAreKept() {
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD); // the packed file in testDir is counted by the catalog
+            VaultEntry file = vault.getRoot().getEntry("testReadWrite");
+            byte[] contents = vault.open(file);
+            vault.delete(file, vault.getRoot());
+            assertFalse(((VaultDirectory) vault.getRoot().getEntry("testDir")).isLoaded());
+            vault.lock();
+
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            VaultDirectory dir = (VaultDirectory) ((VaultDirectory) vault.getRoot().getEntry("testDir"))
+                    .getEntry("testDir2");
+            assertTrue(((VaultFile) dir.getEntry("testReadWrite")).isPacked());
+            assertArrayEquals(contents, vault.open(dir.getEntry("testReadWrite")));
+            vault.delete(vault.getRoot().getEntry("testDir"), vault.getRoot());
+            assertFalse(new File(vault.getDataFolder(), "packs").exists());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testCodecIsKept() {
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            File text = new File(VAULT, "text");
+            new Writer(text).writeBytes("compressible ".repeat(10000).getBytes(UTF_8));
+            VaultFile file = vault.addFile(text, vault.getRoot());
+            assertNotEquals(Codec.NONE, file.getCodec());
+            vault.lock();
+
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            VaultFile loaded = (VaultFile) vault.getRoot().getEntry("text");
+            assertEquals(file.getCodec(), loaded.getCodec());
+            assertArrayEquals(new Reader(text).readBytes(), vault.open(loaded));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testGetEntryByIdInUnvisitedDirectory() {
+        try {
+            String id = ((VaultDirectory) ((VaultDirectory) vault.getRoot().getEntry("testDir"))
+                    .getEntry("testDir2")).getEntry("testReadWrite").getId();
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            assertEquals("testReadWrite", vault.getEntryById(id).getName());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testSyncKeepsUnvisitedDirectories() {
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            vault.createFolder("testDir3", vault.getRoot());
+            vault.sync(); // testDir is copied over without being read
+            assertFalse(((VaultDirectory) vault.getRoot().getEntry("testDir")).isLoaded());
+
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            assertEquals(3, vault.getRoot().getEntries().size());
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("testDir");
+            VaultDirectory dir2 = (VaultDirectory) dir.getEntry("testDir2");
+            assertNotNull(dir2.getEntry("testReadWrite"));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testLoadReplaysJournal() {
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("testDir");
+            vault.delete(dir.getEntry("testDir2"), dir);
+            vault.rename(vault.getRoot().getEntry("testReadWrite"), vault.getRoot(), "renamed");
+
+            vault = new Vault(VAULT, TEST_PASSWORD); // not synced: changes come from the journal
+            assertNotNull(vault.getRoot().getEntry("renamed"));
+            assertEquals(0, ((VaultDirectory) vault.getRoot().getEntry("testDir")).getEntries().size());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package filesystem;
+
+import main.exceptions.CryptoException;
+import main.filesystem.BlobStore;
+import main.filesystem.ContainerBlobStore;
+import main.filesystem.LooseBlobStore;
+import main.filesystem.MemoryBlobStore;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobStoreTest {
+    private static final File FOLDER = new File("test_vault/blob_store");
+
+    @AfterEach
+    public void deleteFolder() {
+        try {
+            FileUtils.deleteDirectory(FOLDER);
+        } catch (IOException e) {
+
+        }
+    }
+
+    @Test
+    public void testLooseBlobStore() {
+        FOLDER.mkdirs();
+        checkStore(new LooseBlobStore(FOLDER));
+    }
+
+    @Test
+    public void testContainerBlobStore() {
+        FOLDER.mkdirs();
+        try {
+            checkStore(new ContainerBlobStore(new File(FOLDER, "blobs.container")));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testMemoryBlobStore() {
+        checkStore(new MemoryBlobStore());
+    }
+
+    @Test
+    public void testChild() {
+        assertEquals("a", BlobStore.child("", "a"));
+        assertEquals("a/b", BlobStore.child("a", "b"));
+    }
+
+    // EFFECTS: writes, reads back and deletes blobs in store, which must be empty
+    private void checkStore(BlobStore store) {
+        byte[] data = new byte[100000];
+        new Random(3).nextBytes(data);
+        try (store) {
+            store.createFolder("a");
+            store.createFolder("a/b");
+            store.write("a/x", data.length, out -> out.write(ByteBuffer.wrap(data)));
+            store.write("a/b/y", 10, out -> out.write(ByteBuffer.wrap(data, 0, 10)));
+            store.write("ab", 0, out -> out.write(ByteBuffer.wrap(data, 0, 20)));
+
+            try (SeekableByteChannel in = store.open("a/x")) {
+                assertEquals(data.length, in.size());
+                ByteBuffer buf = ByteBuffer.allocate(50);
+                in.position(1000);
+                while (buf.hasRemaining() && in.read(buf) >= 0) {
+                    // fill the buffer
+                }
+                for (int i = 0; i < 50; i++) {
+                    assertEquals(data[1000 + i], buf.get(i));
+                }
+            }
+
+            store.delete("a");
+            assertThrows(IOException.class, () -> store.open("a/x"));
+            assertThrows(IOException.class, () -> store.open("a/b/y"));
+            try (SeekableByteChannel in = store.open("ab")) { // shares a prefix but is not below the folder
+                assertEquals(20, in.size());
+            }
+            store.delete("missing");
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+}
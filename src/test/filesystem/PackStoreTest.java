@@ -0,0 +1,106 @@
+package filesystem;
+
+import main.filesystem.PackLocation;
+import main.filesystem.PackStore;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackStoreTest {
+    private static final File FOLDER = new File("test_vault/packs");
+    private PackStore packs;
+
+    @BeforeEach
+    public void runBefore() {
+        deleteTestFolder();
+        packs = new PackStore(FOLDER);
+    }
+
+    @AfterAll
+    public static void deleteTestFolder() {
+        try {
+            FileUtils.deleteDirectory(FOLDER);
+        } catch (IOException e) {
+
+        }
+    }
+
+    @Test
+    public void testAppendAndOpen() {
+        try {
+            byte[] data = "packed contents".getBytes();
+            PackLocation location = packs.append(data, data.length);
+            packs.force();
+            packs.unpin(location);
+            assertEquals(1, packs.getPackCount());
+            assertArrayEquals(data, read(location));
+            packs.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testForceWhilePacksAreSwitched() {
+        int workers = 4;
+        int appends = (int) (PackStore.PACK_SIZE / PackStore.MAX_PACKED / workers) + 8; // fills the first pack
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<List<PackLocation>>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                byte fill = (byte) w;
+                futures.add(pool.submit(() -> {
+                    byte[] data = new byte[PackStore.MAX_PACKED];
+                    Arrays.fill(data, fill);
+                    List<PackLocation> locations = new ArrayList<>();
+                    for (int i = 0; i < appends; i++) {
+                        locations.add(packs.append(data, data.length));
+                        packs.force(); // the pack may be switched by another worker meanwhile
+                    }
+                    return locations;
+                }));
+            }
+            for (int w = 0; w < workers; w++) {
+                for (PackLocation location : futures.get(w).get()) {
+                    byte[] read = read(location);
+                    assertEquals(PackStore.MAX_PACKED, read.length);
+                    assertEquals(w, read[0]);
+                    assertEquals(w, read[read.length - 1]);
+                    packs.unpin(location);
+                }
+            }
+            assertEquals(2, packs.getPackCount());
+            packs.close();
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // EFFECTS: returns the bytes at location
+    private byte[] read(PackLocation location) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) location.getLength());
+        try (SeekableByteChannel in = packs.open(location)) {
+            while (buf.hasRemaining() && in.read(buf) >= 0) {
+                // keep reading until buf is full
+            }
+        }
+        return buf.array();
+    }
+}
@@ -0,0 +1,148 @@
+package filesystem;
+
+import main.exceptions.CryptoException;
+import main.filesystem.SearchIndex;
+import main.filesystem.Vault;
+import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultFile;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+    private static final File VAULT = new File("test_vault/search_vault");
+    private static final char[] TEST_PASSWORD = "pwd1234".toCharArray();
+    private Vault vault;
+    private VaultDirectory holiday;
+    private VaultFile file;
+
+    @BeforeEach
+    public void runBefore() {
+        deleteTestVaults();
+        try {
+            vault = new Vault(VAULT, TEST_PASSWORD);
+            holiday = vault.createFolder("Holiday Photos", vault.getRoot());
+            vault.createFolder("photos 2020", holiday);
+            vault.createFolder("Tax Returns", vault.getRoot());
+            vault.createFolder("PHOTOGRAPHY", vault.getRoot());
+            file = vault.addFile(new File("testReadWrite"), holiday);
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @AfterAll
+    public static void deleteTestVaults() {
+        try {
+            FileUtils.deleteDirectory(VAULT);
+        } catch (IOException e) {
+
+        }
+    }
+
+    @Test
+    public void testSubstring() {
+        SearchIndex index = indexOf(vault.getRoot());
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList("Holiday Photos", "photos 2020", "PHOTOGRAPHY"), namesOf(index, "photo", false));
+        assertEquals(Arrays.asList("testReadWrite", "Tax Returns"), namesOf(index, "re", false));
+        assertEquals(List.of("testReadWrite"), namesOf(index, "READ", false));
+        assertEquals(List.of(), namesOf(index, "photon", false));
+        assertEquals(5, namesOf(index, "", false).size());
+    }
+
+    @Test
+    public void testPrefix() {
+        SearchIndex index = indexOf(vault.getRoot());
+        assertEquals(Arrays.asList("photos 2020", "PHOTOGRAPHY"), namesOf(index, "photo", true));
+        assertEquals(Arrays.asList("photos 2020", "PHOTOGRAPHY"), namesOf(index, "p", true));
+        assertEquals(List.of("Tax Returns"), namesOf(index, "ta", true));
+        assertEquals(List.of(), namesOf(index, "eturns", true));
+    }
+
+    @Test
+    public void testLimit() {
+        SearchIndex index = indexOf(vault.getRoot());
+        assertEquals(2, index.search("photo", false, 2).length);
+        assertEquals(1, index.search("p", true, 1).length);
+    }
+
+    @Test
+    public void testPathOf() {
+        SearchIndex index = indexOf(vault.getRoot());
+        int[] found = index.search("2020", false, 10);
+        assertEquals(1, found.length);
+        assertEquals(Arrays.asList("Holiday Photos", "photos 2020"), index.pathOf(found[0]));
+        assertEquals(holiday.getEntry("photos 2020").getUuid(), index.idOf(found[0]));
+    }
+
+    @Test
+    public void testRename() {
+        SearchIndex index = indexOf(vault.getRoot());
+        index.rename(file.getUuid(), "Receipts");
+        assertEquals(List.of(), namesOf(index, "testRead", false));
+        assertEquals(List.of("Receipts"), namesOf(index, "receipt", true));
+        index.rename(file.getUuid(), "testReadWrite");
+        assertEquals(List.of("testReadWrite"), namesOf(index, "testRead", false));
+        assertEquals(List.of(), namesOf(index, "receipt", true));
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void testRemoveDirectory() {
+        SearchIndex index = indexOf(vault.getRoot());
+        index.remove(holiday.getUuid());
+        assertEquals(2, index.size());
+        assertEquals(List.of("PHOTOGRAPHY"), namesOf(index, "photo", false));
+        assertEquals(List.of(), namesOf(index, "testRead", false));
+        index.remove(holiday.getUuid());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testAddIsIdempotent() {
+        SearchIndex index = indexOf(vault.getRoot());
+        index.add(holiday);
+        index.add(file);
+        assertEquals(5, index.size());
+        assertEquals(List.of("testReadWrite"), namesOf(index, "testRead", false));
+        try {
+            VaultEntry added = vault.createFolder("photo album", holiday);
+            index.add(added);
+            assertEquals(6, index.size());
+            assertEquals(Arrays.asList("Holiday Photos", "photo album"), index.pathOf(
+                    index.search("album", false, 10)[0]));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // EFFECTS: returns index of the entries under root, which are all read
+    private static SearchIndex indexOf(VaultDirectory root) {
+        SearchIndex index = new SearchIndex();
+        for (VaultEntry e : root.getEntries()) {
+            index.add(e);
+        }
+        return index;
+    }
+
+    // EFFECTS: returns the names of the entries index finds for text
+    private static List<String> namesOf(SearchIndex index, String text, boolean prefix) {
+        List<String> names = new ArrayList<>();
+        for (int number : index.search(text, prefix, 100)) {
+            List<String> path = index.pathOf(number);
+            names.add(path.get(path.size() - 1));
+        }
+        return names;
+    }
+}
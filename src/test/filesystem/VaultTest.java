@@ -2,18 +2,46 @@ package filesystem;
 
 import com.google.gson.JsonObject;
 import main.exceptions.CryptoException;
+import main.filesystem.CatalogFormat;
+import main.filesystem.ChunkStore;
+import main.filesystem.MemoryBlobStore;
+import main.filesystem.PackStore;
 import main.filesystem.Vault;
 import main.filesystem.VaultDirectory;
+import main.filesystem.VaultEntry;
+import main.filesystem.VaultFile;
+import main.filesystem.VaultLayout;
+import main.io.Codec;
 import main.io.Reader;
+import main.io.Writer;
+import main.util.Thumbnails;
+import main.util.ProgressListener;
+import main.util.SegmentCipher;
 import main.util.JsonUtils;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class VaultTest {
@@ -88,13 +116,14 @@ public class VaultTest {
         try {
             File file = new File("testReadWrite");
             vault.createFolder("testDir", vault.getRoot());
-            vault.addFile(file, (VaultDirectory) vault.getRoot().getEntries().get(0));
+            vault.addFile(file, (VaultDirectory) entryAt(vault.getRoot(), 0));
 
-            byte[] decrypted = vault.open(((VaultDirectory) vault.getRoot().getEntries().get(0)).getEntries().get(0));
+            byte[] decrypted = vault.open(entryAt((VaultDirectory) entryAt(vault.getRoot(), 0), 0));
             byte[] originalInBytes = new Reader(file).readBytes();
 
-            assertEquals(((VaultDirectory) vault.getRoot().getEntries().get(0)).getEntries().size(), 1);
-            assertEquals(vault.getDataFolder().listFiles()[0].listFiles().length, 1);
+            assertEquals(((VaultDirectory) entryAt(vault.getRoot(), 0)).getEntries().size(), 1);
+            assertTrue(((VaultFile) entryAt((VaultDirectory) entryAt(vault.getRoot(), 0), 0))
+                    .isPacked()); // small files go to the pack store, not to the folder of the directory
             assertEquals(new String(originalInBytes), new String(decrypted));
         } catch (IOException | CryptoException e) {
             fail(e);
@@ -106,7 +135,7 @@ public class VaultTest {
         try {
             JsonObject original = vault.getContents(); // data folder is empty
             vault.addFile(new File("testReadWrite"), vault.getRoot());
-            vault.delete(vault.getRoot().getEntries().get(0), vault.getRoot());
+            vault.delete(entryAt(vault.getRoot(), 0), vault.getRoot());
             vault.sync();
             JsonObject updated = vault.getContents();
 
@@ -122,7 +151,7 @@ public class VaultTest {
         try {
             File original = new File("testReadWrite");
             vault.addFile(new File("testReadWrite"), vault.getRoot());
-            byte[] decrypted = vault.open(vault.getRoot().getEntries().get(0));
+            byte[] decrypted = vault.open(entryAt(vault.getRoot(), 0));
             byte[] originalInBytes = new Reader(original).readBytes();
             assertEquals(new String(originalInBytes), new String(decrypted));
         } catch (IOException e) {
@@ -136,7 +165,7 @@ public class VaultTest {
     public void testOpenDirectory(){
         try {
             vault.createFolder("testDir", vault.getRoot());
-            byte[] decrypted = vault.open(vault.getRoot().getEntries().get(0));
+            byte[] decrypted = vault.open(entryAt(vault.getRoot(), 0));
             assertEquals(new String(decrypted), new String(new byte[0]));
         } catch (IOException e) {
             fail();
@@ -149,7 +178,7 @@ public class VaultTest {
     public void testOpenFileToBytes() {
         try {
             vault.addFile(new File("testReadWrite"), vault.getRoot());
-            assertTrue(vault.open(vault.getRoot().getEntries().get(0)).length > 0);
+            assertTrue(vault.open(entryAt(vault.getRoot(), 0)).length > 0);
         } catch (IOException | CryptoException e) {
             fail(e);
         }
@@ -160,13 +189,529 @@ public class VaultTest {
         try{
             File img = new File("tiger.png");
             vault.addFile(img, vault.getRoot());
-            byte[] results = vault.open(vault.getRoot().getEntries().get(0));
+            byte[] results = vault.open(entryAt(vault.getRoot(), 0));
             assertEquals(new String(results), new String(new Reader(img).readBytes()));
         } catch (IOException | CryptoException e) {
             fail(e);
         }
     }
 
+    @Test
+    public void testReadAt() {
+        try {
+            File original = new File("testReadWrite");
+            vault.addFile(original, vault.getRoot());
+            byte[] originalInBytes = new Reader(original).readBytes();
+            byte[] part = vault.readAt(entryAt(vault.getRoot(), 0), 10, 20);
+            assertArrayEquals(Arrays.copyOfRange(originalInBytes, 10, 30), part);
+            assertEquals(0, vault.readAt(entryAt(vault.getRoot(), 0), originalInBytes.length, 20).length);
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testReadAtTruncated() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            File large = new File(VAULT_NOT_EXIST, "large");
+            byte[] data = new byte[3 * SegmentCipher.SEGMENT_SIZE + 100];
+            new Random(4).nextBytes(data);
+            new Writer(large).writeBytes(data);
+            vault.setPacking(false);
+            VaultFile file = vault.addFile(large, vault.getRoot());
+            File blob = new File(vault.getDataFolder(), file.getId());
+            for (long length : new long[]{SegmentCipher.HEADER_LENGTH + SegmentCipher.CIPHER_SEGMENT_SIZE,
+                    SegmentCipher.HEADER_LENGTH + SegmentCipher.TAG_LENGTH, SegmentCipher.HEADER_LENGTH + 5,
+                    SegmentCipher.HEADER_LENGTH}) {
+                try (RandomAccessFile cut = new RandomAccessFile(blob, "rw")) {
+                    cut.setLength(length);
+                }
+                Exception e = assertThrows(Exception.class, () -> vault.readAt(file, 0, 10));
+                assertTrue(e instanceof IOException || e instanceof CryptoException, e.toString());
+            }
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testReadAtAcrossSegments() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            File large = new File(VAULT_NOT_EXIST, "large");
+            byte[] data = new byte[3 * SegmentCipher.SEGMENT_SIZE + 100];
+            new Random(3).nextBytes(data);
+            new Writer(large).writeBytes(data);
+            vault.addFile(large, vault.getRoot());
+
+            long offset = SegmentCipher.SEGMENT_SIZE - 50;
+            byte[] part = vault.readAt(entryAt(vault.getRoot(), 0), offset, SegmentCipher.SEGMENT_SIZE + 100);
+            assertArrayEquals(Arrays.copyOfRange(data, (int) offset, (int) offset + SegmentCipher.SEGMENT_SIZE + 100),
+                    part);
+            byte[] tail = vault.readAt(entryAt(vault.getRoot(), 0), data.length - 10, 100);
+            assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), tail);
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testCompressFiles() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            File text = new File(VAULT_NOT_EXIST, "log.csv");
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; lines.length() < 3 * SegmentCipher.SEGMENT_SIZE; i++) {
+                lines.append(i).append(",2024-01-01,info,request served in ").append(i % 97).append(" ms\n");
+            }
+            byte[] data = lines.toString().getBytes(UTF_8);
+            new Writer(text).writeBytes(data);
+            File random = new File(VAULT_NOT_EXIST, "random");
+            byte[] noise = new byte[SegmentCipher.SEGMENT_SIZE];
+            new Random(5).nextBytes(noise);
+            new Writer(random).writeBytes(noise);
+
+            VaultFile compressed = vault.addFile(text, vault.getRoot());
+            VaultFile stored = vault.addFile(random, vault.getRoot());
+            assertNotEquals(Codec.NONE, compressed.getCodec());
+            assertEquals(Codec.NONE, stored.getCodec());
+            assertTrue(new File(vault.getDataFolder(), compressed.getId()).length() < data.length / 2);
+            assertArrayEquals(data, vault.open(compressed));
+            int offset = 2 * SegmentCipher.SEGMENT_SIZE + 7;
+            assertArrayEquals(Arrays.copyOfRange(data, offset, offset + 100), vault.readAt(compressed, offset, 100));
+            assertArrayEquals(Arrays.copyOfRange(data, 10, 30), vault.readAt(compressed, 10, 20));
+
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD); // codec comes from the journal
+            assertEquals(compressed.getCodec(), ((VaultFile) vault.getRoot().getEntry("log.csv")).getCodec());
+            vault.sync();
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD); // codec comes from the catalog
+            File output = new File(VAULT_NOT_EXIST, "export");
+            vault.export(vault.getRoot(), output, ProgressListener.NONE);
+            assertArrayEquals(data, new Reader(new File(output, "root/log.csv")).readBytes());
+            assertArrayEquals(noise, new Reader(new File(output, "root/random")).readBytes());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testDeduplicateFiles() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            File large = new File(VAULT_NOT_EXIST, "large");
+            byte[] data = new byte[ChunkStore.MAX_CHUNK + 123]; // cut at least once wherever the cuts fall
+            new Random(4).nextBytes(data);
+            new Writer(large).writeBytes(data);
+            vault.setDeduplicating(true);
+            vault.createFolder("copies", vault.getRoot());
+            VaultDirectory copies = (VaultDirectory) vault.getRoot().getEntry("copies");
+
+            VaultFile first = vault.addFile(large, vault.getRoot());
+            int stored = countChunkFiles();
+            assertTrue(first.getChunks().size() > 1);
+            assertEquals(first.getChunks().size(), stored);
+            VaultFile second = vault.addFile(large, copies);
+            assertEquals(stored, countChunkFiles()); // nothing new is stored for a duplicate
+            assertArrayEquals(data, vault.open(second));
+            long offset = first.getChunks().get(0).getSize() - 10;
+            assertArrayEquals(Arrays.copyOfRange(data, (int) offset, (int) offset + 20), vault.readAt(second, offset, 20));
+
+            vault.delete(first, vault.getRoot());
+            assertEquals(stored, countChunkFiles()); // still used by the copy
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD);
+            assertTrue(vault.isDeduplicating());
+            copies = (VaultDirectory) vault.getRoot().getEntry("copies");
+            assertArrayEquals(data, vault.open(copies.getEntry("large")));
+            vault.delete(copies, vault.getRoot());
+            assertEquals(0, countChunkFiles());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testDeduplicateImportTree() {
+        try {
+            File source = new File(VAULT_NOT_EXIST, "source");
+            source.mkdirs();
+            byte[] original = new Reader(new File("testReadWrite")).readBytes();
+            for (int i = 0; i < 10; i++) {
+                new Writer(new File(source, i + ".txt")).writeBytes(original);
+            }
+            vault.setDeduplicating(true);
+            vault.importTree(source.toPath(), vault.getRoot());
+            assertEquals(1, countChunkFiles());
+
+            File output = new File(VAULT_NOT_EXIST, "export");
+            vault.export(vault.getRoot().getEntry("source"), output, ProgressListener.NONE);
+            assertArrayEquals(original, new Reader(new File(output, "source/7.txt")).readBytes());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPackSmallFiles() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            byte[] small = new Reader(new File("testReadWrite")).readBytes();
+            File large = new File(VAULT_NOT_EXIST, "large");
+            byte[] data = new byte[PackStore.MAX_PACKED + 1];
+            new Random(6).nextBytes(data);
+            new Writer(large).writeBytes(data);
+            vault.createFolder("dir", vault.getRoot());
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("dir");
+
+            for (int i = 0; i < 3; i++) {
+                assertTrue(vault.addFile(new File("testReadWrite"), dir).isPacked());
+            }
+            VaultFile loose = vault.addFile(large, dir);
+            assertFalse(loose.isPacked());
+            assertEquals(1, new File(vault.getDataFolder(), "packs").listFiles().length);
+            assertEquals(1, new File(vault.getDataFolder(), dir.getId()).listFiles().length);
+            VaultFile second = (VaultFile) dir.getEntry("testReadWrite (1)");
+            assertArrayEquals(small, vault.open(second));
+            assertArrayEquals(Arrays.copyOfRange(small, 100, 150), vault.readAt(second, 100, 50));
+
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD); // locations come from the journal
+            dir = (VaultDirectory) vault.getRoot().getEntry("dir");
+            assertArrayEquals(small, vault.open(dir.getEntry("testReadWrite (2)")));
+            vault.setPacking(false);
+            vault.sync();
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD); // locations come from the catalog
+            assertFalse(vault.isPacking());
+            dir = (VaultDirectory) vault.getRoot().getEntry("dir");
+            assertFalse(vault.addFile(new File("testReadWrite"), dir).isPacked());
+            File output = new File(VAULT_NOT_EXIST, "export");
+            vault.export(dir, output, ProgressListener.NONE);
+            assertArrayEquals(small, new Reader(new File(output, "dir/testReadWrite")).readBytes());
+            assertArrayEquals(data, new Reader(new File(output, "dir/large")).readBytes());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testMemoryBlobStore() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            File large = new File(VAULT_NOT_EXIST, "large");
+            byte[] data = new byte[PackStore.MAX_PACKED + 1];
+            new Random(7).nextBytes(data);
+            new Writer(large).writeBytes(data);
+            File other = new File(VAULT_NOT_EXIST, "other_vault");
+            MemoryBlobStore blobs = new MemoryBlobStore();
+            vault = new Vault(other, TEST_PASSWORD, CatalogFormat.JSON, blobs);
+            vault.createFolder("dir", vault.getRoot());
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("dir");
+
+            VaultFile file = vault.addFile(large, dir);
+            assertEquals(1, blobs.size());
+            assertFalse(new File(vault.getDataFolder(), dir.getId()).exists());
+            assertArrayEquals(data, vault.open(file));
+            assertArrayEquals(Arrays.copyOfRange(data, 70000, 70100), vault.readAt(file, 70000, 100));
+            File output = new File(VAULT_NOT_EXIST, "export");
+            vault.export(dir, output, ProgressListener.NONE);
+            assertArrayEquals(data, new Reader(new File(output, "dir/large")).readBytes());
+
+            vault.delete(dir, vault.getRoot());
+            assertEquals(0, blobs.size());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testContainerLayout() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            byte[] small = new Reader(new File("testReadWrite")).readBytes();
+            File large = new File(VAULT_NOT_EXIST, "large");
+            byte[] data = new byte[PackStore.MAX_PACKED + 1];
+            new Random(8).nextBytes(data);
+            new Writer(large).writeBytes(data);
+            File folder = new File(VAULT_NOT_EXIST, "contained");
+            for (CatalogFormat format : CatalogFormat.values()) {
+                FileUtils.deleteDirectory(folder);
+                vault = new Vault(folder, TEST_PASSWORD, format, VaultLayout.CONTAINER);
+                assertFalse(vault.isPacking());
+                vault.createFolder("dir", vault.getRoot());
+                VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("dir");
+                vault.addFile(new File("testReadWrite"), dir);
+                vault.addFile(large, dir);
+                vault.addFile(large, vault.getRoot());
+
+                vault = new Vault(folder, TEST_PASSWORD); // files come from the journal
+                vault.delete(vault.getRoot().getEntry("large"), vault.getRoot());
+                assertEquals(1, vault.search("large", false, 10).size());
+                vault.lock();
+                vault = new Vault(folder, TEST_PASSWORD); // files come from the catalog
+                dir = (VaultDirectory) vault.getRoot().getEntry("dir");
+                assertEquals(List.of(dir.getEntry("large")), vault.search("large", false, 10));
+                assertArrayEquals(small, vault.open(dir.getEntry("testReadWrite")));
+                assertArrayEquals(Arrays.copyOfRange(data, 70000, 70100),
+                        vault.readAt(dir.getEntry("large"), 70000, 100));
+                assertNull(vault.getRoot().getEntry("large"));
+                File output = new File(VAULT_NOT_EXIST, "export");
+                FileUtils.deleteDirectory(output);
+                vault.export(dir, output, ProgressListener.NONE);
+                assertArrayEquals(data, new Reader(new File(output, "dir/large")).readBytes());
+                vault.lock();
+
+                assertTrue(new File(folder, "contained.container").exists());
+                assertFalse(new File(folder, "contained.catalog").exists());
+                assertFalse(new File(folder, "contained.search").exists());
+                assertEquals(0, vault.getDataFolder().list().length);
+            }
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testStoreThumbnails() {
+        try {
+            VAULT_NOT_EXIST.mkdirs();
+            File source = new File(VAULT_NOT_EXIST, "source");
+            new File(source, "sub").mkdirs();
+            BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+            for (int x = 0; x < 300; x++) {
+                image.setRGB(x, x % 200, 0xFF8000);
+            }
+            File photo = new File(source, "photo.png");
+            ImageIO.write(image, "png", photo);
+            ImageIO.write(image, "png", new File(source, "sub/photo.png"));
+            File broken = new File(source, "broken.png");
+            new Writer(broken).writeBytes("not an image".getBytes(UTF_8));
+            File folder = new File(VAULT_NOT_EXIST, "thumbs");
+            for (CatalogFormat format : CatalogFormat.values()) {
+                FileUtils.deleteDirectory(folder);
+                vault = new Vault(folder, TEST_PASSWORD, format);
+                assertFalse(vault.isStoringThumbnails());
+                VaultFile without = vault.addFile(photo, vault.getRoot());
+                assertFalse(without.hasThumbnail());
+                assertNull(vault.readThumbnail(without));
+
+                vault.setStoringThumbnails(true);
+                VaultFile with = vault.addFile(photo, vault.getRoot());
+                assertTrue(with.hasThumbnail());
+                BufferedImage thumbnail = vault.readThumbnail(with);
+                assertEquals(Thumbnails.SIZE, thumbnail.getWidth());
+                assertEquals(200 * Thumbnails.SIZE / 300, thumbnail.getHeight());
+                assertTrue(new File(vault.getDataFolder(), with.getId() + ".thumbnail").exists());
+                assertFalse(vault.addFile(broken, vault.getRoot()).hasThumbnail());
+                assertFalse(vault.addFile(new File("testReadWrite"), vault.getRoot()).hasThumbnail());
+                VaultDirectory imported = (VaultDirectory) vault.importTree(source.toPath(), vault.getRoot());
+                assertTrue(((VaultFile) ((VaultDirectory) imported.getEntry("sub")).getEntry("photo.png"))
+                        .hasThumbnail());
+
+                vault = new Vault(folder, TEST_PASSWORD); // thumbnails come from the journal
+                assertTrue(vault.isStoringThumbnails());
+                with = (VaultFile) vault.getRoot().getEntry("photo (1).png");
+                assertEquals(Thumbnails.SIZE, vault.readThumbnail(with).getWidth());
+                vault.lock();
+                vault = new Vault(folder, TEST_PASSWORD); // thumbnails come from the catalog
+                with = (VaultFile) vault.getRoot().getEntry("photo (1).png");
+                assertEquals(Thumbnails.SIZE, vault.readThumbnail(with).getWidth());
+                assertFalse(((VaultFile) vault.getRoot().getEntry("photo.png")).hasThumbnail());
+                imported = (VaultDirectory) vault.getRoot().getEntry("source");
+                assertNotNull(vault.readThumbnail((VaultFile) imported.getEntry("photo.png")));
+                assertArrayEquals(new Reader(photo).readBytes(), vault.open(with));
+
+                vault.delete(with, vault.getRoot());
+                assertFalse(new File(vault.getDataFolder(), with.getId() + ".thumbnail").exists());
+                vault.lock();
+            }
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testSearch() {
+        try {
+            File folder = new File(VAULT_NOT_EXIST, "search");
+            for (CatalogFormat format : CatalogFormat.values()) {
+                FileUtils.deleteDirectory(folder);
+                vault = new Vault(folder, TEST_PASSWORD, format);
+                VaultDirectory photos = vault.createFolder("Holiday Photos", vault.getRoot());
+                vault.createFolder("Tax Returns", vault.getRoot());
+                VaultFile file = vault.addFile(new File("testReadWrite"), photos);
+                assertEquals(List.of(photos), vault.search("photo", false, 10)); // built from the tree
+                vault.rename(file, photos, "beach photo.png");
+                assertEquals(Arrays.asList(photos, file), vault.search("photo", false, 10));
+                assertEquals(List.of(file), vault.search("BEACH", true, 10));
+                vault.lock();
+                File index = new File(folder, folder.getName() + ".search");
+                assertTrue(index.exists());
+
+                vault = new Vault(folder, TEST_PASSWORD); // changes before the index is read are kept
+                photos = (VaultDirectory) vault.getRoot().getEntry("Holiday Photos");
+                vault.createFolder("photo album", vault.getRoot());
+                vault.delete(vault.getRoot().getEntry("Tax Returns"), vault.getRoot());
+                assertEquals(List.of(), vault.search("tax", false, 10));
+                assertEquals(Arrays.asList("Holiday Photos", "beach photo.png", "photo album"),
+                        namesOf(vault.search("photo", false, 10)));
+                vault.createFolder("photos 2020", photos);
+
+                vault = new Vault(folder, TEST_PASSWORD); // changes come from the journal
+                assertEquals(Arrays.asList("Holiday Photos", "beach photo.png", "photo album", "photos 2020"),
+                        namesOf(vault.search("photo", false, 10)));
+                vault.lock();
+
+                vault = new Vault(folder, TEST_PASSWORD); // index comes from the file
+                assertEquals(Arrays.asList("photo album", "photos 2020"), namesOf(vault.search("photo", true, 10)));
+                assertEquals(List.of(), vault.search("tax", false, 10));
+                vault.lock();
+
+                new Writer(index).writeBytes("not an index".getBytes(UTF_8));
+                vault = new Vault(folder, TEST_PASSWORD); // index is built again
+                assertEquals(Arrays.asList("photo album", "photos 2020"), namesOf(vault.search("photo", true, 10)));
+                vault.lock();
+            }
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testSearchIndexNotReadIsKept() {
+        try {
+            File folder = new File(VAULT_NOT_EXIST, "search");
+            FileUtils.deleteDirectory(folder);
+            vault = new Vault(folder, TEST_PASSWORD);
+            vault.createFolder("Holiday Photos", vault.getRoot());
+            assertEquals(1, vault.search("photo", false, 10).size());
+            vault.lock();
+            File index = new File(folder, folder.getName() + ".search");
+            byte[] stored = Files.readAllBytes(index.toPath());
+
+            vault = new Vault(folder, TEST_PASSWORD);
+            vault.createFolder("photo album", vault.getRoot());
+            vault.delete(vault.getRoot().getEntry("Holiday Photos"), vault.getRoot());
+            vault.sync(); // the index was not read, so it is not written
+            assertArrayEquals(stored, Files.readAllBytes(index.toPath()));
+            assertEquals(List.of("photo album"), namesOf(vault.search("photo", false, 10)));
+            vault.lock();
+            assertFalse(Arrays.equals(stored, Files.readAllBytes(index.toPath()))); // written once it was read
+
+            vault = new Vault(folder, TEST_PASSWORD);
+            assertEquals(List.of("photo album"), namesOf(vault.search("photo", false, 10)));
+            vault.lock();
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testSearchIndexMissingOrStale() {
+        try {
+            File folder = new File(VAULT_NOT_EXIST, "search");
+            for (CatalogFormat format : CatalogFormat.values()) {
+                FileUtils.deleteDirectory(folder);
+                vault = new Vault(folder, TEST_PASSWORD, format);
+                VaultDirectory photos = vault.createFolder("Holiday Photos", vault.getRoot());
+                vault.addFile(new File("testReadWrite"), photos);
+                assertEquals(List.of(photos), vault.search("photo", false, 10));
+                vault.lock();
+                File index = new File(folder, folder.getName() + ".search");
+                byte[] stale = Files.readAllBytes(index.toPath());
+
+                vault = new Vault(folder, TEST_PASSWORD);
+                vault.createFolder("photo album", (VaultDirectory) vault.getRoot().getEntry("Holiday Photos"));
+                vault.rename(vault.getRoot().getEntry("Holiday Photos"), vault.getRoot(), "Trips");
+                vault.lock();
+
+                assertTrue(index.delete());
+                vault = new Vault(folder, TEST_PASSWORD); // index is built from the catalog
+                assertEquals(List.of("photo album"), namesOf(vault.search("photo", false, 10)));
+                assertEquals(List.of("testReadWrite"), namesOf(vault.search("test", true, 10)));
+                vault.lock();
+                assertTrue(index.exists());
+
+                Files.write(index.toPath(), stale);
+                vault = new Vault(folder, TEST_PASSWORD); // index of an older catalog is built again
+                assertEquals(List.of("photo album"), namesOf(vault.search("photo", false, 10)));
+                assertEquals(List.of("Trips"), namesOf(vault.search("trip", true, 10)));
+                vault.lock();
+                assertFalse(Arrays.equals(stale, Files.readAllBytes(index.toPath())));
+            }
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    // EFFECTS: returns entry number i of dir, in the order of its entries
+    private static VaultEntry entryAt(VaultDirectory dir, int i) {
+        return new ArrayList<>(dir.getEntries()).get(i);
+    }
+
+    // EFFECTS: returns the names of entries, sorted
+    private static List<String> namesOf(List<VaultEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (VaultEntry e : entries) {
+            names.add(e.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void testRepackAfterDelete() {
+        try {
+            File source = new File(VAULT_NOT_EXIST, "source");
+            new File(source, "drop").mkdirs();
+            new File(source, "keep").mkdirs();
+            byte[] original = new Reader(new File("testReadWrite")).readBytes();
+            for (int i = 0; i < 8; i++) {
+                new Writer(new File(source, "drop/" + i)).writeBytes(original);
+            }
+            for (int i = 0; i < 2; i++) {
+                original[0] = (byte) i;
+                new Writer(new File(source, "keep/" + i)).writeBytes(original);
+            }
+            File vaultFolder = new File(VAULT_NOT_EXIST, "binary");
+            vault = new Vault(vaultFolder, TEST_PASSWORD, CatalogFormat.BINARY);
+            vault.importTree(source.toPath(), vault.getRoot());
+            vault.sync();
+            File packs = new File(vault.getDataFolder(), "packs");
+            assertEquals(1, packs.listFiles().length);
+
+            vault = new Vault(vaultFolder, TEST_PASSWORD); // keep is not visited before the repack
+            VaultDirectory drop = (VaultDirectory) ((VaultDirectory) vault.getRoot().getEntry("source"))
+                    .getEntry("drop");
+            for (VaultEntry e : new ArrayList<>(drop.getEntries())) {
+                vault.delete(e, drop);
+            }
+            vault.repack();
+            assertArrayEquals(new String[]{"1.pack"}, packs.list());
+
+            vault = new Vault(vaultFolder, TEST_PASSWORD); // moves come from the journal
+            VaultDirectory keep = (VaultDirectory) ((VaultDirectory) vault.getRoot().getEntry("source"))
+                    .getEntry("keep");
+            assertArrayEquals(original, vault.open(keep.getEntry("1")));
+            vault.sync();
+            vault = new Vault(vaultFolder, TEST_PASSWORD); // moves come from the catalog
+            keep = (VaultDirectory) ((VaultDirectory) vault.getRoot().getEntry("source")).getEntry("keep");
+            original[0] = 0;
+            assertArrayEquals(original, vault.open(keep.getEntry("0")));
+            vault.delete(keep, (VaultDirectory) vault.getRoot().getEntry("source"));
+            assertFalse(packs.exists());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    private static int countChunkFiles() {
+        File[] folders = new File(vault.getDataFolder(), "chunks").listFiles();
+        int count = 0;
+        for (File folder : folders == null ? new File[0] : folders) {
+            count += folder.listFiles().length;
+        }
+        return count;
+    }
+
     @Test
     public void testUnlockNewSalt() {
         try {
@@ -177,6 +722,169 @@ public class VaultTest {
         }
     }
 
+    @Test
+    public void testLoadVaultIncorrectPassword() {
+        try {
+            new Vault(VAULT_EXIST, "IncorrectPwd1234".toCharArray());
+            fail("Loaded vault with incorrect password");
+        } catch (IOException e) {
+            fail(e);
+        } catch (CryptoException e) {
+            // caught successfully
+        }
+    }
+
+    @Test
+    public void testChangePassword() {
+        try {
+            char[] newPassword = "newPwd5678".toCharArray();
+            vault.addFile(new File("testReadWrite"), vault.getRoot());
+            vault.changePassword(newPassword);
+            vault = new Vault(VAULT_EXIST, newPassword);
+            byte[] decrypted = vault.open(entryAt(vault.getRoot(), 0));
+            assertEquals(new String(new Reader(new File("testReadWrite")).readBytes()), new String(decrypted));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testLoadVaultReplaysJournal() {
+        try {
+            vault.createFolder("testDir", vault.getRoot());
+            VaultDirectory dir = (VaultDirectory) entryAt(vault.getRoot(), 0);
+            vault.addFile(new File("testReadWrite"), dir);
+            vault.addFile(new File("testReadWrite"), vault.getRoot());
+            vault.rename(entryAt(dir, 0), dir, "renamed");
+            vault.delete(entryAt(vault.getRoot(), 1), vault.getRoot());
+            String expected = JsonUtils.getGson().toJson(vault.getContents());
+
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD); // not synced: catalog comes from the journal
+            assertEquals(expected, JsonUtils.getGson().toJson(vault.getContents()));
+            assertEquals("renamed", entryAt((VaultDirectory) entryAt(vault.getRoot(), 0), 0).getName());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testLoadVaultIgnoresTornJournalRecord() {
+        try {
+            vault.createFolder("testDir", vault.getRoot());
+            File journal = new File(VAULT_EXIST, VAULT_EXIST.getName() + ".journal");
+            try (FileOutputStream out = new FileOutputStream(journal, true)) {
+                out.write("{\"op\":\"add\",\"par".getBytes()); // crash in the middle of an append
+            }
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD);
+            assertEquals(1, vault.getRoot().getEntries().size());
+            vault.createFolder("testDir2", vault.getRoot());
+
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD);
+            assertEquals(2, vault.getRoot().getEntries().size());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testImportTree() {
+        try {
+            File source = new File(VAULT_NOT_EXIST, "source");
+            new File(source, "sub/empty").mkdirs();
+            byte[] original = new Reader(new File("testReadWrite")).readBytes();
+            new Writer(new File(source, "a.txt")).writeBytes(original);
+            for (int i = 0; i < 20; i++) {
+                new Writer(new File(source, "sub/" + i + ".txt")).writeBytes(original);
+            }
+            vault.createFolder("source", vault.getRoot());
+
+            vault.importTree(source.toPath(), vault.getRoot());
+            VaultDirectory imported = (VaultDirectory) vault.getRoot().getEntry("source (1)");
+            VaultDirectory sub = (VaultDirectory) imported.getEntry("sub");
+            assertEquals(23, sub.getEntries().size() + imported.getEntries().size());
+            assertEquals(21L * original.length, imported.getSize());
+            assertNotNull(sub.getEntry("empty"));
+            assertArrayEquals(original, vault.open(sub.getEntry("7.txt")));
+
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD); // imported tree comes from the journal
+            sub = (VaultDirectory) ((VaultDirectory) vault.getRoot().getEntry("source (1)")).getEntry("sub");
+            assertArrayEquals(original, vault.open(sub.getEntry("19.txt")));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testExportDirectory() {
+        try {
+            byte[] original = new Reader(new File("testReadWrite")).readBytes();
+            vault.createFolder("testDir", vault.getRoot());
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("testDir");
+            vault.createFolder("testDir2", dir);
+            vault.addFile(new File("testReadWrite"), dir);
+            vault.addFile(new File("testReadWrite"), (VaultDirectory) dir.getEntry("testDir2"));
+
+            File output = new File(VAULT_NOT_EXIST, "export");
+            List<Integer> reported = Collections.synchronizedList(new ArrayList<>());
+            vault.export(dir, output, (filesDone, filesTotal, bytesDone, bytesTotal, bytesPerSecond) -> {
+                assertEquals(2, filesTotal);
+                assertEquals(2L * original.length, bytesTotal);
+                reported.add(filesDone);
+            });
+            assertEquals(2, reported.size());
+            assertArrayEquals(original, new Reader(new File(output, "testDir/testReadWrite")).readBytes());
+            assertArrayEquals(original, new Reader(new File(output, "testDir/testDir2/testReadWrite")).readBytes());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testAddFilesConcurrently() {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            byte[] original = new Reader(new File("testReadWrite")).readBytes();
+            vault.createFolder("testDir", vault.getRoot());
+            VaultDirectory dir = (VaultDirectory) vault.getRoot().getEntry("testDir");
+            List<Future<VaultFile>> added = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                VaultDirectory target = i % 2 == 0 ? vault.getRoot() : dir;
+                added.add(pool.submit(() -> vault.addFile(new File("testReadWrite"), target)));
+            }
+            for (Future<VaultFile> f : added) {
+                assertArrayEquals(original, vault.open(f.get()));
+            }
+            assertEquals(21, vault.getRoot().getEntries().size());
+            assertEquals(20, dir.getEntries().size());
+
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD); // every concurrent add made it to the journal
+            assertEquals(20, ((VaultDirectory) vault.getRoot().getEntry("testDir")).getEntries().size());
+        } catch (IOException | CryptoException | InterruptedException | ExecutionException e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCatalogAndJournalAreEncrypted() {
+        try {
+            vault.createFolder("secretDir", vault.getRoot());
+            File journal = new File(VAULT_EXIST, VAULT_EXIST.getName() + ".journal");
+            assertFalse(new String(new Reader(journal).readBytes(), UTF_8).contains("secretDir"));
+            vault.sync();
+            File catalog = new File(VAULT_EXIST, VAULT_EXIST.getName() + ".catalog");
+            File header = new File(VAULT_EXIST, VAULT_EXIST.getName() + ".vault");
+            assertFalse(new String(new Reader(catalog).readBytes(), UTF_8).contains("secretDir"));
+            assertFalse(new String(new Reader(header).readBytes(), UTF_8).contains("secretDir"));
+
+            vault = new Vault(VAULT_EXIST, TEST_PASSWORD);
+            assertNotNull(vault.getRoot().getEntry("secretDir"));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
     @Test
     public void testCreateDirectory(){
         try{
@@ -184,7 +892,7 @@ public class VaultTest {
         } catch (IOException e) {
             fail();
         }
-        assertTrue(new File(vault.getDataFolder(),vault.getRoot().getEntries().get(0).getId()).exists());
+        assertTrue(new File(vault.getDataFolder(),entryAt(vault.getRoot(), 0).getId()).exists());
         assertEquals(vault.getRoot().getEntries().size(),1);
         assertEquals(vault.getDataFolder().listFiles().length, 1);
     }
@@ -193,25 +901,83 @@ public class VaultTest {
     public void testCreateDirectoryInDirectory(){
         try{
             vault.createFolder("testDir",vault.getRoot());
-            vault.createFolder("testDir2", (VaultDirectory) vault.getRoot().getEntries().get(0));
+            vault.createFolder("testDir2", (VaultDirectory) entryAt(vault.getRoot(), 0));
         } catch (IOException e) {
             fail();
         }
         assertTrue(new File(vault.getDataFolder(),
-                vault.getRoot().getEntries().get(0).getId() + "/" +
-                ((VaultDirectory) vault.getRoot().getEntries().get(0)).getEntries().get(0).getId()).exists());
-        assertEquals(((VaultDirectory) vault.getRoot().getEntries().get(0)).getEntries().size(),1);
+                entryAt(vault.getRoot(), 0).getId() + "/" +
+                entryAt((VaultDirectory) entryAt(vault.getRoot(), 0), 0).getId()).exists());
+        assertEquals(((VaultDirectory) entryAt(vault.getRoot(), 0)).getEntries().size(),1);
         assertEquals(vault.getDataFolder().listFiles()[0].listFiles().length, 1);
     }
 
+    @Test
+    public void testGetEntryById() {
+        try {
+            vault.createFolder("testDir", vault.getRoot());
+            VaultDirectory dir = (VaultDirectory) entryAt(vault.getRoot(), 0);
+            vault.createFolder("testDir2", dir);
+            VaultDirectory dir2 = (VaultDirectory) entryAt(dir, 0);
+            vault.addFile(new File("testReadWrite"), dir2);
+            VaultEntry file = entryAt(dir2, 0);
+
+            assertSame(file, vault.getEntryById(file.getId()));
+            assertSame(dir2, file.getParent());
+            assertEquals("testDir/testDir2/testReadWrite", vault.getRoot().getPathOfEntry(file.getId(), true));
+            assertEquals("testDir2/testReadWrite", dir.getPathOfEntry(file.getId(), true));
+            assertEquals(file.getSize(), vault.getRoot().getSize());
+
+            vault.delete(dir, vault.getRoot());
+            assertNull(vault.getEntryById(file.getId()));
+            assertNull(vault.getRoot().getPathOfEntry(file.getId(), true));
+            assertEquals(0, vault.getRoot().getSize());
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testAddFileWithDuplicateName() {
+        try {
+            vault.addFile(new File("testReadWrite"), vault.getRoot());
+            vault.addFile(new File("testReadWrite"), vault.getRoot());
+            vault.createFolder("testDir", vault.getRoot());
+            vault.createFolder("testDir", vault.getRoot());
+
+            assertEquals(4, vault.getRoot().getEntries().size());
+            assertNotNull(vault.getRoot().getEntry("testReadWrite"));
+            assertNotNull(vault.getRoot().getEntry("testReadWrite (1)"));
+            assertNotNull(vault.getRoot().getEntry("testDir (1)"));
+            assertEquals("tiger (1).png", vault.getRoot().uniqueName("tiger (1).png"));
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testRenameOntoExistingName() {
+        try {
+            vault.createFolder("testDir", vault.getRoot());
+            vault.createFolder("testDir2", vault.getRoot());
+            VaultEntry dir = vault.getRoot().getEntry("testDir");
+            assertThrows(FileAlreadyExistsException.class, () -> vault.rename(dir, vault.getRoot(), "testDir2"));
+            vault.rename(dir, vault.getRoot(), "testDir3");
+            assertSame(dir, vault.getRoot().getEntry("testDir3"));
+            assertNull(vault.getRoot().getEntry("testDir"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
     @Test
     public void testGetPathOfEntryUsingName(){
         String testDir2Path = "";
         try{
             vault.createFolder("testDir",vault.getRoot());
             vault.createFolder("testDir2", vault.getRoot());
-            vault.addFile(new File("testReadWrite"), (VaultDirectory) vault.getRoot().getEntries().get(1));
-            testDir2Path = vault.getRoot().getPathOfEntry(vault.getRoot().getEntries().get(1).getId(), true);
+            vault.addFile(new File("testReadWrite"), (VaultDirectory) entryAt(vault.getRoot(), 1));
+            testDir2Path = vault.getRoot().getPathOfEntry(entryAt(vault.getRoot(), 1).getId(), true);
         } catch (IOException | CryptoException e) {
             fail();
         }
@@ -0,0 +1,161 @@
+package io;
+
+import main.io.Codec;
+import main.io.DecompressingChannel;
+import main.io.Lz;
+import main.io.BlockInputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(1);
+        byte[] text = "the quick brown fox jumps over the lazy dog. ".repeat(5000).getBytes(UTF_8);
+        byte[] noise = new byte[Lz.MAX_BLOCK + 1];
+        random.nextBytes(noise);
+        byte[] runs = new byte[3 * Lz.MAX_BLOCK];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = (byte) (i / 1000 % 3); // long runs make matches overlap the bytes they copy
+        }
+        byte[][] inputs = {new byte[0], {42}, text, noise, runs, Arrays.copyOf(text, Lz.MAX_BLOCK)};
+        try {
+            for (Codec codec : Codec.values()) {
+                for (byte[] input : inputs) {
+                    assertArrayEquals(input, decompress(codec, compress(codec, input)), codec + " " + input.length);
+                }
+            }
+            assertTrue(compress(Codec.FAST, text).length < text.length / 10);
+            // two blocks stored as they are, then an empty block header, their offsets and their number
+            assertEquals(noise.length + 16 + 8 + 16 + 4, compress(Codec.FAST, noise).length);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testChoose() {
+        byte[] text = "id,name,amount\n1,alice,10\n2,bob,20\n".repeat(2000).getBytes(UTF_8);
+        byte[] noise = new byte[Codec.SAMPLE_SIZE];
+        new Random(2).nextBytes(noise);
+        byte[] hex = HexFormat.of().formatHex(noise).getBytes(UTF_8);
+        assertEquals(Codec.FAST, Codec.choose(text, text.length));
+        assertEquals(Codec.DEFLATE, Codec.choose(hex, Codec.SAMPLE_SIZE));
+        assertEquals(Codec.NONE, Codec.choose(noise, noise.length));
+        assertEquals(Codec.NONE, Codec.choose(noise, 0));
+        byte[] longNoise = new byte[2 * Codec.SAMPLE_SIZE]; // whole small files are passed in, beyond the sample
+        new Random(3).nextBytes(longNoise);
+        assertEquals(Codec.NONE, Codec.choose(longNoise, longNoise.length));
+    }
+
+    @Test
+    public void testCorruptBlock() {
+        byte[] compressed = null;
+        try {
+            compressed = compress(Codec.FAST, "abcdefgh".repeat(1000).getBytes(UTF_8));
+        } catch (IOException e) {
+            fail(e);
+        }
+        compressed[3]++; // the block claims one byte more than it decompresses to
+        InputStream in = new BlockInputStream(new ByteArrayInputStream(compressed), Codec.FAST);
+        assertThrows(IOException.class, in::readAllBytes);
+        compressed[3]--;
+        InputStream truncated = new BlockInputStream(new ByteArrayInputStream(compressed, 0, 5), Codec.FAST);
+        assertThrows(IOException.class, truncated::readAllBytes);
+        InputStream noTable = new BlockInputStream(new ByteArrayInputStream(compressed, 0, compressed.length - 4),
+                Codec.FAST);
+        assertThrows(IOException.class, noTable::readAllBytes);
+    }
+
+    @Test
+    public void testDecompressingChannelSeeks() {
+        byte[] data = new byte[5 * Lz.MAX_BLOCK - 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251 < 100 ? i % 7 : i % 251);
+        }
+        try {
+            for (Codec codec : new Codec[]{Codec.FAST, Codec.DEFLATE}) {
+                try (SeekableByteChannel channel = open(compress(codec, data), data.length, codec)) {
+                    assertEquals(data.length, channel.size());
+                    assertArrayEquals(Arrays.copyOfRange(data, 3 * Lz.MAX_BLOCK - 5, 3 * Lz.MAX_BLOCK + 5),
+                            read(channel, 3 * Lz.MAX_BLOCK - 5, 10));
+                    assertArrayEquals(Arrays.copyOfRange(data, 100, 200), read(channel, 100, 100)); // moves back
+                    ByteBuffer direct = ByteBuffer.allocateDirect(50);
+                    channel.position(data.length - 20);
+                    assertEquals(20, channel.read(direct));
+                    assertEquals(-1, channel.read(direct));
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testDecompressingChannelReadsOneBlock() {
+        byte[] data = "abcdefgh".repeat(Lz.MAX_BLOCK / 2).getBytes(UTF_8); // four blocks
+        try {
+            byte[] compressed = compress(Codec.FAST, data);
+            compressed[3]++; // the header of the first block is corrupt
+            try (SeekableByteChannel channel = open(compressed, data.length, Codec.FAST)) {
+                assertArrayEquals(Arrays.copyOfRange(data, 2 * Lz.MAX_BLOCK, 2 * Lz.MAX_BLOCK + 100),
+                        read(channel, 2 * Lz.MAX_BLOCK, 100));
+                assertThrows(IOException.class, () -> read(channel, 0, 100));
+            }
+            try (SeekableByteChannel channel = open(compress(Codec.FAST, data), data.length + 1, Codec.FAST)) {
+                assertThrows(IOException.class, () -> read(channel, 0, 100)); // table has one block too few
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // EFFECTS: returns channel over the size bytes compressed with codec in compressed, read from a temporary file
+    private static SeekableByteChannel open(byte[] compressed, long size, Codec codec) throws IOException {
+        Path file = Files.createTempFile("codec", ".lz");
+        Files.write(file, compressed);
+        FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        return new DecompressingChannel(in, size, codec);
+    }
+
+    private static byte[] compress(Codec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decompress(Codec codec, byte[] data) throws IOException {
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] read(SeekableByteChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        channel.position(offset);
+        while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            // keep reading until buf is full
+        }
+        return buf.array();
+    }
+}
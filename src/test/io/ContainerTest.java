@@ -0,0 +1,198 @@
+package io;
+
+import main.io.Container;
+import main.io.ExtentAllocator;
+import main.io.ExtentAllocator.Extent;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContainerTest {
+    private static final File FOLDER = new File("test_vault/container");
+    private static final File FILE = new File(FOLDER, "test.container");
+
+    @BeforeEach
+    public void runBefore() {
+        deleteTestFolder();
+        FOLDER.mkdirs();
+    }
+
+    @AfterAll
+    public static void deleteTestFolder() {
+        try {
+            FileUtils.deleteDirectory(FOLDER);
+        } catch (IOException e) {
+
+        }
+    }
+
+    @Test
+    public void testAllocator() {
+        int a = ExtentAllocator.ALIGNMENT;
+        ExtentAllocator allocator = new ExtentAllocator(2 * a, List.of(new Extent(4 * a, a)));
+        assertEquals(5 * a, allocator.getEnd());
+        assertEquals(2 * a, allocator.getFree());
+
+        Extent small = allocator.allocate(1);
+        assertEquals(2 * a, small.getOffset());
+        assertEquals(a, small.getLength());
+        Extent large = allocator.allocate(3 * a); // does not fit in the free extent left, so comes from the end
+        assertEquals(5 * a, large.getOffset());
+        assertEquals(8 * a, allocator.getEnd());
+
+        allocator.free(small.getOffset(), small.getLength());
+        assertEquals(2 * a, allocator.allocate(2 * a).getOffset()); // merged with the free extent after it
+        allocator.free(large.getOffset(), large.getLength());
+        assertEquals(5 * a, allocator.getEnd()); // free space at the end is given back
+        assertEquals(0, allocator.getFree());
+    }
+
+    @Test
+    public void testReopen() {
+        byte[] data = random(300000, 1);
+        try {
+            Container container = new Container(FILE);
+            put(container, "a/x", data, 100);
+            put(container, "a/y", Arrays.copyOf(data, 10), 10);
+            put(container, "b", new byte[0], 0);
+            container.force();
+            container.deleteAll("a/");
+            put(container, "a/y", Arrays.copyOf(data, 20), 20);
+            container.close();
+
+            Container reopened = new Container(FILE);
+            assertEquals(2, reopened.getBlobCount());
+            assertFalse(reopened.exists("a/x"));
+            assertArrayEquals(Arrays.copyOf(data, 20), read(reopened, "a/y"));
+            assertArrayEquals(new byte[0], read(reopened, "b"));
+            assertThrows(NoSuchFileException.class, () -> reopened.open("a/x"));
+            reopened.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testChangesAreLostUntilForced() {
+        File copy = new File(FOLDER, "copy.container");
+        try {
+            Container container = new Container(FILE);
+            put(container, "kept", random(1000, 2), 1000);
+            container.force();
+            put(container, "lost", random(1000, 3), 1000);
+            container.delete("kept");
+            Files.copy(FILE.toPath(), copy.toPath()); // as left by a crash
+            container.close();
+
+            Container crashed = new Container(copy);
+            assertTrue(crashed.exists("kept"));
+            assertFalse(crashed.exists("lost"));
+            crashed.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testTableIsWrittenAnewWhenLogIsFull() {
+        try {
+            Container container = new Container(FILE);
+            for (int i = 0; i < 40; i++) { // names this long fill the log within a few dozen records
+                put(container, String.valueOf(i % 10).repeat(10000) + i, random(100, i), 100);
+                container.delete(String.valueOf((i - 5) % 10).repeat(10000) + (i - 5));
+                container.force();
+            }
+            container.close();
+            long[] generations = new long[2];
+            try (RandomAccessFile file = new RandomAccessFile(FILE, "rw")) {
+                for (int page = 0; page < 2; page++) {
+                    file.seek(page * ExtentAllocator.ALIGNMENT + 5);
+                    generations[page] = file.readLong();
+                }
+                assertTrue(Math.max(generations[0], generations[1]) > 2);
+                // the header page not in use is damaged, as by a crash while it was written
+                file.seek((generations[0] < generations[1] ? 0 : 1) * ExtentAllocator.ALIGNMENT + 5);
+                file.writeLong(Long.MAX_VALUE);
+            }
+            container = new Container(FILE);
+            assertEquals(5, container.getBlobCount());
+            assertArrayEquals(random(100, 39), read(container, "9".repeat(10000) + 39));
+            container.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testSpaceIsReused() {
+        byte[] first = random(1 << 20, 4);
+        byte[] second = random(1 << 20, 5);
+        try {
+            Container container = new Container(FILE);
+            put(container, "first", first, first.length);
+            long end = container.getEnd();
+            container.force();
+            try (SeekableByteChannel in = container.open("first")) {
+                container.delete("first");
+                container.force();
+                put(container, "second", second, second.length); // may not take the extent still being read
+                container.force();
+                ByteBuffer buf = ByteBuffer.allocate(first.length);
+                while (buf.hasRemaining() && in.read(buf) >= 0) {
+                    // fill the buffer
+                }
+                assertArrayEquals(first, buf.array());
+            }
+            container.delete("second");
+            container.force();
+            assertTrue(container.getEnd() < end); // the extent of first was freed once it was no longer read
+            put(container, "third", first, 100); // grows from a wrong guess of its size
+            container.force();
+            assertArrayEquals(first, read(container, "third"));
+            container.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // EFFECTS: puts the blob called name holding data, guessing it holds expectedSize bytes
+    private static void put(Container container, String name, byte[] data, long expectedSize) throws IOException {
+        try (Container.Output out = container.newOutput(expectedSize)) {
+            for (int i = 0; i < data.length; i += 7000) {
+                out.write(ByteBuffer.wrap(data, i, Math.min(7000, data.length - i)));
+            }
+            container.put(name, out);
+        }
+    }
+
+    // EFFECTS: reads the whole blob called name
+    private static byte[] read(Container container, String name) throws IOException {
+        try (SeekableByteChannel in = container.open(name)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) in.size());
+            while (buf.hasRemaining() && in.read(buf) >= 0) {
+                // fill the buffer
+            }
+            return buf.array();
+        }
+    }
+
+    private static byte[] random(int length, int seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
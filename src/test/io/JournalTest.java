@@ -0,0 +1,122 @@
+package io;
+
+import com.google.gson.JsonObject;
+import main.exceptions.CryptoException;
+import main.io.Journal;
+import main.io.Writer;
+import main.util.CryptoUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTest {
+    private static final File FOLDER = new File("test_vault/journal");
+    private static final File SNAPSHOT = new File(FOLDER, "journal.vault");
+    private static final File JOURNAL = new File(FOLDER, "journal.journal");
+    private CryptoUtils cryptoUtils;
+    private Journal journal;
+
+    @BeforeEach
+    public void runBefore() {
+        deleteTestFolder();
+        try {
+            FOLDER.mkdirs();
+            cryptoUtils = new CryptoUtils("pwd1234".toCharArray());
+            journal = new Journal(SNAPSHOT, JOURNAL);
+            journal.setCryptoUtils(cryptoUtils);
+            journal.writeSnapshot(new JsonObject(), 0);
+        } catch (IOException | CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @AfterAll
+    public static void deleteTestFolder() {
+        try {
+            FileUtils.deleteDirectory(FOLDER);
+        } catch (IOException e) {
+
+        }
+    }
+
+    @Test
+    public void testSyncCoversEarlierRecords() {
+        try {
+            journal.append(record(1));
+            journal.append(record(2));
+            long last = journal.append(record(3));
+            journal.sync(last);
+            assertEquals(1, journal.getSyncCount());
+            journal.sync(last - 1); // already on disk
+            assertEquals(1, journal.getSyncCount());
+            journal.sync(journal.append(record(4)));
+            assertEquals(2, journal.getSyncCount());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersShareSyncs() {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int n = i;
+                done.add(pool.submit(() -> {
+                    journal.sync(journal.append(record(n)));
+                    return null;
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get();
+            }
+            assertTrue(journal.getSyncCount() <= 200);
+            journal.close();
+
+            Journal reopened = new Journal(SNAPSHOT, JOURNAL);
+            reopened.setCryptoUtils(cryptoUtils);
+            reopened.readSnapshot();
+            assertEquals(200, reopened.readRecords().size());
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteAtomicLeavesNoTemporaryFile() {
+        try {
+            File file = new File(FOLDER, "atomic");
+            new Writer(file).writeStringAtomic("old");
+            new Writer(file).writeAtomic(out -> {
+                out.write("new".getBytes());
+                out.close(); // closing the stream early still lets the file be forced
+            });
+            assertEquals("new", FileUtils.readFileToString(file, "UTF-8"));
+            assertFalse(new File(FOLDER, "atomic.tmp").exists());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private static JsonObject record(int n) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "test");
+        record.addProperty("n", n);
+        return record;
+    }
+}
@@ -0,0 +1,82 @@
+package util;
+
+import main.util.ByteLruCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteLruCacheTest {
+    private ByteLruCache<String, byte[]> cache;
+    private List<byte[]> evicted;
+
+    @BeforeEach
+    public void runBefore() {
+        cache = new ByteLruCache<>(100, value -> value.length);
+        evicted = new ArrayList<>();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertTrue(cache.put("a", new byte[40], evicted::add));
+        assertTrue(cache.put("b", new byte[30], evicted::add));
+        assertEquals(40, cache.get("a").length);
+        assertEquals(0, evicted.size());
+        assertNull(cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(70, cache.bytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        cache.put("a", new byte[40], evicted::add);
+        byte[] b = new byte[40];
+        cache.put("b", b, evicted::add);
+        cache.get("a");
+        cache.put("c", new byte[40], evicted::add);
+        assertEquals(List.of(b), evicted);
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(80, cache.bytes());
+    }
+
+    @Test
+    public void testReplaceValue() {
+        byte[] a = new byte[40];
+        cache.put("a", a, evicted::add);
+        cache.put("a", new byte[10], evicted::add);
+        assertEquals(List.of(a), evicted);
+        byte[] same = cache.get("a");
+        cache.put("a", same, evicted::add);
+        assertEquals(List.of(a), evicted);
+        assertEquals(1, cache.size());
+        assertEquals(10, cache.bytes());
+    }
+
+    @Test
+    public void testTooHeavy() {
+        cache.put("a", new byte[40], evicted::add);
+        assertFalse(cache.put("b", new byte[101], evicted::add));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertEquals(0, evicted.size());
+        assertEquals(40, cache.bytes());
+    }
+
+    @Test
+    public void testRemoveIfAndClear() {
+        cache.put("a1", new byte[10], evicted::add);
+        cache.put("a2", new byte[20], evicted::add);
+        cache.put("b", new byte[30], evicted::add);
+        List<byte[]> removed = cache.removeIf(key -> key.startsWith("a"));
+        assertEquals(2, removed.size());
+        assertEquals(30, cache.bytes());
+        assertEquals(1, cache.clear().size());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+}
@@ -2,11 +2,29 @@ package util;
 
 import main.exceptions.CryptoException;
 import org.junit.jupiter.api.BeforeEach;
+import main.io.FileCipher;
+import main.io.Reader;
+import main.io.Writer;
 import main.util.CryptoUtils;
+import main.util.SegmentCipher;
 import org.junit.jupiter.api.Test;
 import javax.crypto.SecretKey;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -79,9 +97,9 @@ public class CryptoUtilsTest {
     public void testEncryptDecryptCorrectPassword(){
         byte[] decrypted = new byte[0];
         try {
-            cryptoUtils = new CryptoUtils(PASSWORD);
             byte[] encrypted = encryptTestData();
-            decrypted = cryptoUtils.decrypt(encrypted, PASSWORD);
+            cryptoUtils = new CryptoUtils(PASSWORD, cryptoUtils.toJson());
+            decrypted = cryptoUtils.decrypt(encrypted);
         } catch (CryptoException e) {
             fail(e);
         }
@@ -93,7 +111,7 @@ public class CryptoUtilsTest {
         byte[] decrypted = new byte[0];
         byte[] encrypted = encryptTestData();
         try {
-            decrypted = cryptoUtils.decrypt(encrypted, INCORRECT_PASSWORD);
+            decrypted = new CryptoUtils(INCORRECT_PASSWORD, cryptoUtils.toJson()).decrypt(encrypted);
             fail("Decrypted with incorrect password");
         } catch (CryptoException e) {
             // caught succesfully
@@ -101,6 +119,167 @@ public class CryptoUtilsTest {
         assertNotEquals(SECRET_DATA, decrypted);
     }
 
+    @Test
+    public void testChangePasswordKeepsMasterKey() {
+        byte[] decrypted = new byte[0];
+        try {
+            byte[] encrypted = encryptTestData();
+            cryptoUtils.changePassword(INCORRECT_PASSWORD);
+            decrypted = new CryptoUtils(INCORRECT_PASSWORD, cryptoUtils.toJson()).decrypt(encrypted);
+        } catch (CryptoException e) {
+            fail(e);
+        }
+        assertEquals(SECRET_DATA, new String(decrypted, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDeriveKeyFromSameSalt() {
+        try {
+            byte[] salt = CryptoUtils.generateSecureBytes(SALT_LEN);
+            assertEquals(new String(cryptoUtils.deriveKey(salt, "file").getEncoded()),
+                    new String(cryptoUtils.deriveKey(salt, "file").getEncoded()));
+            assertNotEquals(new String(cryptoUtils.deriveKey(salt, "file").getEncoded()),
+                    new String(cryptoUtils.deriveKey(salt, "other").getEncoded()));
+        } catch (CryptoException | NoSuchAlgorithmException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testEncryptDecryptMultipleSegments() {
+        for (int length : new int[]{0, SegmentCipher.SEGMENT_SIZE, 3 * SegmentCipher.SEGMENT_SIZE + 123}) {
+            byte[] data = new byte[length];
+            new Random(length).nextBytes(data);
+            try {
+                byte[] encrypted = cryptoUtils.encrypt(data);
+                assertEquals(SegmentCipher.ciphertextSize(length), encrypted.length);
+                assertEquals(length, SegmentCipher.plaintextSize(encrypted.length));
+                assertArrayEquals(data, cryptoUtils.decrypt(encrypted));
+            } catch (CryptoException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Test
+    public void testDecryptTruncated() {
+        try {
+            byte[] encrypted = cryptoUtils.encrypt(SECRET_DATA.getBytes(StandardCharsets.UTF_8));
+            for (int length : new int[]{SegmentCipher.HEADER_LENGTH, SegmentCipher.HEADER_LENGTH + 5,
+                    encrypted.length - 1}) {
+                byte[] truncated = Arrays.copyOf(encrypted, length);
+                assertThrows(CryptoException.class, () -> cryptoUtils.decrypt(truncated));
+            }
+        } catch (CryptoException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testEncryptDecryptChannels() {
+        for (long length : new long[]{0, SegmentCipher.SEGMENT_SIZE, 3 * SegmentCipher.SEGMENT_SIZE + 123,
+                FileCipher.MAP_THRESHOLD + 123}) {
+            byte[] data = new byte[(int) length];
+            new Random(length).nextBytes(data);
+            File plain = null;
+            File encrypted = null;
+            File decrypted = null;
+            try {
+                plain = Files.createTempFile("plain", null).toFile();
+                encrypted = Files.createTempFile("encrypted", null).toFile();
+                decrypted = Files.createTempFile("decrypted", null).toFile();
+                new Writer(plain).writeBytes(data);
+                try (FileChannel in = new Reader(plain).openChannel();
+                     FileChannel out = new Writer(encrypted).openChannel()) {
+                    cryptoUtils.encrypt(in, out);
+                }
+                byte[] ciphertext = new Reader(encrypted).readBytes();
+                assertEquals(SegmentCipher.ciphertextSize(length), ciphertext.length);
+                assertArrayEquals(data, cryptoUtils.decrypt(ciphertext)); // readable by the stream cipher too
+
+                try (FileChannel in = new Reader(encrypted).openChannel();
+                     FileChannel out = new Writer(decrypted).openChannel()) {
+                    cryptoUtils.decrypt(in, out);
+                }
+                assertArrayEquals(data, new Reader(decrypted).readBytes());
+            } catch (IOException | CryptoException e) {
+                fail(e);
+            } finally {
+                for (File f : new File[]{plain, encrypted, decrypted}) {
+                    if (f != null) f.delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecryptTruncatedAtSegmentBoundary() {
+        byte[] data = new byte[2 * SegmentCipher.SEGMENT_SIZE + 1];
+        try {
+            byte[] encrypted = cryptoUtils.encrypt(data);
+            byte[] truncated = Arrays.copyOf(encrypted,
+                    SegmentCipher.HEADER_LENGTH + 2 * SegmentCipher.CIPHER_SEGMENT_SIZE);
+            cryptoUtils.decrypt(truncated);
+            fail("Decrypted truncated file");
+        } catch (CryptoException e) {
+            // caught successfully
+        }
+    }
+
+    @Test
+    public void testDecryptSwappedSegments() {
+        byte[] data = new byte[2 * SegmentCipher.SEGMENT_SIZE + 1];
+        new Random(1).nextBytes(data);
+        try {
+            byte[] encrypted = cryptoUtils.encrypt(data);
+            int first = SegmentCipher.HEADER_LENGTH;
+            int second = first + SegmentCipher.CIPHER_SEGMENT_SIZE;
+            byte[] swapped = encrypted.clone();
+            System.arraycopy(encrypted, first, swapped, second, SegmentCipher.CIPHER_SEGMENT_SIZE);
+            System.arraycopy(encrypted, second, swapped, first, SegmentCipher.CIPHER_SEGMENT_SIZE);
+            cryptoUtils.decrypt(swapped);
+            fail("Decrypted file with swapped segments");
+        } catch (CryptoException e) {
+            // caught successfully
+        }
+    }
+
+    @Test
+    public void testGenerateSecureBytesNeverRepeats() {
+        Set<String> nonces = new HashSet<>();
+        try {
+            for (int i = 0; i < 10000; i++) {
+                assertTrue(nonces.add(CryptoUtils.encode(CryptoUtils.generateSecureBytes(SegmentCipher.NONCE_PREFIX_LENGTH))));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testEncryptDecryptConcurrently() {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                byte[] data = new byte[SegmentCipher.SEGMENT_SIZE + i * 1000];
+                new Random(i).nextBytes(data);
+                results.add(pool.submit(() -> Arrays.equals(data, cryptoUtils.decrypt(cryptoUtils.encrypt(data)))));
+            }
+            results.add(pool.submit(() -> {
+                cryptoUtils.changePassword(INCORRECT_PASSWORD);
+                return true;
+            }));
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     public byte[] encryptTestData(){
         try{
             return cryptoUtils.encrypt(SECRET_DATA.getBytes());
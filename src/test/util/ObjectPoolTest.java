@@ -0,0 +1,61 @@
+package util;
+
+import main.util.ObjectPool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectPoolTest {
+    private AtomicInteger made;
+    private ObjectPool<byte[]> pool;
+
+    @BeforeEach
+    public void runBefore() {
+        made = new AtomicInteger();
+        pool = new ObjectPool<>(() -> {
+            made.incrementAndGet();
+            return new byte[16];
+        });
+    }
+
+    @Test
+    public void testTakeGivenBack() {
+        byte[] first = pool.take();
+        assertEquals(0, pool.idleCount());
+        pool.give(first);
+        assertEquals(1, pool.idleCount());
+        assertSame(first, pool.take());
+        assertFalse(first == pool.take());
+        assertEquals(2, made.get());
+    }
+
+    @Test
+    public void testReusedAcrossThreads() {
+        try {
+            for (int i = 0; i < 20; i++) {
+                Thread thread = new Thread(() -> pool.give(pool.take()));
+                thread.start();
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        assertEquals(1, made.get());
+    }
+
+    @Test
+    public void testKeepsFewIdle() {
+        List<byte[]> taken = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            taken.add(pool.take());
+        }
+        taken.forEach(pool::give);
+        assertTrue(pool.idleCount() < 1000);
+        assertEquals(pool.idleCount(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,85 @@
+package util;
+
+import main.util.Thumbnails;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThumbnailsTest {
+
+    @Test
+    public void testIsImage() {
+        assertTrue(Thumbnails.isImage("tiger.png"));
+        assertTrue(Thumbnails.isImage("IMG_0001.JPG"));
+        assertTrue(Thumbnails.isImage("a.b.jpeg"));
+        assertFalse(Thumbnails.isImage("notes.txt"));
+        assertFalse(Thumbnails.isImage("png"));
+        assertFalse(Thumbnails.isImage("photo.png.zip"));
+    }
+
+    @Test
+    public void testScale() {
+        BufferedImage wide = new BufferedImage(400, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage thumbnail = Thumbnails.scale(wide, Thumbnails.SIZE);
+        assertEquals(Thumbnails.SIZE, thumbnail.getWidth());
+        assertEquals(Thumbnails.SIZE / 4, thumbnail.getHeight());
+        BufferedImage small = new BufferedImage(10, 20, BufferedImage.TYPE_INT_RGB);
+        assertSame(small, Thumbnails.scale(small, Thumbnails.SIZE));
+    }
+
+    @Test
+    public void testReadThumbnail() {
+        BufferedImage image = new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xFF0000);
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", png);
+            BufferedImage thumbnail = Thumbnails.readThumbnail(new ByteArrayInputStream(png.toByteArray()),
+                    Thumbnails.SIZE);
+            assertEquals(Thumbnails.SIZE, thumbnail.getWidth());
+            assertEquals(Thumbnails.SIZE / 2, thumbnail.getHeight());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testEncode() {
+        BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(5, 5, 0xFF00FF00);
+        try {
+            BufferedImage decoded = Thumbnails.read(new ByteArrayInputStream(Thumbnails.encode(image)));
+            assertEquals(20, decoded.getWidth());
+            assertEquals(0xFF00FF00, decoded.getRGB(5, 5));
+            assertEquals(0, decoded.getRGB(0, 0));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testReadNoImage() {
+        assertThrows(IOException.class,
+                () -> Thumbnails.readThumbnail(new ByteArrayInputStream(new byte[]{1, 2, 3}), Thumbnails.SIZE));
+        assertThrows(IOException.class, () -> Thumbnails.read(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void testWeightAndWipe() {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(3, 4, 0xFF123456);
+        assertEquals(400, Thumbnails.weight(image));
+        Thumbnails.wipe(image);
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                assertEquals(0, image.getRGB(x, y));
+            }
+        }
+    }
+}